@@ -42,6 +42,32 @@ public class PgCatalog {
 	public static int cardinality(String tableName) throws Exception {
 		return queryForInt("SELECT COUNT(*) FROM " + tableName + ";");
 	}
+	/**
+	 * Retrieves cardinality estimate for given table from the
+	 * statistics in pg_class (counts tuples if the table was
+	 * never analyzed).
+	 * 
+	 * @param tableName		name of table whose cardinality is estimated
+	 * @return				estimated cardinality
+	 * @throws Exception
+	 */
+	public static int estimatedCardinality(String tableName) throws Exception {
+		int estimate = queryForInt("SELECT reltuples::int FROM pg_class " +
+				"WHERE oid = '" + tableName + "'::regclass;");
+		return estimate > 0 ? estimate : cardinality(tableName);
+	}
+	/**
+	 * Retrieves number of batches recorded (as table comment)
+	 * for given clustered table when it was created.
+	 * 
+	 * @param tableName		name of clustered table
+	 * @return				number of batches (-1 if not recorded)
+	 * @throws Exception
+	 */
+	public static int nrBatches(String tableName) throws Exception {
+		return queryForInt("SELECT COALESCE(obj_description('" + 
+				tableName + "'::regclass, 'pg_class')::int, -1);");
+	}
 	/**
 	 * Retrieves minimal disk page ID among all table pages.
 	 * 
@@ -62,6 +88,32 @@ public class PgCatalog {
 	public static int maxPage(String tableName) throws Exception {
 		return queryForInt("SELECT MAX((ctid::text::point)[0]::int) FROM " + tableName + ";");
 	}
+	/**
+	 * Retrieves number of disk pages of given table from the
+	 * catalog, without scanning the table (relpages is only
+	 * updated by VACUUM and ANALYZE, the size of the relation
+	 * on disk covers pages added since then).
+	 * 
+	 * @param tableName	consider pages of this table
+	 * @return			number of disk pages
+	 * @throws Exception
+	 */
+	public static int nrPages(String tableName) throws Exception {
+		return queryForInt("SELECT GREATEST(relpages, " +
+				"pg_relation_size(oid) / current_setting('block_size')::int) " +
+				"FROM pg_class WHERE oid = '" + tableName + "'::regclass;");
+	}
+	/**
+	 * Retrieves number of partitions of given table.
+	 * 
+	 * @param tableName	name of (possibly) partitioned table
+	 * @return			number of partitions (zero if not partitioned)
+	 * @throws Exception
+	 */
+	public static int nrPartitions(String tableName) throws Exception {
+		return queryForInt("SELECT COUNT(*) FROM pg_inherits " +
+				"WHERE inhparent = '" + tableName + "'::regclass;");
+	}
 	/**
 	 * Returns information on columns of a given table.
 	 * 
@@ -100,6 +152,28 @@ public class PgCatalog {
 		}
 		return tableNames;
 	}
+	/**
+	 * Returns names of primary key columns of given table
+	 * (the table name is resolved like in queries).
+	 * 
+	 * @param tableName	name of table
+	 * @return			list of key columns (empty if no primary key)
+	 * @throws Exception
+	 */
+	public static List<String> primaryKey(String tableName) throws Exception {
+		List<String> columns = new ArrayList<String>();
+		ResultSet result = PgConnector.query(
+				"SELECT a.attname FROM pg_index AS i " +
+				"JOIN pg_attribute AS a ON a.attrelid = i.indrelid " +
+				"AND a.attnum = ANY(i.indkey) " +
+				"WHERE i.indrelid = '" + tableName + "'::regclass " +
+				"AND i.indisprimary " +
+				"ORDER BY array_position(i.indkey::smallint[], a.attnum);");
+		while (result.next()) {
+			columns.add(result.getString(1));
+		}
+		return columns;
+	}
 	/**
 	 * Returns names of all columns on which constraints are placed,
 	 * except for columns in Skinner-internal tables.
@@ -0,0 +1,16 @@
+package config;
+
+/**
+ * Determines how tuples are assigned to batches
+ * when clustering and filtering tables.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public enum BatchAssignment {
+	ID_MODULO,	// scramble integer id column via (id * 19 + 23) % nrBatches
+	CTID_PAGE,	// split disk pages of the table into consecutive ranges
+	KEY_HASH,	// hash primary key (or entire row if no key is declared)
+	ROW_NUMBER,	// number rows and split them into equally sized ranges
+	RANDOM		// assign each tuple to a batch picked uniformly at random
+}
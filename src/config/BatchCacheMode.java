@@ -0,0 +1,13 @@
+package config;
+
+/**
+ * Determines where materialized tuple batches
+ * are kept between episodes.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public enum BatchCacheMode {
+	TABLE,	// insert current batches into dedicated batch tables
+	JVM		// stream tuples once via COPY, pass batches as arrays
+}
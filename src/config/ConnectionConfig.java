@@ -0,0 +1,17 @@
+package config;
+
+/**
+ * Configures how SkinnerDB manages connections
+ * and sessions to the underlying database.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class ConnectionConfig {
+	/**
+	 * Maximal number of database sessions that are open
+	 * at the same time (threads requesting additional
+	 * sessions wait until one is released).
+	 */
+	public static final int maxSessions = 16;
+}
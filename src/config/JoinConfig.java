@@ -3,6 +3,8 @@ package config;
 /**
  * Configuration parameters for the join
  * processing phase.
+ * Parameters that are not final may be changed at
+ * run time (e.g., to test different execution modes).
  * 
  * @author immanueltrummer
  *
@@ -18,16 +20,67 @@ public class JoinConfig {
 	/**
 	 * Choose reinforcement learning algorithm used.
 	 */
-	public static final LearningAlg learningAlg = 
+	public static LearningAlg learningAlg = 
 			LearningAlg.PRE_PG_OPT;
+	/**
+	 * Choose engine executing join orders on data batches
+	 * (falls back to Postgres if the in-memory engine
+	 * does not support the query's join predicates).
+	 */
+	public static JoinEngine joinEngine = JoinEngine.POSTGRES;
 	/**
 	 * Whether to enable nested loop join in non-batched processing mode.
 	 */
 	public static final boolean enableNestLoopNonBatched = true;
 	/**
-	 * Number of tuple batches per table.
+	 * Number of tuple batches per table (maximal number
+	 * of batches per table if batches are adaptive).
+	 */
+	public static int nrBatches = 10000;
+	/**
+	 * Whether the number of batches is chosen per table, based
+	 * on its estimated cardinality (so that small tables are not
+	 * split into mostly empty batches).
+	 */
+	public static boolean adaptiveBatches = false;
+	/**
+	 * Targeted number of tuples per batch if batches are adaptive.
 	 */
-	public static final int nrBatches = 10000;
+	public static int targetBatchSize = 100;
+	/**
+	 * Number of range partitions (on the batch ID column) into
+	 * which clustered tables are divided, each one holding a
+	 * consecutive range of batches. Batch loads then scan only
+	 * the partitions of selected batches, processed partitions
+	 * are truncated if processed batches are deleted. Zero
+	 * creates unpartitioned clustered tables.
+	 */
+	public static int nrBatchPartitions = 0;
+	/**
+	 * Number of database connections on which batch episodes
+	 * are executed concurrently, sharing one search tree and
+	 * one set of remaining batches (one means sequential
+	 * execution on the default connection).
+	 */
+	public static int nrWorkers = 1;
+	/**
+	 * Maximal number of prepared statements (e.g., for joining
+	 * batches in a specific join order) cached per session.
+	 */
+	public static final int statementCacheSize = 256;
+	/**
+	 * Tables holding tuple batches are cleared via DELETE since
+	 * TRUNCATE invalidates cached plans. We truncate only after
+	 * that many materializations to get rid of dead tuples.
+	 */
+	public static final int truncateBatchTableEvery = 100;
+	/**
+	 * Whether to load the next tuple batches for each table via
+	 * a separate session while the current batches are joined
+	 * (requires materialized batches, uses two batch tables
+	 * per table and worker).
+	 */
+	public static boolean prefetchBatches = false;
 	/**
 	 * How often do we try to find non-empty tuple batches for a
 	 * base table before searching systematically for non-empty batches?
@@ -41,27 +94,68 @@ public class JoinConfig {
 	/**
 	 * Whether to delete processed batches from the input
 	 * (if not, a deduplication step is performed between
-	 * join phase and the start of post-processing).
+	 * join phase and the start of post-processing). The
+	 * join result is deduplicated anyway if several workers
+	 * join batches or if joins are executed in memory.
 	 */
-	public static final boolean deleteProcessed = false;
+	public static boolean deleteProcessed = false;
+	/**
+	 * Whether join queries exclude batches of non-leftmost tables
+	 * that were already processed, so that each result tuple is
+	 * generated exactly once and no deduplication is required
+	 * (join results of processed batches are complete). Requires
+	 * one worker and joins in Postgres, disables resuming
+	 * interrupted episodes (slices joined by interrupted episodes
+	 * would be generated again once other batches finish).
+	 */
+	public static boolean duplicateFreeBatches = false;
+	/**
+	 * Whether join queries calculate partial aggregates per
+	 * group for queries with decomposable aggregates (merged
+	 * during post-processing). Only used if the join result
+	 * is duplicate-free and joins are executed by Postgres.
+	 */
+	public static boolean partialAggregation = false;
 	/**
 	 * Whether to materialize tuple batches after extraction
 	 * (this creates overheads but avoids reloading the same
 	 * batch multiple times if processing is unsuccessful).
 	 */
-	public static final boolean materializeBatches = true;
+	public static boolean materializeBatches = true;
+	/**
+	 * Where materialized tuple batches are kept. JVM streams the
+	 * filtered tuples of each table once via COPY and passes the
+	 * current batches of the left-most table as array parameters
+	 * of join queries, avoiding DELETE/TRUNCATE and INSERT
+	 * statements whenever new batches are selected.
+	 */
+	public static BatchCacheMode batchCacheMode = BatchCacheMode.TABLE;
 	/**
 	 * Whether query processing stops at timeout (or whether
 	 * timeout influences only the reward calculation).
 	 */
 	public static boolean hardTimeout = true;
+	/**
+	 * How timeouts of episodes executed in Postgres are enforced.
+	 * LOCAL sends the statement timeout together with the join
+	 * query (via set_config with transaction scope) instead of
+	 * setting and resetting the session timeout in separate
+	 * round trips. Both statements are sent in one message
+	 * batch and run in one implicit transaction, so the
+	 * timeout expires together with the transaction. CANCEL
+	 * avoids timeout settings altogether and supports timeouts
+	 * below the granularity of statement_timeout.
+	 */
+	public static TimeoutMode timeoutMode = TimeoutMode.SESSION;
 	/**
 	 * Transform hard into soft timeout after that many
 	 * rounds played.
 	 */
 	public static final long softenTimeoutAfter = Integer.MAX_VALUE;
 	/**
-	 * Start timeout used (in milliseconds).
+	 * Start timeout used (in milliseconds - values below ten
+	 * milliseconds are only enforced precisely if queries
+	 * are cancelled by the client).
 	 */
 	public static final int timeoutBase = 20;
 	/**
@@ -84,6 +178,16 @@ public class JoinConfig {
 	 * exploitation and can improve performance though).
 	 */
 	public static final double explorationFactor = Math.sqrt(2); 
+	/**
+	 * Function calculating rewards for episodes.
+	 */
+	public static RewardFunction rewardFunction = 
+			RewardFunction.SUCCESS;
+	/**
+	 * Weight of the bonus for finishing early (versus the
+	 * weight of processed tuples) in progress-based rewards.
+	 */
+	public static final double rewardTimeWeight = 0.25;
 	/**
 	 * If the ratio of remaining tuples for a table is
 	 * below that threshold (i.e., the table is often
@@ -101,6 +205,22 @@ public class JoinConfig {
 	 * time optimization, set to 1.0 for offline optimization.
 	 */
 	public final static double batchReloadProbability = 0.1;
+	/**
+	 * Whether episodes that time out keep the progress made
+	 * within the batches of the left-most table: those
+	 * batches are joined in slices, completed slices are
+	 * kept, and later episodes resume at the first
+	 * unprocessed slice (requires materialized batches
+	 * or in-memory joins). Not used if processed batches
+	 * are deleted (slices of interrupted episodes would be
+	 * joined again once other batches finish).
+	 */
+	public static boolean resumeEpisodes = false;
+	/**
+	 * Number of slices into which the current batches of the
+	 * left-most table are divided for resumable episodes.
+	 */
+	public static final int nrResumeSlices = 10;
 	/**
 	 * Maximal timeout (millis) at which we re-execute immediately
 	 * with a successful join order.
@@ -140,7 +260,7 @@ public class JoinConfig {
 	 * from batched to non-batched execution (with dominant
 	 * join order).
 	 */
-	public static final int initialRoundsToSwitch = 5000;
+	public static int initialRoundsToSwitch = 5000;
 	/**
 	 * Whether to switch back to batch execution mode if
 	 * non-batched execution of most promising plan does
@@ -148,6 +268,34 @@ public class JoinConfig {
 	 * spent in the last batched execution phase).
 	 */
 	public static final boolean switchBackToBatchMode = false;
+	/**
+	 * Whether to cache search trees across queries with the same
+	 * shape (tables, join predicates, and unary predicates up to
+	 * constants) and to warm-start optimization from them.
+	 */
+	public static boolean cacheJoinOrders = false;
+	/**
+	 * Minimal number of samples in a cached search tree before
+	 * its dominant join order may be executed without learning.
+	 */
+	public static int cachedOrderMinVisits = 1000;
+	/**
+	 * Minimal confidence (fraction of samples selecting the
+	 * dominant action, minimum over the dominant path) required
+	 * to execute a cached join order without learning.
+	 */
+	public static double cachedOrderConfidence = 0.9;
+	/**
+	 * Directory in which search trees are stored, keyed by the
+	 * query shape, to resume learning across runs (e.g., after
+	 * a query was killed or timed out). Null disables storage.
+	 */
+	public static String searchTreeDir = null;
+	/**
+	 * Number of rounds after which search trees are written
+	 * to disk while learning (if storage is enabled).
+	 */
+	public static int checkpointTreeEvery = 1000;
 	/**
 	 * Multiply rounds to switch by that factor after each
 	 * switch.
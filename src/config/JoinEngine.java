@@ -0,0 +1,12 @@
+package config;
+
+/**
+ * Determines how join orders are executed on data batches.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public enum JoinEngine {
+	POSTGRES,	// send one join query per episode to Postgres
+	MEMORY		// load filtered tables once and join in the JVM
+}
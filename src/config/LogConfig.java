@@ -29,4 +29,19 @@ public class LogConfig {
 	 * Print out dominant join order every i-th iteration.
 	 */
 	public static final int logDominantEvery = 1;
+	/**
+	 * Write collected metrics to this file after each
+	 * query (null disables export to a file).
+	 */
+	public static String metricsFile = null;
+	/**
+	 * Format of metrics written to file.
+	 */
+	public static MetricsFormat metricsFormat = MetricsFormat.JSON;
+	/**
+	 * Serve metrics in Prometheus text format via HTTP
+	 * on this local port (a negative value disables
+	 * the endpoint).
+	 */
+	public static int metricsPort = -1;
 }
@@ -5,6 +5,8 @@ package config;
  * executed by the Master (e.g., parameters specifying
  * the conditions under which intra-query learning is
  * activated).
+ * Parameters that are not final may be changed at
+ * run time (e.g., to test different execution modes).
  * 
  * @author immanueltrummer
  *
@@ -17,8 +19,41 @@ public class MasterConfig {
 	 * otherwise to zero.
 	 */
 	public static final int learningTimeThreshold = 0;
+	/**
+	 * Whether to execute the plan proposed by the traditional
+	 * optimizer concurrently with intra-query learning (in a
+	 * separate session), using the result of whichever finishes
+	 * first and cancelling the other one. Replaces sequential
+	 * execution based on the learning time threshold.
+	 */
+	public static boolean racePortfolio = false;
 	/**
 	 * Timeout per processing phase in milliseconds.
 	 */
 	public static final int perPhaseTimeout = 300000;
+	/**
+	 * Maximal number of queries processed concurrently by the
+	 * multi-query executor (each query uses its own session).
+	 */
+	public static final int maxConcurrentQueries = 8;
+	/**
+	 * Maximal number of queries using intra-query learning at
+	 * the same time, further queries wait before pre-processing.
+	 * Each learning query uses additional sessions, the resulting
+	 * number of sessions must not exceed ConnectionConfig.maxSessions:
+	 * PreConfig.nrPreThreads sessions during pre-processing (none
+	 * if set to one), one session per additional worker and one
+	 * per worker for prefetching during the join phase, and one
+	 * session for the traditional plan if racePortfolio is set.
+	 * The default settings use no additional sessions, so at most
+	 * maxConcurrentQueries (eight) sessions are open at a time;
+	 * four pre-processing threads would already raise this to
+	 * 8 + 4 * 4 = 24 sessions.
+	 */
+	public static final int maxConcurrentLearners = 4;
+	/**
+	 * Whether to drop intermediate tables of pre-processing and
+	 * join phase once the query result is available.
+	 */
+	public static boolean dropIntermediates = false;
 }
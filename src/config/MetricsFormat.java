@@ -0,0 +1,12 @@
+package config;
+
+/**
+ * Format in which collected metrics are exported.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public enum MetricsFormat {
+	JSON,		// one JSON object with counters, gauges, and histograms
+	PROMETHEUS	// Prometheus text exposition format
+}
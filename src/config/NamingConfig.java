@@ -32,10 +32,33 @@ public class NamingConfig {
 	 * Prefix added to table storing final result after post-processing.
 	 */
 	public final static String FINAL_TBL = SKINNER_PREFIX + "result";
+	/**
+	 * Prefix of table storing result of the traditional optimizer's
+	 * plan when it is raced against learning.
+	 */
+	public final static String NATIVE_TBL = SKINNER_PREFIX + "native";
+	/**
+	 * Prefix of tables holding tuple batches.
+	 */
+	public final static String BATCH_TBL = SKINNER_PREFIX + "batch";
+	/**
+	 * Prefix of tables holding value ranges per batch.
+	 */
+	public final static String BOUNDS_TBL = SKINNER_PREFIX + "bounds";
 	/**
 	 * Name of table column storing batch ID for each tuple.
 	 */
 	public final static String BATCH_ID_COLUMN = "SkinnerBatchID";
+	/**
+	 * Name of column numbering the rows of materialized tuple
+	 * batches (used to resume interrupted episodes).
+	 */
+	public final static String ROW_NR_COLUMN = "SkinnerRowNr";
+	/**
+	 * Prefix of join result columns storing partial aggregates
+	 * (followed by the number of the partial aggregate).
+	 */
+	public final static String PARTIAL_AGG_COLUMN = "SkinnerPartial";
 	/**
 	 * Generates name of index for given table and column.
 	 * Naming indices consistently across different stages is
@@ -50,4 +73,29 @@ public class NamingConfig {
 	public static String indexName(String table, String column) {
 		return SKINNER_INDEX + table + column;
 	}
+	/**
+	 * Generates name of the partition with given index
+	 * of a table partitioned by batch ID.
+	 * 
+	 * @param table		name of partitioned table
+	 * @param partIdx	index of partition
+	 * @return			name of partition
+	 */
+	public static String partitionTable(String table, int partIdx) {
+		return table + "_part" + partIdx;
+	}
+	/**
+	 * Generates name of an intermediate table for the given
+	 * query and alias. Including the query ID avoids name
+	 * clashes between queries processed concurrently.
+	 * 
+	 * @param prefix	prefix indicating the table type
+	 * @param queryID	ID of the query being processed
+	 * @param alias		alias to which the table refers
+	 * @return			name of intermediate table
+	 */
+	public static String aliasTable(String prefix, 
+			String queryID, String alias) {
+		return prefix + queryID + "_" + alias;
+	}
 }
@@ -2,6 +2,8 @@ package config;
 
 /**
  * Parameters that influence primarily the pre-processing phase.
+ * Parameters that are not final may be changed at
+ * run time (e.g., to test different execution modes).
  * 
  * @author immanueltrummer
  *
@@ -20,5 +22,20 @@ public class PreConfig {
 	 * Describes pre-processing mode, in particular which
 	 * tables are copied.
 	 */
-	public static final PreCopyMode preCopyMode = PreCopyMode.COPY_NONE;
+	public static PreCopyMode preCopyMode = PreCopyMode.COPY_NONE;
+	/**
+	 * Determines how tuples are assigned to batches. ID_MODULO
+	 * requires an integer id column, ROW_NUMBER yields batches
+	 * of equal size (up to one tuple) for arbitrary tables.
+	 */
+	public static BatchAssignment batchAssignment = 
+			BatchAssignment.ID_MODULO;
+	/**
+	 * Number of threads executing pre-processing steps (e.g.,
+	 * filtering tables and creating indices) concurrently, each
+	 * one in its own session. Filtered tables are created as
+	 * unlogged tables if this is above one (so that all sessions
+	 * can access them), one executes all steps sequentially.
+	 */
+	public static int nrPreThreads = 1;
 }
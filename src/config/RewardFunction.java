@@ -0,0 +1,14 @@
+package config;
+
+/**
+ * Determines how episodes executing join orders
+ * on data batches are rewarded.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public enum RewardFunction {
+	SUCCESS,	// reward one iff batch was processed before timeout
+	PROGRESS	// reward fraction of processed tuples, scaled by
+				// batch value, with a bonus for time left at the end
+}
@@ -0,0 +1,14 @@
+package config;
+
+/**
+ * Determines how timeouts for episodes executed
+ * in Postgres are enforced.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public enum TimeoutMode {
+	SESSION,	// set statement_timeout for the session before each episode
+	LOCAL,		// send transaction-local statement_timeout with join query
+	CANCEL		// cancel join query from a client-side timer thread
+}
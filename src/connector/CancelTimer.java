@@ -0,0 +1,165 @@
+package connector;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import config.JoinConfig;
+
+/**
+ * Enforces timeouts on the client side: a timer thread
+ * cancels statements that are still running when their
+ * deadline is reached. This avoids changing timeout
+ * settings in the database and allows timeouts with
+ * sub-millisecond granularity.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class CancelTimer {
+	/**
+	 * Timer threads shared by all sessions (daemon threads
+	 * that do not prevent the JVM from terminating). We use
+	 * one thread per worker since sending a cancel request
+	 * blocks until the database has received it.
+	 */
+	final static ScheduledThreadPoolExecutor timer = createTimer();
+	/**
+	 * Creates timer executing cancellations.
+	 * 
+	 * @return	executor with daemon threads
+	 */
+	static ScheduledThreadPoolExecutor createTimer() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+				Math.max(1, JoinConfig.nrWorkers), 
+				runnable -> {
+					Thread thread = new Thread(runnable, "SkinnerCancelTimer");
+					thread.setDaemon(true);
+					return thread;
+				});
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+	/**
+	 * SQL state reported for statements cancelled on request.
+	 */
+	static final String QUERY_CANCELED = "57014";
+	/**
+	 * Represents the deadline of one statement execution.
+	 * The timer thread and the executing thread serialize
+	 * state transitions via the deadline's monitor: the
+	 * statement is either disarmed before the timer starts
+	 * cancelling, or disarming waits until the cancel
+	 * request was delivered.
+	 */
+	public static class Deadline implements Runnable {
+		/**
+		 * Statement may still be cancelled.
+		 */
+		static final int ARMED = 0;
+		/**
+		 * Timer thread is sending the cancel request.
+		 */
+		static final int CANCELLING = 1;
+		/**
+		 * Cancel request was delivered (or failed).
+		 */
+		static final int FIRED = 2;
+		/**
+		 * Statement finished before its deadline.
+		 */
+		static final int DISARMED = 3;
+		/**
+		 * Statement to cancel at deadline.
+		 */
+		final Statement statement;
+		/**
+		 * Current state (guarded by this deadline).
+		 */
+		int state = ARMED;
+		/**
+		 * Scheduled cancellation.
+		 */
+		ScheduledFuture<?> future;
+		/**
+		 * Initializes deadline for given statement.
+		 * 
+		 * @param statement		cancel this statement
+		 */
+		Deadline(Statement statement) {
+			this.statement = statement;
+		}
+		/**
+		 * Cancels statement unless execution has finished.
+		 */
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (state != ARMED) {
+					return;
+				}
+				state = CANCELLING;
+			}
+			try {
+				statement.cancel();
+			} catch (Exception e) {
+				// Statement finished or connection closed
+			} finally {
+				synchronized (this) {
+					state = FIRED;
+					notifyAll();
+				}
+			}
+		}
+		/**
+		 * Prevents cancellation once the statement has finished.
+		 * Waits until an ongoing cancellation completes: the
+		 * driver returns once the database received the cancel
+		 * request, which it ignores if the session is idle by
+		 * then. Hence, no cancel request can affect the next
+		 * statement on the same connection once this returns.
+		 * 
+		 * @return	true iff the statement was cancelled
+		 * @throws InterruptedException
+		 */
+		public synchronized boolean disarm() throws InterruptedException {
+			if (state == ARMED) {
+				state = DISARMED;
+				future.cancel(false);
+				return false;
+			}
+			while (state == CANCELLING) {
+				wait();
+			}
+			return state == FIRED;
+		}
+	}
+	/**
+	 * Returns true iff the given exception reports that a
+	 * statement was cancelled on request (rather than
+	 * failing for other reasons).
+	 * 
+	 * @param e	exception raised by statement execution
+	 * @return	true iff statement was cancelled
+	 */
+	public static boolean cancelled(SQLException e) {
+		return QUERY_CANCELED.equals(e.getSQLState());
+	}
+	/**
+	 * Schedules cancellation of given statement.
+	 * 
+	 * @param statement		statement about to be executed
+	 * @param timeoutMicros	cancel after that many microseconds
+	 * @return				deadline to disarm after execution
+	 */
+	public static Deadline schedule(Statement statement, long timeoutMicros) {
+		Deadline deadline = new Deadline(statement);
+		synchronized (deadline) {
+			deadline.future = timer.schedule(
+					deadline, timeoutMicros, TimeUnit.MICROSECONDS);
+		}
+		return deadline;
+	}
+}
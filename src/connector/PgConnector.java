@@ -1,29 +1,47 @@
 package connector;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLRecoverableException;
 import java.sql.SQLTimeoutException;
-import java.sql.Statement;
+import java.util.List;
 import java.util.Properties;
 
 import org.postgresql.util.PSQLException;
 
+import config.ConnectionConfig;
 import config.JoinConfig;
-import config.LogConfig;
+import statistics.Metrics;
 
 /**
- * Handles JDBC connection to database.
+ * Handles JDBC connections to database. Statements are
+ * executed in the session bound to the calling thread
+ * (or in the default session if no session is bound),
+ * sessions are managed by a pool.
  * 
  * @author immanueltrummer
  *
  */
 public class PgConnector {
 	/**
-	 * Connection to DBMS.
+	 * Pool managing sessions to DBMS.
 	 */
-	public static Connection connection;
+	public static PgSessionPool pool;
+	/**
+	 * Default session used by threads without bound session.
+	 */
+	public static PgSession defaultSession;
+	/**
+	 * ID of the query on whose behalf the current thread acquires
+	 * sessions (inherited by threads it creates, e.g. workers).
+	 */
+	static final InheritableThreadLocal<String> owner = 
+			new InheritableThreadLocal<String>();
+	/**
+	 * Sessions bound to specific threads (e.g., workers executing
+	 * batches in parallel or threads processing different queries).
+	 */
+	static final ThreadLocal<PgSession> boundSession = 
+			new ThreadLocal<PgSession>();
 	/**
 	 * Create connection to DBMS.
 	 * 
@@ -37,16 +55,103 @@ public class PgConnector {
 		Properties props = new Properties();
 		props.setProperty("user", user);
 		props.setProperty("password", password);
-		connection = DriverManager.getConnection(url, props);
+		pool = new PgSessionPool(url, props, 
+				ConnectionConfig.maxSessions);
+		defaultSession = pool.acquire();
 		System.out.println("Established JDBC connection to " + url);
 	}
+	/**
+	 * Acquires a session from the pool for exclusive use
+	 * (waits if too many sessions are in use).
+	 * 
+	 * @return		session for exclusive use by caller
+	 * @throws Exception
+	 */
+	public static PgSession acquire() throws Exception {
+		return pool.acquire(owner.get());
+	}
+	/**
+	 * Sessions acquired from now on by the current thread, and
+	 * by threads it creates, are used on behalf of given query.
+	 * 
+	 * @param queryID	ID of query using acquired sessions
+	 */
+	public static void own(String queryID) {
+		owner.set(queryID);
+	}
+	/**
+	 * Sessions acquired from now on by the current thread are
+	 * not associated with any query.
+	 */
+	public static void disown() {
+		owner.remove();
+	}
+	/**
+	 * Returns process IDs of database backends serving sessions
+	 * currently used on behalf of the given query.
+	 * 
+	 * @param queryID	ID of query
+	 * @return			process IDs of backends used by query
+	 */
+	public static List<Integer> ownedPids(String queryID) {
+		return pool.ownedPids(queryID);
+	}
+	/**
+	 * Returns given session to the pool after restoring
+	 * default settings.
+	 * 
+	 * @param session	session no longer used by caller
+	 * @throws Exception
+	 */
+	public static void release(PgSession session) throws Exception {
+		pool.release(session);
+	}
+	/**
+	 * Binds given session to the current thread - all following
+	 * statements issued by this thread use that session.
+	 * 
+	 * @param threadSession		session to use by current thread
+	 */
+	public static void bind(PgSession threadSession) {
+		boundSession.set(threadSession);
+	}
+	/**
+	 * Removes session binding for current thread (the thread
+	 * uses the default session afterwards).
+	 */
+	public static void unbind() {
+		boundSession.remove();
+	}
+	/**
+	 * Returns the session used by the current thread.
+	 * 
+	 * @return	session bound to thread or default session
+	 */
+	public static PgSession current() {
+		PgSession threadSession = boundSession.get();
+		return threadSession!=null?threadSession:defaultSession;
+	}
+	/**
+	 * Returns the start of an SQL statement creating a table
+	 * for intermediate results. Temporary tables are only
+	 * visible within the session that created them. We
+	 * use unlogged tables instead if multiple connections
+	 * need to access intermediate results (i.e., multiple
+	 * workers or sessions prefetching batches).
+	 * 
+	 * @return	SQL command for creating intermediate tables
+	 */
+	public static String createIntermediateSQL() {
+		return JoinConfig.nrWorkers > 1 || JoinConfig.prefetchBatches ? 
+				"CREATE UNLOGGED TABLE " : "CREATE TEMP TABLE ";
+	}
 	/**
 	 * Disconnect from database.
 	 * 
 	 * @throws Exception
 	 */
 	public static void deconnect() throws Exception {
-		connection.close();
+		pool.close();
 		System.out.println("JDBC connection closed");
 	}
 	/**
@@ -57,11 +162,7 @@ public class PgConnector {
 	 * @throws Exception
 	 */
 	public static ResultSet query(String sql) throws Exception {
-		if (LogConfig.VERBOSE) {
-			System.out.println(sql);			
-		}
-		Statement statement = connection.createStatement();
-		return statement.executeQuery(sql);
+		return current().query(sql);
 	}
 	/**
 	 * Executes and update SQL statement.
@@ -71,11 +172,7 @@ public class PgConnector {
 	 * @throws Exception
 	 */
 	public static int update(String sql) throws Exception {
-		if (LogConfig.VERBOSE) {
-			System.out.println(sql);
-		}
-		Statement statement = connection.createStatement();
-		return statement.executeUpdate(sql);
+		return current().update(sql);
 	}
 	/**
 	 * Executes an update with a timeout, fails gracefully
@@ -179,7 +276,9 @@ public class PgConnector {
 	 * @throws Exception
 	 */
 	public static void setTimeout(int millis) throws Exception {
-		update("SET statement_timeout TO " + millis + ";");
+		long startNanos = System.nanoTime();
+		current().set("statement_timeout", String.valueOf(millis));
+		Metrics.record(Metrics.SET_TIMEOUT, startNanos);
 	}
 	/**
 	 * Sets timeout to a very high value.
@@ -187,13 +286,14 @@ public class PgConnector {
 	 * @throws Exception
 	 */
 	public static void setNoTimeout() throws Exception {
+		long startNanos = System.nanoTime();
 		boolean success = false;
 		// Try resetting timeout until success (it can happen
 		// that the reset command times out otherwise as we
 		// are using very small timeouts).
 		while (!success) {
 			try {
-				update("SET statement_timeout TO 1000000;");
+				current().set("statement_timeout", "1000000");
 				success = true;
 			} catch (SQLTimeoutException e) {
 	        } catch (PSQLException | SQLRecoverableException e) {
@@ -207,6 +307,7 @@ public class PgConnector {
 				System.out.println("Timeout while resetting timeout :-)");
 			}
 		}
+		Metrics.record(Metrics.SET_NO_TIMEOUT, startNanos);
 	}
 	/**
 	 * Disables join order optimization by the original optimizer.
@@ -214,7 +315,7 @@ public class PgConnector {
 	 * @throws Exception
 	 */
 	public static void disableJoinOrderOptimization() throws Exception {
-		update("SET join_collapse_limit = 1;");
+		current().set("join_collapse_limit", "1");
 	}
 	/**
 	 * Enables join order optimization by the original optimizer.
@@ -222,7 +323,7 @@ public class PgConnector {
 	 * @throws Exception
 	 */
 	public static void enableJoinOrderOptimization() throws Exception {
-		update("SET join_collapse_limit = 12;");
+		current().set("join_collapse_limit", "12");
 	}
 	/**
 	 * Configure Postgres for batchwise execution.
@@ -231,20 +332,22 @@ public class PgConnector {
 		// Original optimizer may largely overestimate
 		// number of rows in intermediate results -
 		// avoid wrong operator choices.
-		PgConnector.update("SET enable_material = false;");
-		PgConnector.update("SET enable_mergejoin = false;");
-		PgConnector.update("SET enable_hashjoin = false;");
-		PgConnector.update("SET enable_nestloop = true;");
+		PgSession session = current();
+		session.set("enable_material", "false");
+		session.set("enable_mergejoin", "false");
+		session.set("enable_hashjoin", "false");
+		session.set("enable_nestloop", "true");
 	}
 	/**
 	 * Configure Postgres for standard (i.e., non-batched) execution.
 	 * @throws Exception
 	 */
 	public static void disableBatchConfiguration() throws Exception {
-		PgConnector.update("SET enable_material = true;");
-		PgConnector.update("SET enable_mergejoin = true;");
-		PgConnector.update("SET enable_hashjoin = true;");
-		PgConnector.update("SET enable_nestloop = " +
-				(JoinConfig.enableNestLoopNonBatched?"true;":"false;"));
+		PgSession session = current();
+		session.set("enable_material", "true");
+		session.set("enable_mergejoin", "true");
+		session.set("enable_hashjoin", "true");
+		session.set("enable_nestloop", 
+				JoinConfig.enableNestLoopNonBatched?"true":"false");
 	}
 }
@@ -0,0 +1,186 @@
+package connector;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+import config.JoinConfig;
+import config.LogConfig;
+
+/**
+ * Represents one session with the database. Keeps track
+ * of configuration parameters (GUC settings) changed by
+ * the session to avoid redundant round trips and to
+ * restore defaults before the session is reused. Also
+ * caches server-side prepared statements.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class PgSession {
+	/**
+	 * Connection underlying this session.
+	 */
+	public final Connection connection;
+	/**
+	 * Process ID of the database backend serving this session.
+	 */
+	public final int pid;
+	/**
+	 * ID of the query on whose behalf this session is used
+	 * (null if the session is idle or not tied to a query).
+	 */
+	volatile String owner = null;
+	/**
+	 * Maps configuration parameters to their current value
+	 * in this session (contains only parameters that were
+	 * changed via this session object).
+	 */
+	final Map<String, String> settings = new HashMap<String, String>();
+	/**
+	 * Maps keys to prepared statements, ordered from least
+	 * to most recently used.
+	 */
+	final Map<String, PreparedStatement> statementCache = 
+			new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	/**
+	 * Initializes session for given connection.
+	 * 
+	 * @param connection	connection to database
+	 * @throws Exception
+	 */
+	public PgSession(Connection connection) throws Exception {
+		this.connection = connection;
+		ResultSet result = connection.createStatement().executeQuery(
+				"SELECT pg_backend_pid();");
+		result.next();
+		this.pid = result.getInt(1);
+	}
+	/**
+	 * Executes an SQL query and returns the result.
+	 * 
+	 * @param sql			SQL query string
+	 * @return				query result set
+	 * @throws Exception
+	 */
+	public ResultSet query(String sql) throws Exception {
+		if (LogConfig.VERBOSE) {
+			System.out.println(sql);			
+		}
+		Statement statement = connection.createStatement();
+		return statement.executeQuery(sql);
+	}
+	/**
+	 * Executes an update SQL statement.
+	 * 
+	 * @param sql	SQL query string
+	 * @return 		number of affected rows
+	 * @throws Exception
+	 */
+	public int update(String sql) throws Exception {
+		if (LogConfig.VERBOSE) {
+			System.out.println(sql);
+		}
+		Statement statement = connection.createStatement();
+		return statement.executeUpdate(sql);
+	}
+	/**
+	 * Returns cached prepared statement for given key or
+	 * null if no such statement is cached.
+	 * 
+	 * @param key	identifies prepared statement
+	 * @return		cached statement or null
+	 */
+	public PreparedStatement cached(String key) {
+		return statementCache.get(key);
+	}
+	/**
+	 * Prepares given SQL statement on the server side and
+	 * caches it under the given key. Evicts the least
+	 * recently used statement if the cache is full.
+	 * 
+	 * @param key	identifies prepared statement
+	 * @param sql	SQL statement to prepare
+	 * @return		prepared statement
+	 * @throws Exception
+	 */
+	public PreparedStatement prepare(String key, String sql) throws Exception {
+		if (LogConfig.VERBOSE) {
+			System.out.println("Preparing " + key + ": " + sql);
+		}
+		PreparedStatement statement = connection.prepareStatement(sql);
+		// Use server-side statement from first execution on
+		((PGStatement)statement).setPrepareThreshold(1);
+		statementCache.put(key, statement);
+		Iterator<PreparedStatement> lruIter = 
+				statementCache.values().iterator();
+		while (statementCache.size() > JoinConfig.statementCacheSize) {
+			PreparedStatement evicted = lruIter.next();
+			lruIter.remove();
+			evicted.close();
+		}
+		return statement;
+	}
+	/**
+	 * Closes and removes all cached prepared statements.
+	 * 
+	 * @throws Exception
+	 */
+	public void clearStatements() throws Exception {
+		for (PreparedStatement statement : statementCache.values()) {
+			statement.close();
+		}
+		statementCache.clear();
+	}
+	/**
+	 * Sets configuration parameter to given value unless
+	 * the session is known to use that value already.
+	 * 
+	 * @param parameter		name of configuration parameter
+	 * @param value			new value for parameter
+	 * @throws Exception
+	 */
+	public void set(String parameter, String value) throws Exception {
+		if (!value.equals(settings.get(parameter))) {
+			update("SET " + parameter + " TO " + value + ";");
+			settings.put(parameter, value);
+		}
+	}
+	/**
+	 * Returns current value of configuration parameter if
+	 * it was set via this session object.
+	 * 
+	 * @param parameter		name of configuration parameter
+	 * @return				current value or null if unknown
+	 */
+	public String get(String parameter) {
+		return settings.get(parameter);
+	}
+	/**
+	 * Restores default values for all configuration parameters
+	 * and removes temporary tables so that the session can be
+	 * reused by other queries.
+	 * 
+	 * @throws Exception
+	 */
+	public void reset() throws Exception {
+		clearStatements();
+		update("DISCARD ALL;");
+		settings.clear();
+	}
+	/**
+	 * Closes connection underlying this session.
+	 * 
+	 * @throws Exception
+	 */
+	public void close() throws Exception {
+		connection.close();
+	}
+}
@@ -0,0 +1,145 @@
+package connector;
+
+import java.sql.DriverManager;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Manages a pool of database sessions. Threads acquire
+ * sessions for exclusive use and release them after
+ * processing, sessions are reset before being reused.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class PgSessionPool {
+	/**
+	 * URL of the database to connect to.
+	 */
+	final String url;
+	/**
+	 * Properties (user name and password) used for connecting.
+	 */
+	final Properties props;
+	/**
+	 * Limits the number of sessions in use at the same time.
+	 */
+	final Semaphore available;
+	/**
+	 * Sessions that are open but currently not in use.
+	 */
+	final Deque<PgSession> idle = new ArrayDeque<PgSession>();
+	/**
+	 * All sessions opened via this pool.
+	 */
+	final List<PgSession> opened = new ArrayList<PgSession>();
+	/**
+	 * Initializes pool for given database.
+	 * 
+	 * @param url			URL of database
+	 * @param props			connection properties
+	 * @param maxSessions	maximal number of sessions in use
+	 */
+	public PgSessionPool(String url, Properties props, int maxSessions) {
+		this.url = url;
+		this.props = props;
+		this.available = new Semaphore(maxSessions, true);
+	}
+	/**
+	 * Returns a session for exclusive use by the caller,
+	 * waits if the maximal number of sessions is in use.
+	 * 
+	 * @return	session for exclusive use
+	 * @throws Exception
+	 */
+	public PgSession acquire() throws Exception {
+		return acquire(null);
+	}
+	/**
+	 * Returns a session for exclusive use by the caller on
+	 * behalf of the given query, waits if the maximal number
+	 * of sessions is in use.
+	 * 
+	 * @param owner	ID of query using the session (may be null)
+	 * @return		session for exclusive use
+	 * @throws Exception
+	 */
+	public PgSession acquire(String owner) throws Exception {
+		available.acquire();
+		try {
+			synchronized (this) {
+				if (!idle.isEmpty()) {
+					PgSession session = idle.pop();
+					session.owner = owner;
+					return session;
+				}
+			}
+			PgSession session = new PgSession(
+					DriverManager.getConnection(url, props));
+			session.owner = owner;
+			synchronized (this) {
+				opened.add(session);
+			}
+			return session;
+		} catch (Exception e) {
+			available.release();
+			throw e;
+		}
+	}
+	/**
+	 * Resets given session and makes it available for reuse.
+	 * 
+	 * @param session	session that is no longer used by caller
+	 * @throws Exception
+	 */
+	public void release(PgSession session) throws Exception {
+		session.owner = null;
+		try {
+			session.reset();
+			synchronized (this) {
+				idle.push(session);
+			}
+		} catch (Exception e) {
+			// Do not reuse sessions in unclear state
+			synchronized (this) {
+				opened.remove(session);
+			}
+			session.close();
+			throw e;
+		} finally {
+			available.release();
+		}
+	}
+	/**
+	 * Returns process IDs of database backends serving sessions
+	 * that are currently used on behalf of the given query.
+	 * 
+	 * @param owner	ID of query
+	 * @return		process IDs of backends used by query
+	 */
+	public synchronized List<Integer> ownedPids(String owner) {
+		List<Integer> pids = new ArrayList<Integer>();
+		for (PgSession session : opened) {
+			if (owner.equals(session.owner) && !idle.contains(session)) {
+				pids.add(session.pid);
+			}
+		}
+		return pids;
+	}
+	/**
+	 * Closes all sessions opened via this pool.
+	 * 
+	 * @throws Exception
+	 */
+	public synchronized void close() throws Exception {
+		for (PgSession session : opened) {
+			session.close();
+		}
+		opened.clear();
+		idle.clear();
+	}
+}
@@ -17,10 +17,8 @@ import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
-import statistics.GeneralStats;
-import statistics.JoinStats;
-import statistics.PostStats;
-import statistics.PreStats;
+import statistics.Metrics;
+import statistics.QueryStats;
 
 /**
  * Executes a benchmark on queries in a given directory.
@@ -121,8 +119,9 @@ public class BenchmarkSkinner {
 			String queryID = "genericx";
 			System.out.println("Benchmarking " + entry.getKey());
 			if (benchSkinner) {
+				QueryStats stats = new QueryStats();
 				try {
-					Master.execute(entry.getValue(), queryID);
+					Master.execute(entry.getValue(), queryID, stats);
 					// Output query result
 					String finalResultTable = NamingConfig.FINAL_TBL + queryID;
 					ResultSet SkinnerResult = PgConnector.query(
@@ -134,12 +133,12 @@ public class BenchmarkSkinner {
 				}
 				// Write out execution time
 				timeOut.println(entry.getKey() + "\t" +
-						PreStats.lastMillis + "\t" + 
-						JoinStats.lastMillis + "\t" + 
-						PostStats.lastMillis + "\t" + 
-						GeneralStats.lastExecutionTime + "\t" +
-						GeneralStats.lastNonBatchedTime + "\t" +
-						GeneralStats.lastUsedLearning);
+						stats.preMillis + "\t" + 
+						stats.joinMillis + "\t" + 
+						stats.postMillis + "\t" + 
+						stats.executionMillis + "\t" +
+						stats.nonBatchedMillis() + "\t" +
+						stats.usedLearning);
 			} else {
 				long startMillis = System.currentTimeMillis();
 				//PgConnector.update("SET enable_nestloop = false");
@@ -161,6 +160,8 @@ public class BenchmarkSkinner {
 		}
 		// Close database connection
 		PgConnector.deconnect();
+		// Stop metrics endpoint
+		Metrics.stopServer();
 		// Close result files
 		resultOut.close();
 		timeOut.close();
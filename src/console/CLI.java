@@ -13,6 +13,7 @@ import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
+import statistics.Metrics;
 
 /**
  * Command line interface for running SkinnerDB on
@@ -103,5 +104,7 @@ public class CLI {
                 e.printStackTrace();
             }
         }
+        // Stop metrics endpoint
+        Metrics.stopServer();
 	}
 }
@@ -1,11 +1,14 @@
 package execution;
 
+import java.util.concurrent.Semaphore;
+
 import config.JoinConfig;
 import config.LearningAlg;
 import config.LogConfig;
 import config.MasterConfig;
 import config.NamingConfig;
 import connector.PgConnector;
+import connector.PgSession;
 import joining.BatchedExecutor;
 import joining.JoinProcessor;
 import joining.JoinSummary;
@@ -15,10 +18,8 @@ import postprocessing.PostProcessor;
 import preprocessing.PreSummary;
 import preprocessing.Preprocessor;
 import query.QueryInfo;
-import statistics.GeneralStats;
-import statistics.JoinStats;
-import statistics.PostStats;
-import statistics.PreStats;
+import statistics.Metrics;
+import statistics.QueryStats;
 
 /**
  * Controls the high-level query execution workflow.
@@ -27,11 +28,16 @@ import statistics.PreStats;
  *
  */
 public class Master {
+	/**
+	 * Admission control - limits the number of queries that
+	 * use intra-query learning concurrently.
+	 */
+	static final Semaphore learners = new Semaphore(
+			MasterConfig.maxConcurrentLearners, true);
 	/**
 	 * Executes given query using intra-query learning if
 	 * configured conditions are satisfied. Stores
-	 * query result in database and execution statistics
-	 * in memory.
+	 * query result in database.
 	 * 
 	 * @param plainSelect	the query to process
 	 * @param queryID		query ID (used to name intermediate
@@ -41,75 +47,191 @@ public class Master {
 	 */
 	public static String execute(PlainSelect plainSelect, 
 			String queryID) throws Exception {
+		return execute(plainSelect, queryID, new QueryStats());
+	}
+	/**
+	 * Executes given query using intra-query learning if
+	 * configured conditions are satisfied. Stores
+	 * query result in database and execution statistics
+	 * in the given object (owned by this query).
+	 * 
+	 * @param plainSelect	the query to process
+	 * @param queryID		query ID (used to name intermediate
+	 * 						result relations in database).
+	 * @param stats			collects statistics of this execution
+	 * @return	returns name of relation containing query result
+	 * @throws Exception
+	 */
+	public static String execute(PlainSelect plainSelect, 
+			String queryID, QueryStats stats) throws Exception {
 		// Query result will be stored in this table
 		String finalTable = NamingConfig.FINAL_TBL + queryID;
-		// Try standard execution first
+		// Serve metrics if configured
+		Metrics.startServer();
 		long startMillis = System.currentTimeMillis();
-		boolean noLearning = executeNoLearning(plainSelect, finalTable);
-		GeneralStats.lastUsedLearning = !noLearning;
-		if (!noLearning) {
-			QueryInfo query = new QueryInfo(plainSelect);
-			// Pre-processing
-			long preStart = System.currentTimeMillis();
-			PreSummary preSummary = Preprocessor.process(query);
-			PreStats.lastMillis = System.currentTimeMillis() - preStart;
-			System.out.println(preSummary.toString());
-			// Join processing
-			long joinStart = System.currentTimeMillis();
-			JoinSummary joinSummary = null;
-			switch (JoinConfig.learningAlg) {
-			case BRUE:
-				joinSummary = JoinProcessorBrue.process(
-						query, preSummary, queryID);
-				break;
-			case UCT:
-				joinSummary = JoinProcessor.process(
-						query, preSummary, queryID);
-				break;
-			case PRE_PG_OPT:
-			{
-				// Log Master version number
-				if (LogConfig.VERBOSE) {
-					System.out.println("Version 1.1");
-				}
-				GeneralStats.lastNonBatchedTime = -1;
-				// Generate names for intermediate result relations
-				String joinResultTable = NamingConfig.JOIN_TBL + queryID;
-				String finalResultTable = NamingConfig.FINAL_TBL + queryID;
-				// Prepare execution
-				PgConnector.dropTable(joinResultTable);
-				PgConnector.dropTable(finalResultTable);
-				BatchedExecutor executor = new BatchedExecutor(
-						query, preSummary, joinResultTable);
-				// Configure Postgres
-				PgConnector.disableBatchConfiguration();
-				PgConnector.enableJoinOrderOptimization();
-				// Join tables resulting from pre-processing
-				String sql = JoinProcessor.traditionalQuery(query, 
-						preSummary, joinResultTable, executor);
-				PgConnector.updateOrTimeout(sql, 
-						MasterConfig.perPhaseTimeout);
-				// This setting will trigger post-processing
-				joinSummary = new JoinSummary(joinResultTable, 
-						executor.joinResultColumns, false);
+		boolean usedLearning;
+		if (MasterConfig.racePortfolio) {
+			// Race standard execution against learning
+			Portfolio portfolio = new Portfolio(
+					plainSelect, queryID, finalTable, stats);
+			usedLearning = portfolio.race();
+		} else if (executeNoLearning(plainSelect, finalTable)) {
+			// Standard execution succeeded within threshold
+			usedLearning = false;
+		} else {
+			learners.acquire();
+			try {
+				executeLearning(plainSelect, queryID, stats);
+			} finally {
+				learners.release();
 			}
-				break;
+			usedLearning = true;
+		}
+		stats.usedLearning = usedLearning;
+		if (!usedLearning) {
+			stats.preMillis = 0;
+			stats.joinMillis = 0;
+			stats.postMillis = 0;
+			stats.joinStats = null;
+		}
+		stats.executionMillis = System.currentTimeMillis() - startMillis;
+		Metrics.export();
+		return finalTable;
+	}
+	/**
+	 * Executes given query using intra-query learning, storing
+	 * the result in the final result table for the query ID.
+	 * 
+	 * @param plainSelect	the query to process
+	 * @param queryID		query ID (used to name intermediate
+	 * 						result relations in database).
+	 * @param stats			collects statistics of this execution
+	 * @throws Exception
+	 */
+	static void executeLearning(PlainSelect plainSelect, 
+			String queryID, QueryStats stats) throws Exception {
+		executeLearning(new QueryInfo(plainSelect), queryID, stats);
+	}
+	/**
+	 * Executes given query using intra-query learning, storing
+	 * the result in the final result table for the query ID.
+	 * Stops with an exception once the query is cancelled.
+	 * 
+	 * @param query		the query to process
+	 * @param queryID	query ID (used to name intermediate
+	 * 					result relations in database).
+	 * @param stats		collects statistics of this execution
+	 * @throws Exception
+	 */
+	static void executeLearning(QueryInfo query, 
+			String queryID, QueryStats stats) throws Exception {
+		// Pre-processing
+		long preStart = System.currentTimeMillis();
+		PreSummary preSummary = Preprocessor.process(query, queryID);
+		stats.preMillis = System.currentTimeMillis() - preStart;
+		Metrics.histogram(Metrics.PRE_PROCESSING, "").record(
+				stats.preMillis * 1000);
+		System.out.println(preSummary.toString());
+		checkCancelled(query);
+		// Join processing
+		long joinStart = System.currentTimeMillis();
+		JoinSummary joinSummary = null;
+		switch (JoinConfig.learningAlg) {
+		case BRUE:
+			joinSummary = JoinProcessorBrue.process(
+					query, preSummary, queryID);
+			break;
+		case UCT:
+			joinSummary = JoinProcessor.process(
+					query, preSummary, queryID);
+			break;
+		case PRE_PG_OPT:
+		{
+			// Log Master version number
+			if (LogConfig.VERBOSE) {
+				System.out.println("Version 1.1");
 			}
-			JoinStats.lastMillis = System.currentTimeMillis() - joinStart;
-			PgConnector.setNoTimeout();
-			// Post-processing
-			long postStart = System.currentTimeMillis();
-			if (!joinSummary.finishedPostProceccing) {
-				PostProcessor.process(query, joinSummary, queryID);
+			// Generate names for intermediate result relations
+			String joinResultTable = NamingConfig.JOIN_TBL + queryID;
+			String finalResultTable = NamingConfig.FINAL_TBL + queryID;
+			// Prepare execution
+			PgConnector.dropTable(joinResultTable);
+			PgConnector.dropTable(finalResultTable);
+			BatchedExecutor executor = new BatchedExecutor(
+					query, preSummary, queryID);
+			// Executor only provides SQL fragments in this mode
+			executor.close();
+			// Configure Postgres
+			PgConnector.disableBatchConfiguration();
+			PgConnector.enableJoinOrderOptimization();
+			// Join tables resulting from pre-processing
+			String sql = JoinProcessor.traditionalQuery(query, 
+					preSummary, joinResultTable, executor);
+			PgConnector.updateOrTimeout(sql, 
+					MasterConfig.perPhaseTimeout);
+			// This setting will trigger post-processing
+			joinSummary = new JoinSummary(joinResultTable, 
+					executor.joinResultColumns, false, 
+					executor.duplicateFree(), executor.aggregation,
+					executor.stats);
+		}
+			break;
+		}
+		stats.joinMillis = System.currentTimeMillis() - joinStart;
+		stats.joinStats = joinSummary.stats;
+		Metrics.histogram(Metrics.JOIN_PHASE, "").record(
+				stats.joinMillis * 1000);
+		PgConnector.setNoTimeout();
+		checkCancelled(query);
+		// Post-processing
+		long postStart = System.currentTimeMillis();
+		if (!joinSummary.finishedPostProceccing) {
+			PostProcessor.process(query, joinSummary, queryID);
+		}
+		stats.postMillis = System.currentTimeMillis() - postStart;
+		Metrics.histogram(Metrics.POST_PROCESSING, "").record(
+				stats.postMillis * 1000);
+		// Clean up intermediate results
+		if (MasterConfig.dropIntermediates) {
+			for (String tempTable : preSummary.tempTables) {
+				PgConnector.dropTable(tempTable);
 			}
-			PostStats.lastMillis = System.currentTimeMillis() - postStart;
-		} else {
-			PreStats.lastMillis = 0;
-			JoinStats.lastMillis = 0;
-			PostStats.lastMillis = 0;
+			PgConnector.dropTable(joinSummary.resultTable);
+		}
+	}
+	/**
+	 * Throws an exception if processing of the given query
+	 * was cancelled.
+	 * 
+	 * @param query		query being processed
+	 */
+	static void checkCancelled(QueryInfo query) {
+		if (query.cancelled) {
+			throw new RuntimeException("Query processing was cancelled");
+		}
+	}
+	/**
+	 * Executes given query in given database session. Queries
+	 * executed concurrently must use different sessions (and
+	 * query IDs) so that their configuration settings and
+	 * intermediate results do not interfere. The caller
+	 * can retrieve the result via the same session.
+	 * 
+	 * @param plainSelect	the query to process
+	 * @param queryID		query ID (used to name intermediate
+	 * 						result relations in database).
+	 * @param session		database session to use for processing
+	 * @return	returns name of relation containing query result
+	 * @throws Exception
+	 */
+	public static String execute(PlainSelect plainSelect, 
+			String queryID, PgSession session) throws Exception {
+		PgConnector.bind(session);
+		try {
+			return execute(plainSelect, queryID);
+		} finally {
+			PgConnector.unbind();
 		}
-		GeneralStats.lastExecutionTime = System.currentTimeMillis() - startMillis;
-		return finalTable;
 	}
 	/**
 	 * Executes query with timeout using the plan proposed by
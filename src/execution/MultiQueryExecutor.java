@@ -0,0 +1,100 @@
+package execution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import config.MasterConfig;
+import connector.PgConnector;
+import connector.PgSession;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+
+/**
+ * Processes multiple queries concurrently, each one in its
+ * own thread and database session. Each query obtains a
+ * unique query ID so that intermediate results (filtered
+ * tables, batch tables, join and final results) of
+ * different queries do not clash. The number of queries
+ * using intra-query learning at the same time is limited
+ * by the Master.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class MultiQueryExecutor {
+	/**
+	 * Reads the result of a processed query (via the session
+	 * in which the query was processed).
+	 *
+	 * @param <T>	type of value extracted from query result
+	 */
+	public interface ResultReader<T> {
+		/**
+		 * Extracts value from query result table.
+		 *
+		 * @param session		session in which query was processed
+		 * @param resultTable	name of table containing query result
+		 * @return				value extracted from query result
+		 * @throws Exception
+		 */
+		T read(PgSession session, String resultTable) throws Exception;
+	}
+	/**
+	 * Threads processing queries.
+	 */
+	final ExecutorService threads;
+	/**
+	 * Used to generate unique query IDs.
+	 */
+	final AtomicLong queryCtr = new AtomicLong();
+	/**
+	 * Initializes executor processing the configured
+	 * maximal number of queries concurrently.
+	 */
+	public MultiQueryExecutor() {
+		threads = Executors.newFixedThreadPool(
+				MasterConfig.maxConcurrentQueries);
+	}
+	/**
+	 * Schedules given query for processing. Once the query is
+	 * processed, its result is passed to the given reader and
+	 * dropped afterwards.
+	 *
+	 * @param plainSelect	query to process
+	 * @param reader		extracts value from query result
+	 * @return				future returning value extracted by reader
+	 */
+	public <T> Future<T> submit(PlainSelect plainSelect,
+			ResultReader<T> reader) {
+		String queryID = "q" + queryCtr.incrementAndGet();
+		return threads.submit(() -> {
+			PgSession session = PgConnector.acquire();
+			try {
+				String resultTable = Master.execute(
+						plainSelect, queryID, session);
+				try {
+					return reader.read(session, resultTable);
+				} finally {
+					session.update("DROP TABLE IF EXISTS " +
+							resultTable + ";");
+				}
+			} finally {
+				PgConnector.release(session);
+			}
+		});
+	}
+	/**
+	 * Finishes processing of submitted queries and
+	 * stops accepting new queries.
+	 *
+	 * @throws Exception
+	 */
+	public void shutdown() throws Exception {
+		threads.shutdown();
+		while (!threads.isTerminated()) {
+			threads.awaitTermination(1, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package execution;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import config.MasterConfig;
+import config.NamingConfig;
+import connector.PgConnector;
+import connector.PgSession;
+import expressions.ExpressionInfo;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import query.ColumnRef;
+import query.QueryInfo;
+import statistics.QueryStats;
+
+/**
+ * Races the plan proposed by the traditional optimizer against
+ * intra-query learning. The traditional plan executes in a
+ * separate session, storing its result in an unlogged table,
+ * while learning proceeds in the session of the calling thread.
+ * The strategy that finishes first provides the query result,
+ * the other one is cancelled. Learning stops at the next episode
+ * or processing phase, statements of all sessions it uses (e.g.,
+ * for workers, prefetching, and pre-processing) are cancelled.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class Portfolio {
+	/**
+	 * Query to process.
+	 */
+	final PlainSelect plainSelect;
+	/**
+	 * Query ID used to name intermediate result relations.
+	 */
+	final String queryID;
+	/**
+	 * Name of table storing the final query result.
+	 */
+	final String finalTable;
+	/**
+	 * Name of table storing the result of the traditional plan.
+	 */
+	final String nativeTable;
+	/**
+	 * Query processed via intra-query learning.
+	 */
+	final QueryInfo query;
+	/**
+	 * Collects statistics of query execution via learning.
+	 */
+	final QueryStats stats;
+	/**
+	 * Whether learning finished first (null while both
+	 * strategies are running).
+	 */
+	Boolean learningWon = null;
+	/**
+	 * Statement executing the traditional plan (null if
+	 * no such statement is currently executing).
+	 */
+	Statement nativeStatement = null;
+	/**
+	 * Process ID of the database backend used for learning.
+	 */
+	int learningPid;
+	/**
+	 * Initializes race for given query.
+	 *
+	 * @param plainSelect	query to process
+	 * @param queryID		query ID (used to name intermediate
+	 * 						result relations in database).
+	 * @param finalTable	store query result in this table
+	 * @param stats			collects statistics of learning
+	 * @throws Exception
+	 */
+	public Portfolio(PlainSelect plainSelect, String queryID,
+			String finalTable, QueryStats stats) throws Exception {
+		this.plainSelect = plainSelect;
+		this.queryID = queryID;
+		this.finalTable = finalTable;
+		this.nativeTable = NamingConfig.NATIVE_TBL + queryID;
+		this.query = new QueryInfo(plainSelect);
+		this.stats = stats;
+	}
+	/**
+	 * Executes the traditional plan and intra-query learning
+	 * concurrently and stores the result of the first strategy
+	 * that finishes in the final result table.
+	 *
+	 * @return	true iff the result was obtained via learning
+	 * @throws Exception
+	 */
+	public boolean race() throws Exception {
+		learningPid = PgConnector.current().pid;
+		PgConnector.dropTable(nativeTable);
+		// Start traditional plan in separate thread (created
+		// before sessions are tied to the query below).
+		ExecutorService thread = Executors.newSingleThreadExecutor();
+		Future<Void> nativeRun = thread.submit(() -> {
+			executeNative();
+			return null;
+		});
+		// Learn in current thread
+		Exception learningError = null;
+		PgConnector.own(queryID);
+		try {
+			executeLearning();
+		} catch (Exception e) {
+			learningError = e;
+		} finally {
+			PgConnector.disown();
+		}
+		boolean learned = learningError == null && claim(true);
+		if (learned) {
+			cancelNative();
+		}
+		// Wait until traditional plan finished or was cancelled
+		Exception nativeError = null;
+		try {
+			nativeRun.get();
+		} catch (ExecutionException e) {
+			nativeError = e.getCause() instanceof Exception ?
+					(Exception)e.getCause() : e;
+		} finally {
+			thread.shutdown();
+		}
+		if (learned) {
+			System.out.println("Learning finished first");
+			PgConnector.dropTable(nativeTable);
+			return true;
+		}
+		if (nativeWon()) {
+			System.out.println("Traditional plan finished first");
+			PgConnector.setNoTimeout();
+			awaitLearningSessions();
+			PgConnector.dropTable(finalTable);
+			StringBuilder sqlBuilder = new StringBuilder();
+			sqlBuilder.append("ALTER TABLE ");
+			sqlBuilder.append(nativeTable);
+			sqlBuilder.append(" RENAME TO ");
+			sqlBuilder.append(finalTable);
+			sqlBuilder.append(";");
+			PgConnector.update(sqlBuilder.toString());
+			return false;
+		}
+		// Both strategies failed
+		if (nativeError != null) {
+			learningError.addSuppressed(nativeError);
+		}
+		throw learningError;
+	}
+	/**
+	 * Executes query via intra-query learning once admitted
+	 * as learner (unless cancelled while waiting).
+	 *
+	 * @throws Exception
+	 */
+	void executeLearning() throws Exception {
+		while (!Master.learners.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+			Master.checkCancelled(query);
+		}
+		try {
+			Master.executeLearning(query, queryID, stats);
+		} finally {
+			Master.learners.release();
+		}
+	}
+	/**
+	 * Executes the plan proposed by the traditional optimizer
+	 * in a separate session. Cancels learning if the plan
+	 * finishes first.
+	 *
+	 * @throws Exception
+	 */
+	void executeNative() throws Exception {
+		PgSession session = PgConnector.acquire();
+		PgConnector.bind(session);
+		try {
+			PgConnector.enableJoinOrderOptimization();
+			PgConnector.disableBatchConfiguration();
+			StringBuilder sqlBuilder = new StringBuilder();
+			sqlBuilder.append("CREATE UNLOGGED TABLE ");
+			sqlBuilder.append(nativeTable);
+			sqlBuilder.append(nativeColumns());
+			sqlBuilder.append(" AS (");
+			sqlBuilder.append(plainSelect.toString());
+			sqlBuilder.append(");");
+			Statement statement = session.connection.createStatement();
+			synchronized (this) {
+				if (learningWon != null) {
+					statement.close();
+					return;
+				}
+				nativeStatement = statement;
+			}
+			try {
+				statement.executeUpdate(sqlBuilder.toString());
+			} catch (Exception e) {
+				// Failures are expected after cancellation
+				if (learningWon()) {
+					return;
+				}
+				throw e;
+			} finally {
+				synchronized (this) {
+					nativeStatement = null;
+				}
+				statement.close();
+			}
+			if (claim(false)) {
+				query.cancelled = true;
+				List<Integer> pids = PgConnector.ownedPids(queryID);
+				pids.add(learningPid);
+				cancelBackends(session, pids);
+			}
+		} finally {
+			PgConnector.unbind();
+			PgConnector.release(session);
+		}
+	}
+	/**
+	 * Generates a list of column names for the result of the
+	 * traditional plan, naming columns as post-processing does
+	 * after learning (so that both strategies produce the same
+	 * schema and queries selecting equally named columns from
+	 * different tables succeed). Expressions without alias
+	 * that are no column references are named by position.
+	 * 
+	 * @return	parenthesized column list (empty if the query
+	 * 			selects all columns via a wildcard)
+	 */
+	String nativeColumns() {
+		if (plainSelect.getSelectItems().size() != 
+				query.selectExpressions.size()) {
+			return "";
+		}
+		List<String> columns = new ArrayList<String>();
+		for (ExpressionInfo exprInfo : query.selectExpressions) {
+			if (exprInfo.alias != null) {
+				columns.add(exprInfo.alias);
+			} else if (exprInfo.originalExpression instanceof Column) {
+				ColumnRef colRef = exprInfo.columnsMentioned.iterator().next();
+				columns.add(colRef.toString("_"));
+			} else {
+				columns.add("column" + (columns.size() + 1));
+			}
+		}
+		return " (" + StringUtils.join(columns, ", ") + ")";
+	}
+	/**
+	 * Declares the given strategy as winner unless the
+	 * other strategy finished already.
+	 *
+	 * @param learning	whether learning finished
+	 * @return			true iff the given strategy wins
+	 */
+	synchronized boolean claim(boolean learning) {
+		if (learningWon == null) {
+			learningWon = learning;
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * Returns true iff learning finished first.
+	 *
+	 * @return	true iff learning won the race
+	 */
+	synchronized boolean learningWon() {
+		return learningWon != null && learningWon;
+	}
+	/**
+	 * Returns true iff the traditional plan finished first.
+	 *
+	 * @return	true iff the traditional plan won the race
+	 */
+	synchronized boolean nativeWon() {
+		return learningWon != null && !learningWon;
+	}
+	/**
+	 * Cancels the traditional plan if it is still executing.
+	 *
+	 * @throws Exception
+	 */
+	synchronized void cancelNative() throws Exception {
+		if (nativeStatement != null) {
+			nativeStatement.cancel();
+		}
+	}
+	/**
+	 * Waits until learning released all sessions it used,
+	 * cancelling their statements repeatedly (statements may
+	 * start after a cancellation, e.g. to clean up). Gives
+	 * up after the timeout per processing phase.
+	 *
+	 * @throws Exception
+	 */
+	void awaitLearningSessions() throws Exception {
+		long deadline = System.currentTimeMillis() + 
+				MasterConfig.perPhaseTimeout;
+		List<Integer> pids = PgConnector.ownedPids(queryID);
+		while (!pids.isEmpty()) {
+			if (System.currentTimeMillis() > deadline) {
+				System.out.println("Sessions " + pids + 
+						" still in use by cancelled learning");
+				return;
+			}
+			cancelBackends(PgConnector.current(), pids);
+			Thread.sleep(10);
+			pids = PgConnector.ownedPids(queryID);
+		}
+	}
+	/**
+	 * Cancels statements executed by the given backends.
+	 *
+	 * @param session	session used to send cancellations
+	 * @param pids		process IDs of backends to cancel
+	 * @throws Exception
+	 */
+	static void cancelBackends(PgSession session, 
+			List<Integer> pids) throws Exception {
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("SELECT pg_cancel_backend(pid) FROM unnest(ARRAY[");
+		sqlBuilder.append(StringUtils.join(pids, ", "));
+		sqlBuilder.append("]::int[]) AS pid;");
+		session.query(sqlBuilder.toString());
+	}
+}
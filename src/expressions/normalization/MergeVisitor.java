@@ -0,0 +1,41 @@
+package expressions.normalization;
+
+import java.util.Map;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+
+/**
+ * Transforms an expression for use in the final SQL query
+ * doing post-processing if the join result contains partial
+ * aggregates: aggregate functions are replaced by expressions
+ * merging the corresponding partial aggregates, references
+ * to other columns are treated as in the super class.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class MergeVisitor extends PostProcessingVisitor {
+	/**
+	 * Maps aggregate functions (in their SQL representation)
+	 * to expressions merging their partial aggregates.
+	 */
+	final Map<String, Expression> aggregateToMerge;
+	/**
+	 * Initializes visitor with merge expressions.
+	 * 
+	 * @param aggregateToMerge	maps aggregates to merge expressions
+	 */
+	public MergeVisitor(Map<String, Expression> aggregateToMerge) {
+		this.aggregateToMerge = aggregateToMerge;
+	}
+	@Override
+	public void visit(Function arg0) {
+		Expression merge = aggregateToMerge.get(arg0.toString());
+		if (merge != null) {
+			exprStack.push(merge);
+		} else {
+			super.visit(arg0);
+		}
+	}
+}
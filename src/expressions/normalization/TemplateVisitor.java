@@ -0,0 +1,49 @@
+package expressions.normalization;
+
+import net.sf.jsqlparser.expression.DateValue;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.HexValue;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.TimeValue;
+import net.sf.jsqlparser.expression.TimestampValue;
+
+/**
+ * Replaces constants in a given expression by parameter
+ * placeholders. Expressions that differ only in their
+ * constants are mapped to the same template.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class TemplateVisitor extends CopyVisitor {
+	@Override
+	public void visit(DoubleValue arg0) {
+		exprStack.push(new JdbcParameter());
+	}
+	@Override
+	public void visit(LongValue arg0) {
+		exprStack.push(new JdbcParameter());
+	}
+	@Override
+	public void visit(HexValue arg0) {
+		exprStack.push(new JdbcParameter());
+	}
+	@Override
+	public void visit(DateValue arg0) {
+		exprStack.push(new JdbcParameter());
+	}
+	@Override
+	public void visit(TimeValue arg0) {
+		exprStack.push(new JdbcParameter());
+	}
+	@Override
+	public void visit(TimestampValue arg0) {
+		exprStack.push(new JdbcParameter());
+	}
+	@Override
+	public void visit(StringValue arg0) {
+		exprStack.push(new JdbcParameter());
+	}
+}
@@ -0,0 +1,126 @@
+package joining;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import connector.PgSession;
+
+/**
+ * Represents one worker executing join orders on data
+ * batches. Each worker uses its own database session
+ * and stores the tuple batches it processes next in
+ * dedicated tables. If prefetching is enabled, each
+ * worker uses two tables per alias: one holds the
+ * batches processed currently while the other one
+ * is filled with the next batches via a second session.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class BatchWorker {
+	/**
+	 * Session in which the worker executes episodes.
+	 */
+	public final PgSession session;
+	/**
+	 * At i-th position: batches of table i that are marked for processing next.
+	 */
+	public final List<Set<Integer>> currentBatches = new ArrayList<Set<Integer>>();
+	/**
+	 * Number of times the worker materialized tuple batches.
+	 */
+	public int nrMaterializations = 0;
+	/**
+	 * At i-th position: names of tables holding tuple batches
+	 * for i-th alias (two tables if prefetching is enabled).
+	 */
+	public final String[][] bufferTables;
+	/**
+	 * At i-th position: index of the buffer table holding the
+	 * currently selected batches of i-th alias.
+	 */
+	public final int[] activeBuffer;
+	/**
+	 * Session used for prefetching batches (null if disabled).
+	 */
+	public PgSession prefetchSession = null;
+	/**
+	 * Executes prefetching tasks in the background.
+	 */
+	public ExecutorService prefetchThread = null;
+	/**
+	 * At i-th position: batches of table i that are being loaded
+	 * into the inactive buffer table.
+	 */
+	public final List<Set<Integer>> prefetchedBatches = new ArrayList<Set<Integer>>();
+	/**
+	 * At i-th position: pending prefetch for table i, yielding the
+	 * number of loaded rows (null if no prefetch was started).
+	 */
+	public final List<Future<Integer>> prefetches = new ArrayList<Future<Integer>>();
+	/**
+	 * At i-th position: whether currently selected batches are those
+	 * being prefetched (i.e., buffers need to be swapped).
+	 */
+	public final boolean[] swapPending;
+	/**
+	 * At i-th position: number of rows in the currently
+	 * selected batches of i-th alias (if materialized).
+	 */
+	public final int[] nrBatchRows;
+	/**
+	 * At i-th position: number of rows in the currently
+	 * selected batches of i-th alias that were already
+	 * joined with all other tables (episodes resume
+	 * from there).
+	 */
+	public final int[] resumeOffset;
+	/**
+	 * Summarizes the last episode executed by this worker.
+	 */
+	public EpisodeStats lastEpisode = null;
+	/**
+	 * Initializes worker for given session.
+	 *
+	 * @param session		session used by worker
+	 * @param bufferTables	names of tables holding batches
+	 */
+	public BatchWorker(PgSession session, String[][] bufferTables) {
+		this.session = session;
+		this.bufferTables = bufferTables;
+		int nrJoined = bufferTables.length;
+		this.activeBuffer = new int[nrJoined];
+		this.swapPending = new boolean[nrJoined];
+		this.nrBatchRows = new int[nrJoined];
+		this.resumeOffset = new int[nrJoined];
+		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
+			currentBatches.add(new HashSet<Integer>());
+			prefetchedBatches.add(new HashSet<Integer>());
+			prefetches.add(null);
+		}
+	}
+	/**
+	 * Returns name of table holding the currently
+	 * selected batches of given alias.
+	 *
+	 * @param aliasCtr	index of alias
+	 * @return			name of active batch table
+	 */
+	public String batchTable(int aliasCtr) {
+		return bufferTables[aliasCtr][activeBuffer[aliasCtr]];
+	}
+	/**
+	 * Returns name of table into which the next
+	 * batches of given alias are prefetched.
+	 *
+	 * @param aliasCtr	index of alias
+	 * @return			name of inactive batch table
+	 */
+	public String inactiveTable(int aliasCtr) {
+		return bufferTables[aliasCtr][1 - activeBuffer[aliasCtr]];
+	}
+}
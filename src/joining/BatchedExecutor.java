@@ -1,5 +1,7 @@
 package joining;
 
+import java.sql.Array;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLRecoverableException;
 import java.sql.SQLTimeoutException;
@@ -10,21 +12,35 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
 import org.postgresql.util.PSQLException;
 
 import catalog.ColumnInfo;
+import catalog.PgCatalog;
+import config.BatchCacheMode;
 import config.JoinConfig;
+import config.JoinEngine;
+import config.LearningAlg;
 import config.LogConfig;
 import config.NamingConfig;
 import config.PreConfig;
+import config.TimeoutMode;
+import connector.CancelTimer;
 import connector.PgConnector;
+import connector.PgSession;
 import expressions.ExpressionInfo;
+import joining.memory.MemoryJoin;
+import prepare.Preparator;
+import postprocessing.PartialAggregation;
 import preprocessing.PreSummary;
 import query.ColumnRef;
 import query.QueryInfo;
 import statistics.JoinStats;
+import statistics.Metrics;
 
 /**
  * Processes a join order with a given timeout on
@@ -45,6 +61,16 @@ public class BatchedExecutor {
 	 * SQL string representing select clause.
 	 */
 	public final String selectSQL;
+	/**
+	 * SQL string representing group by clause (empty unless
+	 * join queries calculate partial aggregates).
+	 */
+	public final String groupBySQL;
+	/**
+	 * Describes partial aggregates calculated by join queries
+	 * (null if join queries do not aggregate).
+	 */
+	public final PartialAggregation aggregation;
 	/**
 	 * SQL string representing join predicates.
 	 */
@@ -88,13 +114,60 @@ public class BatchedExecutor {
 	 */
 	public final List<List<Integer>> todoBatches = new ArrayList<List<Integer>>();
 	/**
-	 * At i-th position: batches of table i that are marked for processing next.
+	 * At i-th position: batches of table i that were processed
+	 * (excluded from joins if the join result is duplicate-free).
+	 */
+	final List<Set<Integer>> finalizedBatches = new ArrayList<Set<Integer>>();
+	/**
+	 * Workers executing join orders on data batches, each
+	 * one using its own database session.
+	 */
+	public final List<BatchWorker> workers = new ArrayList<BatchWorker>();
+	/**
+	 * Executes join orders in memory (null if join orders
+	 * are executed by Postgres).
+	 */
+	public final MemoryJoin memoryJoin;
+	/**
+	 * Whether join orders are executed by the in-memory engine
+	 * (decided before the engine loads any data).
+	 */
+	final boolean inMemory;
+	/**
+	 * Whether interrupted episodes are resumed.
 	 */
-	public final List<Set<Integer>> currentBatches = new ArrayList<Set<Integer>>();
+	final boolean resuming;
+	/**
+	 * Whether join result is free of duplicates.
+	 */
+	final boolean duplicateFree;
+	/**
+	 * Whether join queries calculate partial aggregates.
+	 */
+	final boolean aggregating;
+	/**
+	 * At i-th position: tuples of table i cached in the JVM
+	 * (null unless batches are cached in the JVM).
+	 */
+	final TupleBuffer[] tupleBuffers;
+	/**
+	 * Exploits LIMIT clause to shorten join processing
+	 * (null if the LIMIT clause cannot be exploited).
+	 */
+	final ResultLimit resultLimit;
+	/**
+	 * Associates threads with the worker they represent.
+	 */
+	final ThreadLocal<BatchWorker> threadWorker = new ThreadLocal<BatchWorker>();
 	/**
 	 * At i-th position: number of batches in table i.
 	 */
 	public final int[] nrBatches;
+	/**
+	 * At i-th position: number of batch ID partitions of table i
+	 * (only determined if processed batches are deleted).
+	 */
+	final int[] nrPartitions;
 	/**
 	 * At i-th position: number of rows cached for table i.
 	 */
@@ -102,7 +175,7 @@ public class BatchedExecutor {
 	/**
 	 * Flag indicating whether join processing is finished.
 	 */
-	public boolean finished = false;
+	public volatile boolean finished = false;
 	/**
 	 * Random generator for batch selection.
 	 */
@@ -111,6 +184,10 @@ public class BatchedExecutor {
 	 * Number of progress updates generated.
 	 */
 	public long nrProgressUpdates = 0;
+	/**
+	 * Statistics about join processing for this query.
+	 */
+	public final JoinStats stats = new JoinStats();
 	/**
 	 * Initializes execution of specific join orders on data batches.
 	 * Retrieves some information from database such as cardinality
@@ -118,17 +195,34 @@ public class BatchedExecutor {
 	 * 
 	 * @param query				query to optimize
 	 * @param preSummary		summary of pre-processing
-	 * @param joinResultTable	name of table storing join results	
+	 * @param queryID			query ID used for naming intermediate
+	 * 							relations (join result and batches)
 	 * @throws Exception
 	 */
 	public BatchedExecutor(QueryInfo query, PreSummary preSummary,
-			String joinResultTable) throws Exception {
+			String queryID) throws Exception {
 		this.query = query;
 		this.preSummary = preSummary;
-		this.joinResultTable = joinResultTable;
+		this.joinResultTable = NamingConfig.JOIN_TBL + queryID;
 		//this.batchRatio = batchRatio;
 		// SELECT and WHERE clauses remain constant
 		int nrJoined = query.nrJoined;
+		// Execution modes depend on configuration and join engine
+		// only (decided once since SQL fragments depend on them).
+		this.inMemory = JoinConfig.joinEngine == JoinEngine.MEMORY && 
+				!fragmentsOnly() && MemoryJoin.supports(query);
+		this.resuming = JoinConfig.resumeEpisodes && !excluding() && 
+				!JoinConfig.deleteProcessed && 
+				(materializing() || inMemory);
+		boolean deleting = JoinConfig.deleteProcessed && 
+				JoinConfig.nrWorkers == 1 && !resuming && !inMemory;
+		this.duplicateFree = deleting || excluding() || fragmentsOnly();
+		this.aggregating = JoinConfig.partialAggregation && 
+				duplicateFree && !inMemory;
+		this.aggregation = aggregating ? 
+				PartialAggregation.analyze(query) : null;
+		this.groupBySQL = aggregation != null ? 
+				aggregation.groupBySQL() : "";
 		this.selectSQL = createSelectSQL(query, preSummary);
 		this.whereSQL = createWhereSQL(query, preSummary);
 		// Extract information about joined tables
@@ -138,6 +232,7 @@ public class BatchedExecutor {
 		//cardinalities = new int[nrJoined];
 		//batchSizes = new int[nrJoined];
 		nrBatches = new int[nrJoined];
+		nrPartitions = new int[nrJoined];
 		rewardScaling = new double[nrJoined];
 		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
 			String alias = query.aliases[aliasCtr];
@@ -150,7 +245,8 @@ public class BatchedExecutor {
 				tables[aliasCtr] = query.aliasToTable.get(alias);
 			}
 			// Determine name of table holding tuple batches
-			batchTables[aliasCtr] = query.aliases[aliasCtr] + "nextbatch";
+			batchTables[aliasCtr] = NamingConfig.aliasTable(
+					NamingConfig.BATCH_TBL, queryID, query.aliases[aliasCtr]);
 			// Extract table cardinality
 			//cardinalities[aliasCtr] = PgCatalog.cardinality(tables[aliasCtr]);
 			// Calculate batch size
@@ -158,7 +254,13 @@ public class BatchedExecutor {
 			// Calculate number of batches
 			//nrBatches[aliasCtr] = (int)Math.ceil((double)cardinalities[aliasCtr]/batchSizes[aliasCtr]);
 			//batchSizes[aliasCtr] = (int)Math.ceil((double)cardinalities[aliasCtr] / JoinConfig.nrBatches);
-			nrBatches[aliasCtr] = JoinConfig.nrBatches;
+			nrBatches[aliasCtr] = preSummary.aliasToNrBatches.containsKey(alias) ?
+					preSummary.aliasToNrBatches.get(alias) : JoinConfig.nrBatches;
+			// Partitions can be truncated once processed
+			if (JoinConfig.deleteProcessed) {
+				nrPartitions[aliasCtr] = PgCatalog.nrPartitions(
+						tables[aliasCtr]);
+			}
 			// Initialize todo batches
 			if (preSummary.aliasToTodoBatches.containsKey(alias)) {
 				todoBatches.add(preSummary.aliasToTodoBatches.get(alias));
@@ -169,8 +271,7 @@ public class BatchedExecutor {
 				}
 				todoBatches.add(curTodoBatches);				
 			}
-			// Initialize loaded batches
-			currentBatches.add(new HashSet<Integer>());
+			finalizedBatches.add(new HashSet<Integer>());
 			// Initialize reward scaling
 			rewardScaling[aliasCtr] = 1;
 		}
@@ -182,19 +283,212 @@ public class BatchedExecutor {
 		//System.out.println("Batch sizes: " + Arrays.toString(batchSizes));
 		System.out.println("Nr. batches: " +
 				Arrays.toString(nrBatches));
-		// Create tables holding tuple batches
-		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
-			createBatchTable(aliasCtr);
-		}
 		// Create table holding join result
 		createResultTable();
+		// Load data for in-memory joins if activated (the PG
+		// optimizer mode uses the executor only for SQL).
+		if (inMemory) {
+			memoryJoin = new MemoryJoin(query, preSummary, 
+					tables, nrBatches, joinResultTable, duplicateFree);
+		} else {
+			if (JoinConfig.joinEngine == JoinEngine.MEMORY && 
+					!fragmentsOnly()) {
+				System.out.println("In-memory engine does not support " +
+						"join predicates - joining via Postgres");
+			}
+			memoryJoin = null;
+		}
+		// Stream tuples into JVM if batches are cached there
+		if (caching() && !fragmentsOnly()) {
+			tupleBuffers = new TupleBuffer[nrJoined];
+			for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
+				String alias = query.aliases[aliasCtr];
+				TupleBuffer buffer = new TupleBuffer(PgConnector.current(),
+						tables[aliasCtr], alias, 
+						preSummary.aliasToTypedNonIDcols.get(alias),
+						preSummary.aliasToUnaryTodo.get(alias), 
+						nrBatches[aliasCtr]);
+				tupleBuffers[aliasCtr] = buffer;
+				// Empty batches need no processing
+				todoBatches.get(aliasCtr).retainAll(
+						new HashSet<Integer>(buffer.nonEmptyBatches()));
+			}
+		} else {
+			tupleBuffers = null;
+		}
+		// Check whether join processing may stop early
+		ResultLimit limit = query.limit >= 0 && duplicateFree && 
+				!inMemory && aggregation == null ? 
+						new ResultLimit(query, queryID, joinResultTable) : null;
+		resultLimit = limit != null && limit.applies() ? limit : null;
+		// Current thread becomes first worker (unless batches
+		// are never joined by this executor).
+		if (!fragmentsOnly()) {
+			BatchWorker worker = new BatchWorker(
+					PgConnector.current(), bufferTableNames(0));
+			initWorker(worker);
+		}
+	}
+	/**
+	 * Whether the executor only provides SQL fragments for
+	 * a query optimized by Postgres (no batches are loaded
+	 * or joined, hence no workers are created).
+	 * 
+	 * @return	true iff executor only generates SQL
+	 */
+	boolean fragmentsOnly() {
+		return JoinConfig.learningAlg == LearningAlg.PRE_PG_OPT;
+	}
+	/**
+	 * Whether tuple batches are materialized in dedicated
+	 * tables (not needed if joins are executed in memory).
+	 * 
+	 * @return	true iff batches are materialized
+	 */
+	boolean materializing() {
+		return JoinConfig.materializeBatches && !inMemory;
+	}
+	/**
+	 * Whether materialized tuple batches are cached in the JVM
+	 * (instead of batch tables in Postgres).
+	 * 
+	 * @return	true iff batches are cached in the JVM
+	 */
+	boolean caching() {
+		return JoinConfig.batchCacheMode == BatchCacheMode.JVM && 
+				materializing();
+	}
+	/**
+	 * Whether tuple batches are prefetched in the background
+	 * (not needed if batches are cached in the JVM).
+	 * 
+	 * @return	true iff prefetching is enabled
+	 */
+	boolean prefetching() {
+		return JoinConfig.prefetchBatches && materializing() && !caching();
+	}
+	/**
+	 * Whether episodes keep progress made within the batches
+	 * of the left-most table (requires row numbers in batch
+	 * tables or in-memory joins). Not used if processed
+	 * batches are deleted since slices of batches that are
+	 * not deleted would be joined again by later episodes.
+	 * 
+	 * @return	true iff interrupted episodes are resumed
+	 */
+	boolean resuming() {
+		return resuming;
+	}
+	/**
+	 * Whether join queries exclude processed batches of all
+	 * tables except the left-most one so that each result tuple
+	 * is generated exactly once (only if joins are executed
+	 * by Postgres with a single worker).
+	 * 
+	 * @return	true iff processed batches are excluded from joins
+	 */
+	boolean excluding() {
+		return JoinConfig.duplicateFreeBatches && 
+				JoinConfig.nrWorkers == 1 && !inMemory;
+	}
+	/**
+	 * Whether join result contains each result tuple only
+	 * once (so that no deduplication is required). Deleting
+	 * processed batches avoids duplicates only with a single
+	 * worker (concurrent workers join batches that another
+	 * worker has not deleted yet), without resumed slices,
+	 * and if joins are executed by Postgres (the in-memory
+	 * engine keeps the tuples of deleted batches).
+	 * 
+	 * @return	true iff join result is free of duplicates
+	 */
+	public boolean duplicateFree() {
+		return duplicateFree;
+	}
+	/**
+	 * Whether batch tables store the batch ID of each tuple
+	 * (required to deduplicate the join result and to exclude
+	 * processed batches from joins).
+	 * 
+	 * @return	true iff batch tables contain batch IDs
+	 */
+	boolean keepingBatchIDs() {
+		return !duplicateFree || excluding();
+	}
+	/**
+	 * Whether join queries may calculate partial aggregates
+	 * (requires duplicate-free join results, written by
+	 * Postgres rather than by the in-memory engine, since
+	 * merging partial aggregates over duplicate rows would
+	 * over-count them).
+	 * 
+	 * @return	true iff partial aggregation is enabled
+	 */
+	boolean aggregating() {
+		return aggregating;
+	}
+	/**
+	 * Generates names of tables holding tuple batches for
+	 * the worker with given ID. Prefetching requires two
+	 * tables per alias and worker, accessed by different
+	 * sessions (therefore, we need worker-specific names).
+	 * 
+	 * @param workerID	generate table names for this worker
+	 * @return			at i-th position: tables for i-th alias
+	 */
+	String[][] bufferTableNames(int workerID) {
+		int nrJoined = query.nrJoined;
+		String[][] names = new String[nrJoined][];
+		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
+			String batchTable = batchTables[aliasCtr];
+			if (prefetching()) {
+				names[aliasCtr] = new String[] {
+						batchTable + workerID + "a", 
+						batchTable + workerID + "b"};
+			} else {
+				names[aliasCtr] = new String[] {batchTable};
+			}
+		}
+		return names;
+	}
+	/**
+	 * Prepares a new worker for executing join orders: creates
+	 * tables holding tuple batches in the worker's session, loads
+	 * initial batches, and configures the session for batchwise
+	 * execution. The worker is associated with the current thread.
+	 * 
+	 * @param worker	worker to initialize
+	 * @throws Exception
+	 */
+	void initWorker(BatchWorker worker) throws Exception {
+		attach(worker);
+		// Cached statements may refer to other queries
+		worker.session.clearStatements();
+		synchronized (this) {
+			workers.add(worker);
+		}
+		int nrJoined = query.nrJoined;
+		// Create tables holding tuple batches
+		for (int aliasCtr=0; memoryJoin==null && !caching() && 
+				aliasCtr<nrJoined; ++aliasCtr) {
+			for (String bufferTable : worker.bufferTables[aliasCtr]) {
+				createBatchTable(aliasCtr, bufferTable);				
+			}
+		}
+		// Prepare prefetching of tuple batches
+		if (prefetching()) {
+			worker.prefetchSession = PgConnector.acquire();
+			worker.prefetchThread = Executors.newSingleThreadExecutor();
+		}
 		// Load initial tuple batches
 		//nrCachedRows = new int[nrJoined];
 		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
-			pickBatches(aliasCtr, 1);
-			if (JoinConfig.materializeBatches) {
+			synchronized (this) {
+				pickBatches(worker, aliasCtr, 1);
+			}
+			if (materializing()) {
 				//nrCachedRows[aliasCtr] = 
-				materializeBatches(aliasCtr);
+				materializeBatches(worker, aliasCtr);
 			}
 		}
 		// Deactivate original optimizer
@@ -202,33 +496,113 @@ public class BatchedExecutor {
 		// Configure for batchwise execution
 		PgConnector.enableBatchConfiguration();
 	}
+	/**
+	 * Acquires new database sessions and initializes one
+	 * additional worker for each of them.
+	 * 
+	 * @param nrAdded	number of workers to add
+	 * @throws Exception
+	 */
+	public void addWorkers(int nrAdded) throws Exception {
+		BatchWorker callerWorker = threadWorker.get();
+		for (int workerCtr=0; workerCtr<nrAdded; ++workerCtr) {
+			int workerID = workers.size();
+			BatchWorker worker = new BatchWorker(
+					PgConnector.acquire(), bufferTableNames(workerID));
+			initWorker(worker);
+		}
+		attach(callerWorker);
+	}
+	/**
+	 * Associates current thread with given worker: the
+	 * thread uses the worker's session and batches
+	 * in the following.
+	 * 
+	 * @param worker	worker represented by current thread
+	 */
+	public void attach(BatchWorker worker) {
+		threadWorker.set(worker);
+		PgConnector.bind(worker.session);
+	}
+	/**
+	 * Stops prefetching, drops batch tables shared between
+	 * sessions, and releases sessions of all workers that
+	 * were added after the first one (the session of the
+	 * first worker belongs to the thread creating the
+	 * executor).
+	 * 
+	 * @throws Exception
+	 */
+	public void close() throws Exception {
+		if (resultLimit != null) {
+			resultLimit.close();
+		}
+		if (workers.isEmpty()) {
+			return;
+		}
+		BatchWorker firstWorker = workers.get(0);
+		for (BatchWorker worker : workers) {
+			if (worker.prefetchThread != null) {
+				for (Future<Integer> prefetch : worker.prefetches) {
+					if (prefetch != null) {
+						// Prefetched batches are no longer needed
+						try {
+							prefetch.get();
+						} catch (ExecutionException e) {
+						}
+					}
+				}
+				worker.prefetchThread.shutdown();
+				PgConnector.release(worker.prefetchSession);
+				worker.prefetchThread = null;
+				for (String[] bufferTables : worker.bufferTables) {
+					for (String bufferTable : bufferTables) {
+						worker.session.update(
+								"DROP TABLE IF EXISTS " + bufferTable + ";");
+					}
+				}
+			}
+			if (worker != firstWorker) {
+				PgConnector.release(worker.session);
+			}
+		}
+		attach(firstWorker);
+	}
 	/**
 	 * Create table that will hold the next batch to process
-	 * from given alias.
+	 * from given alias (accessible from other sessions if
+	 * batches are prefetched).
 	 * 
 	 * @param aliasCtr		ID of join item for which to create batch table
+	 * @param batchTable	name of batch table to create
 	 * @throws Exception
 	 */
-	void createBatchTable(int aliasCtr) throws Exception {
+	void createBatchTable(int aliasCtr, String batchTable) throws Exception {
 		String alias = query.aliases[aliasCtr];
 		StringBuilder sqlBuilder = new StringBuilder();
 		// Drop old batch table if any
 		sqlBuilder.append("DROP TABLE IF EXISTS ");
-		sqlBuilder.append(batchTables[aliasCtr]);
+		sqlBuilder.append(batchTable);
 		sqlBuilder.append(";");
 		PgConnector.update(sqlBuilder.toString());
 		// Create batch table
 		sqlBuilder = new StringBuilder();
-		sqlBuilder.append("CREATE TEMP TABLE ");
-		sqlBuilder.append(batchTables[aliasCtr]);
+		sqlBuilder.append(prefetching() ? 
+				"CREATE UNLOGGED TABLE " : "CREATE TEMP TABLE ");
+		sqlBuilder.append(batchTable);
 		sqlBuilder.append(" (");
 		String columnList = preSummary.aliasToTypedNonIDcols.get(alias);
 		sqlBuilder.append(columnList);
-		if (!JoinConfig.deleteProcessed) {
+		if (keepingBatchIDs()) {
 			sqlBuilder.append(", ");
 			sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
 			sqlBuilder.append(" INT");
 		}
+		if (resuming()) {
+			sqlBuilder.append(", ");
+			sqlBuilder.append(NamingConfig.ROW_NR_COLUMN);
+			sqlBuilder.append(" INT");
+		}
 		/*
 		Set<ColumnRef> allCols = new HashSet<ColumnRef>();
 		allCols.addAll(query.colsForJoins);
@@ -262,15 +636,20 @@ public class BatchedExecutor {
 		sqlBuilder.append(joinResultTable);
 		sqlBuilder.append(";");
 		PgConnector.update(sqlBuilder.toString());
+		// Postgres derives types of partial aggregates
+		if (aggregation != null) {
+			createAggregateTable();
+			return;
+		}
 		// Create table holding join result
 		sqlBuilder = new StringBuilder();
-		sqlBuilder.append("CREATE TEMP TABLE ");
+		sqlBuilder.append(PgConnector.createIntermediateSQL());
 		sqlBuilder.append(joinResultTable);
 		sqlBuilder.append(" (");
 		// Iterate over columns required for next steps
 		boolean firstCol = true;
 		// Columns required for deduplication if applicable
-		if (!JoinConfig.deleteProcessed) {
+		if (!duplicateFree()) {
 			for (ColumnRef colRef : query.colsForDedup) {
 				if (!firstCol) {
 					sqlBuilder.append(", ");
@@ -300,6 +679,34 @@ public class BatchedExecutor {
 		sqlBuilder.append(");");
 		PgConnector.update(sqlBuilder.toString());
 	}
+	/**
+	 * Creates empty table holding partial aggregates, using
+	 * the schema of the join query result.
+	 * 
+	 * @throws Exception
+	 */
+	void createAggregateTable() throws Exception {
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append(PgConnector.createIntermediateSQL());
+		sqlBuilder.append(joinResultTable);
+		sqlBuilder.append(" AS ");
+		sqlBuilder.append(selectSQL);
+		sqlBuilder.append(" FROM ");
+		int nrJoined = query.nrJoined;
+		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
+			if (aliasCtr > 0) {
+				sqlBuilder.append(", ");
+			}
+			sqlBuilder.append(tables[aliasCtr]);
+			sqlBuilder.append(" AS ");
+			sqlBuilder.append(query.aliases[aliasCtr]);
+		}
+		sqlBuilder.append(" WHERE false");
+		sqlBuilder.append(groupBySQL);
+		sqlBuilder.append(" WITH NO DATA;");
+		PgConnector.update(sqlBuilder.toString());
+		joinResultColumns.addAll(aggregation.resultColumns());
+	}
 	/**
 	 * Creates SELECT clause for join query.
 	 * 
@@ -308,12 +715,15 @@ public class BatchedExecutor {
 	 * @return				string representing select clause
 	 */
 	String createSelectSQL(QueryInfo query, PreSummary preSummary) {
+		if (aggregation != null) {
+			return aggregation.selectSQL();
+		}
 		StringBuilder sqlBuilder = new StringBuilder();
 		sqlBuilder.append("SELECT ");
 		// Iterate over columns required for following steps
 		boolean firstCol = true;
 		// Columns for deduplication if applicable
-		if (!JoinConfig.deleteProcessed) {
+		if (!duplicateFree()) {
 			for (ColumnRef colRef : query.colsForDedup) {
 				if (!firstCol) {
 					sqlBuilder.append(", ");
@@ -409,6 +819,31 @@ public class BatchedExecutor {
 		}
 		return sqlBuilder.toString();
 	}
+	/**
+	 * Generates SQL where clause selecting tuples in
+	 * any of the batches specified via an array
+	 * parameter (allows to reuse prepared statements).
+	 * 
+	 * @param sourceTable	load tuples from this table
+	 * @return				SQL string representing condition
+	 */
+	String whereForBatchParam(String sourceTable) {
+		return sourceTable + "." + NamingConfig.BATCH_ID_COLUMN + " = ANY(?)";
+	}
+	/**
+	 * Creates SQL array containing given batch IDs, to be
+	 * used as parameter for prepared statements.
+	 * 
+	 * @param worker		array is created for this worker's session
+	 * @param batchIDs		IDs of batches to include
+	 * @return				SQL array of batch IDs
+	 * @throws Exception
+	 */
+	Array batchArray(BatchWorker worker, 
+			Collection<Integer> batchIDs) throws Exception {
+		return worker.session.connection.createArrayOf(
+				"integer", batchIDs.toArray());
+	}
 	/**
 	 * Generates SQL where clause selecting tuples
 	 * in any of the specified batches.
@@ -442,45 +877,188 @@ public class BatchedExecutor {
 		sqlBuilder.append(")");
 		return sqlBuilder.toString();
 	}
+	/**
+	 * Returns batches of given table that are currently
+	 * marked for processing by workers other than the
+	 * given one or that are being prefetched.
+	 * 
+	 * @param worker	collect batches claimed by other workers
+	 * @param tableIdx	collect batches of this table
+	 * @return			set of claimed batch IDs
+	 */
+	Set<Integer> claimedBatches(BatchWorker worker, int tableIdx) {
+		Set<Integer> claimed = new HashSet<Integer>();
+		for (BatchWorker otherWorker : workers) {
+			if (otherWorker != worker) {
+				claimed.addAll(otherWorker.currentBatches.get(tableIdx));
+			}
+			claimed.addAll(otherWorker.prefetchedBatches.get(tableIdx));
+		}
+		return claimed;
+	}
+	/**
+	 * Selects batches to process next for given table. Uses
+	 * batches that are being prefetched if available and
+	 * picks batches randomly otherwise. Must be called
+	 * while holding the executor lock.
+	 * 
+	 * @param worker				select batches for this worker
+	 * @param tableIdx				select batches for that table
+	 * @param nrBatchesRequested	pick at most that many batches
+	 */
+	void nextBatches(BatchWorker worker, int tableIdx, int nrBatchesRequested) {
+		worker.resumeOffset[tableIdx] = 0;
+		if (worker.prefetches.get(tableIdx) != null) {
+			worker.currentBatches.set(tableIdx, 
+					worker.prefetchedBatches.get(tableIdx));
+			worker.swapPending[tableIdx] = true;
+		} else {
+			pickBatches(worker, tableIdx, nrBatchesRequested);
+		}
+	}
+	/**
+	 * Picks batches to prefetch for given table and starts
+	 * loading them into the inactive batch table via the
+	 * prefetch session of the given worker. Does nothing
+	 * if no unclaimed batches remain.
+	 * 
+	 * @param worker	prefetch batches for this worker
+	 * @param tableIdx	prefetch batches for this table
+	 */
+	void startPrefetch(BatchWorker worker, int tableIdx) {
+		Set<Integer> toLoad = new HashSet<Integer>();
+		synchronized (this) {
+			List<Integer> curTodoBatches = todoBatches.get(tableIdx);
+			Set<Integer> claimed = claimedBatches(worker, tableIdx);
+			claimed.addAll(worker.currentBatches.get(tableIdx));
+			List<Integer> unclaimed = new ArrayList<Integer>();
+			for (int batchID : curTodoBatches) {
+				if (!claimed.contains(batchID)) {
+					unclaimed.add(batchID);
+				}
+			}
+			if (unclaimed.isEmpty()) {
+				return;
+			}
+			int nrToLoad = Math.min(unclaimed.size(), JoinConfig.defaultLoadNr);
+			while (toLoad.size() < nrToLoad) {
+				toLoad.add(unclaimed.get(random.nextInt(unclaimed.size())));
+			}
+			worker.prefetchedBatches.set(tableIdx, toLoad);
+		}
+		String targetTable = worker.inactiveTable(tableIdx);
+		PgSession prefetchSession = worker.prefetchSession;
+		worker.prefetches.set(tableIdx, worker.prefetchThread.submit(() -> {
+			prefetchSession.update("DELETE FROM " + targetTable + ";");
+			String key = "load" + targetTable;
+			PreparedStatement statement = prefetchSession.cached(key);
+			stats.recordStatementLookup(statement != null);
+			if (statement == null) {
+				statement = prefetchSession.prepare(key, 
+						loadBatchesQuery(tableIdx, targetTable));
+			}
+			statement.setArray(1, prefetchSession.connection.createArrayOf(
+					"integer", toLoad.toArray()));
+			return statement.executeUpdate();
+		}));
+	}
 	/**
 	 * Randomly select at most given number of
 	 * batches to treat next for given table
 	 * (less batches if the total number of 
 	 * remaining batches is lower than requested).
+	 * Avoids batches claimed by other workers
+	 * unless no other batches remain. Must be
+	 * called while holding the executor lock.
 	 * 
+	 * @param worker					pick batches for this worker
 	 * @param tableIdx					pick batches for that table
 	 * @param nrBatchesRequested		pick at most that many batches
 	 */
-	void pickBatches(int tableIdx, int nrBatchesRequested) {
+	void pickBatches(BatchWorker worker, int tableIdx, int nrBatchesRequested) {
 		// Select random batch indices
 		List<Integer> curTodoBatches = todoBatches.get(tableIdx);
 		int nrBatchesAvailable = curTodoBatches.size();
 		Set<Integer> curLoadedBatches = new HashSet<Integer>();
-		currentBatches.set(tableIdx, curLoadedBatches);
+		worker.currentBatches.set(tableIdx, curLoadedBatches);
+		worker.resumeOffset[tableIdx] = 0;
+		// Count batches that no other worker is processing
+		Set<Integer> claimed = claimedBatches(worker, tableIdx);
+		int nrUnclaimed = nrBatchesAvailable;
+		if (!claimed.isEmpty()) {
+			nrUnclaimed = 0;
+			for (int batchID : curTodoBatches) {
+				if (!claimed.contains(batchID)) {
+					++nrUnclaimed;
+				}
+			}
+			if (nrUnclaimed == 0) {
+				claimed.clear();
+				nrUnclaimed = nrBatchesAvailable;
+			}
+		}
 		if (LogConfig.VERBOSE) {
 			System.out.println("Nr. batches requested: " + nrBatchesRequested);
 			System.out.println("Nr. batches available: " + nrBatchesAvailable);			
 		}
-		nrBatchesRequested = Math.min(nrBatchesRequested, nrBatchesAvailable);
+		nrBatchesRequested = Math.min(nrBatchesRequested, nrUnclaimed);
 		while (curLoadedBatches.size() < nrBatchesRequested) {
 			int batchPos = random.nextInt(nrBatchesAvailable);
 			int batchId = curTodoBatches.get(batchPos);
-			curLoadedBatches.add(batchId);
+			if (!claimed.contains(batchId)) {
+				curLoadedBatches.add(batchId);				
+			}
 		}
 		if (LogConfig.VERBOSE) {
 			System.out.println("Selected batches to load");				
 		}
 	}
+	/**
+	 * Replaces tuple cache content for given table
+	 * by tuples from currently selected batches
+	 * and records the latency.
+	 * 
+	 * @param worker	materialize batches selected by this worker
+	 * @param tableIdx	materialize current tuples for that table
+	 * @return number of materialized rows
+	 */
+	int materializeBatches(BatchWorker worker, int tableIdx) throws Exception {
+		long startNanos = System.nanoTime();
+		int nrRows = replaceBatches(worker, tableIdx);
+		Metrics.record(Metrics.MATERIALIZATION, startNanos);
+		return nrRows;
+	}
 	/**
 	 * Replaces tuple cache content for given table
 	 * by tuples from currently selected batches.
 	 * 
+	 * @param worker	materialize batches selected by this worker
 	 * @param tableIdx	materialize current tuples for that table
 	 * @return number of materialized rows
 	 */
-	int materializeBatches(int tableIdx) throws Exception {
+	int replaceBatches(BatchWorker worker, int tableIdx) throws Exception {
+		// Swap in prefetched batches if selected
+		if (worker.swapPending[tableIdx]) {
+			int nrRows = worker.prefetches.get(tableIdx).get();
+			worker.activeBuffer[tableIdx] = 1 - worker.activeBuffer[tableIdx];
+			worker.swapPending[tableIdx] = false;
+			worker.prefetches.set(tableIdx, null);
+			synchronized (this) {
+				worker.prefetchedBatches.set(tableIdx, new HashSet<Integer>());
+			}
+			startPrefetch(worker, tableIdx);
+			worker.nrBatchRows[tableIdx] = nrRows;
+			return nrRows;
+		}
+		// Batches cached in the JVM are bound when joining
+		if (caching()) {
+			int nrRows = tupleBuffers[tableIdx].nrRows(
+					worker.currentBatches.get(tableIdx));
+			worker.nrBatchRows[tableIdx] = nrRows;
+			return nrRows;
+		}
 		String table = tables[tableIdx];
-		String batchTable = batchTables[tableIdx];
+		String batchTable = worker.batchTable(tableIdx);
 		// Reset timeout
 		PgConnector.setNoTimeout();
 		// Check whether it makes sense to create an index on batch ID
@@ -497,46 +1075,81 @@ public class BatchedExecutor {
 			sqlBuilder.append(");");
 			PgConnector.update(sqlBuilder.toString());
 		}
-		// Remove tuples from already processed batches
+		// Remove tuples from already processed batches (TRUNCATE
+		// would invalidate plans of cached statements).
+		++worker.nrMaterializations;
 		StringBuilder sqlBuilder = new StringBuilder();
-		sqlBuilder = new StringBuilder();
-		sqlBuilder.append("TRUNCATE ");
+		if (worker.nrMaterializations % 
+				JoinConfig.truncateBatchTableEvery == 0) {
+			sqlBuilder.append("TRUNCATE ");			
+		} else {
+			sqlBuilder.append("DELETE FROM ");
+		}
 		sqlBuilder.append(batchTable);
 		sqlBuilder.append(";");
 		PgConnector.update(sqlBuilder.toString());
 		// Obtain batches to materialize
-		Set<Integer> toLoad = currentBatches.get(tableIdx);
+		Set<Integer> toLoad = worker.currentBatches.get(tableIdx);
 		// Load tuples from those batches into cache
+		int nrRows = 0;
 		if (toLoad.size() > 0) {
-			sqlBuilder = new StringBuilder();
-			sqlBuilder.append("INSERT INTO ");
-			sqlBuilder.append(batchTable);
-			sqlBuilder.append(" (SELECT ");
-			String alias = query.aliases[tableIdx];
-			String columnList = preSummary.aliasToNonIDcols.get(alias);
-			sqlBuilder.append(columnList);
-			// Need batch ID for deduplication if processed
-			// batches are not deleted from joined tables.
-			if (!JoinConfig.deleteProcessed) {
-				sqlBuilder.append(", ");
-				sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
-			}
-			sqlBuilder.append(" FROM ");
-			sqlBuilder.append(table);
-			sqlBuilder.append(" AS ");
-			sqlBuilder.append(alias);
-			sqlBuilder.append(" WHERE ");
-			sqlBuilder.append(whereForBatches(alias, toLoad));
-			ExpressionInfo unaryPred = preSummary.aliasToUnaryTodo.get(alias);
-			if (unaryPred != null) {
-				sqlBuilder.append(" AND ");
-				sqlBuilder.append(unaryPred.toString());
+			String key = "load" + batchTable;
+			PreparedStatement statement = worker.session.cached(key);
+			stats.recordStatementLookup(statement != null);
+			if (statement == null) {
+				statement = worker.session.prepare(key, 
+						loadBatchesQuery(tableIdx, batchTable));
 			}
-			sqlBuilder.append(");");
-			return PgConnector.update(sqlBuilder.toString());
-		} else {
-			return 0;
+			statement.setArray(1, batchArray(worker, toLoad));
+			nrRows = statement.executeUpdate();
+		}
+		// Start loading next batches in the background
+		if (prefetching() && worker.prefetches.get(tableIdx) == null) {
+			startPrefetch(worker, tableIdx);
+		}
+		worker.nrBatchRows[tableIdx] = nrRows;
+		return nrRows;
+	}
+	/**
+	 * Generates a query loading tuples from batches, specified
+	 * as array parameter, into the tuple cache of given table.
+	 * 
+	 * @param tableIdx		load tuples of that table
+	 * @param batchTable	insert tuples into this table
+	 * @return				SQL query with batch array parameter
+	 */
+	String loadBatchesQuery(int tableIdx, String batchTable) {
+		String table = tables[tableIdx];
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("INSERT INTO ");
+		sqlBuilder.append(batchTable);
+		sqlBuilder.append(" (SELECT ");
+		String alias = query.aliases[tableIdx];
+		String columnList = preSummary.aliasToNonIDcols.get(alias);
+		sqlBuilder.append(columnList);
+		// Need batch ID for deduplication or to exclude
+		// processed batches from joins.
+		if (keepingBatchIDs()) {
+			sqlBuilder.append(", ");
+			sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		}
+		// Number rows to enable resuming interrupted episodes
+		if (resuming()) {
+			sqlBuilder.append(", row_number() OVER ()");
+		}
+		sqlBuilder.append(" FROM ");
+		sqlBuilder.append(table);
+		sqlBuilder.append(" AS ");
+		sqlBuilder.append(alias);
+		sqlBuilder.append(" WHERE ");
+		sqlBuilder.append(whereForBatchParam(alias));
+		ExpressionInfo unaryPred = preSummary.aliasToUnaryTodo.get(alias);
+		if (unaryPred != null) {
+			sqlBuilder.append(" AND ");
+			sqlBuilder.append(unaryPred.toString());
 		}
+		sqlBuilder.append(");");
+		return sqlBuilder.toString();
 	}
 	/**
 	 * Returns the ID of the first non-empty batch for
@@ -556,7 +1169,16 @@ public class BatchedExecutor {
 		String alias = query.aliases[tableIdx];
 		sqlBuilder.append(alias);
 		sqlBuilder.append(" WHERE ");
-		sqlBuilder.append(whereForBatches(alias, todoBatches.get(tableIdx)));
+		List<Integer> remainingBatches;
+		synchronized (this) {
+			remainingBatches = new ArrayList<Integer>(todoBatches.get(tableIdx));
+		}
+		// Finalizing the last batches (possibly by another
+		// worker) may have emptied the list since checking.
+		if (remainingBatches.isEmpty()) {
+			return -1;
+		}
+		sqlBuilder.append(whereForBatches(alias, remainingBatches));
 		ExpressionInfo unaryTodo = preSummary.aliasToUnaryTodo.get(alias);
 		if (unaryTodo != null) {
 			sqlBuilder.append(" AND ");
@@ -575,12 +1197,13 @@ public class BatchedExecutor {
 	 * batches and materialize until tuple cache is non-empty
 	 * or all batches of current table are processed.
 	 * 
+	 * @param worker		fill tuple cache of this worker
 	 * @param tableIdx		fill tuple cache for that table
 	 * @throws Exception
 	 */
-	void fillTupleCache(int tableIdx) throws Exception {
+	void fillTupleCache(BatchWorker worker, int tableIdx) throws Exception {
 		int iterationCtr = 0;
-		while (materializeBatches(tableIdx) == 0 &&
+		while (materializeBatches(worker, tableIdx) == 0 &&
 				!todoBatches.get(tableIdx).isEmpty()) {
 			/*
 			if (iterationCtr % 500 == 0) {
@@ -589,18 +1212,25 @@ public class BatchedExecutor {
 			}
 			*/
 			++iterationCtr;
-			finalizeCurrentBatches(tableIdx);
-			pickBatches(tableIdx, JoinConfig.defaultLoadNr);
+			synchronized (this) {
+				finalizeCurrentBatches(worker, tableIdx);
+				nextBatches(worker, tableIdx, JoinConfig.defaultLoadNr);				
+			}
 			// Start search for non-empty batches if iteration
 			// threshold is reached.
 			if (iterationCtr >= JoinConfig.fillTriesBeforeSearch) {
 				int nextBatch = findNonEmptyBatch(tableIdx);
-				if (nextBatch == -1) {
-					todoBatches.get(tableIdx).clear();
-					break;
-				} else {
-					currentBatches.get(tableIdx).clear();
-					currentBatches.get(tableIdx).add(nextBatch);
+				synchronized (this) {
+					if (nextBatch == -1) {
+						todoBatches.get(tableIdx).clear();
+						break;
+					} else {
+						Set<Integer> nextBatches = new HashSet<Integer>();
+						nextBatches.add(nextBatch);
+						worker.currentBatches.set(tableIdx, nextBatches);
+						worker.swapPending[tableIdx] = false;
+						worker.resumeOffset[tableIdx] = 0;
+					}					
 				}
 			}
 		}
@@ -609,29 +1239,81 @@ public class BatchedExecutor {
 	 * Invoked if the current batch of tuples
 	 * was successfully processed. Removes loaded
 	 * batch indexes from todo list and removes
-	 * associated tuples from source table.
+	 * associated tuples from source table. Must be
+	 * called while holding the executor lock.
 	 * 
+	 * @param worker	worker that processed the batches
 	 * @param tableIdx	index of table whose tuples
 	 * 					were successfully processed
 	 */
-	void finalizeCurrentBatches(int tableIdx) throws Exception {
+	void finalizeCurrentBatches(BatchWorker worker, 
+			int tableIdx) throws Exception {
 		String table = tables[tableIdx];
-		Set<Integer> curLoadedBatches = currentBatches.get(tableIdx);
-		// Remove tuples from table if enabled
-		if (JoinConfig.deleteProcessed) {
-			StringBuilder sqlBuilder = new StringBuilder();
-			sqlBuilder.append("DELETE FROM ");
-			sqlBuilder.append(table);
-			sqlBuilder.append(" WHERE ");
-			sqlBuilder.append(whereForBatches(table, curLoadedBatches));
-			sqlBuilder.append(";");
-			PgConnector.update(sqlBuilder.toString());			
+		Set<Integer> curLoadedBatches = worker.currentBatches.get(tableIdx);
+		// Remove tuples from table if enabled (tuples loaded
+		// by the in-memory engine are not affected).
+		if (JoinConfig.deleteProcessed && !inMemory) {
+			Set<Integer> toDelete = truncatePartitions(
+					tableIdx, curLoadedBatches);
+			if (!toDelete.isEmpty()) {
+				StringBuilder sqlBuilder = new StringBuilder();
+				sqlBuilder.append("DELETE FROM ");
+				sqlBuilder.append(table);
+				sqlBuilder.append(" WHERE ");
+				sqlBuilder.append(whereForBatches(table, toDelete));
+				sqlBuilder.append(";");
+				PgConnector.update(sqlBuilder.toString());
+			}
 		}
 		// Remove batches from todo list
 		todoBatches.get(tableIdx).removeAll(curLoadedBatches);
+		finalizedBatches.get(tableIdx).addAll(curLoadedBatches);
 		// Update list of loaded batches
 		curLoadedBatches.clear();
 	}
+	/**
+	 * Truncates partitions of given table (if partitioned by batch
+	 * ID) whose batches are all processed after processing the
+	 * given batches. Must be called before removing the given
+	 * batches from the todo list. TRUNCATE locks the table
+	 * exclusively, so partitions are only truncated if no
+	 * other session (of workers or prefetching) may read it.
+	 * 
+	 * @param tableIdx		index of table whose batches were processed
+	 * @param processed		IDs of processed batches
+	 * @return				processed batches whose tuples remain
+	 * @throws Exception
+	 */
+	Set<Integer> truncatePartitions(int tableIdx, 
+			Set<Integer> processed) throws Exception {
+		Set<Integer> toDelete = new HashSet<Integer>(processed);
+		int nrParts = nrPartitions[tableIdx];
+		if (nrParts == 0 || JoinConfig.nrWorkers > 1 || prefetching()) {
+			return toDelete;
+		}
+		// Mark partitions containing unprocessed batches
+		int partSize = Preparator.batchesPerPartition(
+				nrBatches[tableIdx], nrParts);
+		boolean[] partTodo = new boolean[nrParts];
+		for (int batch : todoBatches.get(tableIdx)) {
+			if (!processed.contains(batch)) {
+				partTodo[batch / partSize] = true;
+			}
+		}
+		// Truncate partitions that are completely processed
+		Set<Integer> truncated = new HashSet<Integer>();
+		for (int batch : processed) {
+			int partIdx = batch / partSize;
+			if (!partTodo[partIdx] && truncated.add(partIdx)) {
+				PgConnector.update("TRUNCATE " + NamingConfig.partitionTable(
+						tables[tableIdx], partIdx) + ";");
+			}
+			if (!partTodo[partIdx]) {
+				toDelete.remove(batch);
+			}
+		}
+		return toDelete;
+	}
 	/**
 	 * Calculate for each table how much one processed batch is worth.
 	 * It is worth more if few batches remain (since it represents a
@@ -649,22 +1331,99 @@ public class BatchedExecutor {
 			rewardScaling[tableCtr] = (double)minNrRemaining / nrRemaining;
 		}
 	}
+	/**
+	 * Returns a prepared statement that adds one more result
+	 * fragment to the join result according to the given join
+	 * order, with parameters bound to the worker's batches.
+	 * Statements are cached per worker session and join order.
+	 * If episodes are resumed, the caller binds the range of
+	 * row numbers to join in the left-most table.
+	 * 
+	 * @param worker			worker executing the query
+	 * @param order				join order
+	 * @param timeoutMillis		timeout bound if timeouts are local
+	 * @return					statement adding one result fragment
+	 * @throws Exception
+	 */
+	PreparedStatement addToResultStatement(BatchWorker worker, 
+			int[] order, int timeoutMillis) throws Exception {
+		String key = "join" + Arrays.toString(order) + 
+				worker.batchTable(order[0]);
+		PreparedStatement statement = worker.session.cached(key);
+		stats.recordStatementLookup(statement != null);
+		if (statement == null) {
+			statement = worker.session.prepare(key, 
+					addToResultQuery(worker, order));
+		}
+		int paramIdx = 1;
+		if (JoinConfig.timeoutMode == TimeoutMode.LOCAL) {
+			statement.setString(paramIdx++, localTimeout(timeoutMillis));
+		}
+		if (!materializing()) {
+			Set<Integer> batches = worker.currentBatches.get(order[0]);
+			statement.setArray(paramIdx++, batchArray(worker, batches));
+		}
+		// Resumed episodes bind rows slice by slice
+		if (caching() && !resuming()) {
+			Set<Integer> batches = worker.currentBatches.get(order[0]);
+			paramIdx = tupleBuffers[order[0]].bind(worker.session, 
+					statement, paramIdx, batches, 0, Integer.MAX_VALUE);
+		}
+		// Exclude processed batches of other tables
+		if (excluding()) {
+			int nrJoined = query.nrJoined;
+			for (int joinCtr=1; joinCtr<nrJoined; ++joinCtr) {
+				List<Integer> finalized;
+				synchronized (this) {
+					finalized = new ArrayList<Integer>(
+							finalizedBatches.get(order[joinCtr]));
+				}
+				statement.setArray(paramIdx++, batchArray(worker, finalized));
+			}
+		}
+		return statement;
+	}
+	/**
+	 * Returns value to bind for transaction-local statement
+	 * timeouts (zero disables the timeout).
+	 * 
+	 * @param timeoutMillis		timeout in milliseconds
+	 * @return					statement_timeout setting
+	 */
+	String localTimeout(int timeoutMillis) {
+		return String.valueOf(JoinConfig.hardTimeout ? timeoutMillis : 0);
+	}
 	/**
 	 * Generates a query that adds one more result fragment
-	 * to the join result according to the given join order.
+	 * to the join result according to the given join order
+	 * (batches of the first table are specified as array
+	 * parameter unless batches are materialized, the range
+	 * of row numbers in the first table is specified via
+	 * two parameters if episodes are resumed, tuples of the
+	 * first table are passed as array parameters if batches
+	 * are cached in the JVM, processed batches of the other
+	 * tables are excluded via one array parameter per table
+	 * if the join result is duplicate-free). If timeouts
+	 * are local, the query is preceded by a statement that
+	 * sets the timeout (first parameter) for the current
+	 * transaction only.
 	 * 
+	 * @param worker	worker executing the query
 	 * @param order		join order
 	 * @return			SQL query adding one result fragment
 	 */
-	String addToResultQuery(int[] order) {
+	String addToResultQuery(BatchWorker worker, int[] order) {
 		// Get alias and table of first item in join order
 		int firstIdx = order[0];
 		String firstAlias = query.aliases[firstIdx];
-		String firstTable = JoinConfig.materializeBatches?
-				batchTables[firstIdx]:tables[firstIdx];
+		String firstTable = materializing()?
+				worker.batchTable(firstIdx):tables[firstIdx];
 		// Generate query joining one batch with given join order
 		StringBuilder sqlBuilder = new StringBuilder();
 		sqlBuilder = new StringBuilder();
+		if (JoinConfig.timeoutMode == TimeoutMode.LOCAL) {
+			sqlBuilder.append("SELECT set_config('statement_timeout', ?, true); ");
+		}
 		sqlBuilder.append("INSERT INTO ");
 		sqlBuilder.append(joinResultTable);
 		sqlBuilder.append(" (");
@@ -674,7 +1433,9 @@ public class BatchedExecutor {
 		for (int joinCtr=0; joinCtr<nrJoined; ++joinCtr) {
 			int table = order[joinCtr];
 			// First table receives special treatment
-			if (joinCtr == 0) {
+			if (joinCtr == 0 && caching()) {
+				sqlBuilder.append(tupleBuffers[firstIdx].fromItem(firstAlias));
+			} else if (joinCtr == 0) {
 				sqlBuilder.append(firstTable);
 				sqlBuilder.append(" AS ");
 				sqlBuilder.append(firstAlias);
@@ -696,12 +1457,91 @@ public class BatchedExecutor {
 				whereFrags.add(unaryPred.toString());
 			}
 		}
-		if (!JoinConfig.materializeBatches) {
-			Set<Integer> batches = currentBatches.get(firstIdx);
-			String batchPred = whereForBatches(firstAlias, batches);
-			whereFrags.add(batchPred);
+		if (!materializing()) {
+			whereFrags.add(whereForBatchParam(firstAlias));
+		}
+		if (excluding()) {
+			for (int joinCtr=1; joinCtr<nrJoined; ++joinCtr) {
+				String alias = query.aliases[order[joinCtr]];
+				whereFrags.add("NOT (" + whereForBatchParam(alias) + ")");
+			}
+		}
+		if (resuming() && !caching()) {
+			String rowNr = firstAlias + "." + NamingConfig.ROW_NR_COLUMN;
+			whereFrags.add(rowNr + " > ?");
+			whereFrags.add(rowNr + " <= ?");
 		}
 		sqlBuilder.append(StringUtils.join(whereFrags, " AND "));
+		sqlBuilder.append(groupBySQL);
+		sqlBuilder.append(");");
+		return sqlBuilder.toString();
+	}
+	/**
+	 * Returns true iff some worker has inserted result rows
+	 * for batches that are only partially processed.
+	 * 
+	 * @return	true iff partially processed batches exist
+	 */
+	synchronized boolean partialResults() {
+		for (BatchWorker worker : workers) {
+			for (int offset : worker.resumeOffset) {
+				if (offset > 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	/**
+	 * Generates SQL statement that joins all batches that were
+	 * not finalized yet, following the given join order, and
+	 * adds the result to the join result table. Result tuples
+	 * containing tuples from finalized batches were inserted
+	 * already. Returns null if the statement would duplicate
+	 * rows of a duplicate-free join result (since rows were
+	 * inserted for partially processed batches).
+	 * 
+	 * @param order		join order
+	 * @return			SQL statement completing join result or null
+	 */
+	public synchronized String remainingQuery(int[] order) {
+		if (duplicateFree() && partialResults()) {
+			return null;
+		}
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("INSERT INTO ");
+		sqlBuilder.append(joinResultTable);
+		sqlBuilder.append(" (");
+		sqlBuilder.append(selectSQL);
+		sqlBuilder.append(" FROM ");
+		int nrJoined = query.nrJoined;
+		List<String> whereFrags = new ArrayList<String>();
+		if (!whereSQL.isEmpty()) {
+			whereFrags.add(whereSQL);
+		}
+		for (int joinCtr=0; joinCtr<nrJoined; ++joinCtr) {
+			int table = order[joinCtr];
+			String alias = query.aliases[table];
+			if (joinCtr > 0) {
+				sqlBuilder.append(" CROSS JOIN ");
+			}
+			sqlBuilder.append(tables[table]);
+			sqlBuilder.append(" AS ");
+			sqlBuilder.append(alias);
+			ExpressionInfo unaryPred = preSummary.aliasToUnaryTodo.get(alias);
+			if (unaryPred != null) {
+				whereFrags.add(unaryPred.toString());
+			}
+			Set<Integer> finalized = finalizedBatches.get(table);
+			if (!finalized.isEmpty()) {
+				whereFrags.add("NOT (" + whereForBatches(alias, finalized) + ")");
+			}
+		}
+		if (!whereFrags.isEmpty()) {
+			sqlBuilder.append(" WHERE ");
+			sqlBuilder.append(StringUtils.join(whereFrags, " AND "));
+		}
+		sqlBuilder.append(groupBySQL);
 		sqlBuilder.append(");");
 		return sqlBuilder.toString();
 	}
@@ -709,6 +1549,7 @@ public class BatchedExecutor {
 	 * Execute given join order for given amount of time,
 	 * taking only the content of the current tuple cache
 	 * instead of the full first table in the join order.
+	 * Uses the worker associated with the current thread.
 	 * 
 	 * @param order				join order
 	 * @param timeoutMillis		milliseconds until timeout
@@ -720,8 +1561,19 @@ public class BatchedExecutor {
 		if (LogConfig.VERBOSE) {
 			System.out.println("Executing order: " + Arrays.toString(order));			
 		}
+		// Stop if query result was obtained otherwise
+		if (query.cancelled) {
+			throw new RuntimeException("Query processing was cancelled");
+		}
+		// Worker represented by current thread
+		BatchWorker worker = threadWorker.get();
 		// First table in join order
 		int firstIdx = order[0];
+		// Collect statistics for reward calculation
+		EpisodeStats episode = new EpisodeStats(timeoutMillis);
+		worker.lastEpisode = episode;
+		episode.scaling = rewardScaling[firstIdx];
+		long episodeStartNanos = System.nanoTime();
 		// Whether first batch was processed until timeout
 		boolean firstBatchSuccess = false;
 		// Number of batches we try to process at once
@@ -740,21 +1592,44 @@ public class BatchedExecutor {
 			++roundCtr;
 			//System.out.println(roundCtr);
 			success = false;
+			int startOffset = worker.resumeOffset[firstIdx];
+			int nrRows = memoryJoin != null ? memoryJoin.nrRows(firstIdx, 
+					worker.currentBatches.get(firstIdx)) : 
+						materializing() ? worker.nrBatchRows[firstIdx] : 0;
+			episode.nrRowsTotal += Math.max(0, nrRows - startOffset);
 			int updatedTimeout = (int)Math.round(timeoutMillis * timeoutFactor);
-			if (JoinConfig.hardTimeout) {
+			// In-memory joins check timeouts themselves, other
+			// modes enforce timeouts together with the join query.
+			if (memoryJoin != null || 
+					JoinConfig.timeoutMode != TimeoutMode.SESSION) {
+			} else if (JoinConfig.hardTimeout) {
 				PgConnector.setTimeout(updatedTimeout);				
 			} else {
 				PgConnector.setNoTimeout();
 			}
-			String querySQL = addToResultQuery(order);
+			long rowsBefore = episode.nrResultRows;
+			long tryStartNanos = System.nanoTime();
 			try {
 				long queryStartMillis = System.currentTimeMillis();
-				PgConnector.update(querySQL);
+				if (memoryJoin != null) {
+					Set<Integer> batches = worker.currentBatches.get(firstIdx);
+					int offset = memoryJoin.execute(worker.session, order, 
+							batches, startOffset, JoinConfig.hardTimeout ? 
+									updatedTimeout : Integer.MAX_VALUE);
+					worker.resumeOffset[firstIdx] = offset;
+					success = offset == nrRows;
+				} else if (resuming()) {
+					success = joinSlices(worker, order, updatedTimeout);
+				} else {
+					episode.nrResultRows += executeWithTimeout(
+							addToResultStatement(worker, order, updatedTimeout), 
+							updatedTimeout * 1000L);
+					success = true;
+				}
 				long queryTotalMillis = System.currentTimeMillis() - queryStartMillis;
-				// Success with current batch
-				success = true;
 				// At least one processed batch
-				if (JoinConfig.hardTimeout) {
+				if (!success) {
+				} else if (JoinConfig.hardTimeout) {
 					firstBatchSuccess = true;
 				} else if (roundCtr==1) {
 					firstBatchSuccess = queryTotalMillis <= updatedTimeout;
@@ -767,6 +1642,9 @@ public class BatchedExecutor {
 	            	throw e;
 	            }
 			}
+			if (resultLimit != null) {
+				applyLimit(worker, episode.nrResultRows - rowsBefore);
+			}
 			if (LogConfig.VERBOSE) {
 				if (success) {
 					System.out.println("No timeout.");
@@ -774,35 +1652,63 @@ public class BatchedExecutor {
 					System.out.println("Had timeout!");
 				}
 			}
+			// No round trip unless the session timeout was changed
 			PgConnector.setNoTimeout();
 			// Collect stats
+			stats.recordTry(updatedTimeout, success);
+			Metrics.record(Metrics.EPISODE, 
+					"timeout=\"" + updatedTimeout + "\"", tryStartNanos);
+			if (!success) {
+				long tryMicros = (System.nanoTime() - tryStartNanos) / 1000;
+				Metrics.histogram(Metrics.TIMEOUT_OVERSHOOT, "").record(
+						tryMicros - updatedTimeout * 1000L);
+			}
 			if (success) {
-				int nrSuccesses = JoinStats.timeoutToNrSuccesses.containsKey(updatedTimeout)?
-						JoinStats.timeoutToNrSuccesses.get(updatedTimeout):0;
-				JoinStats.timeoutToNrSuccesses.put(updatedTimeout, nrSuccesses + 1);
+				episode.nrRowsJoined += Math.max(0, nrRows - startOffset);
+			} else {
+				episode.nrRowsJoined += worker.resumeOffset[firstIdx] - startOffset;
 			}
-			int nrTries = JoinStats.timeoutToNrTries.containsKey(updatedTimeout)?
-					JoinStats.timeoutToNrTries.get(updatedTimeout):0;
-			JoinStats.timeoutToNrTries.put(updatedTimeout, nrTries + 1);
 			// Potentially replace batch even if it was not processed
+			// (unless progress was made that later episodes resume).
 			if (!success) {
-				if (nrBatchesPerTry > 1 || random.nextDouble() < 
-						JoinConfig.batchReloadProbability) {
-					pickBatches(firstIdx, JoinConfig.defaultLoadNr);
-					if (JoinConfig.materializeBatches) {
-						fillTupleCache(firstIdx);
+				boolean madeProgress = worker.resumeOffset[firstIdx] > startOffset;
+				if (!madeProgress && (nrBatchesPerTry > 1 || random.nextDouble() < 
+						JoinConfig.batchReloadProbability)) {
+					synchronized (this) {
+						nextBatches(worker, firstIdx, JoinConfig.defaultLoadNr);
+					}
+					if (materializing()) {
+						fillTupleCache(worker, firstIdx);
 					}
 				}
+				episode.success = firstBatchSuccess;
+				episode.micros = (System.nanoTime() - episodeStartNanos) / 1000;
 				return firstBatchSuccess;
 			}
-			// Update reward scaling factors
-			updateRewardScaling();
-			// Mark tuples in tuple batch as processed
-			finalizeCurrentBatches(firstIdx);
-			// Check for termination
-			if (todoBatches.get(firstIdx).isEmpty()) {
-				// Set termination flag
-				finished = true;
+			// Merge progress into state shared by all workers
+			boolean finishedNow;
+			synchronized (this) {
+				// Update reward scaling factors
+				updateRewardScaling();
+				// Mark tuples in tuple batch as processed
+				episode.nrBatchesFinalized += worker.currentBatches.get(firstIdx).size();
+				finalizeCurrentBatches(worker, firstIdx);
+				// Check for termination
+				finishedNow = todoBatches.get(firstIdx).isEmpty();
+				if (finishedNow) {
+					// Set termination flag
+					finished = true;
+				} else {
+					// Output progress update
+					++nrProgressUpdates;
+					if (nrProgressUpdates % LogConfig.logProgressEvery == 0) {
+						logProgress(order);
+					}
+					// Select new data for tuple batch
+					nextBatches(worker, firstIdx, nrBatchesPerTry);
+				}
+			}
+			if (finishedNow) {
 				// Make join result persistent if in debugging mode
 				if (LogConfig.DEBUG_MODE) {
 					PgConnector.update("DROP TABLE IF EXISTS SkinnerJoinOutputDebug;");
@@ -810,33 +1716,9 @@ public class BatchedExecutor {
 							"AS (SELECT * FROM " + joinResultTable + ");");
 				}
 			} else {
-				// Output progress update
-				++nrProgressUpdates;
-				if (nrProgressUpdates % LogConfig.logProgressEvery == 0) {
-					System.out.println("*** Progress report: remaining batches ***");
-					System.out.println(String.join("\t", query.aliases));
-					int nrJoined = order.length;
-					for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
-						int remainingPercent = (100 * todoBatches.get(aliasCtr).size()) / nrBatches[aliasCtr];
-						System.out.print(remainingPercent + "%\t");
-					}
-					System.out.println();
-					for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
-						int remaining = todoBatches.get(aliasCtr).size();
-						System.out.print(remaining + "\t");
-					}
-					System.out.println();
-					System.out.println("Join order:\t" + Arrays.toString(order));
-					//System.out.println("Timeout:\t" + (timeoutMillis * timeoutFactor));
-					// Print join stats
-					System.out.println("*** Join stats: successful batches per timeout ***");
-					JoinStats.print();
-					System.out.println("***");					
-				}
 				// Load new data into tuple batch
-				pickBatches(firstIdx, nrBatchesPerTry);
-				if (JoinConfig.materializeBatches) {
-					fillTupleCache(firstIdx);					
+				if (materializing()) {
+					fillTupleCache(worker, firstIdx);					
 				}
 				// No timeout -> try again with more time and more data
 				nrBatchesPerTry *= JoinConfig.greedyBatchScaleUp;
@@ -851,6 +1733,188 @@ public class BatchedExecutor {
 		}
 		// We consider this join order a success if first
 		// data batch was processed using original timeout.
+		episode.success = firstBatchSuccess;
+		episode.micros = (System.nanoTime() - episodeStartNanos) / 1000;
 		return firstBatchSuccess;
 	}
+	/**
+	 * Joins the remaining rows of the materialized batches of the
+	 * left-most table slice by slice, each slice via a separate
+	 * statement, until all rows are joined or the timeout is
+	 * reached. Records progress after each slice so that later
+	 * episodes (with any join order) resume at the first
+	 * slice not joined yet.
+	 * 
+	 * @param worker			worker executing the join order
+	 * @param order				join order
+	 * @param timeoutMillis		timeout for all slices together
+	 * @return					true iff all rows were joined
+	 * @throws Exception
+	 */
+	boolean joinSlices(BatchWorker worker, int[] order, 
+			int timeoutMillis) throws Exception {
+		int firstIdx = order[0];
+		int nrRows = worker.nrBatchRows[firstIdx];
+		int sliceSize = Math.max(1, (nrRows + JoinConfig.nrResumeSlices - 1) / 
+				JoinConfig.nrResumeSlices);
+		long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+		PreparedStatement statement = addToResultStatement(
+				worker, order, timeoutMillis);
+		TimeoutMode mode = JoinConfig.timeoutMode;
+		int sliceParamIdx = mode == TimeoutMode.LOCAL ? 2 : 1;
+		while (worker.resumeOffset[firstIdx] < nrRows) {
+			// Remaining slices share the timeout
+			long remainingMicros = (deadline - System.nanoTime()) / 1000;
+			if (JoinConfig.hardTimeout) {
+				if (remainingMicros <= 0) {
+					return false;
+				}
+				int remainingMillis = (int)Math.max(1, remainingMicros / 1000);
+				if (mode == TimeoutMode.LOCAL) {
+					statement.setString(1, localTimeout(remainingMillis));
+				} else if (mode == TimeoutMode.SESSION) {
+					PgConnector.setTimeout(remainingMillis);
+				}
+			}
+			int offset = worker.resumeOffset[firstIdx];
+			if (caching()) {
+				Set<Integer> batches = worker.currentBatches.get(firstIdx);
+				tupleBuffers[firstIdx].bind(worker.session, statement, 
+						sliceParamIdx, batches, offset, offset + sliceSize);
+			} else {
+				statement.setInt(sliceParamIdx, offset);
+				statement.setInt(sliceParamIdx + 1, offset + sliceSize);
+			}
+			worker.lastEpisode.nrResultRows += executeWithTimeout(
+					statement, remainingMicros);
+			worker.resumeOffset[firstIdx] = Math.min(nrRows, offset + sliceSize);
+		}
+		return true;
+	}
+	/**
+	 * Executes given join statement, cancelling it from the
+	 * client side when the timeout is reached if timeouts
+	 * are enforced by cancellation. Cancellations due to
+	 * the deadline are reported as timeouts, other errors
+	 * are passed on.
+	 * 
+	 * @param statement			statement to execute
+	 * @param timeoutMicros		timeout in microseconds
+	 * @return					number of inserted result rows
+	 * @throws Exception
+	 */
+	long executeWithTimeout(PreparedStatement statement, 
+			long timeoutMicros) throws Exception {
+		if (JoinConfig.timeoutMode != TimeoutMode.CANCEL || 
+				!JoinConfig.hardTimeout) {
+			return insertedRows(statement, statement.execute());
+		}
+		CancelTimer.Deadline deadline = CancelTimer.schedule(
+				statement, Math.max(1, timeoutMicros));
+		boolean isResultSet;
+		try {
+			isResultSet = statement.execute();
+		} catch (PSQLException e) {
+			if (deadline.disarm() && CancelTimer.cancelled(e)) {
+				throw new SQLTimeoutException("Episode timed out", e);
+			}
+			throw e;
+		}
+		// Cancellation after completion leaves result valid
+		deadline.disarm();
+		return insertedRows(statement, isResultSet);
+	}
+	/**
+	 * Sums up update counts over all results of an executed
+	 * statement (join statements may be preceded by a query
+	 * setting the timeout).
+	 * 
+	 * @param statement		executed statement
+	 * @param isResultSet	whether first result is a result set
+	 * @return				number of inserted rows
+	 * @throws Exception
+	 */
+	long insertedRows(PreparedStatement statement, 
+			boolean isResultSet) throws Exception {
+		long nrRows = 0;
+		while (true) {
+			if (!isResultSet) {
+				int updateCount = statement.getUpdateCount();
+				if (updateCount < 0) {
+					break;
+				}
+				nrRows += updateCount;
+			}
+			isResultSet = statement.getMoreResults();
+		}
+		return nrRows;
+	}
+	/**
+	 * Registers result rows inserted by the last execution
+	 * and exploits the LIMIT clause: terminates join processing
+	 * once enough rows exist or discards batches of the ordered
+	 * table that cannot contribute to the first result rows.
+	 * 
+	 * @param worker	worker that inserted the rows
+	 * @param nrRows	number of inserted rows
+	 * @throws Exception
+	 */
+	void applyLimit(BatchWorker worker, long nrRows) throws Exception {
+		if (resultLimit.addRows(nrRows)) {
+			System.out.println("Generated enough rows for LIMIT clause");
+			finished = true;
+			return;
+		}
+		if (resultLimit.discardPending()) {
+			int tableIdx = resultLimit.orderedIdx;
+			List<Integer> remaining;
+			synchronized (this) {
+				remaining = new ArrayList<Integer>(todoBatches.get(tableIdx));
+			}
+			List<Integer> discarded = resultLimit.discardable(
+					tables[tableIdx], remaining, worker);
+			synchronized (this) {
+				todoBatches.get(tableIdx).removeAll(discarded);
+				finalizedBatches.get(tableIdx).addAll(discarded);
+				if (todoBatches.get(tableIdx).isEmpty()) {
+					finished = true;
+				}
+			}
+		}
+	}
+	/**
+	 * Returns statistics on the last episode executed by the
+	 * worker associated with the current thread.
+	 * 
+	 * @return	summary of last episode (null if none)
+	 */
+	public EpisodeStats lastEpisode() {
+		return threadWorker.get().lastEpisode;
+	}
+	/**
+	 * Outputs remaining batches per table and join statistics.
+	 * 
+	 * @param order		join order executed last
+	 */
+	void logProgress(int[] order) {
+		System.out.println("*** Progress report: remaining batches ***");
+		System.out.println(String.join("\t", query.aliases));
+		int nrJoined = order.length;
+		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
+			int remainingPercent = (100 * todoBatches.get(aliasCtr).size()) / nrBatches[aliasCtr];
+			System.out.print(remainingPercent + "%\t");
+		}
+		System.out.println();
+		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
+			int remaining = todoBatches.get(aliasCtr).size();
+			System.out.print(remaining + "\t");
+		}
+		System.out.println();
+		System.out.println("Join order:\t" + Arrays.toString(order));
+		//System.out.println("Timeout:\t" + (timeoutMillis * timeoutFactor));
+		// Print join stats
+		System.out.println("*** Join stats: successful batches per timeout ***");
+		stats.print();
+		System.out.println("***");
+	}
 }
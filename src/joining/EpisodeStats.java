@@ -0,0 +1,74 @@
+package joining;
+
+/**
+ * Summarizes what one episode (i.e., one invocation of the
+ * batched executor with a given join order) achieved. Used
+ * to calculate rewards for join order learning.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class EpisodeStats {
+	/**
+	 * Timeout (in milliseconds) for the first execution
+	 * of the join order in this episode.
+	 */
+	public final int timeoutMillis;
+	/**
+	 * Microseconds spent executing the join order.
+	 */
+	public long micros = 0;
+	/**
+	 * Whether the first batches were processed before timeout.
+	 */
+	public boolean success = false;
+	/**
+	 * Number of rows in the batches of the left-most table
+	 * that remained to join at the start of each execution
+	 * (zero if unknown, e.g. for batches that are not
+	 * materialized).
+	 */
+	public long nrRowsTotal = 0;
+	/**
+	 * Number of rows of the left-most table that were
+	 * joined with all other tables during the episode.
+	 */
+	public long nrRowsJoined = 0;
+	/**
+	 * Number of batches of the left-most table that
+	 * were completely processed during the episode.
+	 */
+	public int nrBatchesFinalized = 0;
+	/**
+	 * Number of rows inserted into the join result.
+	 */
+	public long nrResultRows = 0;
+	/**
+	 * Reward scaling factor of the left-most table (i.e.,
+	 * value of one processed batch of that table relative
+	 * to batches of other tables).
+	 */
+	public double scaling = 1;
+	/**
+	 * Initializes statistics for an episode.
+	 * 
+	 * @param timeoutMillis		timeout for first execution
+	 */
+	public EpisodeStats(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+	/**
+	 * Returns fraction of the work on the batches of the
+	 * left-most table, selected at the start of each
+	 * execution, that was completed.
+	 * 
+	 * @return	ratio between zero and one
+	 */
+	public double progress() {
+		if (nrRowsTotal > 0) {
+			return Math.min(1.0, (double)nrRowsJoined / nrRowsTotal);
+		} else {
+			return nrBatchesFinalized > 0 ? 1.0 : 0.0;
+		}
+	}
+}
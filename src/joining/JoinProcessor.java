@@ -1,16 +1,24 @@
 package joining;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import config.JoinConfig;
 import config.LogConfig;
 import config.NamingConfig;
 import connector.PgConnector;
+import optimizer.OrderCache;
+import optimizer.TreeStore;
 import optimizer.uct.UctNode;
 import preprocessing.PreSummary;
 import query.QueryInfo;
-import statistics.GeneralStats;
-import statistics.JoinStats;
+import statistics.Metrics;
 
 /**
  * Executes joins between data batches, taken from
@@ -52,6 +60,121 @@ public class JoinProcessor {
 		}
 		return -1;
 	}
+	/**
+	 * Samples join orders via the UCT algorithm and executes them
+	 * on data batches, until the given round is reached or join
+	 * processing finishes. Executes rounds concurrently if
+	 * multiple workers are configured (the current thread
+	 * acts as first worker).
+	 * 
+	 * @param uctRoot			root of UCT search tree
+	 * @param executor			executes join orders on batches
+	 * @param startRound		last round executed so far
+	 * @param lastRound			execute no rounds beyond this one
+	 * @param timeouts			available timeouts to choose from
+	 * @param accumulatedTime	accumulated time for each timeout
+	 * @param fingerprint		fingerprint of query shape (used to
+	 * 							checkpoint the search tree if enabled)
+	 * @return					last executed round
+	 * @throws Exception
+	 */
+	static long sampleBatched(UctNode uctRoot, BatchedExecutor executor, 
+			long startRound, long lastRound, int[] timeouts, 
+			int[] accumulatedTime, String fingerprint) throws Exception {
+		AtomicLong roundCtr = new AtomicLong(startRound);
+		long startMillis = System.currentTimeMillis();
+		int nrWorkers = executor.workers.size();
+		ExecutorService threads = null;
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		if (nrWorkers > 1) {
+			threads = Executors.newFixedThreadPool(nrWorkers - 1);
+			for (int workerCtr=1; workerCtr<nrWorkers; ++workerCtr) {
+				BatchWorker worker = executor.workers.get(workerCtr);
+				results.add(threads.submit(() -> {
+					executor.attach(worker);
+					sampleRounds(uctRoot, executor, roundCtr, lastRound,
+							timeouts, accumulatedTime, fingerprint);
+					return null;
+				}));
+			}
+		}
+		Exception error = null;
+		try {
+			sampleRounds(uctRoot, executor, roundCtr, lastRound,
+					timeouts, accumulatedTime, fingerprint);
+		} catch (Exception e) {
+			// Other workers stop after their current round
+			executor.finished = true;
+			error = e;
+		}
+		if (threads != null) {
+			// Wait for all workers (also after failures so that
+			// no worker keeps using its session).
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					if (error == null) {
+						error = e;
+					}
+				}
+			}
+			threads.shutdown();
+		}
+		if (error != null) {
+			throw error;
+		}
+		long endRound = Math.min(roundCtr.get(), lastRound);
+		Metrics.recordRounds(endRound - startRound, 
+				System.currentTimeMillis() - startMillis);
+		return endRound;
+	}
+	/**
+	 * Executes rounds on behalf of the worker associated with
+	 * the current thread until the given round is reached or
+	 * join processing finishes.
+	 * 
+	 * @param uctRoot			root of UCT search tree
+	 * @param executor			executes join orders on batches
+	 * @param roundCtr			counts rounds over all workers
+	 * @param lastRound			execute no rounds beyond this one
+	 * @param timeouts			available timeouts to choose from
+	 * @param accumulatedTime	accumulated time for each timeout
+	 * @param fingerprint		fingerprint of query shape (used to
+	 * 							checkpoint the search tree if enabled)
+	 * @throws Exception
+	 */
+	static void sampleRounds(UctNode uctRoot, BatchedExecutor executor,
+			AtomicLong roundCtr, long lastRound, int[] timeouts, 
+			int[] accumulatedTime, String fingerprint) throws Exception {
+		int[] order = new int[executor.query.nrJoined];
+		while (!executor.finished) {
+			long round = roundCtr.incrementAndGet();
+			if (round > lastRound) {
+				break;
+			}
+			int timeout;
+			synchronized (accumulatedTime) {
+				int level = nextTimeout(timeouts, accumulatedTime);
+				timeout = timeouts[level];
+			}
+			uctRoot.sample(round, order, timeout);
+			if (round > JoinConfig.softenTimeoutAfter) {
+				JoinConfig.hardTimeout = false;
+			}
+			// Print out dominant join order
+			if (round % LogConfig.logDominantEvery == 0) {
+				int[] domOrder = uctRoot.dominantOrder();
+				System.out.println("Dominant order:\t" + 
+						Arrays.toString(domOrder));
+			}
+			// Checkpoint search tree to resume learning later
+			if (TreeStore.enabled() && 
+					round % JoinConfig.checkpointTreeEvery == 0) {
+				TreeStore.save(fingerprint, uctRoot);
+			}
+		}
+	}
 	/**
 	 * Generates one SQL query that would conclude the join phase
 	 * if its execution is possible within the current time budget.
@@ -84,6 +207,7 @@ public class JoinProcessor {
 		}
 		sqlBuilder.append(" WHERE ");
 		sqlBuilder.append(executor.whereSQL);
+		sqlBuilder.append(executor.groupBySQL);
 		sqlBuilder.append(");");
 		return sqlBuilder.toString();
 	}
@@ -104,8 +228,6 @@ public class JoinProcessor {
 	public static JoinSummary process(QueryInfo query, 
 			PreSummary preSummary, String queryID) throws Exception {
 		System.out.println("Starting join processing ...");
-		// Re-initialize statistics
-		GeneralStats.lastNonBatchedTime = -1;
 		// Generate names for intermediate result relations
 		String joinResultTable = NamingConfig.JOIN_TBL + queryID;
 		String finalResultTable = NamingConfig.FINAL_TBL + queryID;
@@ -113,7 +235,8 @@ public class JoinProcessor {
 		PgConnector.dropTable(finalResultTable);
 		// Prepare join executor
 		BatchedExecutor executor = new BatchedExecutor(
-				query, preSummary, joinResultTable);
+				query, preSummary, queryID);
+		executor.addWorkers(JoinConfig.nrWorkers - 1);
 		// Get configuration parameters
 		int nrTimeouts = JoinConfig.nrTimeouts;
 		int base = JoinConfig.timeoutBase;
@@ -125,84 +248,120 @@ public class JoinProcessor {
 			timeouts[timeCtr] = (int)Math.round(base * 
 					Math.pow(factor, timeCtr));
 		}
-		// Create UCT root node
+		// Create UCT root node (warm-started for known query shapes,
+		// either from the cache or from a tree stored on disk).
 		long roundCtr = 0;
-		UctNode uctRoot = new UctNode(
-				0, query, true, executor);
-		// Initialize join stats
-		JoinStats.init();
+		String fingerprint = JoinConfig.cacheJoinOrders || 
+				TreeStore.enabled() ? OrderCache.fingerprint(query) : null;
+		OrderCache.Entry cached = JoinConfig.cacheJoinOrders ?
+				OrderCache.lookup(fingerprint) : null;
+		UctNode storedRoot = cached == null && TreeStore.enabled() ?
+				TreeStore.loadUct(fingerprint, query, executor) : null;
+		UctNode uctRoot = cached != null ?
+				new UctNode(cached.tree, query, executor) :
+				storedRoot != null ? storedRoot :
+				new UctNode(0, query, true, executor);
+		if (storedRoot != null) {
+			System.out.println("Resuming from stored search tree with " + 
+					storedRoot.nrVisits() + " samples");
+		}
+		// Execute cached join order directly if confident about it
+		boolean skipBatched = cached != null && cached.trusted();
+		if (cached != null) {
+			System.out.println("Warm start from " + cached.nrVisits + 
+					" cached samples (confidence " + cached.confidence + 
+					", skip learning: " + skipBatched + ")");
+		}
 		// Execute until join phase finished
 		int roundsToSwitch = JoinConfig.initialRoundsToSwitch;
-		int[] order = new int[query.nrJoined];
 		boolean allFinished = false;
-		while (!executor.finished && !allFinished) {
-			// Try execution one by one on small data batches
-			PgConnector.enableBatchConfiguration();
-			long batchedStartRound = roundCtr;
-			long batchedStartMillis = System.currentTimeMillis();
-			while (!executor.finished && 
-					roundCtr - batchedStartRound <= roundsToSwitch) {
-				++roundCtr;
-				int level = nextTimeout(timeouts, accumulatedTime);
-				int timeout = timeouts[level];
-				uctRoot.sample(roundCtr, order, timeout);
-				if (roundCtr > JoinConfig.softenTimeoutAfter) {
-					JoinConfig.hardTimeout = false;
+		// Whether non-batched execution produced the final result
+		boolean postProcessed = false;
+		try {
+			while (!executor.finished && !allFinished) {
+				// Try execution one by one on small data batches
+				PgConnector.enableBatchConfiguration();
+				long batchedStartRound = roundCtr;
+				long batchedStartMillis = System.currentTimeMillis();
+				boolean learned = !skipBatched;
+				if (learned) {
+					roundCtr = sampleBatched(uctRoot, executor, roundCtr, 
+							batchedStartRound + roundsToSwitch + 1, 
+							timeouts, accumulatedTime, fingerprint);
 				}
-				// Print out dominant join order
-				if (roundCtr % LogConfig.logDominantEvery == 0) {
-					int[] domOrder = uctRoot.dominantOrder();
-					System.out.println("Dominant order:\t" + 
-							Arrays.toString(domOrder));
+				skipBatched = false;
+				// Follow up with non-batched execution if not finished
+				if (!executor.finished) {
+					long startMillis = System.currentTimeMillis();
+					long totalBatchedMillis = Math.max(1, 
+							System.currentTimeMillis() - batchedStartMillis);
+					System.out.println("Start millis: " + batchedStartMillis);
+					System.out.println("Total millis: " + totalBatchedMillis);
+					// Try execution without batching
+					PgConnector.disableBatchConfiguration();
+					int[] dominantOrder = uctRoot.dominantOrder();
+					// Join only batches that were not processed if possible
+					String remainingSQL = executor.remainingQuery(dominantOrder);
+					String reorderedQuery = query.reorderedQuery(dominantOrder);
+					String createResultSQL = remainingSQL != null ? remainingSQL : 
+						"CREATE TEMP TABLE " + finalResultTable + 
+							" AS (" + reorderedQuery + ");";
+					System.out.println("Query with joins reordered according to dominant order:");
+					System.out.println(remainingSQL != null ? 
+							remainingSQL : reorderedQuery);
+					if (JoinConfig.switchBackToBatchMode && learned) {
+						System.out.println("Trying non-batched execution for " + 
+								totalBatchedMillis + " ms ...");
+						allFinished = PgConnector.updateOrTimeout(
+								createResultSQL, (int)totalBatchedMillis);					
+					} else {
+						System.out.println("Executing without batching.");
+						PgConnector.setNoTimeout();
+						PgConnector.update(createResultSQL);
+						allFinished = true;
+					}
+					postProcessed = allFinished && remainingSQL == null;
+					// record time for non-batched execution
+					executor.stats.nonBatchedMillis = 
+							System.currentTimeMillis() - startMillis;
+					if (allFinished) {
+						System.out.println("Non-batched execution successful!");
+					} else {
+						System.out.println("Non-batched execution failed - back to batch mode ...");
+					}
+					// Scale up budget per approach
+					roundsToSwitch *= JoinConfig.roundsToSwitchScaleUp;				
 				}
-			}
-			// Follow up with non-batched execution if not finished
-			if (!executor.finished) {
-				long startMillis = System.currentTimeMillis();
-				long totalBatchedMillis = Math.max(1, 
-						System.currentTimeMillis() - batchedStartMillis);
-				System.out.println("Start millis: " + batchedStartMillis);
-				System.out.println("Total millis: " + totalBatchedMillis);
-				// Try execution without batching
-				PgConnector.disableBatchConfiguration();
+				// Output instructions for running optimized query in PG
 				int[] dominantOrder = uctRoot.dominantOrder();
 				String reorderedQuery = query.reorderedQuery(dominantOrder);
-				String createResultSQL = "CREATE TEMP TABLE " + finalResultTable + 
-						" AS (" + reorderedQuery + ");";
-				System.out.println("Query with joins reordered according to dominant order:");
-				System.out.println(reorderedQuery);
-				if (JoinConfig.switchBackToBatchMode) {
-					System.out.println("Trying non-batched execution for " + 
-							totalBatchedMillis + " ms ...");
-					allFinished = PgConnector.updateOrTimeout(
-							createResultSQL, (int)totalBatchedMillis);					
-				} else {
-					System.out.println("Executing without batching.");
-					PgConnector.setNoTimeout();
-					PgConnector.update(createResultSQL);
-					allFinished = true;
-				}
-				// record time for non-batched execution
-				GeneralStats.lastNonBatchedTime = 
-						System.currentTimeMillis() - startMillis;
-				if (allFinished) {
-					System.out.println("Non-batched execution successful!");
-				} else {
-					System.out.println("Non-batched execution failed - back to batch mode ...");
-				}
-				// Scale up budget per approach
-				roundsToSwitch *= JoinConfig.roundsToSwitchScaleUp;				
+				System.out.println("--- Try this in Postgres ---");
+				System.out.println("set join_collapse_limit = 1;");
+				System.out.println(reorderedQuery + ";");
+				System.out.println("-------");
+			}
+		} catch (Exception e) {
+			// Release sessions of workers before giving up
+			try {
+				executor.close();
+			} catch (Exception closeError) {
+				e.addSuppressed(closeError);
 			}
-			// Output instructions for running optimized query in PG
-			int[] dominantOrder = uctRoot.dominantOrder();
-			String reorderedQuery = query.reorderedQuery(dominantOrder);
-			System.out.println("--- Try this in Postgres ---");
-			System.out.println("set join_collapse_limit = 1;");
-			System.out.println(reorderedQuery + ";");
-			System.out.println("-------");
+			throw e;
+		}
+		// Cache search tree for queries with the same shape
+		if (JoinConfig.cacheJoinOrders) {
+			OrderCache.store(fingerprint, uctRoot);
+		}
+		if (TreeStore.enabled()) {
+			TreeStore.save(fingerprint, uctRoot);
 		}
+		// Release sessions of additional workers
+		executor.close();
 		// Return summary
 		return new JoinSummary(joinResultTable, 
-				executor.joinResultColumns, allFinished);
+				executor.joinResultColumns, postProcessed, 
+				executor.duplicateFree(), executor.aggregation,
+				executor.stats);
 	}
 }
@@ -2,6 +2,9 @@ package joining;
 
 import java.util.List;
 
+import postprocessing.PartialAggregation;
+import statistics.JoinStats;
+
 /**
  * A summary of processing steps taken
  * during the join phase.
@@ -23,6 +26,20 @@ public class JoinSummary {
 	 * part of fast-forwarding.
 	 */
 	public final boolean finishedPostProceccing;
+	/**
+	 * Whether the join result contains each result
+	 * tuple only once (i.e., no deduplication needed).
+	 */
+	public final boolean duplicateFree;
+	/**
+	 * Describes partial aggregates in the join
+	 * result (null if result is not aggregated).
+	 */
+	public final PartialAggregation aggregation;
+	/**
+	 * Statistics collected during the join phase.
+	 */
+	public final JoinStats stats;
 	/**
 	 * Initializes join phase summary.
 	 * 
@@ -31,11 +48,18 @@ public class JoinSummary {
 	 * 									stored.
 	 * @param resultTableColumns		List of join result table columns.
 	 * @param finishedPostProcessing	whether post-processing was finished already.
+	 * @param duplicateFree				whether join result needs no deduplication.
+	 * @param aggregation				partial aggregates in join result (or null).
+	 * @param stats						statistics collected during join phase.
 	 */
 	public JoinSummary(String resultTable, List<String> resultTableColumns,
-			boolean finishedPostProcessing) {
+			boolean finishedPostProcessing, boolean duplicateFree,
+			PartialAggregation aggregation, JoinStats stats) {
 		this.resultTable = resultTable;
 		this.resultTableColumns = resultTableColumns;
 		this.finishedPostProceccing = finishedPostProcessing;
+		this.duplicateFree = duplicateFree;
+		this.aggregation = aggregation;
+		this.stats = stats;
 	}
 }
@@ -0,0 +1,237 @@
+package joining;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import config.NamingConfig;
+import connector.PgConnector;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import postprocessing.PartialAggregation;
+import query.ColumnRef;
+import query.QueryInfo;
+
+/**
+ * Exploits LIMIT clauses to shorten the join phase of queries
+ * without aggregation (requires duplicate-free join results).
+ * Without ORDER BY clause, join processing ends once enough
+ * result rows were generated. If the first ORDER BY item is
+ * a column, batches of the table containing that column are
+ * discarded once their value range (determined via one scan)
+ * lies behind the k-th result row generated so far.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class ResultLimit {
+	/**
+	 * Number of result rows required by the query.
+	 */
+	final long limit;
+	/**
+	 * Whether join processing ends once enough rows exist.
+	 */
+	final boolean stopEarly;
+	/**
+	 * Index of the alias whose batches may be discarded
+	 * (-1 if batches are never discarded).
+	 */
+	final int orderedIdx;
+	/**
+	 * Ordered column (if batches may be discarded).
+	 */
+	final ColumnRef orderedColumn;
+	/**
+	 * Whether results are sorted in ascending order.
+	 */
+	final boolean ascending;
+	/**
+	 * Table holding value ranges of ordered column per batch.
+	 */
+	final String boundsTable;
+	/**
+	 * Name of table holding join result.
+	 */
+	final String joinResultTable;
+	/**
+	 * Number of rows inserted into join result.
+	 */
+	long nrResultRows = 0;
+	/**
+	 * Number of result rows when batches were last discarded.
+	 */
+	long nrRowsAtDiscard = 0;
+	/**
+	 * Whether table with value ranges per batch was created.
+	 */
+	boolean boundsCreated = false;
+	/**
+	 * Analyzes LIMIT and ORDER BY clause of given query.
+	 *
+	 * @param query				query to process
+	 * @param queryID			query ID used for naming intermediate tables
+	 * @param joinResultTable	name of table holding join result
+	 * @throws Exception
+	 */
+	ResultLimit(QueryInfo query, String queryID,
+			String joinResultTable) throws Exception {
+		this.limit = query.limit;
+		this.joinResultTable = joinResultTable;
+		boolean aggregates = !query.groupByExpressions.isEmpty() ||
+				PartialAggregation.aggregates(query);
+		boolean distinct = query.plainSelect.getDistinct() != null;
+		boolean ordered = !query.orderByExpressions.isEmpty();
+		stopEarly = limit >= 0 && !aggregates && !distinct && !ordered;
+		// Can we discard batches based on the first ORDER BY item?
+		OrderByElement first = ordered ?
+				query.plainSelect.getOrderByElements().get(0) : null;
+		if (limit > 0 && !aggregates && !distinct && ordered &&
+				first.getNullOrdering() == null &&
+				query.orderByExpressions.get(0).finalExpression
+				instanceof Column) {
+			Column column = (Column)query.orderByExpressions.get(0).
+					finalExpression;
+			String alias = column.getTable().getName();
+			orderedIdx = query.aliasToIndex.get(alias);
+			orderedColumn = new ColumnRef(alias, column.getColumnName());
+			ascending = first.isAsc();
+			boundsTable = NamingConfig.aliasTable(
+					NamingConfig.BOUNDS_TBL, queryID, alias);
+		} else {
+			orderedIdx = -1;
+			orderedColumn = null;
+			ascending = true;
+			boundsTable = null;
+		}
+	}
+	/**
+	 * Returns true iff the query's LIMIT clause can be exploited.
+	 *
+	 * @return	true iff join processing may stop early
+	 */
+	boolean applies() {
+		return stopEarly || orderedIdx >= 0;
+	}
+	/**
+	 * Registers rows inserted into the join result and returns
+	 * true iff enough rows were generated to stop joining.
+	 *
+	 * @param nrRows	number of inserted rows
+	 * @return			true iff join processing can end
+	 */
+	synchronized boolean addRows(long nrRows) {
+		nrResultRows += nrRows;
+		return stopEarly && nrResultRows >= limit;
+	}
+	/**
+	 * Returns true iff batches of the ordered table may be
+	 * discarded since enough result rows exist and new rows
+	 * were added since batches were last discarded.
+	 *
+	 * @return	true iff discarding batches may be worthwhile
+	 */
+	synchronized boolean discardPending() {
+		return orderedIdx >= 0 && nrResultRows >= limit &&
+				nrResultRows > nrRowsAtDiscard;
+	}
+	/**
+	 * Returns batches of the ordered table whose tuples cannot
+	 * appear among the first result rows (their values of the
+	 * ordered column lie behind the k-th result row so far).
+	 * Batches containing NULL values are only discarded if
+	 * NULL values are sorted last.
+	 *
+	 * @param table		name of ordered table after pre-processing
+	 * @param todo		batches of ordered table that remain
+	 * @param worker	worker whose session is used
+	 * @return			IDs of batches that can be discarded
+	 * @throws Exception
+	 */
+	synchronized List<Integer> discardable(String table,
+			List<Integer> todo, BatchWorker worker) throws Exception {
+		nrRowsAtDiscard = nrResultRows;
+		if (!boundsCreated) {
+			createBounds(table);
+		}
+		String resultColumn = orderedColumn.toString("_");
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("SELECT ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(" FROM ");
+		sqlBuilder.append(boundsTable);
+		sqlBuilder.append(" WHERE ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(" = ANY(?) AND ");
+		sqlBuilder.append(ascending ? "SkinnerLower > " :
+			"NOT SkinnerNulls AND SkinnerUpper < ");
+		sqlBuilder.append("(SELECT ");
+		sqlBuilder.append(resultColumn);
+		sqlBuilder.append(" FROM ");
+		sqlBuilder.append(joinResultTable);
+		sqlBuilder.append(" ORDER BY ");
+		sqlBuilder.append(resultColumn);
+		sqlBuilder.append(ascending ? " ASC" : " DESC");
+		sqlBuilder.append(" OFFSET ");
+		sqlBuilder.append(limit - 1);
+		sqlBuilder.append(" LIMIT 1);");
+		PreparedStatement statement = worker.session.connection.
+				prepareStatement(sqlBuilder.toString());
+		List<Integer> discarded = new ArrayList<Integer>();
+		try {
+			statement.setArray(1, worker.session.connection.
+					createArrayOf("integer", todo.toArray()));
+			ResultSet result = statement.executeQuery();
+			while (result.next()) {
+				discarded.add(result.getInt(1));
+			}
+		} finally {
+			statement.close();
+		}
+		return discarded;
+	}
+	/**
+	 * Creates table storing for each batch of the ordered table
+	 * the range of values in the ordered column and whether it
+	 * contains NULL values.
+	 *
+	 * @param table		name of ordered table after pre-processing
+	 * @throws Exception
+	 */
+	void createBounds(String table) throws Exception {
+		PgConnector.dropTable(boundsTable);
+		String column = orderedColumn.toString();
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append(PgConnector.createIntermediateSQL());
+		sqlBuilder.append(boundsTable);
+		sqlBuilder.append(" AS (SELECT ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(", MIN(");
+		sqlBuilder.append(column);
+		sqlBuilder.append(") AS SkinnerLower, MAX(");
+		sqlBuilder.append(column);
+		sqlBuilder.append(") AS SkinnerUpper, bool_or(");
+		sqlBuilder.append(column);
+		sqlBuilder.append(" IS NULL) AS SkinnerNulls FROM ");
+		sqlBuilder.append(table);
+		sqlBuilder.append(" AS ");
+		sqlBuilder.append(orderedColumn.aliasName);
+		sqlBuilder.append(" GROUP BY ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(");");
+		PgConnector.update(sqlBuilder.toString());
+		boundsCreated = true;
+	}
+	/**
+	 * Drops table storing value ranges per batch if created.
+	 *
+	 * @throws Exception
+	 */
+	synchronized void close() throws Exception {
+		if (boundsCreated) {
+			PgConnector.dropTable(boundsTable);
+			boundsCreated = false;
+		}
+	}
+}
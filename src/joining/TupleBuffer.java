@@ -0,0 +1,289 @@
+package joining;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+
+import config.NamingConfig;
+import connector.PgSession;
+import expressions.ExpressionInfo;
+
+/**
+ * Caches the tuples of one (filtered) table in the JVM, grouped
+ * by batch. Tuples are streamed once via COPY and kept in their
+ * text representation. Join queries receive the tuples of the
+ * current batches as array parameters (expanded via unnest), so
+ * selecting new batches requires no statements at all.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class TupleBuffer {
+	/**
+	 * Names of cached columns (excluding the batch ID).
+	 */
+	public final String[] columnNames;
+	/**
+	 * SQL types of cached columns.
+	 */
+	public final String[] columnTypes;
+	/**
+	 * At i-th position: text values of i-th column (null
+	 * represents SQL NULL), rows are sorted by batch.
+	 */
+	final String[][] values;
+	/**
+	 * At i-th position: first row of batch i (the last
+	 * entry marks the end of the last batch).
+	 */
+	final int[] batchStart;
+	/**
+	 * Streams tuples of given table that satisfy the remaining
+	 * unary predicate into the buffer.
+	 *
+	 * @param session		load tuples via this session
+	 * @param table			name of table to load
+	 * @param alias			alias of table in query
+	 * @param typedColumns	comma-separated list of columns and types
+	 * @param unaryPred		remaining unary predicate (may be null)
+	 * @param nrBatches		number of batches for this table
+	 * @throws Exception
+	 */
+	public TupleBuffer(PgSession session, String table, String alias,
+			String typedColumns, ExpressionInfo unaryPred,
+			int nrBatches) throws Exception {
+		// Extract column names and types
+		String[] typedList = typedColumns.isEmpty() ?
+				new String[0] : typedColumns.split(", ");
+		int nrColumns = typedList.length;
+		columnNames = new String[nrColumns];
+		columnTypes = new String[nrColumns];
+		for (int colCtr=0; colCtr<nrColumns; ++colCtr) {
+			String[] nameAndType = typedList[colCtr].split(" ", 2);
+			columnNames[colCtr] = nameAndType[0];
+			columnTypes[colCtr] = nameAndType[1];
+		}
+		// Stream table content, ordered by batch
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("COPY (SELECT ");
+		for (String columnName : columnNames) {
+			sqlBuilder.append(columnName);
+			sqlBuilder.append(", ");
+		}
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(" FROM ");
+		sqlBuilder.append(table);
+		sqlBuilder.append(" AS ");
+		sqlBuilder.append(alias);
+		if (unaryPred != null) {
+			sqlBuilder.append(" WHERE ");
+			sqlBuilder.append(unaryPred.toString());
+		}
+		sqlBuilder.append(" ORDER BY ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(") TO STDOUT;");
+		CopyOut copyOut = ((PGConnection)session.connection).
+				getCopyAPI().copyOut(sqlBuilder.toString());
+		List<String[]> rows = new ArrayList<String[]>();
+		byte[] line;
+		while ((line = copyOut.readFromCopy()) != null) {
+			rows.add(parseLine(line, nrColumns + 1));
+		}
+		// Store data in columnar format
+		int cardinality = rows.size();
+		values = new String[nrColumns][cardinality];
+		int[] batchIDs = new int[cardinality];
+		for (int rowCtr=0; rowCtr<cardinality; ++rowCtr) {
+			String[] row = rows.get(rowCtr);
+			for (int colCtr=0; colCtr<nrColumns; ++colCtr) {
+				values[colCtr][rowCtr] = row[colCtr];
+			}
+			batchIDs[rowCtr] = Integer.parseInt(row[nrColumns]);
+		}
+		// Determine start of each batch
+		batchStart = new int[nrBatches + 1];
+		int rowCtr = 0;
+		for (int batchCtr=0; batchCtr<=nrBatches; ++batchCtr) {
+			while (rowCtr < cardinality && batchIDs[rowCtr] < batchCtr) {
+				++rowCtr;
+			}
+			batchStart[batchCtr] = rowCtr;
+		}
+		System.out.println("Buffered " + cardinality + " rows for " + alias);
+	}
+	/**
+	 * Splits one line in the text format of the COPY command
+	 * into field values, resolving escape sequences.
+	 *
+	 * @param line			line without final newline character
+	 * @param nrFields		number of fields per line
+	 * @return				field values (null represents NULL)
+	 */
+	static String[] parseLine(byte[] line, int nrFields) {
+		String text = new String(line, StandardCharsets.UTF_8);
+		String[] fields = new String[nrFields];
+		int fieldCtr = 0;
+		StringBuilder field = new StringBuilder();
+		int length = text.length();
+		if (length > 0 && text.charAt(length - 1) == '\n') {
+			--length;
+		}
+		for (int charCtr=0; charCtr<=length; ++charCtr) {
+			char c = charCtr < length ? text.charAt(charCtr) : '\t';
+			if (c == '\t') {
+				String value = field.toString();
+				fields[fieldCtr++] = value.equals("\\N") ? null : unescape(value);
+				field.setLength(0);
+			} else {
+				field.append(c);
+				// Escaped characters never end a field
+				if (c == '\\' && charCtr + 1 < length) {
+					field.append(text.charAt(++charCtr));
+				}
+			}
+		}
+		return fields;
+	}
+	/**
+	 * Resolves backslash escape sequences of the COPY text format.
+	 *
+	 * @param value		escaped field value
+	 * @return			value with escape sequences resolved
+	 */
+	static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder builder = new StringBuilder();
+		int length = value.length();
+		for (int charCtr=0; charCtr<length; ++charCtr) {
+			char c = value.charAt(charCtr);
+			if (c != '\\' || charCtr + 1 == length) {
+				builder.append(c);
+				continue;
+			}
+			char escaped = value.charAt(++charCtr);
+			switch (escaped) {
+			case 'b': builder.append('\b'); break;
+			case 'f': builder.append('\f'); break;
+			case 'n': builder.append('\n'); break;
+			case 'r': builder.append('\r'); break;
+			case 't': builder.append('\t'); break;
+			case 'v': builder.append('\u000b'); break;
+			default: builder.append(escaped); break;
+			}
+		}
+		return builder.toString();
+	}
+	/**
+	 * Returns the IDs of all non-empty batches.
+	 *
+	 * @return	list of non-empty batch IDs
+	 */
+	public List<Integer> nonEmptyBatches() {
+		List<Integer> nonEmpty = new ArrayList<Integer>();
+		for (int batchCtr=0; batchCtr+1<batchStart.length; ++batchCtr) {
+			if (batchStart[batchCtr + 1] > batchStart[batchCtr]) {
+				nonEmpty.add(batchCtr);
+			}
+		}
+		return nonEmpty;
+	}
+	/**
+	 * Returns the number of rows in the given batches.
+	 *
+	 * @param batches	IDs of batches
+	 * @return			total number of rows in batches
+	 */
+	public int nrRows(Collection<Integer> batches) {
+		int nrRows = 0;
+		for (int batch : batches) {
+			nrRows += batchStart[batch + 1] - batchStart[batch];
+		}
+		return nrRows;
+	}
+	/**
+	 * Generates a FROM clause item expanding the cached tuples,
+	 * passed as one array parameter per column, into a table
+	 * with the given alias.
+	 *
+	 * @param alias		alias of expanded table
+	 * @return			SQL FROM clause item with array parameters
+	 */
+	public String fromItem(String alias) {
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("unnest(");
+		for (String columnType : columnTypes) {
+			sqlBuilder.append("?::text[]::");
+			sqlBuilder.append(columnType);
+			sqlBuilder.append("[], ");
+		}
+		sqlBuilder.append("?::int[]) AS ");
+		sqlBuilder.append(alias);
+		sqlBuilder.append("(");
+		for (String columnName : columnNames) {
+			sqlBuilder.append(columnName);
+			sqlBuilder.append(", ");
+		}
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(")");
+		return sqlBuilder.toString();
+	}
+	/**
+	 * Binds rows of the given batches to the parameters of the
+	 * FROM clause item generated by fromItem(). Rows are numbered
+	 * consecutively over batches in ascending order of batch IDs.
+	 *
+	 * @param session		session executing the statement
+	 * @param statement		bind parameters of this statement
+	 * @param paramIdx		index of first parameter to bind
+	 * @param batches		IDs of batches to bind
+	 * @param fromRow		first row to bind
+	 * @param toRow			bind rows before this one
+	 * @return				index of next parameter after bound ones
+	 * @throws Exception
+	 */
+	public int bind(PgSession session, PreparedStatement statement,
+			int paramIdx, Set<Integer> batches, int fromRow,
+			int toRow) throws Exception {
+		// Collect positions of rows to bind
+		int nrBound = Math.max(0, Math.min(toRow, nrRows(batches)) - fromRow);
+		int[] rows = new int[nrBound];
+		int[] batchIDs = new int[nrBound];
+		int rowCtr = 0;
+		int boundCtr = 0;
+		for (int batch : new TreeSet<Integer>(batches)) {
+			for (int row=batchStart[batch]; row<batchStart[batch+1]; ++row) {
+				if (rowCtr >= fromRow && rowCtr < toRow) {
+					rows[boundCtr] = row;
+					batchIDs[boundCtr] = batch;
+					++boundCtr;
+				}
+				++rowCtr;
+			}
+		}
+		// Bind one array per column
+		for (String[] column : values) {
+			String[] bound = new String[boundCtr];
+			for (int pos=0; pos<boundCtr; ++pos) {
+				bound[pos] = column[rows[pos]];
+			}
+			statement.setArray(paramIdx++,
+					session.connection.createArrayOf("text", bound));
+		}
+		Integer[] boundBatches = new Integer[boundCtr];
+		for (int pos=0; pos<boundCtr; ++pos) {
+			boundBatches[pos] = batchIDs[pos];
+		}
+		statement.setArray(paramIdx++,
+				session.connection.createArrayOf("integer", boundBatches));
+		return paramIdx;
+	}
+}
@@ -0,0 +1,19 @@
+package joining.memory;
+
+/**
+ * Predicate compiled into bytecode that is evaluated on
+ * combinations of rows from in-memory tables.
+ *
+ * @author immanueltrummer
+ *
+ */
+public interface CompiledPredicate {
+	/**
+	 * Evaluates predicate on given tuple (SQL NULL values
+	 * make comparisons evaluate to false).
+	 *
+	 * @param tuple		at i-th position: row of i-th alias
+	 * @return			true iff the tuple satisfies the predicate
+	 */
+	public boolean evaluate(int[] tuple);
+}
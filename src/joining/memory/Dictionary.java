@@ -0,0 +1,44 @@
+package joining.memory;
+
+import com.koloboke.collect.map.hash.HashObjIntMap;
+import com.koloboke.collect.map.hash.HashObjIntMaps;
+
+/**
+ * Maps strings to integer codes. One dictionary is shared
+ * by all tables of a query, so equal values have equal
+ * codes across tables (codes do not preserve order).
+ *
+ * @author immanueltrummer
+ *
+ */
+public class Dictionary {
+	/**
+	 * Maps strings to their codes.
+	 */
+	final HashObjIntMap<String> stringToCode = HashObjIntMaps.newMutableMap();
+	/**
+	 * Returns code for given string, assigns new
+	 * code if the string was not seen before.
+	 *
+	 * @param value		string to encode
+	 * @return			non-negative code
+	 */
+	public int encode(String value) {
+		int code = stringToCode.getOrDefault(value, -1);
+		if (code < 0) {
+			code = stringToCode.size();
+			stringToCode.put(value, code);
+		}
+		return code;
+	}
+	/**
+	 * Returns code for given string or -1 if the
+	 * string does not appear in the dictionary.
+	 *
+	 * @param value		string to look up
+	 * @return			code or -1
+	 */
+	public int lookup(String value) {
+		return stringToCode.getOrDefault(value, -1);
+	}
+}
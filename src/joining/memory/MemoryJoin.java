@@ -0,0 +1,556 @@
+package joining.memory;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+
+import com.koloboke.collect.map.hash.HashLongObjMap;
+
+import config.JoinConfig;
+import config.LogConfig;
+import connector.PgSession;
+import expressions.ExpressionInfo;
+import expressions.normalization.CollectReferencesVisitor;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.schema.Column;
+import preprocessing.PreSummary;
+import query.ColumnRef;
+import query.QueryInfo;
+
+/**
+ * Executes join orders on data batches in the JVM: tables
+ * are loaded once into columnar arrays with hash indexes
+ * on equi-join columns, join orders are executed as
+ * left-deep index nested loop joins. Other join predicates
+ * are compiled into bytecode and evaluated as soon as all
+ * referenced tables are joined. Result tuples of
+ * successful episodes are copied into the join result
+ * table. Can be used by multiple workers concurrently
+ * (loaded data is read-only).
+ *
+ * @author immanueltrummer
+ *
+ */
+public class MemoryJoin {
+	/**
+	 * Query whose join orders are executed.
+	 */
+	final QueryInfo query;
+	/**
+	 * At i-th position: data of table behind i-th alias.
+	 */
+	public final TableData[] tableData;
+	/**
+	 * Equality join predicates: each entry contains alias
+	 * and column index for both sides of the equality.
+	 */
+	final List<int[]> equiPreds = new ArrayList<int[]>();
+	/**
+	 * Other join predicates, compiled into bytecode.
+	 */
+	final List<CompiledPredicate> compiledPreds =
+			new ArrayList<CompiledPredicate>();
+	/**
+	 * At i-th position: indexes of aliases referenced
+	 * by i-th compiled predicate.
+	 */
+	final List<int[]> compiledAliases = new ArrayList<int[]>();
+	/**
+	 * Name of table into which join results are inserted.
+	 */
+	final String joinResultTable;
+	/**
+	 * Alias index of each column in the join result.
+	 */
+	final int[] resultAliases;
+	/**
+	 * Column index (in loaded table data) of each
+	 * column in the join result.
+	 */
+	final int[] resultColumns;
+	/**
+	 * COPY statement inserting into join result table.
+	 */
+	final String copySQL;
+	/**
+	 * Check for timeouts after that many join steps.
+	 */
+	final static int TIMEOUT_CHECK_EVERY = 1024;
+	/**
+	 * Returns true iff all join predicates of the given query
+	 * can be evaluated by the in-memory engine.
+	 *
+	 * @param query		query to check
+	 * @return			true iff query is supported
+	 */
+	public static boolean supports(QueryInfo query) {
+		for (ExpressionInfo joinPred : query.joinPredicates) {
+			List<Expression> conjuncts = new ArrayList<Expression>();
+			QueryInfo.extractConjuncts(joinPred.finalExpression, conjuncts);
+			for (Expression conjunct : conjuncts) {
+				if (!isEquiJoin(query, conjunct) &&
+						!PredicateCompiler.supports(query, conjunct)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	/**
+	 * Returns true iff the given predicate is an equality between
+	 * columns of different tables that can be evaluated via
+	 * hash indexes.
+	 *
+	 * @param query			query containing predicate
+	 * @param predicate		predicate to check
+	 * @return				true iff predicate is an equi-join
+	 */
+	static boolean isEquiJoin(QueryInfo query, Expression predicate) {
+		if (!(predicate instanceof EqualsTo)) {
+			return false;
+		}
+		EqualsTo equals = (EqualsTo)predicate;
+		if (equals.isNot() ||
+				!(equals.getLeftExpression() instanceof Column) ||
+				!(equals.getRightExpression() instanceof Column)) {
+			return false;
+		}
+		ColumnRef left = columnRef(equals.getLeftExpression());
+		ColumnRef right = columnRef(equals.getRightExpression());
+		return !left.aliasName.equals(right.aliasName) &&
+				TableData.isIntegerType(query.colRefToInfo.get(left)) ==
+				TableData.isIntegerType(query.colRefToInfo.get(right));
+	}
+	/**
+	 * Returns reference to column represented by expression.
+	 *
+	 * @param expression	column expression
+	 * @return				reference to column
+	 */
+	static ColumnRef columnRef(Expression expression) {
+		Column column = (Column)expression;
+		return new ColumnRef(column.getTable().getName(),
+				column.getColumnName());
+	}
+	/**
+	 * Loads all tables joined by the given query.
+	 *
+	 * @param query				query to process
+	 * @param preSummary		summary of pre-processing
+	 * @param tables			at i-th position: table behind i-th alias
+	 * @param nrBatches			at i-th position: number of batches
+	 * @param joinResultTable	insert join results into this table
+	 * @param duplicateFree		whether join result is free of duplicates
+	 * 							(otherwise, batch IDs are inserted as well)
+	 * @throws Exception
+	 */
+	public MemoryJoin(QueryInfo query, PreSummary preSummary,
+			String[] tables, int[] nrBatches, String joinResultTable,
+			boolean duplicateFree) throws Exception {
+		this.query = query;
+		this.joinResultTable = joinResultTable;
+		int nrJoined = query.nrJoined;
+		// Load data
+		Dictionary dictionary = new Dictionary();
+		tableData = new TableData[nrJoined];
+		for (int aliasCtr=0; aliasCtr<nrJoined; ++aliasCtr) {
+			String alias = query.aliases[aliasCtr];
+			tableData[aliasCtr] = new TableData(query, alias,
+					tables[aliasCtr], preSummary.aliasToNonIDcols.get(alias),
+					preSummary.aliasToUnaryTodo.get(alias),
+					nrBatches[aliasCtr], dictionary);
+		}
+		// Collect equality join predicates and compile others
+		PredicateCompiler compiler = new PredicateCompiler(
+				query, tableData, dictionary);
+		for (ExpressionInfo joinPred : query.joinPredicates) {
+			List<Expression> conjuncts = new ArrayList<Expression>();
+			QueryInfo.extractConjuncts(joinPred.finalExpression, conjuncts);
+			for (Expression conjunct : conjuncts) {
+				if (!isEquiJoin(query, conjunct)) {
+					CollectReferencesVisitor refVisitor =
+							new CollectReferencesVisitor();
+					conjunct.accept(refVisitor);
+					int[] aliases = new int[refVisitor.mentionedTables.size()];
+					int aliasCtr = 0;
+					for (String alias : refVisitor.mentionedTables) {
+						aliases[aliasCtr++] = query.aliasToIndex.get(alias);
+					}
+					compiledPreds.add(compiler.compile(conjunct));
+					compiledAliases.add(aliases);
+					continue;
+				}
+				EqualsTo equals = (EqualsTo)conjunct;
+				ColumnRef left = columnRef(equals.getLeftExpression());
+				ColumnRef right = columnRef(equals.getRightExpression());
+				int leftAlias = query.aliasToIndex.get(left.aliasName);
+				int rightAlias = query.aliasToIndex.get(right.aliasName);
+				equiPreds.add(new int[] {
+						leftAlias, tableData[leftAlias].columnIndex(left),
+						rightAlias, tableData[rightAlias].columnIndex(right)});
+			}
+		}
+		// Collect columns of join result (same order as in result table)
+		List<ColumnRef> resultRefs = new ArrayList<ColumnRef>();
+		if (!duplicateFree) {
+			resultRefs.addAll(query.colsForDedup);
+		}
+		resultRefs.addAll(query.colsForPostProcessing);
+		int nrResultCols = resultRefs.size();
+		resultAliases = new int[nrResultCols];
+		resultColumns = new int[nrResultCols];
+		List<String> resultNames = new ArrayList<String>();
+		for (int colCtr=0; colCtr<nrResultCols; ++colCtr) {
+			ColumnRef colRef = resultRefs.get(colCtr);
+			int aliasIdx = query.aliasToIndex.get(colRef.aliasName);
+			resultAliases[colCtr] = aliasIdx;
+			resultColumns[colCtr] = tableData[aliasIdx].columnIndex(colRef);
+			resultNames.add(colRef.aliasName + "_" + colRef.columnName);
+		}
+		copySQL = "COPY " + joinResultTable + " (" +
+				String.join(", ", resultNames) + ") FROM STDIN";
+	}
+	/**
+	 * Describes how one table is added to the join result:
+	 * rows are either retrieved via a hash index or by
+	 * scanning the table, then filtered via remaining
+	 * equality predicates and compiled predicates.
+	 */
+	static class JoinStep {
+		/**
+		 * Index of alias added in this step.
+		 */
+		int alias;
+		/**
+		 * Hash index used to retrieve matching rows
+		 * (null if all rows are scanned).
+		 */
+		HashLongObjMap<int[]> index = null;
+		/**
+		 * Alias and column providing probe values for index.
+		 */
+		int probeAlias, probeColumn;
+		/**
+		 * Equality predicates to check after retrieval: column
+		 * of new table, alias and column of joined table.
+		 */
+		List<int[]> checks = new ArrayList<int[]>();
+		/**
+		 * Compiled predicates that can be evaluated once
+		 * the table of this step is joined.
+		 */
+		CompiledPredicate[] predicates;
+	}
+	/**
+	 * Plans execution of given join order.
+	 *
+	 * @param order		join order
+	 * @return			join steps for each table after the first one
+	 */
+	JoinStep[] plan(int[] order) {
+		int nrJoined = order.length;
+		JoinStep[] steps = new JoinStep[nrJoined];
+		boolean[] joined = new boolean[nrJoined];
+		joined[order[0]] = true;
+		for (int joinCtr=1; joinCtr<nrJoined; ++joinCtr) {
+			int alias = order[joinCtr];
+			JoinStep step = new JoinStep();
+			step.alias = alias;
+			for (int[] pred : equiPreds) {
+				int newCol, otherAlias, otherCol;
+				if (pred[0] == alias && joined[pred[2]]) {
+					newCol = pred[1];
+					otherAlias = pred[2];
+					otherCol = pred[3];
+				} else if (pred[2] == alias && joined[pred[0]]) {
+					newCol = pred[3];
+					otherAlias = pred[0];
+					otherCol = pred[1];
+				} else {
+					continue;
+				}
+				if (step.index == null) {
+					step.index = tableData[alias].indexes.get(newCol);
+					step.probeAlias = otherAlias;
+					step.probeColumn = otherCol;
+				} else {
+					step.checks.add(new int[] {newCol, otherAlias, otherCol});
+				}
+			}
+			joined[alias] = true;
+			step.predicates = newlyApplicable(joined, alias);
+			steps[joinCtr] = step;
+		}
+		return steps;
+	}
+	/**
+	 * Returns compiled predicates that become applicable
+	 * once the given alias is joined.
+	 *
+	 * @param joined	marks aliases joined so far (including new one)
+	 * @param alias		alias joined last
+	 * @return			predicates referencing alias and joined tables only
+	 */
+	CompiledPredicate[] newlyApplicable(boolean[] joined, int alias) {
+		List<CompiledPredicate> applicable = new ArrayList<CompiledPredicate>();
+		int nrCompiled = compiledPreds.size();
+		for (int predCtr=0; predCtr<nrCompiled; ++predCtr) {
+			boolean refersToNew = false;
+			boolean allJoined = true;
+			for (int predAlias : compiledAliases.get(predCtr)) {
+				refersToNew |= predAlias == alias;
+				allJoined &= joined[predAlias];
+			}
+			if (refersToNew && allJoined) {
+				applicable.add(compiledPreds.get(predCtr));
+			}
+		}
+		return applicable.toArray(new CompiledPredicate[applicable.size()]);
+	}
+	/**
+	 * Stores state of one episode.
+	 */
+	static class Episode {
+		/**
+		 * Join steps to execute.
+		 */
+		final JoinStep[] steps;
+		/**
+		 * At i-th position: row selected for i-th alias.
+		 */
+		final int[] tuple;
+		/**
+		 * Join result tuples (each one contains one row per alias).
+		 */
+		final List<int[]> results = new ArrayList<int[]>();
+		/**
+		 * Time (in nanoseconds) at which processing times out.
+		 */
+		final long deadline;
+		/**
+		 * Number of join steps executed so far.
+		 */
+		long nrSteps = 0;
+		/**
+		 * Initializes episode.
+		 *
+		 * @param steps		join steps to execute
+		 * @param nrJoined	number of joined tables
+		 * @param deadline	timeout in nanoseconds
+		 */
+		Episode(JoinStep[] steps, int nrJoined, long deadline) {
+			this.steps = steps;
+			this.tuple = new int[nrJoined];
+			this.deadline = deadline;
+		}
+	}
+	/**
+	 * Returns number of rows in given batches of a table.
+	 *
+	 * @param aliasIdx	index of alias
+	 * @param batches	IDs of batches
+	 * @return			total number of rows in those batches
+	 */
+	public int nrRows(int aliasIdx, Collection<Integer> batches) {
+		TableData data = tableData[aliasIdx];
+		int nrRows = 0;
+		for (int batch : batches) {
+			nrRows += data.batchStart[batch + 1] - data.batchStart[batch];
+		}
+		return nrRows;
+	}
+	/**
+	 * Joins given batches of the first table in the join order
+	 * with all other tables, starting from the given offset
+	 * (i.e., skipping rows joined in prior episodes), and
+	 * inserts the result into the join result table. If
+	 * episodes are resumable, results for rows of the first
+	 * table that were fully joined before the timeout are
+	 * inserted as well. Otherwise, all results are discarded
+	 * at timeout.
+	 *
+	 * @param session			insert results via this session
+	 * @param order				join order
+	 * @param batches			batches of first table to join
+	 * @param offset			number of rows joined in prior episodes
+	 * @param timeoutMillis		timeout in milliseconds
+	 * @return					number of rows of first table joined so far
+	 * @throws Exception
+	 */
+	public int execute(PgSession session, int[] order,
+			Collection<Integer> batches, int offset,
+			int timeoutMillis) throws Exception {
+		long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+		Episode episode = new Episode(plan(order), order.length, deadline);
+		int firstAlias = order[0];
+		TableData firstTable = tableData[firstAlias];
+		int rowCtr = 0;
+		for (int batch : batches) {
+			int start = firstTable.batchStart[batch];
+			int end = firstTable.batchStart[batch + 1];
+			// Skip batches joined in prior episodes
+			if (rowCtr + end - start <= offset) {
+				rowCtr += end - start;
+				continue;
+			}
+			for (int row=start + Math.max(0, offset - rowCtr); row<end; ++row) {
+				int nrCompleteResults = episode.results.size();
+				episode.tuple[firstAlias] = row;
+				if (!join(episode, 1)) {
+					if (!JoinConfig.resumeEpisodes) {
+						return offset;
+					}
+					// Keep results of rows that were fully joined
+					episode.results.subList(nrCompleteResults,
+							episode.results.size()).clear();
+					insertResults(session, episode.results);
+					return rowCtr + row - start;
+				}
+			}
+			rowCtr += end - start;
+		}
+		if (LogConfig.VERBOSE) {
+			System.out.println("In-memory join produced " +
+					episode.results.size() + " tuples");
+		}
+		insertResults(session, episode.results);
+		return rowCtr;
+	}
+	/**
+	 * Extends the current tuple by rows of the table joined
+	 * in the given step (and all following steps).
+	 *
+	 * @param episode	state of current episode
+	 * @param stepCtr	index of current step in join order
+	 * @return			false iff a timeout occurred
+	 */
+	boolean join(Episode episode, int stepCtr) {
+		int[] tuple = episode.tuple;
+		if (stepCtr == episode.steps.length) {
+			episode.results.add(tuple.clone());
+			return true;
+		}
+		if (++episode.nrSteps % TIMEOUT_CHECK_EVERY == 0 &&
+				System.nanoTime() > episode.deadline) {
+			return false;
+		}
+		JoinStep step = episode.steps[stepCtr];
+		TableData data = tableData[step.alias];
+		if (step.index != null) {
+			long probe = tableData[step.probeAlias].values[
+					step.probeColumn][tuple[step.probeAlias]];
+			int[] rows = probe == TableData.NULL ? null : step.index.get(probe);
+			if (rows != null) {
+				for (int row : rows) {
+					if (!tryRow(episode, stepCtr, step, data, row)) {
+						return false;
+					}
+				}
+			}
+		} else {
+			int nrRows = data.cardinality;
+			for (int row=0; row<nrRows; ++row) {
+				if (!tryRow(episode, stepCtr, step, data, row)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	/**
+	 * Adds given row to current tuple if it satisfies all
+	 * remaining predicates and continues with next step.
+	 *
+	 * @param episode	state of current episode
+	 * @param stepCtr	index of current step in join order
+	 * @param step		current join step
+	 * @param data		data of table joined in current step
+	 * @param row		row to check
+	 * @return			false iff a timeout occurred
+	 */
+	boolean tryRow(Episode episode, int stepCtr, JoinStep step,
+			TableData data, int row) {
+		int[] tuple = episode.tuple;
+		for (int[] check : step.checks) {
+			long value = data.values[check[0]][row];
+			if (value == TableData.NULL || value !=
+					tableData[check[1]].values[check[2]][tuple[check[1]]]) {
+				return true;
+			}
+		}
+		tuple[step.alias] = row;
+		for (CompiledPredicate predicate : step.predicates) {
+			if (!predicate.evaluate(tuple)) {
+				return true;
+			}
+		}
+		return join(episode, stepCtr + 1);
+	}
+	/**
+	 * Inserts given result tuples into join result table
+	 * via the COPY protocol.
+	 *
+	 * @param session	insert via this session
+	 * @param results	result tuples (row index per alias)
+	 * @throws Exception
+	 */
+	void insertResults(PgSession session, List<int[]> results) throws Exception {
+		if (results.isEmpty()) {
+			return;
+		}
+		StringBuilder copyBuilder = new StringBuilder();
+		int nrResultCols = resultColumns.length;
+		for (int[] tuple : results) {
+			for (int colCtr=0; colCtr<nrResultCols; ++colCtr) {
+				if (colCtr > 0) {
+					copyBuilder.append('\t');
+				}
+				TableData data = tableData[resultAliases[colCtr]];
+				int column = resultColumns[colCtr];
+				int row = tuple[resultAliases[colCtr]];
+				if (data.values[column][row] == TableData.NULL) {
+					copyBuilder.append("\\N");
+				} else if (data.text[column] != null) {
+					appendEscaped(copyBuilder, data.text[column][row]);
+				} else {
+					copyBuilder.append(data.values[column][row]);
+				}
+			}
+			copyBuilder.append('\n');
+		}
+		((PGConnection)session.connection).getCopyAPI().copyIn(
+				copySQL, new StringReader(copyBuilder.toString()));
+	}
+	/**
+	 * Appends value in the text format of the COPY command.
+	 *
+	 * @param builder	append to this builder
+	 * @param value		value to append
+	 */
+	static void appendEscaped(StringBuilder builder, String value) {
+		int length = value.length();
+		for (int charCtr=0; charCtr<length; ++charCtr) {
+			char c = value.charAt(charCtr);
+			switch (c) {
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			default:
+				builder.append(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,436 @@
+package joining.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import catalog.ColumnInfo;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.expression.operators.arithmetic.Multiplication;
+import net.sf.jsqlparser.expression.operators.arithmetic.Subtraction;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.IsNullExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
+import net.sf.jsqlparser.schema.Column;
+import query.ColumnRef;
+import query.QueryInfo;
+
+/**
+ * Compiles predicates into Java bytecode, evaluated directly
+ * on the column arrays of in-memory tables. Supports
+ * conjunctions and disjunctions of comparisons between
+ * integer expressions (using addition, subtraction, and
+ * multiplication), equality and inequality between string
+ * columns and constants (via dictionary codes), and null
+ * checks. Comparisons involving SQL NULL values evaluate
+ * to false - as negation is not supported, this coincides
+ * with SQL semantics for filtering.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PredicateCompiler {
+	/**
+	 * Type of integer expressions.
+	 */
+	final static int INT = 0;
+	/**
+	 * Type of string expressions (represented by dictionary codes).
+	 */
+	final static int TEXT = 1;
+	/**
+	 * Marks expressions that cannot be compiled.
+	 */
+	final static int UNSUPPORTED = -1;
+	/**
+	 * Used to generate unique class names.
+	 */
+	final static AtomicInteger classCtr = new AtomicInteger();
+	/**
+	 * Loads generated classes.
+	 */
+	static class PredicateLoader extends ClassLoader {
+		/**
+		 * Initializes loader with the loader of the
+		 * predicate interface as parent.
+		 */
+		PredicateLoader() {
+			super(CompiledPredicate.class.getClassLoader());
+		}
+		/**
+		 * Defines class from given bytecode.
+		 *
+		 * @param name		name of class
+		 * @param bytecode	class file content
+		 * @return			defined class
+		 */
+		Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+	/**
+	 * Query whose predicates are compiled.
+	 */
+	final QueryInfo query;
+	/**
+	 * At i-th position: in-memory data of i-th alias.
+	 */
+	final TableData[] tableData;
+	/**
+	 * Dictionary used for encoding string values.
+	 */
+	final Dictionary dictionary;
+	/**
+	 * Columns accessed by the predicate currently compiled
+	 * (each one is stored in a separate field).
+	 */
+	final List<ColumnRef> fieldColumns = new ArrayList<ColumnRef>();
+	/**
+	 * Internal name of class currently generated.
+	 */
+	String className;
+	/**
+	 * Initializes compiler for given in-memory tables.
+	 *
+	 * @param query			query whose predicates are compiled
+	 * @param tableData		at i-th position: data of i-th alias
+	 * @param dictionary	encodes string constants
+	 */
+	public PredicateCompiler(QueryInfo query,
+			TableData[] tableData, Dictionary dictionary) {
+		this.query = query;
+		this.tableData = tableData;
+		this.dictionary = dictionary;
+	}
+	/**
+	 * Returns true iff the given predicate can be compiled.
+	 *
+	 * @param query			query containing predicate
+	 * @param predicate		predicate to check
+	 * @return				true iff predicate is supported
+	 */
+	public static boolean supports(QueryInfo query, Expression predicate) {
+		if (predicate instanceof AndExpression ||
+				predicate instanceof OrExpression) {
+			BinaryExpression binary = (BinaryExpression)predicate;
+			return !binary.isNot() &&
+					supports(query, binary.getLeftExpression()) &&
+					supports(query, binary.getRightExpression());
+		} else if (predicate instanceof Parenthesis) {
+			Parenthesis parenthesis = (Parenthesis)predicate;
+			return !parenthesis.isNot() &&
+					supports(query, parenthesis.getExpression());
+		} else if (isComparison(predicate)) {
+			BinaryExpression comparison = (BinaryExpression)predicate;
+			if (comparison.isNot()) {
+				return false;
+			}
+			Expression left = comparison.getLeftExpression();
+			Expression right = comparison.getRightExpression();
+			int leftType = typeOf(query, left);
+			int rightType = typeOf(query, right);
+			if (leftType == UNSUPPORTED || leftType != rightType) {
+				return false;
+			}
+			// Dictionary codes only allow checking for equality
+			if (leftType == TEXT) {
+				return (predicate instanceof EqualsTo ||
+						predicate instanceof NotEqualsTo) &&
+						isTextAtom(left) && isTextAtom(right);
+			}
+			return true;
+		} else if (predicate instanceof IsNullExpression) {
+			IsNullExpression isNull = (IsNullExpression)predicate;
+			return isNull.getLeftExpression() instanceof Column &&
+					typeOf(query, isNull.getLeftExpression()) != UNSUPPORTED;
+		} else {
+			return false;
+		}
+	}
+	/**
+	 * Returns true iff the expression is a comparison.
+	 *
+	 * @param expression	expression to check
+	 * @return				true iff expression compares two values
+	 */
+	static boolean isComparison(Expression expression) {
+		return expression instanceof EqualsTo ||
+				expression instanceof NotEqualsTo ||
+				expression instanceof GreaterThan ||
+				expression instanceof GreaterThanEquals ||
+				expression instanceof MinorThan ||
+				expression instanceof MinorThanEquals;
+	}
+	/**
+	 * Returns true iff the expression is a string column or constant.
+	 *
+	 * @param expression	expression to check
+	 * @return				true iff expression is atomic string
+	 */
+	static boolean isTextAtom(Expression expression) {
+		return expression instanceof Column ||
+				expression instanceof StringValue;
+	}
+	/**
+	 * Determines type of given value expression.
+	 *
+	 * @param query			query containing expression
+	 * @param expression	value expression
+	 * @return				type of expression or UNSUPPORTED
+	 */
+	static int typeOf(QueryInfo query, Expression expression) {
+		if (expression instanceof Column) {
+			ColumnRef colRef = MemoryJoin.columnRef(expression);
+			ColumnInfo colInfo = query.colRefToInfo.get(colRef);
+			if (colInfo == null) {
+				return UNSUPPORTED;
+			}
+			return TableData.isIntegerType(colInfo) ? INT : TEXT;
+		} else if (expression instanceof LongValue) {
+			return INT;
+		} else if (expression instanceof StringValue) {
+			return TEXT;
+		} else if (expression instanceof Parenthesis) {
+			Parenthesis parenthesis = (Parenthesis)expression;
+			return parenthesis.isNot() ? UNSUPPORTED :
+				typeOf(query, parenthesis.getExpression());
+		} else if (expression instanceof SignedExpression) {
+			SignedExpression signed = (SignedExpression)expression;
+			return typeOf(query, signed.getExpression()) == INT ?
+					INT : UNSUPPORTED;
+		} else if (expression instanceof Addition ||
+				expression instanceof Subtraction ||
+				expression instanceof Multiplication) {
+			BinaryExpression binary = (BinaryExpression)expression;
+			return typeOf(query, binary.getLeftExpression()) == INT &&
+					typeOf(query, binary.getRightExpression()) == INT ?
+							INT : UNSUPPORTED;
+		} else {
+			return UNSUPPORTED;
+		}
+	}
+	/**
+	 * Compiles given predicate into a class and returns
+	 * an instance that accesses the in-memory tables.
+	 *
+	 * @param predicate		predicate to compile (must be supported)
+	 * @return				compiled predicate
+	 * @throws Exception
+	 */
+	public CompiledPredicate compile(Expression predicate) throws Exception {
+		fieldColumns.clear();
+		className = "joining/memory/generated/Predicate" +
+				classCtr.incrementAndGet();
+		ClassWriter classWriter = new ClassWriter(
+				ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL,
+				className, null, "java/lang/Object",
+				new String[] {"joining/memory/CompiledPredicate"});
+		// Generate evaluation method (registers accessed columns)
+		MethodVisitor evaluate = classWriter.visitMethod(Opcodes.ACC_PUBLIC,
+				"evaluate", "([I)Z", null, null);
+		evaluate.visitCode();
+		Label falseLabel = new Label();
+		jumpIfFalse(evaluate, predicate, falseLabel);
+		evaluate.visitInsn(Opcodes.ICONST_1);
+		evaluate.visitInsn(Opcodes.IRETURN);
+		evaluate.visitLabel(falseLabel);
+		evaluate.visitInsn(Opcodes.ICONST_0);
+		evaluate.visitInsn(Opcodes.IRETURN);
+		evaluate.visitMaxs(0, 0);
+		evaluate.visitEnd();
+		// One field per accessed column
+		int nrFields = fieldColumns.size();
+		for (int fieldCtr=0; fieldCtr<nrFields; ++fieldCtr) {
+			classWriter.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL,
+					"c" + fieldCtr, "[J", null, null).visitEnd();
+		}
+		// Constructor initializes fields from array of columns
+		MethodVisitor init = classWriter.visitMethod(Opcodes.ACC_PUBLIC,
+				"<init>", "([[J)V", null, null);
+		init.visitCode();
+		init.visitVarInsn(Opcodes.ALOAD, 0);
+		init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object",
+				"<init>", "()V", false);
+		for (int fieldCtr=0; fieldCtr<nrFields; ++fieldCtr) {
+			init.visitVarInsn(Opcodes.ALOAD, 0);
+			init.visitVarInsn(Opcodes.ALOAD, 1);
+			init.visitLdcInsn(fieldCtr);
+			init.visitInsn(Opcodes.AALOAD);
+			init.visitFieldInsn(Opcodes.PUTFIELD, className, "c" + fieldCtr, "[J");
+		}
+		init.visitInsn(Opcodes.RETURN);
+		init.visitMaxs(0, 0);
+		init.visitEnd();
+		classWriter.visitEnd();
+		// Load class and instantiate
+		Class<?> predicateClass = new PredicateLoader().define(
+				className.replace('/', '.'), classWriter.toByteArray());
+		long[][] columns = new long[nrFields][];
+		for (int fieldCtr=0; fieldCtr<nrFields; ++fieldCtr) {
+			ColumnRef colRef = fieldColumns.get(fieldCtr);
+			TableData data = tableData[aliasIdx(colRef)];
+			columns[fieldCtr] = data.values[data.columnIndex(colRef)];
+		}
+		return (CompiledPredicate)predicateClass.getConstructor(
+				long[][].class).newInstance((Object)columns);
+	}
+	/**
+	 * Returns index of alias to which column refers.
+	 *
+	 * @param colRef	column reference
+	 * @return			index of alias
+	 */
+	int aliasIdx(ColumnRef colRef) {
+		return query.aliasToIndex.get(colRef.aliasName);
+	}
+	/**
+	 * Generates code that jumps to the given label if the
+	 * given condition is not satisfied and continues
+	 * otherwise.
+	 *
+	 * @param method		add code to this method
+	 * @param condition		condition to evaluate
+	 * @param falseLabel	jump here if condition is false
+	 */
+	void jumpIfFalse(MethodVisitor method,
+			Expression condition, Label falseLabel) {
+		if (condition instanceof AndExpression) {
+			AndExpression and = (AndExpression)condition;
+			jumpIfFalse(method, and.getLeftExpression(), falseLabel);
+			jumpIfFalse(method, and.getRightExpression(), falseLabel);
+		} else if (condition instanceof OrExpression) {
+			OrExpression or = (OrExpression)condition;
+			Label rightLabel = new Label();
+			Label trueLabel = new Label();
+			jumpIfFalse(method, or.getLeftExpression(), rightLabel);
+			method.visitJumpInsn(Opcodes.GOTO, trueLabel);
+			method.visitLabel(rightLabel);
+			jumpIfFalse(method, or.getRightExpression(), falseLabel);
+			method.visitLabel(trueLabel);
+		} else if (condition instanceof Parenthesis) {
+			Parenthesis parenthesis = (Parenthesis)condition;
+			jumpIfFalse(method, parenthesis.getExpression(), falseLabel);
+		} else if (condition instanceof IsNullExpression) {
+			IsNullExpression isNull = (IsNullExpression)condition;
+			pushValue(method, isNull.getLeftExpression());
+			method.visitLdcInsn(TableData.NULL);
+			method.visitInsn(Opcodes.LCMP);
+			method.visitJumpInsn(isNull.isNot() ?
+					Opcodes.IFEQ : Opcodes.IFNE, falseLabel);
+		} else {
+			// Comparison - false if any column is NULL
+			BinaryExpression comparison = (BinaryExpression)condition;
+			jumpIfNull(method, comparison, falseLabel);
+			pushValue(method, comparison.getLeftExpression());
+			pushValue(method, comparison.getRightExpression());
+			method.visitInsn(Opcodes.LCMP);
+			int jumpOpcode;
+			if (condition instanceof EqualsTo) {
+				jumpOpcode = Opcodes.IFNE;
+			} else if (condition instanceof NotEqualsTo) {
+				jumpOpcode = Opcodes.IFEQ;
+			} else if (condition instanceof GreaterThan) {
+				jumpOpcode = Opcodes.IFLE;
+			} else if (condition instanceof GreaterThanEquals) {
+				jumpOpcode = Opcodes.IFLT;
+			} else if (condition instanceof MinorThan) {
+				jumpOpcode = Opcodes.IFGE;
+			} else {
+				jumpOpcode = Opcodes.IFGT;
+			}
+			method.visitJumpInsn(jumpOpcode, falseLabel);
+		}
+	}
+	/**
+	 * Generates code that jumps to the given label if any
+	 * column in the given expression is NULL.
+	 *
+	 * @param method		add code to this method
+	 * @param expression	check columns in this expression
+	 * @param nullLabel		jump here if a NULL value is found
+	 */
+	void jumpIfNull(MethodVisitor method,
+			Expression expression, Label nullLabel) {
+		if (expression instanceof Column) {
+			pushValue(method, expression);
+			method.visitLdcInsn(TableData.NULL);
+			method.visitInsn(Opcodes.LCMP);
+			method.visitJumpInsn(Opcodes.IFEQ, nullLabel);
+		} else if (expression instanceof BinaryExpression) {
+			BinaryExpression binary = (BinaryExpression)expression;
+			jumpIfNull(method, binary.getLeftExpression(), nullLabel);
+			jumpIfNull(method, binary.getRightExpression(), nullLabel);
+		} else if (expression instanceof Parenthesis) {
+			jumpIfNull(method, ((Parenthesis)expression).getExpression(), nullLabel);
+		} else if (expression instanceof SignedExpression) {
+			jumpIfNull(method, ((SignedExpression)expression).getExpression(), nullLabel);
+		}
+	}
+	/**
+	 * Generates code that pushes the (long) value of the
+	 * given expression onto the operand stack.
+	 *
+	 * @param method		add code to this method
+	 * @param expression	value expression
+	 */
+	void pushValue(MethodVisitor method, Expression expression) {
+		if (expression instanceof Column) {
+			ColumnRef colRef = MemoryJoin.columnRef(expression);
+			int fieldIdx = fieldColumns.indexOf(colRef);
+			if (fieldIdx < 0) {
+				fieldIdx = fieldColumns.size();
+				fieldColumns.add(colRef);
+			}
+			// Load c<i>[tuple[alias]]
+			method.visitVarInsn(Opcodes.ALOAD, 0);
+			method.visitFieldInsn(Opcodes.GETFIELD, className, "c" + fieldIdx, "[J");
+			method.visitVarInsn(Opcodes.ALOAD, 1);
+			method.visitLdcInsn(aliasIdx(colRef));
+			method.visitInsn(Opcodes.IALOAD);
+			method.visitInsn(Opcodes.LALOAD);
+		} else if (expression instanceof LongValue) {
+			method.visitLdcInsn(((LongValue)expression).getValue());
+		} else if (expression instanceof StringValue) {
+			// Strings not in dictionary match no column value
+			String value = ((StringValue)expression).getValue();
+			method.visitLdcInsn((long)dictionary.lookup(value));
+		} else if (expression instanceof Parenthesis) {
+			pushValue(method, ((Parenthesis)expression).getExpression());
+		} else if (expression instanceof SignedExpression) {
+			SignedExpression signed = (SignedExpression)expression;
+			pushValue(method, signed.getExpression());
+			if (signed.getSign() == '-') {
+				method.visitInsn(Opcodes.LNEG);
+			}
+		} else {
+			BinaryExpression binary = (BinaryExpression)expression;
+			pushValue(method, binary.getLeftExpression());
+			pushValue(method, binary.getRightExpression());
+			if (expression instanceof Addition) {
+				method.visitInsn(Opcodes.LADD);
+			} else if (expression instanceof Subtraction) {
+				method.visitInsn(Opcodes.LSUB);
+			} else {
+				method.visitInsn(Opcodes.LMUL);
+			}
+		}
+	}
+}
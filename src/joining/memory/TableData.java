@@ -0,0 +1,229 @@
+package joining.memory;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.koloboke.collect.map.hash.HashLongIntMap;
+import com.koloboke.collect.map.hash.HashLongIntMaps;
+import com.koloboke.collect.map.hash.HashLongObjMap;
+import com.koloboke.collect.map.hash.HashLongObjMaps;
+
+import catalog.ColumnInfo;
+import config.NamingConfig;
+import connector.PgConnector;
+import expressions.ExpressionInfo;
+import query.ColumnRef;
+import query.QueryInfo;
+
+/**
+ * Columnar, in-memory copy of one filtered table that is
+ * joined in the JVM. Integer columns are stored as long
+ * values, all other columns are dictionary-encoded (so
+ * that equality checks reduce to comparing codes) and
+ * keep their textual representation for output. Rows
+ * are sorted by batch ID.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class TableData {
+	/**
+	 * Represents SQL NULL values in column arrays.
+	 */
+	public final static long NULL = Long.MIN_VALUE;
+	/**
+	 * References to loaded columns (the last column
+	 * contains the batch ID).
+	 */
+	public final List<ColumnRef> columns = new ArrayList<ColumnRef>();
+	/**
+	 * At i-th position: values (or dictionary codes) of i-th column.
+	 */
+	public final long[][] values;
+	/**
+	 * At i-th position: string representation of values in
+	 * i-th column (null for integer columns).
+	 */
+	public final String[][] text;
+	/**
+	 * Number of loaded rows.
+	 */
+	public final int cardinality;
+	/**
+	 * At i-th position: first row of batch i (the last
+	 * entry marks the end of the last batch).
+	 */
+	public final int[] batchStart;
+	/**
+	 * At i-th position: hash index mapping values of i-th
+	 * column to rows (null if no index was created).
+	 */
+	public final List<HashLongObjMap<int[]>> indexes;
+	/**
+	 * Loads the given table, filtered by remaining unary
+	 * predicates, into memory.
+	 *
+	 * @param query			query whose tables are joined
+	 * @param alias			alias of table to load
+	 * @param table			name of table to load from
+	 * @param columnList	comma-separated list of required columns
+	 * @param unaryPred		remaining unary predicate (may be null)
+	 * @param nrBatches		number of batches for this table
+	 * @param dictionary	dictionary for encoding non-integer values
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public TableData(QueryInfo query, String alias, String table,
+			String columnList, ExpressionInfo unaryPred, int nrBatches,
+			Dictionary dictionary) throws Exception {
+		// Collect columns to load
+		if (!columnList.isEmpty()) {
+			for (String column : columnList.split(", ")) {
+				columns.add(new ColumnRef(alias, column));
+			}
+		}
+		columns.add(new ColumnRef(alias, NamingConfig.BATCH_ID_COLUMN));
+		int nrColumns = columns.size();
+		int batchCol = nrColumns - 1;
+		boolean[] isInteger = new boolean[nrColumns];
+		for (int colCtr=0; colCtr<nrColumns; ++colCtr) {
+			ColumnInfo colInfo = query.colRefToInfo.get(columns.get(colCtr));
+			isInteger[colCtr] = colCtr == batchCol || isIntegerType(colInfo);
+		}
+		// Retrieve table content, ordered by batch
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("SELECT ");
+		if (!columnList.isEmpty()) {
+			sqlBuilder.append(columnList);
+			sqlBuilder.append(", ");
+		}
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(" FROM ");
+		sqlBuilder.append(table);
+		sqlBuilder.append(" AS ");
+		sqlBuilder.append(alias);
+		if (unaryPred != null) {
+			sqlBuilder.append(" WHERE ");
+			sqlBuilder.append(unaryPred.toString());
+		}
+		sqlBuilder.append(" ORDER BY ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(";");
+		ResultSet result = PgConnector.query(sqlBuilder.toString());
+		List<long[]> rowValues = new ArrayList<long[]>();
+		List<String[]> rowText = new ArrayList<String[]>();
+		while (result.next()) {
+			long[] curValues = new long[nrColumns];
+			String[] curText = new String[nrColumns];
+			for (int colCtr=0; colCtr<nrColumns; ++colCtr) {
+				if (isInteger[colCtr]) {
+					long value = result.getLong(colCtr + 1);
+					curValues[colCtr] = result.wasNull() ? NULL : value;
+				} else {
+					String value = result.getString(colCtr + 1);
+					curValues[colCtr] = value == null ?
+							NULL : dictionary.encode(value);
+					curText[colCtr] = value;
+				}
+			}
+			rowValues.add(curValues);
+			rowText.add(curText);
+		}
+		result.close();
+		// Store data in columnar format
+		cardinality = rowValues.size();
+		values = new long[nrColumns][cardinality];
+		text = new String[nrColumns][];
+		for (int colCtr=0; colCtr<nrColumns; ++colCtr) {
+			if (!isInteger[colCtr]) {
+				text[colCtr] = new String[cardinality];
+			}
+		}
+		for (int rowCtr=0; rowCtr<cardinality; ++rowCtr) {
+			long[] curValues = rowValues.get(rowCtr);
+			String[] curText = rowText.get(rowCtr);
+			for (int colCtr=0; colCtr<nrColumns; ++colCtr) {
+				values[colCtr][rowCtr] = curValues[colCtr];
+				if (text[colCtr] != null) {
+					text[colCtr][rowCtr] = curText[colCtr];
+				}
+			}
+		}
+		// Determine start of each batch
+		batchStart = new int[nrBatches + 1];
+		int rowCtr = 0;
+		for (int batchCtr=0; batchCtr<=nrBatches; ++batchCtr) {
+			while (rowCtr < cardinality &&
+					values[batchCol][rowCtr] < batchCtr) {
+				++rowCtr;
+			}
+			batchStart[batchCtr] = rowCtr;
+		}
+		// Create hash indexes on equi-join columns
+		indexes = new ArrayList<HashLongObjMap<int[]>>(nrColumns);
+		for (int colCtr=0; colCtr<nrColumns; ++colCtr) {
+			indexes.add(query.equiJoinCols.contains(columns.get(colCtr)) ?
+					createIndex(values[colCtr]) : null);
+		}
+		System.out.println("Loaded " + cardinality + " rows for " + alias);
+	}
+	/**
+	 * Returns true iff the given column has an integer type.
+	 *
+	 * @param colInfo	meta-data about column
+	 * @return			true iff values can be stored as long values
+	 */
+	static boolean isIntegerType(ColumnInfo colInfo) {
+		if (colInfo == null) {
+			return false;
+		}
+		String type = colInfo.columnType;
+		return type.equals("integer") || type.equals("smallint") ||
+				type.equals("bigint");
+	}
+	/**
+	 * Creates a hash index mapping each value in the given column
+	 * to the rows in which it appears (NULL values are not indexed).
+	 *
+	 * @param column	values to index
+	 * @return			mapping from values to rows
+	 */
+	static HashLongObjMap<int[]> createIndex(long[] column) {
+		// Count number of rows per value
+		HashLongIntMap valueToCount = HashLongIntMaps.newMutableMap();
+		for (long value : column) {
+			if (value != NULL) {
+				valueToCount.addValue(value, 1);
+			}
+		}
+		// Insert rows into index
+		HashLongObjMap<int[]> index = HashLongObjMaps.newMutableMap(
+				valueToCount.size());
+		HashLongIntMap valueToPos = HashLongIntMaps.newMutableMap(
+				valueToCount.size());
+		int nrRows = column.length;
+		for (int row=0; row<nrRows; ++row) {
+			long value = column[row];
+			if (value != NULL) {
+				int[] rows = index.get(value);
+				if (rows == null) {
+					rows = new int[valueToCount.get(value)];
+					index.put(value, rows);
+				}
+				int pos = valueToPos.addValue(value, 1) - 1;
+				rows[pos] = row;
+			}
+		}
+		return index;
+	}
+	/**
+	 * Returns index of column with given name or -1.
+	 *
+	 * @param colRef	reference to column
+	 * @return			index of column in loaded data
+	 */
+	public int columnIndex(ColumnRef colRef) {
+		return columns.indexOf(colRef);
+	}
+}
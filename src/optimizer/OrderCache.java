@@ -0,0 +1,146 @@
+package optimizer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import config.JoinConfig;
+import expressions.ExpressionInfo;
+import expressions.normalization.TemplateVisitor;
+import optimizer.uct.UctNode;
+import query.QueryInfo;
+
+/**
+ * Caches search trees learned for prior queries, keyed by a
+ * fingerprint of the query shape. Queries that only differ
+ * in the constants of their predicates share a fingerprint,
+ * so recurring (e.g., report) queries can start from the
+ * statistics collected by prior runs.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class OrderCache {
+	/**
+	 * Search tree and derived information cached for one query shape.
+	 */
+	public static class Entry {
+		/**
+		 * Copy of the search tree (not bound to any query or executor).
+		 */
+		public final UctNode tree;
+		/**
+		 * Most frequently selected join order in cached tree.
+		 */
+		public final int[] dominantOrder;
+		/**
+		 * Confidence in dominant order (see UctNode.confidence()).
+		 */
+		public final double confidence;
+		/**
+		 * Number of samples collected in cached tree.
+		 */
+		public final int nrVisits;
+		/**
+		 * Initializes cache entry from a search tree.
+		 *
+		 * @param tree	search tree to cache (is copied)
+		 */
+		Entry(UctNode tree) {
+			this.tree = new UctNode(tree, null, null);
+			this.dominantOrder = tree.dominantOrder();
+			this.confidence = tree.confidence();
+			this.nrVisits = tree.nrVisits();
+		}
+		/**
+		 * Returns true iff the cached order can be executed
+		 * directly, without learning on data batches.
+		 *
+		 * @return	true iff learning can be skipped
+		 */
+		public boolean trusted() {
+			return nrVisits >= JoinConfig.cachedOrderMinVisits &&
+					confidence >= JoinConfig.cachedOrderConfidence;
+		}
+	}
+	/**
+	 * Maps query fingerprints to cached search trees.
+	 */
+	final static Map<String, Entry> fingerprintToEntry =
+			new ConcurrentHashMap<String, Entry>();
+	/**
+	 * Calculates a fingerprint of the query shape, considering
+	 * join order relevant information: aliases and tables (in
+	 * the order that defines table indices in join orders),
+	 * join predicates, and unary predicates with constants
+	 * replaced by placeholders.
+	 *
+	 * @param query		query to fingerprint
+	 * @return			hexadecimal fingerprint of query shape
+	 * @throws Exception
+	 */
+	public static String fingerprint(QueryInfo query) throws Exception {
+		StringBuilder shapeBuilder = new StringBuilder();
+		for (int aliasCtr=0; aliasCtr<query.nrJoined; ++aliasCtr) {
+			String alias = query.aliases[aliasCtr];
+			shapeBuilder.append(alias);
+			shapeBuilder.append(":");
+			shapeBuilder.append(query.aliasToTable.get(alias));
+			shapeBuilder.append(";");
+		}
+		shapeBuilder.append("|");
+		shapeBuilder.append(templates(query.joinPredicates));
+		shapeBuilder.append("|");
+		shapeBuilder.append(templates(query.unaryPredicates));
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		byte[] hash = digest.digest(shapeBuilder.toString().getBytes(
+				StandardCharsets.UTF_8));
+		StringBuilder hexBuilder = new StringBuilder();
+		for (byte hashByte : hash) {
+			hexBuilder.append(String.format("%02x", hashByte));
+		}
+		return hexBuilder.toString();
+	}
+	/**
+	 * Returns sorted predicate templates, separated by semicolons
+	 * (sorting makes templates independent from predicate order).
+	 *
+	 * @param predicates	predicates to transform into templates
+	 * @return				sorted templates of given predicates
+	 */
+	static String templates(List<ExpressionInfo> predicates) {
+		List<String> templates = new ArrayList<String>();
+		for (ExpressionInfo predicate : predicates) {
+			TemplateVisitor visitor = new TemplateVisitor();
+			predicate.finalExpression.accept(visitor);
+			templates.add(visitor.exprStack.pop().toString());
+		}
+		Collections.sort(templates);
+		return String.join(";", templates);
+	}
+	/**
+	 * Returns cached entry for given fingerprint or null.
+	 *
+	 * @param fingerprint	fingerprint of query shape
+	 * @return				cached entry or null if not cached
+	 */
+	public static Entry lookup(String fingerprint) {
+		return fingerprintToEntry.get(fingerprint);
+	}
+	/**
+	 * Caches given search tree for the given query shape,
+	 * replacing prior entries.
+	 *
+	 * @param fingerprint	fingerprint of query shape
+	 * @param tree			search tree learned for query
+	 */
+	public static void store(String fingerprint, UctNode tree) {
+		if (tree.nrVisits() > 0) {
+			fingerprintToEntry.put(fingerprint, new Entry(tree));
+		}
+	}
+}
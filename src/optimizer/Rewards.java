@@ -0,0 +1,40 @@
+package optimizer;
+
+import config.JoinConfig;
+import joining.EpisodeStats;
+
+/**
+ * Calculates rewards for episodes according to the
+ * reward function selected in the configuration.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class Rewards {
+    /**
+     * Returns reward (between zero and one) for given episode.
+     * 
+     * @param episode   summarizes what the episode achieved
+     * @return          reward value
+     */
+    public static double reward(EpisodeStats episode) {
+        switch (JoinConfig.rewardFunction) {
+        case SUCCESS:
+            return episode.success ? 1.0 : 0.0;
+        case PROGRESS:
+            // Processed share of batches, weighted by their value
+            double work = episode.scaling * episode.progress();
+            // Bonus for finishing early
+            double speed = 0;
+            if (episode.success && episode.timeoutMillis > 0) {
+                speed = Math.max(0, 1.0 - 
+                        episode.micros / (1000.0 * episode.timeoutMillis));
+            }
+            double timeWeight = JoinConfig.rewardTimeWeight;
+            return (1 - timeWeight) * work + timeWeight * speed;
+        default:
+            throw new RuntimeException("Unknown reward function: " + 
+                    JoinConfig.rewardFunction);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package optimizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import config.JoinConfig;
+import joining.BatchedExecutor;
+import optimizer.brue.BrueNode;
+import optimizer.uct.UctNode;
+import query.QueryInfo;
+
+/**
+ * Stores search trees in compact binary files, keyed by the
+ * fingerprint of the query shape, so that learning can resume
+ * where it stopped (e.g., after a query was killed or timed out).
+ * Each file starts with a header (magic number, format version,
+ * tree type, number of joined tables, heuristic flag), followed
+ * by the tree nodes in pre-order.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class TreeStore {
+	/**
+	 * Identifies files containing search trees.
+	 */
+	final static int MAGIC = 0x534b5452;
+	/**
+	 * Version of binary tree format.
+	 */
+	final static int VERSION = 1;
+	/**
+	 * Marks files containing UCT trees.
+	 */
+	final static byte UCT_TREE = 1;
+	/**
+	 * Marks files containing BRUE trees.
+	 */
+	final static byte BRUE_TREE = 2;
+	/**
+	 * Returns true iff search trees are persisted.
+	 *
+	 * @return	true iff a directory for search trees is configured
+	 */
+	public static boolean enabled() {
+		return JoinConfig.searchTreeDir != null;
+	}
+	/**
+	 * Returns file storing search tree of given type for
+	 * queries with the given fingerprint.
+	 *
+	 * @param fingerprint	fingerprint of query shape
+	 * @param suffix		file suffix indicating tree type
+	 * @return				file storing search tree
+	 */
+	static File treeFile(String fingerprint, String suffix) {
+		return new File(JoinConfig.searchTreeDir, fingerprint + suffix);
+	}
+	/**
+	 * Opens stream writing into a temporary file next to the
+	 * given file and writes the file header.
+	 *
+	 * @param file			target file
+	 * @param treeType		type of tree to write
+	 * @param nrTables		number of joined tables
+	 * @param useHeuristic	whether tree avoids Cartesian products
+	 * @return				stream for writing tree nodes
+	 * @throws IOException
+	 */
+	static DataOutputStream openOutput(File file, byte treeType,
+			int nrTables, boolean useHeuristic) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeByte(treeType);
+		out.writeInt(nrTables);
+		out.writeBoolean(useHeuristic);
+		return out;
+	}
+	/**
+	 * Closes output stream and replaces given file atomically
+	 * by the temporary file (so that killing the process while
+	 * writing does not corrupt the last checkpoint).
+	 *
+	 * @param out	stream writing into temporary file
+	 * @param file	target file
+	 * @throws IOException
+	 */
+	static void closeOutput(DataOutputStream out, File file)
+			throws IOException {
+		out.close();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		Files.move(tmpFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	/**
+	 * Opens stored tree of given type and checks its header.
+	 * Returns null if no compatible tree is stored.
+	 *
+	 * @param file		file storing search tree
+	 * @param treeType	expected type of tree
+	 * @param nrTables	expected number of joined tables
+	 * @return			stream positioned after header or null
+	 * @throws IOException
+	 */
+	static DataInputStream openInput(File file, byte treeType,
+			int nrTables) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+				in.readByte() != treeType || in.readInt() != nrTables) {
+			System.out.println("Ignoring incompatible search tree " + file);
+			in.close();
+			return null;
+		}
+		return in;
+	}
+	/**
+	 * Writes UCT tree for queries with given fingerprint.
+	 *
+	 * @param fingerprint	fingerprint of query shape
+	 * @param root			root of UCT tree
+	 * @throws Exception
+	 */
+	public static void save(String fingerprint, UctNode root) throws Exception {
+		File file = treeFile(fingerprint, ".uct");
+		DataOutputStream out = openOutput(file, UCT_TREE,
+				root.nrTables(), root.useHeuristic());
+		root.write(out);
+		closeOutput(out, file);
+	}
+	/**
+	 * Writes BRUE tree for queries with given fingerprint.
+	 *
+	 * @param fingerprint	fingerprint of query shape
+	 * @param root			root of BRUE tree
+	 * @throws Exception
+	 */
+	public static void save(String fingerprint, BrueNode root) throws Exception {
+		File file = treeFile(fingerprint, ".brue");
+		DataOutputStream out = openOutput(file, BRUE_TREE,
+				root.nrTables(), root.useHeuristic());
+		root.write(out);
+		closeOutput(out, file);
+	}
+	/**
+	 * Loads UCT tree stored for queries with given fingerprint.
+	 *
+	 * @param fingerprint	fingerprint of query shape
+	 * @param query			query to optimize
+	 * @param executor		executes join orders on batches
+	 * @return				root of loaded tree or null if not stored
+	 * @throws Exception
+	 */
+	public static UctNode loadUct(String fingerprint, QueryInfo query,
+			BatchedExecutor executor) throws Exception {
+		File file = treeFile(fingerprint, ".uct");
+		DataInputStream in = openInput(file, UCT_TREE, query.nrJoined);
+		if (in == null) {
+			return null;
+		}
+		try {
+			boolean useHeuristic = in.readBoolean();
+			return UctNode.read(in, query, useHeuristic, executor);
+		} finally {
+			in.close();
+		}
+	}
+	/**
+	 * Loads BRUE tree stored for queries with given fingerprint.
+	 *
+	 * @param fingerprint	fingerprint of query shape
+	 * @param query			query to optimize
+	 * @param executor		executes join orders on batches
+	 * @return				root of loaded tree or null if not stored
+	 * @throws Exception
+	 */
+	public static BrueNode loadBrue(String fingerprint, QueryInfo query,
+			BatchedExecutor executor) throws Exception {
+		File file = treeFile(fingerprint, ".brue");
+		DataInputStream in = openInput(file, BRUE_TREE, query.nrJoined);
+		if (in == null) {
+			return null;
+		}
+		try {
+			boolean useHeuristic = in.readBoolean();
+			return BrueNode.read(in, query, useHeuristic, executor);
+		} finally {
+			in.close();
+		}
+	}
+}
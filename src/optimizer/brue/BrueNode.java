@@ -4,6 +4,9 @@ import org.apache.commons.lang3.mutable.MutableBoolean;
 import query.QueryInfo;
 import statistics.JoinStats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Array;
 import java.sql.SQLOutput;
 import java.util.*;
@@ -11,6 +14,7 @@ import java.util.*;
 import config.JoinConfig;
 import joining.BatchedExecutor;
 import optimizer.MctsNode;
+import optimizer.Rewards;
 import optimizer.uct.UctNode;
 
 /**
@@ -100,8 +104,12 @@ public class BrueNode {
      * is activated.
      */
     final Set<Integer> recommendedActions;
-
-    static HashMap<JoinOrder, BrueNode> nodeMap = new HashMap<>();
+    /**
+     * Maps join order prefixes to nodes, shared by all nodes
+     * of one tree (trees of concurrently processed queries
+     * use separate maps).
+     */
+    final HashMap<JoinOrder, BrueNode> nodeMap;
 
     /**
      * Initialize UCT root node.
@@ -134,6 +142,7 @@ public class BrueNode {
         }
         this.executor = executor;
         this.useHeuristic = useHeuristic;
+        nodeMap = new HashMap<>();
         recommendedActions = new HashSet<Integer>();
         for (int action = 0; action < nrActions; ++action) {
             accumulatedReward[action] = 0;
@@ -170,6 +179,7 @@ public class BrueNode {
             nextTable[actionCtr] = unjoinedTables.get(actionCtr);
         }
         this.executor = parent.executor;
+        nodeMap = parent.nodeMap;
         // Calculate recommended actions if heuristic is activated
         this.useHeuristic = parent.useHeuristic;
         if (useHeuristic) {
@@ -204,6 +214,81 @@ public class BrueNode {
         }
     }
 
+    /**
+     * Writes statistics of this node, followed by its expanded
+     * children in pre-order (each action is prefixed by a flag
+     * indicating whether a child node was expanded for it).
+     *
+     * @param out stream to write tree into
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(nrVisits);
+        for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+            out.writeInt(nrTries[actionCtr]);
+            out.writeDouble(accumulatedReward[actionCtr]);
+        }
+        for (BrueNode child : childNodes) {
+            out.writeBoolean(child != null);
+            if (child != null) {
+                child.write(out);
+            }
+        }
+    }
+    /**
+     * Reads statistics and expanded children of this node
+     * (written via write()), expanding children on the way.
+     *
+     * @param in stream to read tree from
+     * @throws IOException
+     */
+    void readStatistics(DataInputStream in) throws IOException {
+        nrVisits = in.readInt();
+        for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+            nrTries[actionCtr] = in.readInt();
+            accumulatedReward[actionCtr] = in.readDouble();
+        }
+        for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+            if (in.readBoolean()) {
+                BrueNode child = new BrueNode(-1, this, nextTable[actionCtr]);
+                child.readStatistics(in);
+                childNodes[actionCtr] = child;
+            }
+        }
+    }
+    /**
+     * Reads BRUE tree written via write().
+     *
+     * @param in           stream to read tree from
+     * @param query        the query which is optimized
+     * @param useHeuristic whether to avoid Cartesian products
+     * @param executor     executes selected join order on batches
+     * @return root of loaded tree
+     * @throws IOException
+     */
+    public static BrueNode read(DataInputStream in, QueryInfo query,
+            boolean useHeuristic, BatchedExecutor executor) throws IOException {
+        BrueNode root = new BrueNode(-1, query, useHeuristic, executor);
+        root.readStatistics(in);
+        return root;
+    }
+    /**
+     * Returns the number of tables to join.
+     *
+     * @return number of tables
+     */
+    public int nrTables() {
+        return nrTables;
+    }
+    /**
+     * Returns true iff join orders with Cartesian products are avoided.
+     *
+     * @return true iff heuristic is used
+     */
+    public boolean useHeuristic() {
+        return useHeuristic;
+    }
+
     /**
      * Updates UCT statistics after sampling.
      *
@@ -215,35 +300,6 @@ public class BrueNode {
         ++nrTries[selectedAction];
         accumulatedReward[selectedAction] += reward;
     }
-    /**
-     * Returns reward for a successful join query execution
-     * on a data batch with the given timeout. 
-     * 
-     * @param timeout	number of milliseconds until timeout
-     * @param actual	actual execution time in milliseconds
-     * @param scaling	reward scaling for given table
-     * @return			reward value
-     */
-    public double reward(int timeout, long actual, double scaling) {
-    	//double reward = scaling;
-    	double reward = 1.0;
-    	//System.out.println("Reward: " + reward);
-    	return reward;
-    	/*
-    	if (actual < 10) {
-    		return 1;
-    	} else if (actual < 100) {
-    		return 0.75;
-    	} else if (actual < 1000) {
-    		return 0.5;
-    	} else if (actual < 10000) {
-    		return 0.25;
-    	} else {
-    		return 0.1;
-    	}
-    	*/
-    	//return 1.0/actual;
-    }
     /**
      * Recursively sample from UCT tree and return reward.
      *
@@ -261,13 +317,8 @@ public class BrueNode {
         if (treeLevel == nrTables) {
 //            System.out.println("order " + Arrays.toString(joinOrder));
             // leaf node - evaluate join order and return reward
-        	long startMillis = System.currentTimeMillis();
-        	boolean success = executor.execute(
-        			joinOrder, timeoutMillis);
-        	long totalMillis = System.currentTimeMillis() - startMillis;
-            int firstTable = joinOrder[0];
-            double rewardScaling = executor.rewardScaling[firstTable];
-        	return success?reward(timeoutMillis, totalMillis, rewardScaling):0;
+        	executor.execute(joinOrder, timeoutMillis);
+        	return Rewards.reward(executor.lastEpisode());
         }
         //pick up action for the next step
         int action = 0;
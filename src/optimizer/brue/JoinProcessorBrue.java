@@ -10,11 +10,12 @@ import config.NamingConfig;
 import connector.PgConnector;
 import joining.BatchedExecutor;
 import joining.JoinSummary;
+import optimizer.OrderCache;
+import optimizer.TreeStore;
 import optimizer.uct.UctNode;
 import preprocessing.PreSummary;
 import query.QueryInfo;
-import statistics.GeneralStats;
-import statistics.JoinStats;
+import statistics.Metrics;
 
 /**
  * Executes joins between data batches, taken from
@@ -108,8 +109,6 @@ public class JoinProcessorBrue {
 	public static JoinSummary process(QueryInfo query, 
 			PreSummary preSummary, String queryID) throws Exception {
 		System.out.println("Starting join processing ...");
-		// Re-initialize statistics
-		GeneralStats.lastNonBatchedTime = -1;
 		// Generate names for intermediate result relations
 		String joinResultTable = NamingConfig.JOIN_TBL + queryID;
 		String finalResultTable = NamingConfig.FINAL_TBL + queryID;
@@ -117,7 +116,7 @@ public class JoinProcessorBrue {
 		PgConnector.dropTable(finalResultTable);
 		// Prepare join executor
 		BatchedExecutor executor = new BatchedExecutor(
-				query, preSummary, joinResultTable);
+				query, preSummary, queryID);
 		// Get configuration parameters
 		int nrTimeouts = JoinConfig.nrTimeouts;
 		int base = JoinConfig.timeoutBase;
@@ -129,97 +128,136 @@ public class JoinProcessorBrue {
 			timeouts[timeCtr] = (int)Math.round(base * 
 					Math.pow(factor, timeCtr));
 		}
-		// Create UCT root node
+		// Create UCT root node (resuming from stored tree if any)
 		long roundCtr = 0;
-		BrueNode root = new BrueNode(0, query, true, executor);
+		String fingerprint = TreeStore.enabled() ? 
+				OrderCache.fingerprint(query) : null;
+		BrueNode root = TreeStore.enabled() ?
+				TreeStore.loadBrue(fingerprint, query, executor) : null;
+		if (root == null) {
+			root = new BrueNode(0, query, true, executor);
+		} else {
+			System.out.println("Resuming from stored search tree");
+		}
 		int nrJoined = query.nrJoined;
         // Initialize counters and variables
         int[] joinOrder = new int[query.nrJoined];
-		// Initialize join stats
-		JoinStats.init();
 		// Execute until join phase finished
 		int roundsToSwitch = JoinConfig.initialRoundsToSwitch;
 		boolean allFinished = false;
-		while (!executor.finished && !allFinished) {
-			// Try execution one by one on small data batches
-			PgConnector.enableBatchConfiguration();
-			long batchedStartRound = roundCtr;
-			long batchedStartMillis = System.currentTimeMillis();
-			long lastRestartRound = 0;
-			int unbiasedRounds = 0;
-			while (!executor.finished && 
-					roundCtr - batchedStartRound <= roundsToSwitch) {
-				++unbiasedRounds;
-				++roundCtr;
-				int level = nextTimeout(timeouts, accumulatedTime);
-				int timeout = timeouts[level];
-                int selectSwitch = nrJoined - ((int) (
-                		(roundCtr - lastRestartRound) % nrJoined));
-                MutableBoolean restart = new MutableBoolean(false);
-                root.sample(roundCtr, joinOrder, selectSwitch, 
-                		true, restart, timeout);
-                if(restart.booleanValue()) {
-                    lastRestartRound = roundCtr;
-                }
-				if (roundCtr > JoinConfig.softenTimeoutAfter) {
-					JoinConfig.hardTimeout = false;
-				}
-				// Print out dominant join order
-				if (roundCtr % LogConfig.logDominantEvery == 0) {
-					int[] domOrder = root.dominantOrder();
-					System.out.println("Dominant order:\t" + 
-							Arrays.toString(domOrder));
+		// Whether non-batched execution produced the final result
+		boolean postProcessed = false;
+		try {
+			while (!executor.finished && !allFinished) {
+				// Try execution one by one on small data batches
+				PgConnector.enableBatchConfiguration();
+				long batchedStartRound = roundCtr;
+				long batchedStartMillis = System.currentTimeMillis();
+				long lastRestartRound = 0;
+				int unbiasedRounds = 0;
+				while (!executor.finished && 
+						roundCtr - batchedStartRound <= roundsToSwitch) {
+					++unbiasedRounds;
+					++roundCtr;
+					int level = nextTimeout(timeouts, accumulatedTime);
+					int timeout = timeouts[level];
+	                int selectSwitch = nrJoined - ((int) (
+	                		(roundCtr - lastRestartRound) % nrJoined));
+	                MutableBoolean restart = new MutableBoolean(false);
+	                root.sample(roundCtr, joinOrder, selectSwitch, 
+	                		true, restart, timeout);
+	                if(restart.booleanValue()) {
+	                    lastRestartRound = roundCtr;
+	                }
+					if (roundCtr > JoinConfig.softenTimeoutAfter) {
+						JoinConfig.hardTimeout = false;
+					}
+					// Print out dominant join order
+					if (roundCtr % LogConfig.logDominantEvery == 0) {
+						int[] domOrder = root.dominantOrder();
+						System.out.println("Dominant order:\t" + 
+								Arrays.toString(domOrder));
+					}
+					// Checkpoint search tree to resume learning later
+					if (TreeStore.enabled() && 
+							roundCtr % JoinConfig.checkpointTreeEvery == 0) {
+						TreeStore.save(fingerprint, root);
+					}
+					// Restart query processing if activated
+					if (executor.finished && 
+							JoinConfig.restartForAnalysis) {
+						executor.close();
+						executor = new BatchedExecutor(
+								query, preSummary, queryID);
+					}
 				}
-				// Restart query processing if activated
-				if (executor.finished && 
-						JoinConfig.restartForAnalysis) {
-					executor = new BatchedExecutor(
-							query, preSummary, joinResultTable);
-				}
-			}
-			System.out.println("Performed " + unbiasedRounds + " rounds");
-			// Follow up with non-batched execution if not finished
-			if (!executor.finished) {
-				long startMillis = System.currentTimeMillis();
-				long totalBatchedMillis = Math.max(1, 
+				System.out.println("Performed " + unbiasedRounds + " rounds");
+				Metrics.recordRounds(unbiasedRounds, 
 						System.currentTimeMillis() - batchedStartMillis);
-				System.out.println("Start millis: " + batchedStartMillis);
-				System.out.println("Total millis: " + totalBatchedMillis);
-				// Try execution without batching
-				PgConnector.disableBatchConfiguration();
-				int[] dominantOrder = root.dominantOrder();
-				String reorderedQuery = query.reorderedQuery(dominantOrder);
-				String createResultSQL = "CREATE TEMP TABLE " + finalResultTable + 
-						" AS (" + reorderedQuery + ");";
-				System.out.println("Query with joins reordered according to dominant order:");
-				System.out.println(reorderedQuery);
-				if (JoinConfig.switchBackToBatchMode) {
-					System.out.println("Trying non-batched execution for " + 
-							totalBatchedMillis + " ms ...");
-					allFinished = PgConnector.updateOrTimeout(
-							createResultSQL, (int)totalBatchedMillis);					
-				} else {
-					System.out.println("Executing without batching.");
-					PgConnector.setNoTimeout();
-					PgConnector.update(createResultSQL);
-					allFinished = true;
+				// Follow up with non-batched execution if not finished
+				if (!executor.finished) {
+					long startMillis = System.currentTimeMillis();
+					long totalBatchedMillis = Math.max(1, 
+							System.currentTimeMillis() - batchedStartMillis);
+					System.out.println("Start millis: " + batchedStartMillis);
+					System.out.println("Total millis: " + totalBatchedMillis);
+					// Try execution without batching
+					PgConnector.disableBatchConfiguration();
+					int[] dominantOrder = root.dominantOrder();
+					// Join only batches that were not processed if possible
+					String remainingSQL = executor.remainingQuery(dominantOrder);
+					String reorderedQuery = query.reorderedQuery(dominantOrder);
+					String createResultSQL = remainingSQL != null ? remainingSQL : 
+						"CREATE TEMP TABLE " + finalResultTable + 
+							" AS (" + reorderedQuery + ");";
+					System.out.println("Query with joins reordered according to dominant order:");
+					System.out.println(remainingSQL != null ? 
+							remainingSQL : reorderedQuery);
+					if (JoinConfig.switchBackToBatchMode) {
+						System.out.println("Trying non-batched execution for " + 
+								totalBatchedMillis + " ms ...");
+						allFinished = PgConnector.updateOrTimeout(
+								createResultSQL, (int)totalBatchedMillis);					
+					} else {
+						System.out.println("Executing without batching.");
+						PgConnector.setNoTimeout();
+						PgConnector.update(createResultSQL);
+						allFinished = true;
+					}
+					postProcessed = allFinished && remainingSQL == null;
+					// record time for non-batched execution
+					executor.stats.nonBatchedMillis = 
+							System.currentTimeMillis() - startMillis;
+					if (allFinished) {
+						System.out.println("Non-batched execution successful!");
+					} else {
+						System.out.println("Non-batched execution failed - back to batch mode ...");
+					}
+					// Scale up budget per approach
+					roundsToSwitch *= JoinConfig.roundsToSwitchScaleUp;				
 				}
-				// record time for non-batched execution
-				GeneralStats.lastNonBatchedTime = 
-						System.currentTimeMillis() - startMillis;
-				if (allFinished) {
-					System.out.println("Non-batched execution successful!");
-				} else {
-					System.out.println("Non-batched execution failed - back to batch mode ...");
-				}
-				// Scale up budget per approach
-				roundsToSwitch *= JoinConfig.roundsToSwitchScaleUp;				
 			}
+		} catch (Exception e) {
+			// Release sessions of workers before giving up
+			try {
+				executor.close();
+			} catch (Exception closeError) {
+				e.addSuppressed(closeError);
+			}
+			throw e;
+		}
+		// Stop prefetching
+		executor.close();
+		// Store search tree to warm-start later runs
+		if (TreeStore.enabled()) {
+			TreeStore.save(fingerprint, root);
 		}
 		// Clear node map
 		root.clearNodeMap();
 		// Return summary
 		return new JoinSummary(joinResultTable, 
-				executor.joinResultColumns, allFinished);
+				executor.joinResultColumns, postProcessed, 
+				executor.duplicateFree(), executor.aggregation,
+				executor.stats);
 	}
 }
@@ -2,22 +2,27 @@ package optimizer.uct;
 
 import joining.BatchedExecutor;
 import optimizer.MctsNode;
+import optimizer.Rewards;
 import query.QueryInfo;
+import statistics.Metrics;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 import config.JoinConfig;
 
 /**
- * Represents node in UCT search tree.
+ * Represents node in UCT search tree. Sets of tables are
+ * represented as bit masks (limiting queries to 64 tables)
+ * and action statistics as flat arrays, so that sampling
+ * allocates no memory except when expanding the tree.
  *
  * @author immanueltrummer
  */
 public class UctNode extends MctsNode {
-    /**
-     * Used for randomized selection policy.
-     */
-    final Random random = new Random();
     /**
      * The query for which we are optimizing.
      */
@@ -37,11 +42,15 @@ public class UctNode extends MctsNode {
      */
     final int nrActions;
     /**
-     * Actions that have not been tried yet - if the
-     * heuristic is used, this only contains actions
-     * that have not been tried and are recommended.
+     * Actions that have not been tried yet (first entries) - if
+     * the heuristic is used, this only contains actions that
+     * have not been tried and are recommended.
      */
-    final List<Integer> priorityActions;
+    final int[] untriedActions;
+    /**
+     * Number of actions that have not been tried yet.
+     */
+    int nrUntried;
     /**
      * Assigns each action index to child node.
      */
@@ -63,17 +72,13 @@ public class UctNode extends MctsNode {
      */
     final int nrTables;
     /**
-     * Set of already joined tables (each UCT node represents
+     * Bit mask of already joined tables (each UCT node represents
      * a state in which a subset of tables are joined).
      */
-    final Set<Integer> joinedTables;
-    /**
-     * List of unjoined tables (we use a list instead of a set
-     * to enable shuffling during playouts).
-     */
-    final List<Integer> unjoinedTables;
+    final long joinedMask;
     /**
-     * Associates each action index with a next table to join.
+     * Associates each action index with a next table to join
+     * (i.e., contains all tables that are not joined yet).
      */
     final int[] nextTable;
     /**
@@ -89,12 +94,12 @@ public class UctNode extends MctsNode {
      */
     final boolean useHeuristic;
     /**
-     * Contains actions that are consistent with the "avoid
+     * Marks actions that are consistent with the "avoid
      * Cartesian products" heuristic. UCT algorithm will
      * restrict focus on such actions if heuristic flag
-     * is activated.
+     * is activated (all actions are marked otherwise).
      */
-    final Set<Integer> recommendedActions;
+    final boolean[] recommended;
     /**
      * Initialize UCT root node.
      *
@@ -110,27 +115,23 @@ public class UctNode extends MctsNode {
         createdIn = roundCtr;
         treeLevel = 0;
         nrActions = nrTables;
-        priorityActions = new ArrayList<Integer>();
+        untriedActions = new int[nrActions];
+        nrUntried = nrActions;
         for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
-            priorityActions.add(actionCtr);
+            untriedActions[actionCtr] = actionCtr;
         }
         childNodes = new UctNode[nrActions];
         nrTries = new int[nrActions];
         accumulatedReward = new double[nrActions];
-        joinedTables = new HashSet<Integer>();
-        unjoinedTables = new ArrayList<>();
+        joinedMask = 0;
         nextTable = new int[nrTables];
         for (int tableCtr = 0; tableCtr < nrTables; ++tableCtr) {
-            unjoinedTables.add(tableCtr);
             nextTable[tableCtr] = tableCtr;
         }
         this.executor = executor;
         this.useHeuristic = useHeuristic;
-        recommendedActions = new HashSet<Integer>();
-        for (int action = 0; action < nrActions; ++action) {
-            accumulatedReward[action] = 0;
-            recommendedActions.add(action);
-        }
+        recommended = new boolean[nrActions];
+        Arrays.fill(recommended, true);
     }
     /**
      * Initializes UCT node by expanding parent node.
@@ -148,53 +149,188 @@ public class UctNode extends MctsNode {
         accumulatedReward = new double[nrActions];
         query = parent.query;
         nrTables = parent.nrTables;
-        joinedTables = new HashSet<Integer>();
-        joinedTables.addAll(parent.joinedTables);
-        joinedTables.add(joinedTable);
-        unjoinedTables = new ArrayList<Integer>();
-        unjoinedTables.addAll(parent.unjoinedTables);
-        int indexToRemove = unjoinedTables.indexOf(joinedTable);
-        unjoinedTables.remove(indexToRemove);
+        joinedMask = parent.joinedMask | (1L << joinedTable);
         nextTable = new int[nrActions];
-        for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
-            accumulatedReward[actionCtr] = 0;
-            nextTable[actionCtr] = unjoinedTables.get(actionCtr);
+        int actionCtr = 0;
+        for (int table : parent.nextTable) {
+            if (table != joinedTable) {
+                nextTable[actionCtr++] = table;
+            }
         }
         this.executor = parent.executor;
         // Calculate recommended actions if heuristic is activated
         this.useHeuristic = parent.useHeuristic;
+        recommended = new boolean[nrActions];
+        boolean anyRecommended = false;
         if (useHeuristic) {
-            recommendedActions = new HashSet<Integer>();
-            // Iterate over all actions
-            for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
-                // Get table associated with (join) action
-                int table = nextTable[actionCtr];
-                // Check if at least one predicate connects current
-                // tables to new table.
-                if (query.connected(joinedTables, table)) {
-                    // Add as recommended action and continue
-                    recommendedActions.add(actionCtr);
-                }
-            } // over actions
-            if (recommendedActions.isEmpty()) {
-                // add all actions to recommended actions
-                for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
-                    recommendedActions.add(actionCtr);
+            // Check if at least one predicate connects current
+            // tables to table associated with (join) action.
+            for (actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+                if (query.connected(joinedMask, nextTable[actionCtr])) {
+                    recommended[actionCtr] = true;
+                    anyRecommended = true;
                 }
             }
-        } // if heuristic is used
-        else {
-            recommendedActions = null;
+        }
+        if (!anyRecommended) {
+            Arrays.fill(recommended, true);
         }
         // Collect untried actions, restrict to recommended actions
         // if the heuristic is activated.
-        priorityActions = new ArrayList<Integer>();
+        untriedActions = new int[nrActions];
+        nrUntried = 0;
+        for (actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+            if (recommended[actionCtr]) {
+                untriedActions[nrUntried++] = actionCtr;
+            }
+        }
+    }
+    /**
+     * Deep-copies the given (sub-)tree, binding the copy to
+     * a new query and executor (e.g., to warm-start optimization
+     * for a query with the same shape as the source query).
+     *
+     * @param source   root of tree to copy
+     * @param query    query with same shape as source query
+     * @param executor evaluates join orders for copied tree
+     */
+    public UctNode(UctNode source, QueryInfo query, BatchedExecutor executor) {
+        // Copied nodes can be expanded in any round
+        createdIn = -1;
+        treeLevel = source.treeLevel;
+        nrActions = source.nrActions;
+        this.query = query;
+        nrTables = source.nrTables;
+        joinedMask = source.joinedMask;
+        nextTable = source.nextTable.clone();
+        this.executor = executor;
+        useHeuristic = source.useHeuristic;
+        recommended = source.recommended.clone();
+        untriedActions = source.untriedActions.clone();
+        nrUntried = source.nrUntried;
+        nrVisits = source.nrVisits;
+        nrTries = source.nrTries.clone();
+        accumulatedReward = source.accumulatedReward.clone();
+        childNodes = new UctNode[nrActions];
+        for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+            UctNode child = source.childNodes[actionCtr];
+            if (child != null) {
+                childNodes[actionCtr] = new UctNode(child, query, executor);
+            }
+        }
+    }
+    /**
+     * Writes statistics of this node, followed by its expanded
+     * children in pre-order (each action is prefixed by a flag
+     * indicating whether a child node was expanded for it).
+     *
+     * @param out stream to write tree into
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        UctNode[] children;
+        synchronized (this) {
+            out.writeInt(nrVisits);
+            out.writeInt(nrUntried);
+            for (int untriedCtr = 0; untriedCtr < nrUntried; ++untriedCtr) {
+                out.writeInt(untriedActions[untriedCtr]);
+            }
+            for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+                out.writeInt(nrTries[actionCtr]);
+                out.writeDouble(accumulatedReward[actionCtr]);
+            }
+            children = childNodes.clone();
+        }
+        for (UctNode child : children) {
+            out.writeBoolean(child != null);
+            if (child != null) {
+                child.write(out);
+            }
+        }
+    }
+    /**
+     * Reads statistics and expanded children of this node
+     * (written via write()), expanding children on the way.
+     *
+     * @param in stream to read tree from
+     * @throws IOException
+     */
+    void readStatistics(DataInputStream in) throws IOException {
+        nrVisits = in.readInt();
+        nrUntried = in.readInt();
+        for (int untriedCtr = 0; untriedCtr < nrUntried; ++untriedCtr) {
+            untriedActions[untriedCtr] = in.readInt();
+        }
+        for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
+            nrTries[actionCtr] = in.readInt();
+            accumulatedReward[actionCtr] = in.readDouble();
+        }
         for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
-            if (!useHeuristic || recommendedActions.contains(actionCtr)) {
-                priorityActions.add(actionCtr);
+            if (in.readBoolean()) {
+                UctNode child = new UctNode(-1, this, nextTable[actionCtr]);
+                child.readStatistics(in);
+                childNodes[actionCtr] = child;
             }
         }
     }
+    /**
+     * Reads UCT tree written via write().
+     *
+     * @param in           stream to read tree from
+     * @param query        the query which is optimized
+     * @param useHeuristic whether to avoid Cartesian products
+     * @param executor     evaluates join orders and accumulates query results
+     * @return root of loaded tree
+     * @throws IOException
+     */
+    public static UctNode read(DataInputStream in, QueryInfo query,
+            boolean useHeuristic, BatchedExecutor executor) throws IOException {
+        UctNode root = new UctNode(-1, query, useHeuristic, executor);
+        root.readStatistics(in);
+        return root;
+    }
+    /**
+     * Returns the number of tables to join.
+     *
+     * @return number of tables
+     */
+    public int nrTables() {
+        return nrTables;
+    }
+    /**
+     * Returns true iff join orders with Cartesian products are avoided.
+     *
+     * @return true iff heuristic is used
+     */
+    public boolean useHeuristic() {
+        return useHeuristic;
+    }
+    /**
+     * Returns the number of times this node was visited.
+     *
+     * @return number of visits
+     */
+    public int nrVisits() {
+        return nrVisits;
+    }
+    /**
+     * Returns confidence in the dominant join order, i.e. the
+     * minimal fraction of visits in which the dominant action
+     * was selected, taken over the nodes on the dominant path.
+     *
+     * @return confidence between zero and one
+     */
+    public double confidence() {
+        double confidence = nrVisits > 0 ? 1 : 0;
+        UctNode node = this;
+        while (node != null && node.nrVisits > 0 && node.nrActions > 0) {
+            int dominantAction = node.dominantAction();
+            double share = (double)node.nrTries[dominantAction] / node.nrVisits;
+            confidence = Math.min(confidence, share);
+            node = node.childNodes[dominantAction];
+        }
+        return confidence;
+    }
     /**
      * Select most interesting action to try next. Also updates
      * list of unvisited actions.
@@ -202,16 +338,12 @@ public class UctNode extends MctsNode {
      * @return index of action to try next
      */
     int selectAction() {
-        //System.out.println("untried: " + priorityActions);
-        //System.out.println("joinedTables: " + joinedTables);
         // Are there untried actions?
-        if (!priorityActions.isEmpty()) {
-            int nrUntried = priorityActions.size();
-            int actionIndex = random.nextInt(nrUntried);
-            int action = priorityActions.get(actionIndex);
+        if (nrUntried > 0) {
+            int actionIndex = ThreadLocalRandom.current().nextInt(nrUntried);
+            int action = untriedActions[actionIndex];
             // Remove from untried actions and return
-            priorityActions.remove(actionIndex);
-            // System.out.println("Untried action: " + action);
+            untriedActions[actionIndex] = untriedActions[--nrUntried];
             return action;
         } else {
             /*
@@ -222,22 +354,25 @@ public class UctNode extends MctsNode {
              * selected action to ensure that we pick a random
              * action among the ones with maximal UCT value.
              */
-            int offset = random.nextInt(nrActions);
+            int offset = ThreadLocalRandom.current().nextInt(nrActions);
             int bestAction = -1;
             double bestUB = -1;
+            double logVisits = Math.log(nrVisits);
             for (int actionCtr = 0; actionCtr < nrActions; ++actionCtr) {
                 // Calculate index of current action
                 int action = (offset + actionCtr) % nrActions;
                 // if heuristic is used, choose only from recommended actions
-                if (useHeuristic && recommendedActions.size() == 0) {
-                    throw new RuntimeException("there are no recommended exception and we are trying to use heuristic");
-                }
-                if (useHeuristic && !recommendedActions.contains(action))
+                if (!recommended[action])
                     continue;
                 // Evaluate UCT formula, balancing exploration and exploitation
-                double meanReward = accumulatedReward[action] / nrTries[action];
-                double exploration = Math.sqrt(Math.log(nrVisits) / nrTries[action]);
-                double UB = meanReward + JoinConfig.explorationFactor * exploration;
+                // (actions selected by concurrent workers may not have
+                // statistics yet - we treat them like untried actions).
+                double UB = Double.POSITIVE_INFINITY;
+                if (nrTries[action] > 0) {
+                    double meanReward = accumulatedReward[action] / nrTries[action];
+                    double exploration = Math.sqrt(logVisits / nrTries[action]);
+                    UB = meanReward + JoinConfig.explorationFactor * exploration;
+                }
                 if (UB > bestUB) {
                     bestAction = action;
                     bestUB = UB;
@@ -309,53 +444,40 @@ public class UctNode extends MctsNode {
      * @param joinOrder			join order to complete
      */
     void completeOrderRandom(int[] joinOrder) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         // Last selected table
         int lastTable = joinOrder[treeLevel];
-        // Should we avoid Cartesian product joins?
-        if (useHeuristic) {
-            Set<Integer> newlyJoined = new HashSet<Integer>();
-            newlyJoined.addAll(joinedTables);
-            newlyJoined.add(lastTable);
-            // Iterate over join order positions to fill
-            List<Integer> unjoinedTablesShuffled = new ArrayList<Integer>();
-            unjoinedTablesShuffled.addAll(unjoinedTables);
-            Collections.shuffle(unjoinedTablesShuffled);
-            // Iterate over join order decisions not taken yet
-            for (int posCtr = treeLevel + 1; posCtr < nrTables; ++posCtr) {
-                boolean foundTable = false;
+        // Write remaining tables into open positions (join order
+        // is owned by the calling worker, nodes may be shared).
+        int posCtr = treeLevel + 1;
+        for (int table : nextTable) {
+            if (table != lastTable) {
+                joinOrder[posCtr++] = table;
+            }
+        }
+        // Shuffle open positions, one position at a time
+        long newlyJoined = joinedMask | (1L << lastTable);
+        for (posCtr = treeLevel + 1; posCtr < nrTables; ++posCtr) {
+            int nrCandidates = nrTables - posCtr;
+            int pick = posCtr + random.nextInt(nrCandidates);
+            // Should we avoid Cartesian product joins?
+            if (useHeuristic) {
                 // Prioritize tables with connecting join predicates
-                for (int table : unjoinedTablesShuffled) {
-                    if (!newlyJoined.contains(table) &&
-                            query.connected(newlyJoined, table)) {
-                        joinOrder[posCtr] = table;
-                        newlyJoined.add(table);
-                        foundTable = true;
+                // (starting search from a random position).
+                for (int candCtr = 0; candCtr < nrCandidates; ++candCtr) {
+                    int candidate = posCtr + 
+                            (pick - posCtr + candCtr) % nrCandidates;
+                    if (query.connected(newlyJoined, joinOrder[candidate])) {
+                        pick = candidate;
                         break;
                     }
                 }
-                // If no table was found, consider Cartesian products
-                if (!foundTable) {
-                    for (int table : unjoinedTablesShuffled) {
-                        if (!newlyJoined.contains(table)) {
-                            joinOrder[posCtr] = table;
-                            newlyJoined.add(table);
-                            break;
-                        }
-                    }
-                }
-            }
-       } else {
-            // Shuffle remaining tables
-            Collections.shuffle(unjoinedTables);
-            Iterator<Integer> unjoinedTablesIter = unjoinedTables.iterator();
-            // Fill in remaining join order positions
-            for (int posCtr = treeLevel + 1; posCtr < nrTables; ++posCtr) {
-                int nextTable = unjoinedTablesIter.next();
-                while (nextTable == lastTable) {
-                    nextTable = unjoinedTablesIter.next();
-                }
-                joinOrder[posCtr] = nextTable;
             }
+            // Move selected table (connected if possible) to position
+            int table = joinOrder[pick];
+            joinOrder[pick] = joinOrder[posCtr];
+            joinOrder[posCtr] = table;
+            newlyJoined |= 1L << table;
         }
     }
     /**
@@ -370,12 +492,8 @@ public class UctNode extends MctsNode {
     	// Randomly complete join order
     	completeOrderRandom(joinOrder);
         // Evaluate completed join order and return reward
-        long startMillis = System.currentTimeMillis();
-        boolean success = executor.execute(joinOrder, timeoutMillis);
-        long totalMillis = System.currentTimeMillis() - startMillis;
-        int firstTable = joinOrder[0];
-        double rewardScaling = executor.rewardScaling[firstTable];
-        return success?reward(timeoutMillis, totalMillis, rewardScaling):0;
+        executor.execute(joinOrder, timeoutMillis);
+        return Rewards.reward(executor.lastEpisode());
     }
     /**
      * Recursively sample from UCT tree and return reward.
@@ -391,60 +509,36 @@ public class UctNode extends MctsNode {
         // Check if this is a (non-extendible) leaf node
         if (nrActions == 0) {
             // leaf node - evaluate join order and return reward
-        	long startMillis = System.currentTimeMillis();
-        	boolean success = executor.execute(
-        			joinOrder, timeoutMillis);
-        	long totalMillis = System.currentTimeMillis() - startMillis;
-            int firstTable = joinOrder[0];
-            double rewardScaling = executor.rewardScaling[firstTable];
-        	return success?reward(timeoutMillis, totalMillis, rewardScaling):0;
+        	executor.execute(joinOrder, timeoutMillis);
+        	return Rewards.reward(executor.lastEpisode());
         } else {
             // inner node - select next action and expand tree if necessary
-            int action = selectAction();
-            int table = nextTable[action];
-            joinOrder[treeLevel] = table;
-            // grow tree if possible
-            boolean canExpand = createdIn != roundCtr;
-            if (childNodes[action] == null && canExpand) {
-                childNodes[action] = new UctNode(roundCtr, this, table);
+            // (node is locked only during selection and update as
+            // multiple workers may sample concurrently).
+            int action;
+            UctNode child;
+            long selectStartNanos = System.nanoTime();
+            synchronized (this) {
+                action = selectAction();
+                int table = nextTable[action];
+                joinOrder[treeLevel] = table;
+                // grow tree if possible
+                boolean canExpand = createdIn != roundCtr;
+                if (childNodes[action] == null && canExpand) {
+                    childNodes[action] = new UctNode(roundCtr, this, table);
+                }
+                child = childNodes[action];
             }
+            Metrics.record(Metrics.UCT_SELECTION, selectStartNanos);
             // evaluate via recursive invocation or via playout
-            UctNode child = childNodes[action];
             double reward = (child != null) ?
                     child.sample(roundCtr, joinOrder, timeoutMillis): 
                     	playout(joinOrder, timeoutMillis);
             // update UCT statistics and return reward
-            updateStatistics(action, reward);
+            synchronized (this) {
+                updateStatistics(action, reward);
+            }
             return reward;
         }
     }
-    /**
-     * Returns reward for a successful join query execution
-     * on a data batch with the given timeout. 
-     * 
-     * @param timeout	number of milliseconds until timeout
-     * @param actual	actual execution time in milliseconds
-     * @param scaling	reward scaling for given table
-     * @return			reward value
-     */
-    public double reward(int timeout, long actual, double scaling) {
-    	//double reward = scaling;
-    	double reward = 1.0;
-    	//System.out.println("Reward: " + reward);
-    	return reward;
-    	/*
-    	if (actual < 10) {
-    		return 1;
-    	} else if (actual < 100) {
-    		return 0.75;
-    	} else if (actual < 1000) {
-    		return 0.5;
-    	} else if (actual < 10000) {
-    		return 0.25;
-    	} else {
-    		return 0.1;
-    	}
-    	*/
-    	//return 1.0/actual;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+package postprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import config.NamingConfig;
+import expressions.ExpressionInfo;
+import expressions.normalization.CopyVisitor;
+import expressions.normalization.MergeVisitor;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import query.ColumnRef;
+import query.QueryInfo;
+
+/**
+ * Describes how decomposable aggregates (SUM, COUNT, MIN, MAX,
+ * and AVG) of a query are calculated partially by each join
+ * query (grouping by all columns used outside of aggregates)
+ * and merged during post-processing. The join result then
+ * contains one row per group and join query instead of one
+ * row per joined tuple. This requires that each result tuple
+ * is joined by exactly one join query.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PartialAggregation {
+	/**
+	 * Names of aggregate functions that can be decomposed.
+	 */
+	final static Set<String> DECOMPOSABLE = new HashSet<String>(
+			Arrays.asList("SUM", "COUNT", "MIN", "MAX", "AVG"));
+	/**
+	 * Names of known scalar functions (other functions may be
+	 * aggregates, including user-defined ones, and are
+	 * therefore not decomposed).
+	 */
+	final static Set<String> SCALAR = new HashSet<String>(
+			Arrays.asList("ABS", "CEIL", "CEILING", "FLOOR", "ROUND", 
+					"TRUNC", "SIGN", "SQRT", "CBRT", "POWER", "MOD", 
+					"EXP", "LN", "LOG", "COALESCE", "NULLIF", "GREATEST", 
+					"LEAST", "UPPER", "LOWER", "LENGTH", "CHAR_LENGTH", 
+					"SUBSTR", "SUBSTRING", "TRIM", "LTRIM", "RTRIM", 
+					"LPAD", "RPAD", "LEFT", "RIGHT", "REPLACE", "CONCAT", 
+					"POSITION", "STRPOS", "MD5", "DATE_PART", 
+					"DATE_TRUNC", "AGE", "TO_CHAR", "TO_DATE", 
+					"TO_NUMBER", "TO_TIMESTAMP"));
+	/**
+	 * Columns used outside of aggregates (join queries group by them).
+	 */
+	public final Set<ColumnRef> groupColumns = new LinkedHashSet<ColumnRef>();
+	/**
+	 * Partial aggregates calculated by join queries (SQL over
+	 * columns of joined tables, stored in numbered columns).
+	 */
+	public final List<String> partialAggregates = new ArrayList<String>();
+	/**
+	 * Maps aggregates in the query (in their SQL representation)
+	 * to expressions merging partial aggregates.
+	 */
+	final Map<String, Expression> aggregateToMerge =
+			new HashMap<String, Expression>();
+	/**
+	 * Whether all aggregates in the query are decomposable.
+	 */
+	boolean decomposable = true;
+	/**
+	 * Collects columns outside of aggregates and decomposes
+	 * aggregates (aggregates are not traversed further).
+	 */
+	class AggregateCollector extends CopyVisitor {
+		@Override
+		public void visit(Function arg0) {
+			String name = arg0.getName().toUpperCase();
+			if (DECOMPOSABLE.contains(name)) {
+				decompose(arg0, name);
+				exprStack.push(arg0);
+			} else if (SCALAR.contains(name)) {
+				super.visit(arg0);
+			} else {
+				decomposable = false;
+				exprStack.push(arg0);
+			}
+		}
+		@Override
+		public void visit(Column arg0) {
+			groupColumns.add(new ColumnRef(
+					arg0.getTable().getName(), arg0.getColumnName()));
+			super.visit(arg0);
+		}
+	}
+	/**
+	 * Analyzes aggregates in the given query and returns a
+	 * description of their partial calculation or null if
+	 * the query does not aggregate or if some of its
+	 * aggregates cannot be decomposed.
+	 *
+	 * @param query		query to analyze
+	 * @return			partial aggregation or null
+	 * @throws Exception
+	 */
+	public static PartialAggregation analyze(QueryInfo query) throws Exception {
+		PartialAggregation aggregation = collect(query);
+		boolean aggregates = !aggregation.aggregateToMerge.isEmpty() ||
+				!query.groupByExpressions.isEmpty();
+		return aggregates && aggregation.decomposable ? aggregation : null;
+	}
+	/**
+	 * Returns true iff the given query contains aggregates
+	 * (unknown functions are considered aggregates).
+	 * 
+	 * @param query		query to analyze
+	 * @return			true iff any aggregate function may be used
+	 * @throws Exception
+	 */
+	public static boolean aggregates(QueryInfo query) throws Exception {
+		PartialAggregation aggregation = collect(query);
+		return !aggregation.aggregateToMerge.isEmpty() || 
+				!aggregation.decomposable;
+	}
+	/**
+	 * Collects columns and aggregates in all query clauses
+	 * that are evaluated during post-processing.
+	 * 
+	 * @param query		query to analyze
+	 * @return			columns and aggregates found in query
+	 * @throws Exception
+	 */
+	static PartialAggregation collect(QueryInfo query) throws Exception {
+		PartialAggregation aggregation = new PartialAggregation();
+		List<ExpressionInfo> expressions = new ArrayList<ExpressionInfo>();
+		expressions.addAll(query.selectExpressions);
+		expressions.addAll(query.groupByExpressions);
+		expressions.addAll(query.orderByExpressions);
+		if (query.havingExpression != null) {
+			expressions.add(query.havingExpression);
+		}
+		for (ExpressionInfo exprInfo : expressions) {
+			exprInfo.finalExpression.accept(
+					aggregation.new AggregateCollector());
+		}
+		return aggregation;
+	}
+	/**
+	 * Adds partial aggregates for given aggregate function and
+	 * registers the expression that merges them.
+	 *
+	 * @param function	aggregate function to decompose
+	 * @param name		name of function in upper case
+	 */
+	void decompose(Function function, String name) {
+		if (function.isDistinct()) {
+			decomposable = false;
+			return;
+		}
+		String aggregate = function.toString();
+		if (aggregateToMerge.containsKey(aggregate)) {
+			return;
+		}
+		String argument = function.isAllColumns() ? "*" :
+			StringUtils.join(function.getParameters().getExpressions(), ", ");
+		String merge;
+		switch (name) {
+		case "COUNT":
+			merge = "COALESCE(SUM(" + addPartial(
+					"COUNT(" + argument + ")") + "), 0)";
+			break;
+		case "AVG":
+			String sum = addPartial("SUM(CAST(" + argument + " AS numeric))");
+			String count = addPartial("COUNT(" + argument + ")");
+			merge = "SUM(" + sum + ") / NULLIF(SUM(" + count + "), 0)";
+			break;
+		default:
+			merge = name + "(" + addPartial(
+					name + "(" + argument + ")") + ")";
+			break;
+		}
+		try {
+			aggregateToMerge.put(aggregate,
+					CCJSqlParserUtil.parseExpression(merge));
+		} catch (Exception e) {
+			throw new RuntimeException("Cannot parse merge " + merge, e);
+		}
+	}
+	/**
+	 * Adds a partial aggregate and returns the name of the
+	 * join result column storing it.
+	 *
+	 * @param partial	SQL of partial aggregate
+	 * @return			name of column storing partial aggregate
+	 */
+	String addPartial(String partial) {
+		String column = NamingConfig.PARTIAL_AGG_COLUMN +
+				partialAggregates.size();
+		partialAggregates.add(partial);
+		return column;
+	}
+	/**
+	 * Returns names of columns in the join result table
+	 * (group columns followed by partial aggregates).
+	 *
+	 * @return	list of join result column names
+	 */
+	public List<String> resultColumns() {
+		List<String> columns = new ArrayList<String>();
+		for (ColumnRef colRef : groupColumns) {
+			columns.add(colRef.toString("_"));
+		}
+		for (int partialCtr=0; partialCtr<partialAggregates.size();
+				++partialCtr) {
+			columns.add(NamingConfig.PARTIAL_AGG_COLUMN + partialCtr);
+		}
+		return columns;
+	}
+	/**
+	 * Generates SELECT clause for join queries, calculating
+	 * partial aggregates per group.
+	 *
+	 * @return	SQL select clause
+	 */
+	public String selectSQL() {
+		List<String> items = new ArrayList<String>();
+		for (ColumnRef colRef : groupColumns) {
+			items.add(colRef + " AS " + colRef.toString("_"));
+		}
+		for (int partialCtr=0; partialCtr<partialAggregates.size();
+				++partialCtr) {
+			items.add(partialAggregates.get(partialCtr) + " AS " +
+				NamingConfig.PARTIAL_AGG_COLUMN + partialCtr);
+		}
+		return "SELECT " + StringUtils.join(items, ", ") + " ";
+	}
+	/**
+	 * Generates GROUP BY clause for join queries (empty if
+	 * all columns are aggregated).
+	 *
+	 * @return	SQL group by clause (starting with a space)
+	 */
+	public String groupBySQL() {
+		if (groupColumns.isEmpty()) {
+			return "";
+		}
+		return " GROUP BY " + StringUtils.join(groupColumns, ", ");
+	}
+	/**
+	 * Returns visitor that transforms expressions of the query
+	 * for post-processing, merging partial aggregates.
+	 *
+	 * @return	visitor for post-processing expressions
+	 */
+	public MergeVisitor mergeVisitor() {
+		return new MergeVisitor(aggregateToMerge);
+	}
+}
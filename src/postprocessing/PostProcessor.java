@@ -2,7 +2,6 @@ package postprocessing;
 
 import java.util.List;
 
-import config.JoinConfig;
 import config.LogConfig;
 import config.MasterConfig;
 import config.NamingConfig;
@@ -10,6 +9,8 @@ import connector.PgConnector;
 import expressions.ExpressionInfo;
 import expressions.normalization.PostProcessingVisitor;
 import joining.JoinSummary;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.OrderByElement.NullOrdering;
 import query.QueryInfo;
 
 /**
@@ -40,33 +41,40 @@ public class PostProcessor {
 		sqlBuilder.append("CREATE TABLE ");
 		sqlBuilder.append(finalTable);
 		sqlBuilder.append(" AS (SELECT ");
+		PartialAggregation aggregation = joinSummary.aggregation;
 		sqlBuilder.append(substitutedExprList(
-				query.selectExpressions, true));
+				query.selectExpressions, true, aggregation));
 		sqlBuilder.append(" FROM ");
 		// De-duplicate join result if necessary
-		if (JoinConfig.deleteProcessed) {
+		if (joinSummary.duplicateFree) {
 			sqlBuilder.append(joinSummary.resultTable);	
 		} else {
 			sqlBuilder.append(" (SELECT DISTINCT * FROM ");
 			sqlBuilder.append(joinSummary.resultTable);
 			sqlBuilder.append(") ");
 		}
-		sqlBuilder.append(" AS joinResultTuples");
+		sqlBuilder.append(" AS joinResultTuples ");
 		if (!query.groupByExpressions.isEmpty()) {
 			sqlBuilder.append("GROUP BY ");
 			sqlBuilder.append(substitutedExprList(
-					query.groupByExpressions, false));
+					query.groupByExpressions, false, aggregation));
 			sqlBuilder.append(" ");
 		}
 		if (query.havingExpression != null) {
 			sqlBuilder.append("HAVING ");
-			sqlBuilder.append(substituteColumns(query.havingExpression));
+			sqlBuilder.append(substituteColumns(
+					query.havingExpression, aggregation));
 			sqlBuilder.append(" ");
 		}
 		if (!query.orderByExpressions.isEmpty()) {
 			sqlBuilder.append("ORDER BY ");
-			sqlBuilder.append(substitutedExprList(
-					query.orderByExpressions, false));
+			sqlBuilder.append(orderByList(query, aggregation));
+		}
+		if (query.plainSelect.getLimit() != null) {
+			sqlBuilder.append(query.plainSelect.getLimit().toString());
+		}
+		if (query.plainSelect.getOffset() != null) {
+			sqlBuilder.append(query.plainSelect.getOffset().toString());
 		}
 		sqlBuilder.append(");");
 		boolean noTimeout = PgConnector.updateOrTimeout(
@@ -91,17 +99,18 @@ public class PostProcessor {
 	 * 
 	 * @param expressions	list of expressions to transform and concatenate
 	 * @param useAliases	whether to include expression aliases
+	 * @param aggregation	partial aggregates to merge (or null)
 	 * @return				string concatenating expressions after substitution
 	 */
-	static String substitutedExprList(
-			List<ExpressionInfo> expressions, boolean useAliases) {
+	static String substitutedExprList(List<ExpressionInfo> expressions, 
+			boolean useAliases, PartialAggregation aggregation) {
 		StringBuilder sqlBuilder = new StringBuilder();
 		boolean firstItem = true;
 		for (ExpressionInfo exprInfo : expressions) {
 			if (!firstItem) {
 				sqlBuilder.append(", ");
 			}
-			sqlBuilder.append(substituteColumns(exprInfo));
+			sqlBuilder.append(substituteColumns(exprInfo, aggregation));
 			if (useAliases && exprInfo.alias != null) {
 				sqlBuilder.append(" AS ");
 				sqlBuilder.append(exprInfo.alias);
@@ -110,17 +119,52 @@ public class PostProcessor {
 		}
 		return sqlBuilder.toString();
 	}
+	/**
+	 * Generates list of ORDER BY items after substitution,
+	 * including sort direction and ordering of NULL values.
+	 * 
+	 * @param query			query whose ORDER BY clause is transformed
+	 * @param aggregation	partial aggregates to merge (or null)
+	 * @return				comma-separated ORDER BY items
+	 */
+	static String orderByList(QueryInfo query, 
+			PartialAggregation aggregation) {
+		List<OrderByElement> elements = 
+				query.plainSelect.getOrderByElements();
+		StringBuilder sqlBuilder = new StringBuilder();
+		int nrElements = elements.size();
+		for (int elementCtr=0; elementCtr<nrElements; ++elementCtr) {
+			if (elementCtr > 0) {
+				sqlBuilder.append(", ");
+			}
+			sqlBuilder.append(substituteColumns(
+					query.orderByExpressions.get(elementCtr), aggregation));
+			OrderByElement element = elements.get(elementCtr);
+			if (!element.isAsc()) {
+				sqlBuilder.append(" DESC");
+			}
+			if (element.getNullOrdering() == NullOrdering.NULLS_FIRST) {
+				sqlBuilder.append(" NULLS FIRST");
+			} else if (element.getNullOrdering() == NullOrdering.NULLS_LAST) {
+				sqlBuilder.append(" NULLS LAST");
+			}
+		}
+		return sqlBuilder.toString();
+	}
 	/**
 	 * Given an expression, substitutes references to columns in
 	 * the original tables by references to corresponding columns
-	 * in the table holding the join result.
+	 * in the table holding the join result. Aggregates are replaced
+	 * by merged partial aggregates if the join result contains them.
 	 * 
-	 * @param exprInfo	expression to transform and associated meta-data
-	 * @return			expression after substitutions
+	 * @param exprInfo		expression to transform and associated meta-data
+	 * @param aggregation	partial aggregates to merge (or null)
+	 * @return				expression after substitutions
 	 */
-	static String substituteColumns(ExpressionInfo exprInfo) {
-		PostProcessingVisitor postVisit = 
-				new PostProcessingVisitor();
+	static String substituteColumns(ExpressionInfo exprInfo, 
+			PartialAggregation aggregation) {
+		PostProcessingVisitor postVisit = aggregation != null ?
+				aggregation.mergeVisitor() : new PostProcessingVisitor();
 		exprInfo.finalExpression.accept(postVisit);
 		return postVisit.exprStack.pop().toString();
 	}
@@ -6,6 +6,7 @@ import catalog.PgCatalog;
 import config.JoinConfig;
 import config.NamingConfig;
 import connector.PgConnector;
+import preprocessing.BatchAssigner;
 import query.ColumnRef;
 
 /**
@@ -57,7 +58,8 @@ public class Preparator {
 	/**
 	 * Based on source table, create a new clustered table that contains
 	 * one new column containing the batch ID and whose tuples are sorted
-	 * by that batch ID. 
+	 * by that batch ID. The clustered table is range-partitioned by
+	 * batch ID if batch partitions are configured.
 	 * 
 	 * @param table				source table
 	 * @param clusteredTable	clustered table to create
@@ -68,12 +70,20 @@ public class Preparator {
 		// Clean up if necessary
 		PgConnector.dropTable(clusteredTable);
 		// Create new clustered table
+		int nrBatches = BatchAssigner.nrBatches(table);
 		StringBuilder sqlBuilder = new StringBuilder();
-		sqlBuilder.append("CREATE TABLE ");
-		sqlBuilder.append(clusteredTable);
-		sqlBuilder.append(" AS (SELECT *, ");
-		sqlBuilder.append("(id * 19 + 23) % ");
-		sqlBuilder.append(JoinConfig.nrBatches);
+		if (JoinConfig.nrBatchPartitions > 0) {
+			createPartitions(table, clusteredTable, nrBatches);
+			sqlBuilder.append("INSERT INTO ");
+			sqlBuilder.append(clusteredTable);
+			sqlBuilder.append(" (SELECT *, ");
+		} else {
+			sqlBuilder.append("CREATE TABLE ");
+			sqlBuilder.append(clusteredTable);
+			sqlBuilder.append(" AS (SELECT *, ");
+		}
+		sqlBuilder.append(BatchAssigner.batchIDexpr(
+				table, table, nrBatches));
 		sqlBuilder.append(" AS ");
 		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
 		sqlBuilder.append(" FROM ");
@@ -82,6 +92,9 @@ public class Preparator {
 		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
 		sqlBuilder.append(");");
 		PgConnector.update(sqlBuilder.toString());
+		// Record number of batches for query processing
+		PgConnector.update("COMMENT ON TABLE " + clusteredTable + 
+				" IS '" + nrBatches + "';");
 		// Create index for fast sorting
 		System.out.println("Creating batch ID index for " + clusteredTable + " ...");
 		sqlBuilder = new StringBuilder();
@@ -95,6 +108,57 @@ public class Preparator {
 		sqlBuilder.append(");");
 		PgConnector.update(sqlBuilder.toString());
 	}
+	/**
+	 * Creates empty clustered table with the columns of the source
+	 * table and a batch ID column, range-partitioned by batch ID.
+	 * Each partition holds a consecutive range of batches.
+	 * 
+	 * @param table				source table
+	 * @param clusteredTable	partitioned table to create
+	 * @param nrBatches			number of batches in table
+	 * @throws Exception
+	 */
+	static void createPartitions(String table, 
+			String clusteredTable, int nrBatches) throws Exception {
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("CREATE TABLE ");
+		sqlBuilder.append(clusteredTable);
+		sqlBuilder.append(" (LIKE ");
+		sqlBuilder.append(table);
+		sqlBuilder.append(", ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(" INT) PARTITION BY RANGE (");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(");");
+		PgConnector.update(sqlBuilder.toString());
+		int nrPartitions = JoinConfig.nrBatchPartitions;
+		int partSize = batchesPerPartition(nrBatches, nrPartitions);
+		for (int partCtr=0; partCtr<nrPartitions; ++partCtr) {
+			sqlBuilder = new StringBuilder();
+			sqlBuilder.append("CREATE TABLE ");
+			sqlBuilder.append(NamingConfig.partitionTable(
+					clusteredTable, partCtr));
+			sqlBuilder.append(" PARTITION OF ");
+			sqlBuilder.append(clusteredTable);
+			sqlBuilder.append(" FOR VALUES FROM (");
+			sqlBuilder.append(partCtr * partSize);
+			sqlBuilder.append(") TO (");
+			sqlBuilder.append((partCtr + 1) * partSize);
+			sqlBuilder.append(");");
+			PgConnector.update(sqlBuilder.toString());
+		}
+	}
+	/**
+	 * Returns number of consecutive batches stored in each partition
+	 * of a table that is partitioned by batch ID.
+	 * 
+	 * @param nrBatches		number of batches in table
+	 * @param nrPartitions	number of partitions of table
+	 * @return				number of batches per partition
+	 */
+	public static int batchesPerPartition(int nrBatches, int nrPartitions) {
+		return (nrBatches + nrPartitions - 1) / nrPartitions;
+	}
 	/**
 	 * Create an index on given column.
 	 * 
@@ -0,0 +1,107 @@
+package preprocessing;
+
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import catalog.PgCatalog;
+import config.JoinConfig;
+import config.PreConfig;
+
+/**
+ * Generates SQL expressions assigning tuples of a table to
+ * batches, according to the configured assignment strategy.
+ * Expressions are evaluated in the SELECT clause of queries
+ * that scan the table (possibly filtered by unary predicates)
+ * and yield integers between zero and the number of batches.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class BatchAssigner {
+	/**
+	 * Returns number of batches into which the given table is
+	 * divided (depends on the estimated table cardinality if
+	 * batches are adaptive).
+	 * 
+	 * @param table		name of table to divide
+	 * @return			number of batches for table
+	 * @throws Exception
+	 */
+	public static int nrBatches(String table) throws Exception {
+		if (!JoinConfig.adaptiveBatches) {
+			return JoinConfig.nrBatches;
+		}
+		long cardinality = PgCatalog.estimatedCardinality(table);
+		long nrBatches = (cardinality + JoinConfig.targetBatchSize - 1) / 
+				JoinConfig.targetBatchSize;
+		return (int)Math.max(1, Math.min(JoinConfig.nrBatches, nrBatches));
+	}
+	/**
+	 * Returns SQL expression calculating the batch ID for tuples
+	 * of the given table.
+	 * 
+	 * @param table		name of scanned table (used for catalog lookups)
+	 * @param alias		alias or name by which scanned table is referenced
+	 * @param nrBatches	number of batches for table
+	 * @return			SQL expression yielding integer batch IDs
+	 * @throws Exception
+	 */
+	public static String batchIDexpr(String table, String alias, 
+			int nrBatches) throws Exception {
+		StringBuilder sqlBuilder = new StringBuilder();
+		switch (PreConfig.batchAssignment) {
+		case ID_MODULO:
+			sqlBuilder.append("(");
+			sqlBuilder.append(alias);
+			sqlBuilder.append(".id * 19 + 23) % ");
+			sqlBuilder.append(nrBatches);
+			break;
+		case CTID_PAGE:
+			// Pages of same batch are stored consecutively (pages
+			// added after the catalog lookup go to the last batch).
+			int nrPages = Math.max(1, PgCatalog.nrPages(table));
+			sqlBuilder.append("LEAST(((");
+			sqlBuilder.append(alias);
+			sqlBuilder.append(".ctid::text::point)[0]::bigint * ");
+			sqlBuilder.append(nrBatches);
+			sqlBuilder.append(" / ");
+			sqlBuilder.append(nrPages);
+			sqlBuilder.append(")::int, ");
+			sqlBuilder.append(nrBatches - 1);
+			sqlBuilder.append(")");
+			break;
+		case KEY_HASH:
+			// Hash entire row if no primary key is declared
+			List<String> keyColumns = PgCatalog.primaryKey(table);
+			String hashed = keyColumns.isEmpty() ? alias : 
+				"ROW(" + alias + "." + StringUtils.join(
+						keyColumns, ", " + alias + ".") + ")";
+			sqlBuilder.append("((hashtext(");
+			sqlBuilder.append(hashed);
+			sqlBuilder.append("::text) % ");
+			sqlBuilder.append(nrBatches);
+			sqlBuilder.append(" + ");
+			sqlBuilder.append(nrBatches);
+			sqlBuilder.append(") % ");
+			sqlBuilder.append(nrBatches);
+			sqlBuilder.append(")");
+			break;
+		case ROW_NUMBER:
+			// Window functions see tuples satisfying predicates only
+			sqlBuilder.append("((row_number() OVER () - 1) * ");
+			sqlBuilder.append(nrBatches);
+			sqlBuilder.append(" / COUNT(*) OVER ())::int");
+			break;
+		case RANDOM:
+			sqlBuilder.append("floor(random() * ");
+			sqlBuilder.append(nrBatches);
+			sqlBuilder.append(")::int");
+			break;
+		default:
+			throw new RuntimeException("Unknown batch assignment: " + 
+					PreConfig.batchAssignment);
+		}
+		return sqlBuilder.toString();
+	}
+}
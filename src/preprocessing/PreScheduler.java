@@ -0,0 +1,134 @@
+package preprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import connector.PgConnector;
+import connector.PgSession;
+
+/**
+ * Schedules pre-processing steps (e.g., creating filtered tables,
+ * collecting batch IDs, and creating indices) that depend on each
+ * other. Steps whose dependencies are satisfied execute concurrently,
+ * each one in a session taken from the pool. With only one thread,
+ * steps execute immediately in the session of the calling thread.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PreScheduler {
+	/**
+	 * A pre-processing step, issuing statements via PgConnector.
+	 */
+	public interface Step {
+		/**
+		 * Executes step in the session bound to the current thread.
+		 *
+		 * @throws Exception
+		 */
+		void execute() throws Exception;
+	}
+	/**
+	 * Threads executing steps (null if steps execute immediately).
+	 */
+	final ExecutorService threads;
+	/**
+	 * Futures of all scheduled steps.
+	 */
+	final List<CompletableFuture<Void>> scheduled =
+			new ArrayList<CompletableFuture<Void>>();
+	/**
+	 * Initializes scheduler executing steps via given number of threads.
+	 *
+	 * @param nrThreads	maximal number of steps executing concurrently
+	 */
+	public PreScheduler(int nrThreads) {
+		threads = nrThreads > 1 ?
+				Executors.newFixedThreadPool(nrThreads) : null;
+	}
+	/**
+	 * Returns true iff steps execute in different sessions (i.e.,
+	 * intermediate results must be visible across sessions).
+	 *
+	 * @return	true iff steps execute concurrently
+	 */
+	public boolean parallel() {
+		return threads != null;
+	}
+	/**
+	 * Schedules step for execution once all given steps finished.
+	 *
+	 * @param step			step to execute
+	 * @param dependencies	steps that must finish first
+	 * @return				future representing scheduled step
+	 * @throws Exception
+	 */
+	public CompletableFuture<Void> schedule(Step step,
+			List<CompletableFuture<Void>> dependencies) throws Exception {
+		CompletableFuture<Void> future;
+		if (threads == null) {
+			step.execute();
+			future = CompletableFuture.completedFuture(null);
+		} else {
+			CompletableFuture<Void> ready = CompletableFuture.allOf(
+					dependencies.toArray(new CompletableFuture<?>[0]));
+			future = ready.thenRunAsync(() -> executeInSession(step), threads);
+		}
+		scheduled.add(future);
+		return future;
+	}
+	/**
+	 * Executes given step in a session taken from the pool.
+	 *
+	 * @param step	step to execute
+	 */
+	static void executeInSession(Step step) {
+		try {
+			PgSession session = PgConnector.acquire();
+			PgConnector.bind(session);
+			try {
+				step.execute();
+			} finally {
+				PgConnector.unbind();
+				PgConnector.release(session);
+			}
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		}
+	}
+	/**
+	 * Waits until all scheduled steps finished and stops threads.
+	 * Re-throws the first exception raised by any step.
+	 *
+	 * @throws Exception
+	 */
+	public void finish() throws Exception {
+		try {
+			for (CompletableFuture<Void> future : scheduled) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					while ((cause instanceof CompletionException ||
+							cause instanceof ExecutionException) &&
+							cause.getCause() != null) {
+						cause = cause.getCause();
+					}
+					if (cause instanceof Exception) {
+						throw (Exception)cause;
+					}
+					throw e;
+				}
+			}
+		} finally {
+			if (threads != null) {
+				threads.shutdownNow();
+			}
+		}
+	}
+}
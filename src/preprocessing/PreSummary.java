@@ -40,6 +40,10 @@ public class PreSummary {
 	 * Maps table aliases to sets of non-empty batch IDs to process.
 	 */
 	public final Map<String, List<Integer>> aliasToTodoBatches = new HashMap<String, List<Integer>>();
+	/**
+	 * Maps table aliases to the number of batches into which their tables are divided.
+	 */
+	public final Map<String, Integer> aliasToNrBatches = new HashMap<String, Integer>();
 	@Override
 	public String toString() {
 		return "Temp tables:\t" + tempTables.toString() + System.lineSeparator() +
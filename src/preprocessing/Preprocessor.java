@@ -2,11 +2,18 @@ package preprocessing;
 
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import catalog.ColumnInfo;
+import catalog.PgCatalog;
 import config.JoinConfig;
 import config.NamingConfig;
 import config.PreConfig;
@@ -29,9 +36,11 @@ public class Preprocessor {
 	 * Executes pre-processing via Postgres. 
 	 * 
 	 * @param query		the query to pre-process
+	 * @param queryID	query ID used for naming intermediate relations
 	 * @return 			summary of pre-processing steps
 	 */
-	public static PreSummary process(QueryInfo query) throws Exception {
+	public static PreSummary process(QueryInfo query, 
+			String queryID) throws Exception {
 		// Disable previous timeouts if any
 		PgConnector.setNoTimeout();
 		// Initialize pre-processing summary
@@ -41,6 +50,35 @@ public class Preprocessor {
 		requiredCols.addAll(query.colsForJoins);
 		requiredCols.addAll(query.colsForPostProcessing);
 		System.out.println("Required columns: " + requiredCols);
+		// Steps for different aliases may execute concurrently
+		PreScheduler scheduler = new PreScheduler(PreConfig.nrPreThreads);
+		Map<String, List<CompletableFuture<Void>>> aliasToReady = 
+				new HashMap<String, List<CompletableFuture<Void>>>();
+		try {
+			planSteps(query, queryID, requiredCols, 
+					preSummary, scheduler, aliasToReady);
+		} finally {
+			scheduler.finish();
+		}
+		return preSummary;
+	}
+	/**
+	 * Schedules pre-processing steps for all query aliases:
+	 * filtering and projection (followed by collecting non-empty
+	 * batches) and index creation once indexed tables exist.
+	 * 
+	 * @param query			the query to pre-process
+	 * @param queryID		query ID used for naming intermediate relations
+	 * @param requiredCols	columns required for joins and post-processing
+	 * @param preSummary	summary of pre-processing steps
+	 * @param scheduler		schedules pre-processing steps
+	 * @param aliasToReady	maps aliases to steps creating their tables
+	 * @throws Exception
+	 */
+	static void planSteps(QueryInfo query, String queryID, 
+			Set<ColumnRef> requiredCols, PreSummary preSummary, 
+			PreScheduler scheduler, Map<String, 
+			List<CompletableFuture<Void>>> aliasToReady) throws Exception {
 		// Iterate over query aliases
 		for (String alias : query.aliasToTable.keySet()) {
 			// Collect required columns (for joins and post-processing) for this table
@@ -71,19 +109,42 @@ public class Preprocessor {
 			if (PreConfig.preCopyMode == PreCopyMode.COPY_ALL ||
 					(PreConfig.preCopyMode == PreCopyMode.COPY_CONSTRAINED &&
 					curUnaryPred != null)) {
-				filterProject(query, alias, curUnaryPred,
-						curRequiredCols, preSummary);
+				String filteredTable = NamingConfig.aliasTable(
+						NamingConfig.FILTER_TBL, queryID, alias);
+				preSummary.tempTables.add(filteredTable);
+				preSummary.aliasToTable.put(alias, filteredTable);
+				ExpressionInfo unaryPred = curUnaryPred;
+				String selectCols = preSummary.aliasToNonIDcols.get(alias);
+				int nrBatches = BatchAssigner.nrBatches(
+						query.aliasToTable.get(alias));
+				preSummary.aliasToNrBatches.put(alias, nrBatches);
+				CompletableFuture<Void> created = scheduler.schedule(
+						() -> filterProject(query, alias, unaryPred, 
+								selectCols, filteredTable, nrBatches, 
+								scheduler.parallel()), 
+						Collections.emptyList());
+				List<CompletableFuture<Void>> ready = 
+						Collections.singletonList(created);
+				if (unaryPred != null) {
+					scheduler.schedule(() -> collectTodoBatches(
+							alias, filteredTable, preSummary), ready);
+				}
+				aliasToReady.put(alias, ready);
 			} else {
 				String baseTable = query.aliasToTable.get(alias);
 				String clusteredTable = NamingConfig.CLUSTER_TBL + baseTable;
 				preSummary.aliasToTable.put(alias, clusteredTable);
+				// Number of batches was fixed when clustering
+				int nrBatches = PgCatalog.nrBatches(clusteredTable);
+				preSummary.aliasToNrBatches.put(alias, nrBatches > 0 ? 
+						nrBatches : JoinConfig.nrBatches);
+				aliasToReady.put(alias, Collections.emptyList());
 			}
 		}
 		// Create missing indices for columns containing batch IDs
 		// and for columns involved in equi-joins.
 		System.out.println("Creating indices ...");
-		createIndices(query, preSummary);
-		return preSummary;
+		createIndices(query, preSummary, scheduler, aliasToReady);
 	}
 	/**
 	 * Create comma-separated list of relevant columns for current table - 
@@ -120,19 +181,22 @@ public class Preprocessor {
 	/**
 	 * Creates a new temporary table containing remaining tuples
 	 * after applying unary predicates, project on columns that
-	 * are required for following steps.
+	 * are required for following steps (columns were selected
+	 * before via createColumnLists()).
 	 * 
 	 * @param query			query to pre-process
 	 * @param alias			alias of table to filter
 	 * @param unaryPred		unary predicate on that table
-	 * @param requiredCols	project on those columns
-	 * @param preSummary	summary of pre-processing steps
+	 * @param selectCols	comma-separated list of columns to copy
+	 * @param filteredAlias	name of table to create
+	 * @param nrBatches		number of batches to divide table into
+	 * @param shared		whether table must be visible in other sessions
 	 */
-	static void filterProject(QueryInfo query, String alias, ExpressionInfo unaryPred, 
-			List<ColumnRef> requiredCols, PreSummary preSummary) throws Exception {
+	static void filterProject(QueryInfo query, String alias, 
+			ExpressionInfo unaryPred, String selectCols, 
+			String filteredAlias, int nrBatches, 
+			boolean shared) throws Exception {
 		System.out.println("Filtering, projection, and clustering for " + alias + " ...");
-		// Name of table containing temporary result
-		String filteredAlias = NamingConfig.FILTER_TBL + alias;
 		// Clean up from prior runs if necessary
 		StringBuilder sqlBuilder = new StringBuilder();
 		sqlBuilder.append("DROP TABLE IF EXISTS ");
@@ -141,7 +205,8 @@ public class Preprocessor {
 		PgConnector.update(sqlBuilder.toString());
 		// Build query creating temporary table
 		sqlBuilder = new StringBuilder();
-		sqlBuilder.append("CREATE TEMP TABLE ");
+		sqlBuilder.append(shared ? "CREATE UNLOGGED TABLE " : 
+			PgConnector.createIntermediateSQL());
 		sqlBuilder.append(filteredAlias);
 		sqlBuilder.append(" AS ");
 		/*
@@ -159,14 +224,14 @@ public class Preprocessor {
 		sqlBuilder.append(filteredAlias);
 		*/
 		sqlBuilder.append(" (SELECT ");
-		String selectCols = preSummary.aliasToNonIDcols.get(alias);
 		sqlBuilder.append(selectCols);
 		if (!selectCols.isEmpty()) {
 			sqlBuilder.append(", ");
 		}
 		String table = query.aliasToTable.get(alias);
-		sqlBuilder.append("((id * 19 + 23) % ");
-		sqlBuilder.append(JoinConfig.nrBatches);
+		sqlBuilder.append("(");
+		sqlBuilder.append(BatchAssigner.batchIDexpr(
+				table, alias, nrBatches));
 		sqlBuilder.append(")::smallint AS ");
 		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
 		sqlBuilder.append(" FROM ");
@@ -184,21 +249,6 @@ public class Preprocessor {
 		sqlBuilder.append(");");
 		//PgConnector.explain(" ANALYZE " + sqlBuilder.toString());
 		PgConnector.update(sqlBuilder.toString());
-		// Collect remaining batches
-		if (unaryPred != null) {
-			sqlBuilder = new StringBuilder();
-			sqlBuilder.append("SELECT DISTINCT ");
-			sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
-			sqlBuilder.append(" FROM ");
-			sqlBuilder.append(filteredAlias);
-			ResultSet result = PgConnector.query(sqlBuilder.toString());
-			// Collect qualifying batch IDs
-			List<Integer> todoBatches = new ArrayList<Integer>();
-			while (result.next()) {
-				todoBatches.add(result.getInt(1));
-			}
-			preSummary.aliasToTodoBatches.put(alias, todoBatches);
-		}
 		// 
 		/*
 		sqlBuilder.append(filteredAlias);
@@ -232,37 +282,56 @@ public class Preprocessor {
 		sqlBuilder.append(");");
 		PgConnector.update(sqlBuilder.toString());
 		*/
-		// Update pre-processing summary
-		preSummary.tempTables.add(filteredAlias);
-		preSummary.aliasToTable.put(alias, filteredAlias);
+	}
+	/**
+	 * Collects IDs of non-empty batches in the given filtered table.
+	 * 
+	 * @param alias			alias of filtered table
+	 * @param filteredAlias	name of filtered table
+	 * @param preSummary	summary of pre-processing steps
+	 * @throws Exception
+	 */
+	static void collectTodoBatches(String alias, String filteredAlias, 
+			PreSummary preSummary) throws Exception {
+		StringBuilder sqlBuilder = new StringBuilder();
+		sqlBuilder.append("SELECT DISTINCT ");
+		sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
+		sqlBuilder.append(" FROM ");
+		sqlBuilder.append(filteredAlias);
+		ResultSet result = PgConnector.query(sqlBuilder.toString());
+		// Collect qualifying batch IDs
+		List<Integer> todoBatches = new ArrayList<Integer>();
+		while (result.next()) {
+			todoBatches.add(result.getInt(1));
+		}
+		result.close();
+		synchronized (preSummary) {
+			preSummary.aliasToTodoBatches.put(alias, todoBatches);
+		}
 	}
 	/**
 	 * Create indices on equality join columns if not yet available.
+	 * Index creation is scheduled once the indexed table exists,
+	 * indices with the same name (e.g., for aliases referring
+	 * to the same table) are only created once.
 	 * 
 	 * @param query			query for which to create indices
 	 * @param preSummary	summary of pre-processing steps executed so far
+	 * @param scheduler		schedules index creation
+	 * @param aliasToReady	maps aliases to steps creating their tables
 	 * @throws Exception
 	 */
-	static void createIndices(QueryInfo query, PreSummary preSummary) throws Exception {
+	static void createIndices(QueryInfo query, PreSummary preSummary,
+			PreScheduler scheduler, Map<String, 
+			List<CompletableFuture<Void>>> aliasToReady) throws Exception {
+		// Collect indexed columns, associated with index names
+		Map<String, ColumnRef> indexToColumn = 
+				new LinkedHashMap<String, ColumnRef>();
 		// Iterate over columns in equi-joins
 		for (ColumnRef colRef : query.equiJoinCols) {
-			StringBuilder sqlBuilder = new StringBuilder();
-			sqlBuilder.append("CREATE INDEX IF NOT EXISTS ");
-			String alias = colRef.aliasName;
-			String table = preSummary.aliasToTable.get(alias);
-			/*
-			sqlBuilder.append(table);
-			sqlBuilder.append("_");
-			sqlBuilder.append(colRef.columnName);
-			*/
-			sqlBuilder.append(NamingConfig.indexName(table, colRef.columnName));
-			sqlBuilder.append(" ON ");
-			sqlBuilder.append(table);
-			sqlBuilder.append(" (");
-			sqlBuilder.append(colRef.columnName);
-			sqlBuilder.append(");");
-			System.out.println("Creating index on " + table + " ...");
-			PgConnector.update(sqlBuilder.toString());
+			String table = preSummary.aliasToTable.get(colRef.aliasName);
+			indexToColumn.putIfAbsent(NamingConfig.indexName(
+					table, colRef.columnName), colRef);
 		}
 		// Create indices for batch numbers (for fast
 		// retrieval and deletion of tuples in specific
@@ -270,32 +339,28 @@ public class Preprocessor {
 		if (JoinConfig.batchIDindexThreshold >= 1.0) {
 			for (String alias : preSummary.aliasToTable.keySet()) {
 				String table = preSummary.aliasToTable.get(alias);
-				StringBuilder sqlBuilder = new StringBuilder();
-				// Create index
-				sqlBuilder.append("CREATE INDEX IF NOT EXISTS ");
-				/*
-				String indexName = alias + "_batchNrIndex";
-				sqlBuilder.append(indexName);
-				*/
-				sqlBuilder.append(NamingConfig.indexName(table, NamingConfig.BATCH_ID_COLUMN));
-				sqlBuilder.append(" ON ");
-				sqlBuilder.append(table);
-				sqlBuilder.append(" (");
-				sqlBuilder.append(NamingConfig.BATCH_ID_COLUMN);
-				sqlBuilder.append(");");
+				indexToColumn.putIfAbsent(NamingConfig.indexName(
+						table, NamingConfig.BATCH_ID_COLUMN), 
+						new ColumnRef(alias, NamingConfig.BATCH_ID_COLUMN));
+			}
+		}
+		// Schedule index creation
+		for (Entry<String, ColumnRef> entry : indexToColumn.entrySet()) {
+			ColumnRef colRef = entry.getValue();
+			String table = preSummary.aliasToTable.get(colRef.aliasName);
+			StringBuilder sqlBuilder = new StringBuilder();
+			sqlBuilder.append("CREATE INDEX IF NOT EXISTS ");
+			sqlBuilder.append(entry.getKey());
+			sqlBuilder.append(" ON ");
+			sqlBuilder.append(table);
+			sqlBuilder.append(" (");
+			sqlBuilder.append(colRef.columnName);
+			sqlBuilder.append(");");
+			String sql = sqlBuilder.toString();
+			scheduler.schedule(() -> {
 				System.out.println("Creating index on " + table + " ...");
-				PgConnector.update(sqlBuilder.toString());
-				// Make index clustered
-				/*
-				sqlBuilder = new StringBuilder();
-				sqlBuilder.append("CLUSTER ");
-				sqlBuilder.append(table);
-				sqlBuilder.append(" USING ");
-				sqlBuilder.append(indexName);
-				sqlBuilder.append(";");
-				PgConnector.update(sqlBuilder.toString());
-				*/
-			}			
+				PgConnector.update(sql);
+			}, aliasToReady.get(colRef.aliasName));
 		}
 	}
 }
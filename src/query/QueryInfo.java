@@ -13,12 +13,15 @@ import catalog.PgCatalog;
 import config.NamingConfig;
 import expressions.ExpressionInfo;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
 import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.select.FromItem;
 import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.Offset;
 import net.sf.jsqlparser.statement.select.OrderByElement;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.SelectExpressionItem;
@@ -33,6 +36,11 @@ import org.apache.commons.lang3.StringUtils;
  *
  */
 public class QueryInfo {
+	/**
+	 * Maximal number of table instances in FROM clause (sets
+	 * of alias indices are represented as long bit masks).
+	 */
+	public static final int MAX_JOINED = Long.SIZE;
 	/**
 	 * Plain select statement query to execute.
 	 */
@@ -103,6 +111,12 @@ public class QueryInfo {
 	 */
 	public List<Set<Integer>> joinedIndices =
 			new ArrayList<Set<Integer>>();
+	/**
+	 * Alias indices connected via join predicates as bit
+	 * masks (bit i is set iff alias i is mentioned) - allows
+	 * checking connections without allocating sets.
+	 */
+	public long[] joinedMasks = new long[0];
 	/**
 	 * Columns that are involved in binary equi-join
 	 * predicates (i.e., we may want to create hash
@@ -126,6 +140,17 @@ public class QueryInfo {
 	 * HAVING clause expression with meta-data.
 	 */
 	public ExpressionInfo havingExpression;
+	/**
+	 * Number of result rows required to answer a query with
+	 * LIMIT clause (including rows skipped via OFFSET) or -1
+	 * if the number of result rows is not limited.
+	 */
+	public long limit = -1;
+	/**
+	 * Set to true if processing of this query should stop
+	 * (e.g., since another strategy produced the result).
+	 */
+	public volatile boolean cancelled = false;
 	/**
 	 * Set of columns required for join processing.
 	 */
@@ -228,7 +253,7 @@ public class QueryInfo {
 	 * @param condition	the remaining condition (no conjuncts extracted yet)
 	 * @param conjuncts	stores the resulting conjuncts
 	 */
-	static void extractConjuncts(Expression condition, 
+	public static void extractConjuncts(Expression condition, 
 			List<Expression> conjuncts) {
 		if (condition instanceof AndExpression) {
 			AndExpression and = (AndExpression)condition;
@@ -319,6 +344,10 @@ public class QueryInfo {
 					extractEquiJoinCols(exprInfo);
 				}
 			}
+			joinedMasks = new long[joinedIndices.size()];
+			for (int predCtr=0; predCtr<joinedMasks.length; ++predCtr) {
+				joinedMasks[predCtr] = aliasMask(joinedIndices.get(predCtr));
+			}
 		}
 	}
 	/**
@@ -359,6 +388,25 @@ public class QueryInfo {
 			}
 		}
 	}
+	/**
+	 * Extracts number of required result rows from LIMIT clause
+	 * (limits that are not integer constants are ignored).
+	 */
+	void treatLimit() {
+		Limit limitClause = plainSelect.getLimit();
+		if (limitClause == null || limitClause.isLimitAll() ||
+				limitClause.isLimitNull() || 
+				!(limitClause.getRowCount() instanceof LongValue)) {
+			return;
+		}
+		limit = ((LongValue)limitClause.getRowCount()).getValue();
+		Offset offset = plainSelect.getOffset();
+		if (offset != null && offset.isOffsetJdbcParameter()) {
+			limit = -1;
+		} else if (offset != null) {
+			limit += offset.getOffset();
+		}
+	}
 	/**
 	 * Collects columns required for steps after pre-processing.
 	 */
@@ -400,19 +448,42 @@ public class QueryInfo {
 	 * @return				true iff join predicates connect
 	 */
 	public boolean connected(Set<Integer> aliasIndices, int newIndex) {
-		// Resulting join indices if selecting new table for join
-		Set<Integer> indicesAfterJoin = new HashSet<Integer>();
-		indicesAfterJoin.addAll(aliasIndices);
-		indicesAfterJoin.add(newIndex);
+		return connected(aliasMask(aliasIndices), newIndex);
+	}
+	/**
+	 * Returns true if there it at least one join predicate
+	 * connecting the items whose bits are set in the given
+	 * mask to the single item. Does not allocate memory.
+	 * 
+	 * @param aliasMask		bit i is set iff alias i is joined
+	 * @param newIndex		index of new alias to check
+	 * @return				true iff join predicates connect
+	 */
+	public boolean connected(long aliasMask, int newIndex) {
+		long newBit = 1L << newIndex;
+		long maskAfterJoin = aliasMask | newBit;
 		// Is there at least one connecting join predicate?
-		for (Set<Integer> joined : joinedIndices) {
-			if (indicesAfterJoin.containsAll(joined) &&
-					joined.contains(newIndex)) {
+		for (long joined : joinedMasks) {
+			if ((joined & newBit) != 0 && 
+					(joined & ~maskAfterJoin) == 0) {
 				return true;
 			}
 		}
 		return false;
 	}
+	/**
+	 * Transforms set of alias indices into a bit mask.
+	 * 
+	 * @param aliasIndices	set of alias indices
+	 * @return				mask with bits set for each index
+	 */
+	public static long aliasMask(Set<Integer> aliasIndices) {
+		long mask = 0;
+		for (int aliasIdx : aliasIndices) {
+			mask |= 1L << aliasIdx;
+		}
+		return mask;
+	}
 	/**
 	 * Concatenates string representations of given expression
 	 * list, using the given separator.
@@ -479,6 +550,11 @@ public class QueryInfo {
 		this.plainSelect = plainSelect;
 		// Extract information in FROM clause
 		extractFromInfo();
+		// Join states are represented as bit masks
+		if (nrJoined > MAX_JOINED) {
+			throw new IllegalArgumentException("Queries may join at most " + 
+					MAX_JOINED + " tables (query joins " + nrJoined + ")");
+		}
 		System.out.println("Alias -> table: " + aliasToTable);
 		System.out.println("Column info: " + colRefToInfo);
 		// Add implicit references to aliases
@@ -502,6 +578,10 @@ public class QueryInfo {
 		// Adds expressions in ORDER BY clause
 		treatOrderBy();
 		System.out.println("ORDER BY expressions: " + orderByExpressions);
+		// Extract number of required rows from LIMIT clause
+		treatLimit();
+		System.out.println("Required result rows: " + 
+				(limit>=0?limit:"all"));
 		// Collect required columns
 		collectRequiredCols();
 		System.out.println("Required cols for joins: " + 
@@ -0,0 +1,133 @@
+package statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with exponentially growing buckets: the
+ * i-th bucket counts measurements of at most 2^i microseconds
+ * (the last bucket counts all larger measurements). Can be
+ * updated by concurrent threads without locking.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class Histogram {
+	/**
+	 * Number of buckets with finite upper bound.
+	 */
+	public final static int NR_BOUNDED = 32;
+	/**
+	 * Name of measured operation.
+	 */
+	public final String name;
+	/**
+	 * Labels distinguishing variants of measured operation
+	 * (in Prometheus syntax without braces, may be empty).
+	 */
+	public final String labels;
+	/**
+	 * At i-th position: number of measurements in i-th bucket.
+	 */
+	final AtomicLongArray buckets = new AtomicLongArray(NR_BOUNDED + 1);
+	/**
+	 * Number of measurements.
+	 */
+	final LongAdder count = new LongAdder();
+	/**
+	 * Sum of measurements in microseconds.
+	 */
+	final LongAdder sum = new LongAdder();
+	/**
+	 * Maximal measurement in microseconds.
+	 */
+	final AtomicLong max = new AtomicLong();
+	/**
+	 * Initializes empty histogram.
+	 * 
+	 * @param name		name of measured operation
+	 * @param labels	distinguishes variants of operation
+	 */
+	public Histogram(String name, String labels) {
+		this.name = name;
+		this.labels = labels;
+	}
+	/**
+	 * Records one measurement.
+	 * 
+	 * @param micros	measured latency in microseconds
+	 */
+	public void record(long micros) {
+		micros = Math.max(0, micros);
+		int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+		buckets.incrementAndGet(Math.min(bucket, NR_BOUNDED));
+		count.increment();
+		sum.add(micros);
+		max.accumulateAndGet(micros, Math::max);
+	}
+	/**
+	 * Returns upper bound (in microseconds) of given bucket.
+	 * 
+	 * @param bucket	index of bounded bucket
+	 * @return			maximal measurement counted in bucket
+	 */
+	public static long upperBound(int bucket) {
+		return 1L << bucket;
+	}
+	/**
+	 * Returns number of measurements in given bucket.
+	 * 
+	 * @param bucket	index of bucket
+	 * @return			number of measurements
+	 */
+	public long bucketCount(int bucket) {
+		return buckets.get(bucket);
+	}
+	/**
+	 * Returns number of measurements.
+	 * 
+	 * @return	number of recorded measurements
+	 */
+	public long count() {
+		return count.sum();
+	}
+	/**
+	 * Returns sum of measurements.
+	 * 
+	 * @return	sum in microseconds
+	 */
+	public long sum() {
+		return sum.sum();
+	}
+	/**
+	 * Returns maximal measurement.
+	 * 
+	 * @return	maximum in microseconds
+	 */
+	public long max() {
+		return max.get();
+	}
+	/**
+	 * Returns an upper bound on the given percentile of
+	 * measurements (the bound of the bucket containing it).
+	 * 
+	 * @param percentile	percentile between 0 and 100
+	 * @return				upper bound in microseconds
+	 */
+	public long percentile(double percentile) {
+		long total = count();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(total * percentile / 100.0);
+		long cumulative = 0;
+		for (int bucket=0; bucket<NR_BOUNDED; ++bucket) {
+			cumulative += buckets.get(bucket);
+			if (cumulative >= Math.max(1, rank)) {
+				return Math.min(upperBound(bucket), max());
+			}
+		}
+		return max();
+	}
+}
@@ -4,7 +4,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Statistics collected curing the join phase.
+ * Statistics collected curing the join phase of one query
+ * (each batched executor collects its own statistics, so
+ * queries processed concurrently do not interfere).
  * 
  * @author immanueltrummer
  *
@@ -14,27 +16,58 @@ public class JoinStats {
 	 * Maps timeout (in milliseconds) to number of
 	 * successfully processed batches with that timeout.
 	 */
-	public static Map<Integer, Integer> timeoutToNrSuccesses;
+	public final Map<Integer, Integer> timeoutToNrSuccesses = 
+			new HashMap<Integer, Integer>();
 	/**
 	 * Maps timeout (in milliseconds) to number of tries.
 	 */
-	public static Map<Integer, Integer> timeoutToNrTries;
+	public final Map<Integer, Integer> timeoutToNrTries = 
+			new HashMap<Integer, Integer>();
 	/**
-	 * Resets all the counters.
+	 * Number of executions using a cached prepared statement.
 	 */
-	public static void init() {
-		timeoutToNrSuccesses = new HashMap<Integer, Integer>();
-		timeoutToNrTries = new HashMap<Integer, Integer>();
+	public long nrStatementCacheHits = 0;
+	/**
+	 * Number of executions that required preparing a statement.
+	 */
+	public long nrStatementCacheMisses = 0;
+	/**
+	 * Milliseconds for last non-batched execution
+	 * (-1 if no non-batched execution took place).
+	 */
+	public volatile long nonBatchedMillis = -1;
+	/**
+	 * Records one try to process a data batch with given
+	 * timeout (may be invoked by concurrent workers).
+	 * 
+	 * @param timeout	timeout in milliseconds
+	 * @param success	whether processing finished in time
+	 */
+	public synchronized void recordTry(int timeout, boolean success) {
+		if (success) {
+			timeoutToNrSuccesses.merge(timeout, 1, Integer::sum);
+		}
+		timeoutToNrTries.merge(timeout, 1, Integer::sum);
 	}
 	/**
-	 * Milliseconds for join phase during last query execution.
+	 * Records one lookup in the prepared statement cache.
+	 * 
+	 * @param hit	whether a cached statement was found
 	 */
-	public static long lastMillis = -1;
+	public synchronized void recordStatementLookup(boolean hit) {
+		if (hit) {
+			++nrStatementCacheHits;
+		} else {
+			++nrStatementCacheMisses;
+		}
+	}
 	/**
 	 * Prints all counters to standard output.
 	 */
-	public static void print() {
+	public synchronized void print() {
 		System.out.println(timeoutToNrSuccesses.toString());
 		System.out.println(timeoutToNrTries.toString());
+		System.out.println("Statement cache hits: " + nrStatementCacheHits + 
+				"\tmisses: " + nrStatementCacheMisses);
 	}
 }
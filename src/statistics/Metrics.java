@@ -0,0 +1,318 @@
+package statistics;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import config.LogConfig;
+import config.MetricsFormat;
+
+/**
+ * Collects latency histograms, counters, and gauges for
+ * the operations performed during query processing and
+ * exports them as JSON or in Prometheus text format (to
+ * a file or via a local HTTP endpoint). Metrics are
+ * accumulated over all queries since start-up.
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class Metrics {
+	/**
+	 * Latency of materializing tuple batches for one table.
+	 */
+	public final static String MATERIALIZATION = "skinner_batch_materialization_micros";
+	/**
+	 * Latency of executing one join order on batches (labeled by timeout).
+	 */
+	public final static String EPISODE = "skinner_episode_micros";
+	/**
+	 * Time by which episodes that timed out exceeded their budget.
+	 */
+	public final static String TIMEOUT_OVERSHOOT = "skinner_timeout_overshoot_micros";
+	/**
+	 * Latency of setting a statement timeout.
+	 */
+	public final static String SET_TIMEOUT = "skinner_set_timeout_micros";
+	/**
+	 * Latency of resetting the statement timeout.
+	 */
+	public final static String SET_NO_TIMEOUT = "skinner_set_no_timeout_micros";
+	/**
+	 * Latency of selecting an action in one UCT node.
+	 */
+	public final static String UCT_SELECTION = "skinner_uct_selection_micros";
+	/**
+	 * Latency of pre-processing for one query.
+	 */
+	public final static String PRE_PROCESSING = "skinner_preprocessing_micros";
+	/**
+	 * Latency of the join phase for one query.
+	 */
+	public final static String JOIN_PHASE = "skinner_join_micros";
+	/**
+	 * Latency of post-processing for one query.
+	 */
+	public final static String POST_PROCESSING = "skinner_postprocessing_micros";
+	/**
+	 * Number of rounds (i.e., sampled join orders) executed.
+	 */
+	public final static String ROUNDS = "skinner_rounds_total";
+	/**
+	 * Rounds per second during the last phase of batched execution.
+	 */
+	public final static String ROUNDS_PER_SECOND = "skinner_rounds_per_second";
+	/**
+	 * Maps name and labels to histograms.
+	 */
+	final static ConcurrentMap<String, Histogram> histograms = 
+			new ConcurrentHashMap<String, Histogram>();
+	/**
+	 * Maps names to counters.
+	 */
+	final static ConcurrentMap<String, LongAdder> counters = 
+			new ConcurrentHashMap<String, LongAdder>();
+	/**
+	 * Maps names to gauges.
+	 */
+	final static ConcurrentMap<String, Double> gauges = 
+			new ConcurrentHashMap<String, Double>();
+	/**
+	 * Serves metrics via HTTP (null if not started).
+	 */
+	static HttpServer server = null;
+	/**
+	 * Returns histogram for given operation and labels.
+	 * 
+	 * @param name		name of operation
+	 * @param labels	labels in Prometheus syntax (may be empty)
+	 * @return			histogram (created if necessary)
+	 */
+	public static Histogram histogram(String name, String labels) {
+		String key = labels.isEmpty() ? name : name + "{" + labels + "}";
+		return histograms.computeIfAbsent(key, 
+				k -> new Histogram(name, labels));
+	}
+	/**
+	 * Records latency of an operation that started at the
+	 * given time (measured via System.nanoTime).
+	 * 
+	 * @param name			name of operation
+	 * @param startNanos	start time of operation
+	 */
+	public static void record(String name, long startNanos) {
+		record(name, "", startNanos);
+	}
+	/**
+	 * Records latency of an operation variant that started
+	 * at the given time (measured via System.nanoTime).
+	 * 
+	 * @param name			name of operation
+	 * @param labels		labels in Prometheus syntax
+	 * @param startNanos	start time of operation
+	 */
+	public static void record(String name, String labels, long startNanos) {
+		histogram(name, labels).record((System.nanoTime() - startNanos) / 1000);
+	}
+	/**
+	 * Increases counter by given value.
+	 * 
+	 * @param name		name of counter
+	 * @param delta		add this value
+	 */
+	public static void count(String name, long delta) {
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+	/**
+	 * Sets value of gauge.
+	 * 
+	 * @param name		name of gauge
+	 * @param value		current value
+	 */
+	public static void gauge(String name, double value) {
+		gauges.put(name, value);
+	}
+	/**
+	 * Records number of rounds executed in given time.
+	 * 
+	 * @param nrRounds	number of executed rounds
+	 * @param millis	milliseconds spent on those rounds
+	 */
+	public static void recordRounds(long nrRounds, long millis) {
+		count(ROUNDS, nrRounds);
+		gauge(ROUNDS_PER_SECOND, nrRounds * 1000.0 / Math.max(1, millis));
+	}
+	/**
+	 * Returns all metrics as JSON object.
+	 * 
+	 * @return	JSON string
+	 */
+	public static String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"counters\": {");
+		boolean first = true;
+		for (Entry<String, LongAdder> entry : sorted(counters).entrySet()) {
+			json.append(first ? "" : ", ");
+			appendJsonString(json, entry.getKey());
+			json.append(": ").append(entry.getValue().sum());
+			first = false;
+		}
+		json.append("}, \"gauges\": {");
+		first = true;
+		for (Entry<String, Double> entry : sorted(gauges).entrySet()) {
+			json.append(first ? "" : ", ");
+			appendJsonString(json, entry.getKey());
+			json.append(": ").append(entry.getValue());
+			first = false;
+		}
+		json.append("}, \"histograms\": [");
+		first = true;
+		for (Histogram histogram : sorted(histograms).values()) {
+			json.append(first ? "" : ", ");
+			json.append("{\"name\": ");
+			appendJsonString(json, histogram.name);
+			json.append(", \"labels\": ");
+			appendJsonString(json, histogram.labels);
+			json.append(", \"count\": ").append(histogram.count());
+			json.append(", \"sumMicros\": ").append(histogram.sum());
+			json.append(", \"maxMicros\": ").append(histogram.max());
+			json.append(", \"p50Micros\": ").append(histogram.percentile(50));
+			json.append(", \"p90Micros\": ").append(histogram.percentile(90));
+			json.append(", \"p99Micros\": ").append(histogram.percentile(99));
+			json.append(", \"buckets\": [");
+			for (int bucket=0; bucket<=Histogram.NR_BOUNDED; ++bucket) {
+				json.append(bucket == 0 ? "" : ", ");
+				json.append(histogram.bucketCount(bucket));
+			}
+			json.append("]}");
+			first = false;
+		}
+		json.append("]}");
+		return json.toString();
+	}
+	/**
+	 * Returns all metrics in Prometheus text format.
+	 * 
+	 * @return	metrics in text exposition format
+	 */
+	public static String toPrometheus() {
+		StringBuilder text = new StringBuilder();
+		for (Entry<String, LongAdder> entry : sorted(counters).entrySet()) {
+			text.append("# TYPE ").append(entry.getKey()).append(" counter\n");
+			text.append(entry.getKey()).append(" ");
+			text.append(entry.getValue().sum()).append("\n");
+		}
+		for (Entry<String, Double> entry : sorted(gauges).entrySet()) {
+			text.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+			text.append(entry.getKey()).append(" ");
+			text.append(entry.getValue()).append("\n");
+		}
+		String lastName = null;
+		for (Histogram histogram : sorted(histograms).values()) {
+			String name = histogram.name;
+			if (!name.equals(lastName)) {
+				text.append("# TYPE ").append(name).append(" histogram\n");
+				lastName = name;
+			}
+			String prefix = histogram.labels.isEmpty() ? 
+					"" : histogram.labels + ",";
+			long cumulative = 0;
+			for (int bucket=0; bucket<Histogram.NR_BOUNDED; ++bucket) {
+				cumulative += histogram.bucketCount(bucket);
+				text.append(name).append("_bucket{").append(prefix);
+				text.append("le=\"").append(Histogram.upperBound(bucket));
+				text.append("\"} ").append(cumulative).append("\n");
+			}
+			text.append(name).append("_bucket{").append(prefix);
+			text.append("le=\"+Inf\"} ").append(histogram.count()).append("\n");
+			String labels = histogram.labels.isEmpty() ? 
+					"" : "{" + histogram.labels + "}";
+			text.append(name).append("_sum").append(labels).append(" ");
+			text.append(histogram.sum()).append("\n");
+			text.append(name).append("_count").append(labels).append(" ");
+			text.append(histogram.count()).append("\n");
+		}
+		return text.toString();
+	}
+	/**
+	 * Writes metrics to the configured file (if any).
+	 * 
+	 * @throws Exception
+	 */
+	public static synchronized void export() throws Exception {
+		if (LogConfig.metricsFile != null) {
+			String content = LogConfig.metricsFormat == MetricsFormat.JSON ?
+					toJson() : toPrometheus();
+			Files.write(Paths.get(LogConfig.metricsFile), 
+					content.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	/**
+	 * Starts serving metrics in Prometheus format under the
+	 * path "/metrics" on the configured local port (does
+	 * nothing if the endpoint is disabled or running).
+	 * 
+	 * @throws Exception
+	 */
+	public static synchronized void startServer() throws Exception {
+		if (LogConfig.metricsPort < 0 || server != null) {
+			return;
+		}
+		server = HttpServer.create(new InetSocketAddress(
+				"localhost", LogConfig.metricsPort), 0);
+		server.createContext("/metrics", exchange -> {
+			byte[] response = toPrometheus().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", 
+					"text/plain; version=0.0.4");
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(response);
+			}
+		});
+		server.start();
+	}
+	/**
+	 * Stops serving metrics via HTTP (if started).
+	 */
+	public static synchronized void stopServer() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+	/**
+	 * Returns sorted copy of given map (for stable output).
+	 * 
+	 * @param map	map to copy
+	 * @return		map sorted by key
+	 */
+	static <T> Map<String, T> sorted(Map<String, T> map) {
+		return new TreeMap<String, T>(map);
+	}
+	/**
+	 * Appends given string as JSON string literal.
+	 * 
+	 * @param builder	append to this builder
+	 * @param value		string to append
+	 */
+	static void appendJsonString(StringBuilder builder, String value) {
+		builder.append('"');
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				builder.append('\\');
+			}
+			builder.append(c);
+		}
+		builder.append('"');
+	}
+}
@@ -1,15 +0,0 @@
-package statistics;
-
-/**
- * Statistics about post-processing.
- * 
- * @author immanueltrummer
- *
- */
-public class PostStats {
-	/**
-	 * Milliseconds used for post-processing during
-	 * last query execution.
-	 */
-	public static long lastMillis;
-}
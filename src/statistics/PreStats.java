@@ -1,14 +0,0 @@
-package statistics;
-
-/**
- * Statistics about pre-processing.
- * 
- * @author immanueltrummer
- *
- */
-public class PreStats {
-	/**
-	 * Milliseconds for pre-processing in last query execution.
-	 */
-	public static long lastMillis = -1;
-}
@@ -0,0 +1,46 @@
+package statistics;
+
+/**
+ * Execution statistics of one query. Each query execution
+ * fills its own instance (queries processed concurrently
+ * must not share statistics).
+ * 
+ * @author immanueltrummer
+ *
+ */
+public class QueryStats {
+	/**
+	 * Milliseconds for pre-processing.
+	 */
+	public long preMillis = -1;
+	/**
+	 * Milliseconds for join phase.
+	 */
+	public long joinMillis = -1;
+	/**
+	 * Milliseconds for post-processing.
+	 */
+	public long postMillis = -1;
+	/**
+	 * Total execution time in milliseconds.
+	 */
+	public long executionMillis = -1;
+	/**
+	 * Whether intra-query learning was used.
+	 */
+	public boolean usedLearning = false;
+	/**
+	 * Statistics of the join phase (null unless
+	 * the query was processed via learning).
+	 */
+	public JoinStats joinStats = null;
+	/**
+	 * Milliseconds for last non-batched execution during
+	 * the join phase (-1 if there was none).
+	 * 
+	 * @return	milliseconds of non-batched execution
+	 */
+	public long nonBatchedMillis() {
+		return joinStats != null ? joinStats.nonBatchedMillis : -1;
+	}
+}
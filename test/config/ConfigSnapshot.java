@@ -0,0 +1,53 @@
+package config;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the values of all configuration parameters that
+ * can be changed at run time so that tests can restore
+ * them after trying other settings.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class ConfigSnapshot {
+	/**
+	 * Configuration classes whose parameters are stored.
+	 */
+	static final Class<?>[] CONFIG_CLASSES = new Class<?>[] {
+		JoinConfig.class, PreConfig.class, MasterConfig.class,
+		LogConfig.class};
+	/**
+	 * Maps parameters to their values when taking the snapshot.
+	 */
+	final Map<Field, Object> fieldToValue = new HashMap<Field, Object>();
+	/**
+	 * Stores the current values of all non-final parameters.
+	 *
+	 * @throws Exception
+	 */
+	public ConfigSnapshot() throws Exception {
+		for (Class<?> configClass : CONFIG_CLASSES) {
+			for (Field field : configClass.getFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) &&
+						!Modifier.isFinal(modifiers)) {
+					fieldToValue.put(field, field.get(null));
+				}
+			}
+		}
+	}
+	/**
+	 * Restores the values stored in this snapshot.
+	 *
+	 * @throws Exception
+	 */
+	public void restore() throws Exception {
+		for (Map.Entry<Field, Object> entry : fieldToValue.entrySet()) {
+			entry.getKey().set(null, entry.getValue());
+		}
+	}
+}
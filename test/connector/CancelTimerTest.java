@@ -0,0 +1,107 @@
+package connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests client-side cancellation of statements at their deadline.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class CancelTimerTest {
+	/**
+	 * Creates a statement that only supports cancellation.
+	 *
+	 * @param started	counted down once cancellation starts
+	 * @param proceed	cancellation waits for this latch
+	 * @param nrCancels	counts cancellations
+	 * @return			statement that may be cancelled
+	 */
+	static Statement statement(CountDownLatch started,
+			CountDownLatch proceed, AtomicInteger nrCancels) {
+		return (Statement)Proxy.newProxyInstance(
+				Statement.class.getClassLoader(),
+				new Class<?>[] {Statement.class}, (proxy, method, args) -> {
+					if (!method.getName().equals("cancel")) {
+						throw new UnsupportedOperationException();
+					}
+					started.countDown();
+					proceed.await();
+					nrCancels.incrementAndGet();
+					return null;
+				});
+	}
+
+	@Test
+	public void disarmsBeforeDeadline() throws Exception {
+		AtomicInteger nrCancels = new AtomicInteger();
+		CancelTimer.Deadline deadline = CancelTimer.schedule(statement(
+				new CountDownLatch(1), new CountDownLatch(0), nrCancels),
+				100000);
+		assertFalse(deadline.disarm());
+		Thread.sleep(200);
+		assertFalse(deadline.disarm());
+		assertEquals(0, nrCancels.get());
+	}
+
+	@Test
+	public void disarmWaitsForOngoingCancel() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch proceed = new CountDownLatch(1);
+		AtomicInteger nrCancels = new AtomicInteger();
+		CancelTimer.Deadline deadline = CancelTimer.schedule(
+				statement(started, proceed, nrCancels), 1);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		ExecutorService thread = Executors.newSingleThreadExecutor();
+		try {
+			Future<Boolean> disarmed = thread.submit(() -> deadline.disarm());
+			try {
+				disarmed.get(200, TimeUnit.MILLISECONDS);
+				fail("Disarmed during cancellation");
+			} catch (TimeoutException e) {
+			}
+			proceed.countDown();
+			assertTrue(disarmed.get(10, TimeUnit.SECONDS));
+			assertEquals(1, nrCancels.get());
+		} finally {
+			thread.shutdownNow();
+		}
+	}
+
+	@Test
+	public void cancelsRunningStatement() throws Exception {
+		TestDatabase.connect();
+		Statement statement = TestDatabase.session.connection.createStatement();
+		CancelTimer.Deadline deadline = CancelTimer.schedule(
+				statement, 50000);
+		try {
+			statement.execute("SELECT pg_sleep(10);");
+			fail("Statement was not cancelled");
+		} catch (SQLException e) {
+			assertTrue(deadline.disarm());
+			assertTrue(CancelTimer.cancelled(e));
+		} finally {
+			statement.close();
+		}
+		// Next statement on the same connection is not affected
+		statement = TestDatabase.session.connection.createStatement();
+		statement.execute("SELECT pg_sleep(0.1);");
+		statement.close();
+	}
+}
@@ -0,0 +1,124 @@
+package connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+import config.ConfigSnapshot;
+import config.JoinConfig;
+import config.LearningAlg;
+import config.PreConfig;
+import config.PreCopyMode;
+import statistics.QueryStats;
+
+/**
+ * Base class for tests that process queries on a test database
+ * and compare results with the ones produced by Postgres. Creates
+ * test tables once per run and restores the configuration after
+ * each test. By default, queries are processed via UCT on few
+ * batches of filtered copies of the test tables (so that tests
+ * may delete processed tuples).
+ *
+ * @author immanueltrummer
+ *
+ */
+public abstract class DatabaseFixture {
+	/**
+	 * Joins all test tables via equality predicates.
+	 */
+	public static final String CHAIN_QUERY = "SELECT r.id, s.id, t.id " +
+			"FROM r, s, t WHERE r.a = s.a AND s.c = t.c";
+	/**
+	 * Joins all test tables, filtering two of them.
+	 */
+	public static final String FILTERED_QUERY = "SELECT r.id, s.id, t.id " +
+			"FROM r, s, t WHERE r.a = s.a AND s.c = t.c AND " +
+			"r.id < 300 AND t.c > 10";
+	/**
+	 * Whether test tables were created in this run.
+	 */
+	static boolean created = false;
+	/**
+	 * Number of queries processed so far (used for query IDs).
+	 */
+	static int nrQueries = 0;
+	/**
+	 * Configuration before the current test.
+	 */
+	ConfigSnapshot config;
+
+	@BeforeClass
+	public static void setUpDatabase() throws Exception {
+		TestDatabase.connect();
+		if (!created) {
+			TestDatabase.update(
+					"DROP TABLE IF EXISTS r, s, t;",
+					"CREATE TABLE r AS (SELECT g AS id, g % 50 AS a, " +
+					"'r' || g AS b FROM generate_series(1, 400) AS g);",
+					"ALTER TABLE r ADD PRIMARY KEY (id);",
+					"CREATE TABLE s AS (SELECT g AS id, g % 50 AS a, " +
+					"g % 100 AS c FROM generate_series(1, 300) AS g);",
+					"CREATE TABLE t AS (SELECT g AS id, g % 100 AS c " +
+					"FROM generate_series(1, 200) AS g);",
+					"ANALYZE r;", "ANALYZE s;", "ANALYZE t;");
+			created = true;
+		}
+	}
+
+	@Before
+	public void configure() throws Exception {
+		TestDatabase.connect();
+		// Failed queries may leave a timeout behind
+		PgConnector.setNoTimeout();
+		config = new ConfigSnapshot();
+		JoinConfig.learningAlg = LearningAlg.UCT;
+		JoinConfig.nrBatches = 8;
+		PreConfig.preCopyMode = PreCopyMode.COPY_ALL;
+	}
+
+	@After
+	public void restoreConfig() throws Exception {
+		if (config != null) {
+			config.restore();
+		}
+	}
+	/**
+	 * Processes given query via SkinnerDB and returns its result.
+	 *
+	 * @param sql	SQL query to process
+	 * @return		sorted result rows
+	 * @throws Exception
+	 */
+	protected static List<String> skinnerResult(String sql) throws Exception {
+		return skinnerResult(sql, new QueryStats());
+	}
+	/**
+	 * Processes given query via SkinnerDB and returns its result.
+	 *
+	 * @param sql	SQL query to process
+	 * @param stats	collects statistics of query execution
+	 * @return		sorted result rows
+	 * @throws Exception
+	 */
+	protected static List<String> skinnerResult(String sql,
+			QueryStats stats) throws Exception {
+		return TestDatabase.execute(sql, "test" + (nrQueries++), stats);
+	}
+	/**
+	 * Asserts that SkinnerDB produces the same (non-empty)
+	 * result as Postgres for the given query.
+	 *
+	 * @param sql	SQL query to process
+	 * @throws Exception
+	 */
+	protected static void assertSameResult(String sql) throws Exception {
+		List<String> expected = TestDatabase.rows(sql);
+		assertFalse("Test query has empty result", expected.isEmpty());
+		assertEquals(expected, skinnerResult(sql));
+	}
+}
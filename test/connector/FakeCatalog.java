@@ -0,0 +1,127 @@
+package connector;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces the default database session by an in-memory
+ * stub that answers catalog queries on column meta-data.
+ * Allows testing query analysis without a database.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class FakeCatalog {
+	/**
+	 * Extracts the table name from column meta-data queries.
+	 */
+	static final Pattern TABLE_PATTERN = Pattern.compile(
+			"information_schema\\.columns.*table_name = '([^']*)'");
+	/**
+	 * Installs a default session whose catalog contains the
+	 * given tables (all columns are of type integer).
+	 *
+	 * @param tableToColumns	maps table names to column names
+	 * @throws Exception
+	 */
+	public static void install(Map<String, String[]> tableToColumns)
+			throws Exception {
+		Connection connection = (Connection)proxy(Connection.class,
+				(method, args) -> {
+			if (method.equals("createStatement")) {
+				return statement(tableToColumns);
+			}
+			return null;
+		});
+		PgConnector.defaultSession = new PgSession(connection);
+	}
+	/**
+	 * Creates a statement answering catalog queries.
+	 *
+	 * @param tableToColumns	maps table names to column names
+	 * @return					statement stub
+	 */
+	static Statement statement(Map<String, String[]> tableToColumns) {
+		return (Statement)proxy(Statement.class, (method, args) -> {
+			if (method.equals("executeQuery")) {
+				List<String[]> rows = new ArrayList<String[]>();
+				String sql = (String)args[0];
+				Matcher matcher = TABLE_PATTERN.matcher(sql);
+				if (sql.contains("pg_backend_pid")) {
+					rows.add(new String[] {"1"});
+				} else if (matcher.find()) {
+					String[] columns = tableToColumns.get(matcher.group(1));
+					if (columns != null) {
+						for (String column : columns) {
+							rows.add(new String[] {column, "integer"});
+						}
+					}
+				}
+				return resultSet(rows);
+			}
+			return null;
+		});
+	}
+	/**
+	 * Creates a result set containing the given rows.
+	 *
+	 * @param rows	list of rows (each row is an array of values)
+	 * @return		result set stub
+	 */
+	static ResultSet resultSet(List<String[]> rows) {
+		int[] rowCtr = new int[] {-1};
+		return (ResultSet)proxy(ResultSet.class, (method, args) -> {
+			switch (method) {
+			case "next":
+				return ++rowCtr[0] < rows.size();
+			case "getString":
+				return rows.get(rowCtr[0])[(Integer)args[0] - 1];
+			case "getInt":
+				return Integer.parseInt(rows.get(rowCtr[0])[(Integer)args[0] - 1]);
+			default:
+				return null;
+			}
+		});
+	}
+	/**
+	 * Handles calls to methods of a stub.
+	 */
+	interface Handler {
+		/**
+		 * Returns result of method invocation.
+		 *
+		 * @param method	name of invoked method
+		 * @param args		invocation arguments
+		 * @return			invocation result (null for default)
+		 */
+		Object handle(String method, Object[] args);
+	}
+	/**
+	 * Creates a stub implementing the given interface. Methods
+	 * without specific result return default values.
+	 *
+	 * @param type		interface to implement
+	 * @param handler	produces results of method calls
+	 * @return			stub object
+	 */
+	static Object proxy(Class<?> type, Handler handler) {
+		return Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] {type}, (proxy, method, args) -> {
+			Object result = handler.handle(method.getName(), args);
+			Class<?> returnType = method.getReturnType();
+			if (result != null || !returnType.isPrimitive() ||
+					returnType == void.class) {
+				return result;
+			}
+			return Array.get(Array.newInstance(returnType, 1), 0);
+		});
+	}
+}
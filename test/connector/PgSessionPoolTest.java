@@ -0,0 +1,91 @@
+package connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests management of database sessions by the session pool.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PgSessionPoolTest {
+	/**
+	 * Pool with at most two sessions in use.
+	 */
+	PgSessionPool pool;
+
+	@Before
+	public void createPool() throws Exception {
+		TestDatabase.connect();
+		Properties props = new Properties();
+		props.setProperty("user", TestDatabase.USER);
+		props.setProperty("password", TestDatabase.PASSWORD);
+		pool = new PgSessionPool(TestDatabase.URL, props, 2);
+	}
+
+	@After
+	public void closePool() throws Exception {
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void limitsSessionsInUse() throws Exception {
+		PgSession first = pool.acquire();
+		PgSession second = pool.acquire();
+		assertFalse(first.pid == second.pid);
+		ExecutorService thread = Executors.newSingleThreadExecutor();
+		try {
+			Future<PgSession> third = thread.submit(() -> pool.acquire());
+			Thread.sleep(200);
+			assertFalse(third.isDone());
+			pool.release(first);
+			assertSame(first, third.get(10, TimeUnit.SECONDS));
+		} finally {
+			thread.shutdownNow();
+		}
+	}
+
+	@Test
+	public void resetsReleasedSessions() throws Exception {
+		PgSession session = pool.acquire();
+		session.set("work_mem", "'5MB'");
+		session.update("CREATE TEMP TABLE pooltest (a int);");
+		session.prepare("test", "SELECT 1;");
+		pool.release(session);
+		PgSession reused = pool.acquire();
+		assertSame(session, reused);
+		assertNull(reused.get("work_mem"));
+		assertNull(reused.cached("test"));
+		ResultSet result = reused.query(
+				"SELECT COUNT(*) FROM pg_tables WHERE tablename = 'pooltest';");
+		result.next();
+		assertEquals(0, result.getInt(1));
+		pool.release(reused);
+	}
+
+	@Test
+	public void tracksSessionsOfQueries() throws Exception {
+		PgSession session = pool.acquire("q1");
+		assertTrue(pool.ownedPids("q1").contains(session.pid));
+		assertTrue(pool.ownedPids("q2").isEmpty());
+		pool.release(session);
+		assertTrue(pool.ownedPids("q1").isEmpty());
+	}
+}
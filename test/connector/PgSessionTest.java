@@ -0,0 +1,68 @@
+package connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import statistics.QueryStats;
+
+/**
+ * Tests caching of prepared statements per session.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PgSessionTest extends DatabaseFixture {
+
+	@Test
+	public void reusesPreparedStatements() throws Exception {
+		PgSession session = PgConnector.acquire();
+		try {
+			PreparedStatement statement = session.prepare(
+					"one", "SELECT ?::int;");
+			assertSame(statement, session.cached("one"));
+			for (int execCtr=0; execCtr<3; ++execCtr) {
+				statement.setInt(1, execCtr);
+				ResultSet result = statement.executeQuery();
+				result.next();
+				assertEquals(execCtr, result.getInt(1));
+			}
+		} finally {
+			PgConnector.release(session);
+		}
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedStatements() throws Exception {
+		PgSession session = PgConnector.acquire();
+		try {
+			int cacheSize = JoinConfig.statementCacheSize;
+			for (int keyCtr=0; keyCtr<cacheSize; ++keyCtr) {
+				session.prepare("k" + keyCtr, "SELECT " + keyCtr + ";");
+			}
+			// Use first statement so that second one is evicted
+			assertNotNull(session.cached("k0"));
+			session.prepare("new", "SELECT -1;");
+			assertNotNull(session.cached("k0"));
+			assertNull(session.cached("k1"));
+			assertNotNull(session.cached("new"));
+		} finally {
+			PgConnector.release(session);
+		}
+	}
+
+	@Test
+	public void reusesJoinStatementsAcrossEpisodes() throws Exception {
+		QueryStats stats = new QueryStats();
+		TestDatabase.execute(CHAIN_QUERY, "cache", stats);
+		assertTrue(stats.joinStats.nrStatementCacheHits > 0);
+	}
+}
@@ -0,0 +1,137 @@
+package connector;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assume;
+
+import execution.Master;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import statistics.QueryStats;
+
+/**
+ * Connects tests to a Postgres database, specified via the
+ * system properties skinner.test.url, skinner.test.user,
+ * and skinner.test.password. Tests requiring a database
+ * are skipped if no database is reachable.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class TestDatabase {
+	/**
+	 * JDBC URL of test database.
+	 */
+	static final String URL = System.getProperty("skinner.test.url",
+			"jdbc:postgresql://localhost:5432/skinnertest");
+	/**
+	 * Name of database user.
+	 */
+	static final String USER = System.getProperty(
+			"skinner.test.user", "postgres");
+	/**
+	 * Password of database user.
+	 */
+	static final String PASSWORD = System.getProperty(
+			"skinner.test.password", "");
+	/**
+	 * Default session of connection to test database (null
+	 * if no connection was established yet).
+	 */
+	static PgSession session = null;
+	/**
+	 * Whether connecting to the test database failed.
+	 */
+	static boolean unavailable = false;
+	/**
+	 * Connects to the test database unless connected already and
+	 * makes its session the default session (tests without
+	 * database may have replaced it). Skips the calling test
+	 * if the database is unavailable.
+	 */
+	public static synchronized void connect() {
+		if (session == null && !unavailable) {
+			try {
+				PgConnector.connect(URL, USER, PASSWORD);
+				session = PgConnector.defaultSession;
+			} catch (Exception e) {
+				System.out.println("No test database: " + e);
+				unavailable = true;
+			}
+		}
+		Assume.assumeTrue("No test database at " + URL, session != null);
+		PgConnector.defaultSession = session;
+	}
+	/**
+	 * Executes given SQL statements in the default session.
+	 *
+	 * @param statements	SQL statements to execute
+	 * @throws Exception
+	 */
+	public static void update(String... statements) throws Exception {
+		for (String statement : statements) {
+			PgConnector.update(statement);
+		}
+	}
+	/**
+	 * Executes given query in the default session and returns
+	 * result rows in sorted order (each row is represented by
+	 * its values, separated by vertical bars).
+	 *
+	 * @param sql	SQL query to execute
+	 * @return		sorted result rows
+	 * @throws Exception
+	 */
+	public static List<String> rows(String sql) throws Exception {
+		ResultSet result = PgConnector.query(sql);
+		int nrColumns = result.getMetaData().getColumnCount();
+		List<String> rows = new ArrayList<String>();
+		while (result.next()) {
+			StringBuilder rowBuilder = new StringBuilder();
+			for (int colCtr=1; colCtr<=nrColumns; ++colCtr) {
+				if (colCtr > 1) {
+					rowBuilder.append("|");
+				}
+				rowBuilder.append(result.getString(colCtr));
+			}
+			rows.add(rowBuilder.toString());
+		}
+		result.close();
+		Collections.sort(rows);
+		return rows;
+	}
+	/**
+	 * Processes given query via the Master and returns the rows
+	 * of its result table in sorted order.
+	 *
+	 * @param sql		SQL query to process
+	 * @param queryID	ID used to name intermediate results
+	 * @return			sorted result rows
+	 * @throws Exception
+	 */
+	public static List<String> execute(String sql,
+			String queryID) throws Exception {
+		return execute(sql, queryID, new QueryStats());
+	}
+	/**
+	 * Processes given query via the Master and returns the rows
+	 * of its result table in sorted order.
+	 *
+	 * @param sql		SQL query to process
+	 * @param queryID	ID used to name intermediate results
+	 * @param stats		collects statistics of query execution
+	 * @return			sorted result rows
+	 * @throws Exception
+	 */
+	public static List<String> execute(String sql, String queryID,
+			QueryStats stats) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		PlainSelect plainSelect = (PlainSelect)select.getSelectBody();
+		String resultTable = Master.execute(plainSelect, queryID, stats);
+		return rows("SELECT * FROM " + resultTable + ";");
+	}
+}
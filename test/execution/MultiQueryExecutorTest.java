@@ -0,0 +1,90 @@
+package execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import statistics.QueryStats;
+
+/**
+ * Tests concurrent processing of multiple queries.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class MultiQueryExecutorTest extends DatabaseFixture {
+	/**
+	 * Reads number of rows in query result.
+	 */
+	static final MultiQueryExecutor.ResultReader<Integer> COUNT_READER =
+			(session, resultTable) -> {
+				Statement statement = session.connection.createStatement();
+				ResultSet result = statement.executeQuery(
+						"SELECT COUNT(*) FROM " + resultTable + ";");
+				result.next();
+				int count = result.getInt(1);
+				statement.close();
+				return count;
+			};
+	/**
+	 * Parses given SQL query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		parsed query
+	 * @throws Exception
+	 */
+	static PlainSelect parse(String sql) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		return (PlainSelect)select.getSelectBody();
+	}
+
+	@Test
+	public void processesQueriesConcurrently() throws Exception {
+		String[] queries = new String[] {CHAIN_QUERY, FILTERED_QUERY};
+		List<Integer> expected = new ArrayList<Integer>();
+		for (String sql : queries) {
+			int count = TestDatabase.rows(sql).size();
+			assertFalse(count == 0);
+			expected.add(count);
+		}
+		MultiQueryExecutor executor = new MultiQueryExecutor();
+		List<Future<Integer>> counts = new ArrayList<Future<Integer>>();
+		int nrQueries = 8;
+		for (int queryCtr=0; queryCtr<nrQueries; ++queryCtr) {
+			counts.add(executor.submit(parse(queries[queryCtr % 2]),
+					COUNT_READER));
+		}
+		executor.shutdown();
+		for (int queryCtr=0; queryCtr<nrQueries; ++queryCtr) {
+			assertEquals(expected.get(queryCtr % 2),
+					counts.get(queryCtr).get());
+		}
+	}
+
+	@Test
+	public void collectsStatisticsPerQuery() throws Exception {
+		QueryStats first = new QueryStats();
+		QueryStats second = new QueryStats();
+		Master.execute(parse(CHAIN_QUERY), "stats1", first);
+		Master.execute(parse(FILTERED_QUERY), "stats2", second);
+		for (QueryStats stats : new QueryStats[] {first, second}) {
+			assertTrue(stats.usedLearning);
+			assertFalse(stats.joinStats.timeoutToNrTries.isEmpty());
+		}
+		assertNotSame(first.joinStats, second.joinStats);
+	}
+}
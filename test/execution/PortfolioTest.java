@@ -0,0 +1,107 @@
+package execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import config.MasterConfig;
+import config.NamingConfig;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import statistics.QueryStats;
+
+/**
+ * Tests racing the traditional plan against intra-query
+ * learning for the same query.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PortfolioTest extends DatabaseFixture {
+	/**
+	 * Asserts that no result of the traditional plan remains
+	 * (it is either renamed to the final result or dropped).
+	 *
+	 * @throws Exception
+	 */
+	static void assertNoNativeTables() throws Exception {
+		assertEquals(Arrays.asList("0"), TestDatabase.rows(
+				"SELECT COUNT(*) FROM pg_class WHERE relname LIKE '" +
+				NamingConfig.NATIVE_TBL + "%';"));
+	}
+	/**
+	 * Processes given query and returns the names of the
+	 * columns of its result table.
+	 *
+	 * @param sql	SQL query to process
+	 * @return		column names in result order
+	 * @throws Exception
+	 */
+	static List<String> resultColumns(String sql) throws Exception {
+		TestDatabase.execute(sql, "columns");
+		return TestDatabase.rows("SELECT ordinal_position || ':' || " +
+				"column_name FROM information_schema.columns WHERE " +
+				"table_name = '" + NamingConfig.FINAL_TBL + "columns';");
+	}
+
+	@Test
+	public void declaresOneWinner() throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(CHAIN_QUERY);
+		Portfolio portfolio = new Portfolio((PlainSelect)select.getSelectBody(),
+				"race", NamingConfig.FINAL_TBL + "race", new QueryStats());
+		assertFalse(portfolio.learningWon());
+		assertFalse(portfolio.nativeWon());
+		assertTrue(portfolio.claim(false));
+		assertFalse(portfolio.claim(true));
+		assertTrue(portfolio.nativeWon());
+		assertFalse(portfolio.learningWon());
+	}
+
+	@Test
+	public void racesStrategies() throws Exception {
+		MasterConfig.racePortfolio = true;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+		assertNoNativeTables();
+	}
+
+	@Test
+	public void namesColumnsLikeLearning() throws Exception {
+		String sql = "SELECT r.id, s.id AS sid, t.id + 1, t.c " +
+				"FROM r, s, t WHERE r.a = s.a AND s.c = t.c";
+		List<String> learned = resultColumns(sql);
+		assertEquals(Arrays.asList("1:r_id", "2:sid", "4:t_c"),
+				Arrays.asList(learned.get(0), learned.get(1), learned.get(3)));
+		// Traditional plan wins the race against slow learning
+		MasterConfig.racePortfolio = true;
+		JoinConfig.nrBatches = 100000;
+		List<String> raced = resultColumns(sql);
+		assertEquals(Arrays.asList("1:r_id", "2:sid", "3:column3", "4:t_c"),
+				raced);
+	}
+
+	@Test(timeout = 60000)
+	public void cancelsSlowLearning() throws Exception {
+		MasterConfig.racePortfolio = true;
+		// Learning has to skip over many empty batches
+		JoinConfig.nrBatches = 100000;
+		QueryStats stats = new QueryStats();
+		assertEquals(TestDatabase.rows(CHAIN_QUERY),
+				skinnerResult(CHAIN_QUERY, stats));
+		assertFalse(stats.usedLearning);
+		assertNoNativeTables();
+		// Sessions of cancelled learning are available again
+		MasterConfig.racePortfolio = false;
+		JoinConfig.nrBatches = 8;
+		assertSameResult(FILTERED_QUERY);
+	}
+}
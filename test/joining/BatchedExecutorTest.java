@@ -0,0 +1,144 @@
+package joining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import config.BatchAssignment;
+import config.JoinConfig;
+import config.JoinEngine;
+import config.PreConfig;
+import config.TimeoutMode;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+import statistics.JoinStats;
+import statistics.QueryStats;
+
+/**
+ * Tests combinations of execution modes of the batched
+ * executor against results produced by Postgres.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class BatchedExecutorTest extends DatabaseFixture {
+	/**
+	 * Joins test tables via an inequality predicate and evaluates
+	 * an expensive filter on many tuple pairs (so that episodes
+	 * on few batches time out).
+	 */
+	static final String EXPENSIVE_QUERY = "SELECT r.id, s.id, t.id " +
+			"FROM r, s, t WHERE r.a = s.a AND s.c < t.c AND " +
+			"md5(r.b || s.id || t.id) < '1'";
+	/**
+	 * Asserts that SkinnerDB processes an expensive query
+	 * correctly on few batches while interrupting at least
+	 * one episode at its timeout.
+	 *
+	 * @throws Exception
+	 */
+	static void assertTimeoutsEnforced() throws Exception {
+		JoinConfig.nrBatches = 2;
+		QueryStats stats = new QueryStats();
+		assertEquals(TestDatabase.rows(EXPENSIVE_QUERY),
+				skinnerResult(EXPENSIVE_QUERY, stats));
+		JoinStats joinStats = stats.joinStats;
+		int nrTries = joinStats.timeoutToNrTries.values().stream().
+				mapToInt(Integer::intValue).sum();
+		int nrSuccesses = joinStats.timeoutToNrSuccesses.values().stream().
+				mapToInt(Integer::intValue).sum();
+		assertTrue("No episode timed out", nrSuccesses < nrTries);
+	}
+
+	@Test
+	public void resumesEpisodesInMemory() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		JoinConfig.resumeEpisodes = true;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void resumesEpisodesOnBatchTables() throws Exception {
+		JoinConfig.resumeEpisodes = true;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void resumesEpisodesWithParallelWorkers() throws Exception {
+		JoinConfig.resumeEpisodes = true;
+		JoinConfig.nrWorkers = 3;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void resumesInterruptedEpisodes() throws Exception {
+		JoinConfig.resumeEpisodes = true;
+		JoinConfig.nrBatches = 2;
+		assertSameResult(EXPENSIVE_QUERY);
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameResult(EXPENSIVE_QUERY);
+	}
+
+	@Test
+	public void deletesProcessedWithParallelWorkers() throws Exception {
+		JoinConfig.deleteProcessed = true;
+		JoinConfig.nrWorkers = 2;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void deletesProcessedWithParallelWorkersInMemory() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		JoinConfig.deleteProcessed = true;
+		JoinConfig.nrWorkers = 2;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void skipsEmptyBatches() throws Exception {
+		// Test tables span few pages so most batches are empty
+		// (searching for non-empty batches depends on random
+		// batch selections, hence the repetitions).
+		PreConfig.batchAssignment = BatchAssignment.CTID_PAGE;
+		for (int runCtr=0; runCtr<10; ++runCtr) {
+			assertSameResult(CHAIN_QUERY);
+		}
+	}
+
+	@Test
+	public void cancelsEpisodesAtTimeout() throws Exception {
+		JoinConfig.timeoutMode = TimeoutMode.CANCEL;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+		assertTimeoutsEnforced();
+	}
+
+	@Test
+	public void limitsEpisodesViaSessionTimeouts() throws Exception {
+		JoinConfig.timeoutMode = TimeoutMode.SESSION;
+		assertTimeoutsEnforced();
+	}
+
+	@Test
+	public void limitsEpisodesViaLocalTimeouts() throws Exception {
+		JoinConfig.timeoutMode = TimeoutMode.LOCAL;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+		assertTimeoutsEnforced();
+	}
+
+	@Test
+	public void resumesEpisodesWithEachTimeoutMode() throws Exception {
+		JoinConfig.resumeEpisodes = true;
+		for (TimeoutMode mode : TimeoutMode.values()) {
+			JoinConfig.timeoutMode = mode;
+			assertTimeoutsEnforced();
+		}
+	}
+}
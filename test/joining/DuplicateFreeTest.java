@@ -0,0 +1,87 @@
+package joining;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import config.JoinEngine;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+
+/**
+ * Tests that execution modes producing duplicate-free join
+ * results (which skip deduplication via DISTINCT) return the
+ * same rows as the default mode, deduplicating via DISTINCT,
+ * and as Postgres.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class DuplicateFreeTest extends DatabaseFixture {
+	/**
+	 * Aggregates over the join of all test tables.
+	 */
+	static final String AGGREGATE_QUERY = "SELECT r.a, COUNT(s.id), " +
+			"SUM(t.id) FROM r, s, t WHERE r.a = s.a AND s.c = t.c " +
+			"GROUP BY r.a";
+	/**
+	 * Asserts that the current execution mode produces the same
+	 * result as the default mode and as Postgres for the test
+	 * queries joining all test tables.
+	 *
+	 * @throws Exception
+	 */
+	static void assertSameAsDistinct() throws Exception {
+		for (String sql : new String[] {CHAIN_QUERY, FILTERED_QUERY}) {
+			List<String> actual = skinnerResult(sql);
+			boolean deleteProcessed = JoinConfig.deleteProcessed;
+			boolean duplicateFreeBatches = JoinConfig.duplicateFreeBatches;
+			JoinConfig.deleteProcessed = false;
+			JoinConfig.duplicateFreeBatches = false;
+			List<String> distinct = skinnerResult(sql);
+			JoinConfig.deleteProcessed = deleteProcessed;
+			JoinConfig.duplicateFreeBatches = duplicateFreeBatches;
+			assertEquals(distinct, actual);
+			assertEquals(TestDatabase.rows(sql), actual);
+		}
+	}
+
+	@Test
+	public void deletesProcessedBatches() throws Exception {
+		JoinConfig.deleteProcessed = true;
+		assertSameAsDistinct();
+	}
+
+	@Test
+	public void excludesProcessedBatches() throws Exception {
+		JoinConfig.duplicateFreeBatches = true;
+		assertSameAsDistinct();
+	}
+
+	@Test
+	public void deletesProcessedBatchesInMemory() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		JoinConfig.deleteProcessed = true;
+		assertSameAsDistinct();
+	}
+
+	@Test
+	public void deletesProcessedBatchesWhenResuming() throws Exception {
+		JoinConfig.resumeEpisodes = true;
+		JoinConfig.deleteProcessed = true;
+		assertSameAsDistinct();
+	}
+
+	@Test
+	public void aggregatesDuplicateFreeResults() throws Exception {
+		JoinConfig.partialAggregation = true;
+		JoinConfig.deleteProcessed = true;
+		assertSameResult(AGGREGATE_QUERY);
+		JoinConfig.deleteProcessed = false;
+		JoinConfig.duplicateFreeBatches = true;
+		assertSameResult(AGGREGATE_QUERY);
+	}
+}
@@ -0,0 +1,92 @@
+package joining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import config.JoinEngine;
+import config.LearningAlg;
+import config.RewardFunction;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+import statistics.QueryStats;
+
+/**
+ * Tests join processing with one or multiple workers
+ * on batches of the test tables, learning join orders
+ * from different rewards, and completing join results
+ * without batches.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class JoinProcessorTest extends DatabaseFixture {
+	/**
+	 * Asserts that SkinnerDB produces the same result as Postgres
+	 * for the given query when switching to non-batched execution
+	 * after few rounds of batched execution.
+	 *
+	 * @param sql	SQL query to process
+	 * @throws Exception
+	 */
+	static void assertSameAfterSwitch(String sql) throws Exception {
+		JoinConfig.initialRoundsToSwitch = 2;
+		QueryStats stats = new QueryStats();
+		assertEquals(TestDatabase.rows(sql), skinnerResult(sql, stats));
+		assertTrue("No non-batched execution",
+				stats.joinStats.nonBatchedMillis >= 0);
+	}
+
+	@Test
+	public void joinsWithOneWorker() throws Exception {
+		JoinConfig.nrWorkers = 1;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void joinsWithParallelWorkers() throws Exception {
+		JoinConfig.nrWorkers = 3;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void joinsWithProgressRewards() throws Exception {
+		JoinConfig.rewardFunction = RewardFunction.PROGRESS;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+		JoinConfig.learningAlg = LearningAlg.BRUE;
+		assertSameResult(CHAIN_QUERY);
+	}
+
+	@Test
+	public void completesRemainingBatchesWithoutBatching() throws Exception {
+		assertSameAfterSwitch(CHAIN_QUERY);
+		assertSameAfterSwitch(FILTERED_QUERY);
+		JoinConfig.nrWorkers = 3;
+		assertSameAfterSwitch(CHAIN_QUERY);
+	}
+
+	@Test
+	public void completesDuplicateFreeResultsWithoutBatching() throws Exception {
+		JoinConfig.deleteProcessed = true;
+		assertSameAfterSwitch(CHAIN_QUERY);
+		assertSameAfterSwitch(FILTERED_QUERY);
+		JoinConfig.deleteProcessed = false;
+		JoinConfig.duplicateFreeBatches = true;
+		JoinConfig.partialAggregation = true;
+		assertSameAfterSwitch(DuplicateFreeTest.AGGREGATE_QUERY);
+	}
+
+	@Test
+	public void completesResumedEpisodesWithoutBatching() throws Exception {
+		JoinConfig.resumeEpisodes = true;
+		assertSameAfterSwitch(CHAIN_QUERY);
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameAfterSwitch(CHAIN_QUERY);
+		assertSameAfterSwitch(FILTERED_QUERY);
+	}
+}
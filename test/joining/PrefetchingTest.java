@@ -0,0 +1,39 @@
+package joining;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import connector.DatabaseFixture;
+
+/**
+ * Tests prefetching of tuple batches in the background
+ * (via separate sessions) while other batches are joined.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PrefetchingTest extends DatabaseFixture {
+
+	@Test
+	public void prefetchesBatches() throws Exception {
+		JoinConfig.prefetchBatches = true;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void prefetchesBatchesForParallelWorkers() throws Exception {
+		JoinConfig.prefetchBatches = true;
+		JoinConfig.nrWorkers = 2;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void prefetchesBatchesWhenResuming() throws Exception {
+		JoinConfig.prefetchBatches = true;
+		JoinConfig.resumeEpisodes = true;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+}
@@ -0,0 +1,55 @@
+package joining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+
+/**
+ * Tests early termination of the join phase for queries
+ * with LIMIT clause, with and without ORDER BY clause.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class ResultLimitTest extends DatabaseFixture {
+
+	@Test
+	public void stopsOnceEnoughRowsExist() throws Exception {
+		JoinConfig.duplicateFreeBatches = true;
+		List<String> all = TestDatabase.rows(CHAIN_QUERY);
+		List<String> limited = skinnerResult(CHAIN_QUERY + " LIMIT 10");
+		assertEquals(10, limited.size());
+		assertTrue(all.containsAll(limited));
+		limited = skinnerResult(CHAIN_QUERY + " LIMIT 7 OFFSET 3");
+		assertEquals(7, limited.size());
+		assertTrue(all.containsAll(limited));
+	}
+
+	@Test
+	public void discardsBatchesBehindLimit() throws Exception {
+		JoinConfig.duplicateFreeBatches = true;
+		assertSameResult(CHAIN_QUERY + " ORDER BY r.id, s.id, t.id LIMIT 15");
+		assertSameResult(CHAIN_QUERY + " ORDER BY r.id DESC, s.id, t.id " +
+				"LIMIT 15 OFFSET 5");
+		assertSameResult(FILTERED_QUERY + " ORDER BY t.id, s.id, r.id LIMIT 20");
+	}
+
+	@Test
+	public void discardsBatchesWhenDeletingProcessed() throws Exception {
+		JoinConfig.deleteProcessed = true;
+		assertSameResult(CHAIN_QUERY + " ORDER BY s.id, r.id, t.id LIMIT 25");
+	}
+
+	@Test
+	public void limitsResultsWithDuplicates() throws Exception {
+		assertSameResult(CHAIN_QUERY + " ORDER BY r.id, s.id, t.id LIMIT 15");
+		assertEquals(10, skinnerResult(CHAIN_QUERY + " LIMIT 10").size());
+	}
+}
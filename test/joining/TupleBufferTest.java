@@ -0,0 +1,127 @@
+package joining;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import config.BatchCacheMode;
+import config.JoinConfig;
+import connector.DatabaseFixture;
+import connector.PgConnector;
+import connector.PgSession;
+import connector.TestDatabase;
+
+/**
+ * Tests caching of batches in the JVM, from parsing rows in
+ * COPY format to binding cached rows to join queries.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class TupleBufferTest extends DatabaseFixture {
+	/**
+	 * Buffers a small table with special characters and NULL
+	 * values, assigning tuples to three of four batches.
+	 *
+	 * @return	buffered tuples
+	 * @throws Exception
+	 */
+	static TupleBuffer specialValues() throws Exception {
+		TestDatabase.update("DROP TABLE IF EXISTS specialvalues;",
+				"CREATE TABLE specialvalues (id integer, v text, " +
+				"SkinnerBatchID smallint);",
+				"INSERT INTO specialvalues VALUES (1, 'tab\tnewline\n', 0), " +
+				"(2, 'back\\slash', 0), (3, NULL, 2), (4, '\\N', 3), " +
+				"(5, 'über', 3);");
+		return new TupleBuffer(PgConnector.defaultSession, "specialvalues",
+				"x", "id integer, v text", null, 4);
+	}
+	/**
+	 * Binds the given rows of the given batches to a query
+	 * expanding them and returns the resulting rows.
+	 *
+	 * @param buffer	buffered tuples
+	 * @param batches	IDs of batches to bind
+	 * @param fromRow	first row to bind
+	 * @param toRow		bind rows before this one
+	 * @return			rows with values separated by vertical bars
+	 * @throws Exception
+	 */
+	static List<String> bound(TupleBuffer buffer, Set<Integer> batches,
+			int fromRow, int toRow) throws Exception {
+		PgSession session = PgConnector.defaultSession;
+		PreparedStatement statement = session.connection.prepareStatement(
+				"SELECT x.id, x.v, x.SkinnerBatchID FROM " +
+				buffer.fromItem("x") + " ORDER BY x.id");
+		buffer.bind(session, statement, 1, batches, fromRow, toRow);
+		ResultSet result = statement.executeQuery();
+		List<String> rows = new ArrayList<String>();
+		while (result.next()) {
+			rows.add(result.getInt(1) + "|" + result.getString(2) +
+					"|" + result.getInt(3));
+		}
+		statement.close();
+		return rows;
+	}
+
+	@Test
+	public void parsesCopyLines() throws Exception {
+		byte[] line = "1\ta\\tb\\\\c\t\\N\t\\\\N\n".getBytes(
+				StandardCharsets.UTF_8);
+		assertArrayEquals(new String[] {"1", "a\tb\\c", null, "\\N"},
+				TupleBuffer.parseLine(line, 4));
+		assertArrayEquals(new String[] {"", "x\ny"},
+				TupleBuffer.parseLine("\tx\\ny".getBytes(
+						StandardCharsets.UTF_8), 2));
+	}
+
+	@Test
+	public void groupsRowsByBatch() throws Exception {
+		TupleBuffer buffer = specialValues();
+		assertEquals(Arrays.asList(0, 2, 3), buffer.nonEmptyBatches());
+		assertEquals(2, buffer.nrRows(Arrays.asList(0)));
+		assertEquals(0, buffer.nrRows(Arrays.asList(1)));
+		assertEquals(5, buffer.nrRows(Arrays.asList(0, 2, 3)));
+	}
+
+	@Test
+	public void bindsBufferedValues() throws Exception {
+		TupleBuffer buffer = specialValues();
+		Set<Integer> batches = new HashSet<Integer>(Arrays.asList(0, 2, 3));
+		assertEquals(Arrays.asList("1|tab\tnewline\n|0", "2|back\\slash|0",
+				"3|null|2", "4|\\N|3", "5|über|3"),
+				bound(buffer, batches, 0, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void bindsSlicesOfBatches() throws Exception {
+		TupleBuffer buffer = specialValues();
+		Set<Integer> batches = new HashSet<Integer>(Arrays.asList(3, 0));
+		// Rows are numbered over batches in ascending order
+		assertEquals(Arrays.asList("2|back\\slash|0", "4|\\N|3"),
+				bound(buffer, batches, 1, 3));
+		assertEquals(Arrays.asList(), bound(buffer, batches, 4, 6));
+	}
+
+	@Test
+	public void joinsCachedBatches() throws Exception {
+		JoinConfig.batchCacheMode = BatchCacheMode.JVM;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+		JoinConfig.nrWorkers = 3;
+		assertSameResult(CHAIN_QUERY);
+		JoinConfig.nrWorkers = 1;
+		JoinConfig.resumeEpisodes = true;
+		assertSameResult(FILTERED_QUERY);
+	}
+}
@@ -0,0 +1,65 @@
+package joining.memory;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import config.JoinEngine;
+import connector.DatabaseFixture;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import query.QueryInfo;
+
+/**
+ * Tests join processing by the in-memory engine.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class MemoryJoinTest extends DatabaseFixture {
+	/**
+	 * Parses and analyzes the given query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		query information
+	 * @throws Exception
+	 */
+	static QueryInfo query(String sql) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		return new QueryInfo((PlainSelect)select.getSelectBody());
+	}
+
+	@Test
+	public void joinsViaHashIndexes() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void joinsTableWithItself() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameResult("SELECT r1.id, r2.id FROM r AS r1, r AS r2 " +
+				"WHERE r1.a = r2.a AND r1.id < 50");
+	}
+
+	@Test
+	public void joinsWithParallelWorkers() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		JoinConfig.nrWorkers = 2;
+		assertSameResult(CHAIN_QUERY);
+	}
+
+	@Test
+	public void fallsBackToPostgres() throws Exception {
+		String sql = "SELECT r.id, s.id FROM r, s " +
+				"WHERE ABS(r.a - s.a) = 1 AND r.id < 100";
+		assertFalse(MemoryJoin.supports(query(sql)));
+		assertTrue(MemoryJoin.supports(query(CHAIN_QUERY)));
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameResult(sql);
+	}
+}
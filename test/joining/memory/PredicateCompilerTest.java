@@ -0,0 +1,73 @@
+package joining.memory;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import config.JoinConfig;
+import config.JoinEngine;
+import connector.DatabaseFixture;
+
+/**
+ * Tests in-memory joins with join predicates that are
+ * compiled into bytecode (rather than evaluated via
+ * hash indexes).
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PredicateCompilerTest extends DatabaseFixture {
+	/**
+	 * Returns true iff the in-memory engine supports the
+	 * join predicates of a query on tables r and s with
+	 * the given WHERE clause.
+	 *
+	 * @param where		WHERE clause of query
+	 * @return			true iff predicates can be compiled
+	 * @throws Exception
+	 */
+	static boolean supports(String where) throws Exception {
+		return MemoryJoin.supports(MemoryJoinTest.query(
+				"SELECT r.id, s.id FROM r, s WHERE " + where));
+	}
+
+	@Test
+	public void supportsIntegerArithmetic() throws Exception {
+		assertTrue(supports("r.a < s.a * 2 - 1"));
+		assertTrue(supports("(r.a = s.a OR r.id = -s.id)"));
+		assertTrue(supports("r.a >= s.c AND r.a <= s.c + 3"));
+	}
+
+	@Test
+	public void rejectsUnsupportedPredicates() throws Exception {
+		assertFalse(supports("ABS(r.a) = s.a"));
+		assertFalse(supports("r.a / 2 = s.a"));
+		assertFalse(supports("r.b < 'r' || s.id"));
+		assertFalse(supports("r.a % 3 = s.a"));
+	}
+
+	@Test
+	public void evaluatesComparisons() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameResult("SELECT r.id, s.id FROM r, s " +
+				"WHERE r.a >= s.c AND r.a <= s.c + 3 AND r.id < 50");
+		assertSameResult("SELECT r.id, s.id FROM r, s " +
+				"WHERE r.a * 2 = s.c - 1 AND s.id <> r.id");
+	}
+
+	@Test
+	public void evaluatesDisjunctions() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameResult("SELECT r.id, s.id FROM r, s " +
+				"WHERE (r.a = s.a OR r.id = s.id) AND r.id < 100");
+	}
+
+	@Test
+	public void combinesHashJoinsAndCompiledPredicates() throws Exception {
+		JoinConfig.joinEngine = JoinEngine.MEMORY;
+		assertSameResult("SELECT r.id, s.id, t.id FROM r, s, t " +
+				"WHERE r.a = s.a AND s.c < t.c AND t.id < r.id " +
+				"AND r.id < 60 AND t.id < 30");
+	}
+}
@@ -0,0 +1,95 @@
+package optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import connector.FakeCatalog;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import query.QueryInfo;
+
+/**
+ * Tests fingerprints identifying query shapes in the order cache.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class OrderCacheTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		Map<String, String[]> tableToColumns = new HashMap<String, String[]>();
+		tableToColumns.put("r", new String[] {"a", "x"});
+		tableToColumns.put("s", new String[] {"b", "y"});
+		tableToColumns.put("t", new String[] {"c"});
+		FakeCatalog.install(tableToColumns);
+	}
+	/**
+	 * Returns fingerprint of given query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		fingerprint of query shape
+	 * @throws Exception
+	 */
+	static String fingerprint(String sql) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		QueryInfo query = new QueryInfo((PlainSelect)select.getSelectBody());
+		return OrderCache.fingerprint(query);
+	}
+
+	@Test
+	public void fingerprintIsDeterministic() throws Exception {
+		String sql = "SELECT r.a FROM r, s WHERE r.a = s.b AND r.x > 3";
+		String fingerprint = fingerprint(sql);
+		assertEquals(64, fingerprint.length());
+		assertEquals(fingerprint, fingerprint(sql));
+	}
+
+	@Test
+	public void fingerprintIgnoresConstants() throws Exception {
+		assertEquals(
+				fingerprint("SELECT r.a FROM r, s WHERE r.a = s.b " +
+						"AND r.x > 3 AND s.y = 'abc'"),
+				fingerprint("SELECT r.a FROM r, s WHERE r.a = s.b " +
+						"AND r.x > 17 AND s.y = 'xyz'"));
+	}
+
+	@Test
+	public void fingerprintIgnoresPredicateOrder() throws Exception {
+		assertEquals(
+				fingerprint("SELECT r.a FROM r, s, t WHERE r.a = s.b " +
+						"AND s.b = t.c AND r.x > 3 AND s.y < 5"),
+				fingerprint("SELECT r.a FROM r, s, t WHERE s.y < 5 " +
+						"AND s.b = t.c AND r.x > 3 AND r.a = s.b"));
+	}
+
+	@Test
+	public void fingerprintDistinguishesPredicates() throws Exception {
+		String base = fingerprint("SELECT r.a FROM r, s " +
+				"WHERE r.a = s.b AND r.x > 3");
+		assertNotEquals(base, fingerprint("SELECT r.a FROM r, s " +
+				"WHERE r.a = s.b AND r.x < 3"));
+		assertNotEquals(base, fingerprint("SELECT r.a FROM r, s " +
+				"WHERE r.a = s.b AND s.y > 3"));
+		assertNotEquals(base, fingerprint("SELECT r.a FROM r, s " +
+				"WHERE r.x = s.b AND r.x > 3"));
+	}
+
+	@Test
+	public void fingerprintDistinguishesTables() throws Exception {
+		String base = fingerprint("SELECT r.a FROM r, s WHERE r.a = s.b");
+		assertNotEquals(base, fingerprint(
+				"SELECT r.a FROM s, r WHERE r.a = s.b"));
+		assertNotEquals(base, fingerprint(
+				"SELECT r.a FROM r, s, t WHERE r.a = s.b"));
+		assertNotEquals(base, fingerprint(
+				"SELECT r.a FROM r, t AS s WHERE r.a = s.c"));
+	}
+}
@@ -0,0 +1,102 @@
+package optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import config.ConfigSnapshot;
+import config.JoinConfig;
+import config.RewardFunction;
+import joining.EpisodeStats;
+
+/**
+ * Tests calculation of rewards for episodes of join
+ * order learning.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class RewardsTest {
+	/**
+	 * Allowed deviation when comparing rewards.
+	 */
+	static final double DELTA = 1E-9;
+	/**
+	 * Configuration before the current test.
+	 */
+	ConfigSnapshot config;
+
+	@Before
+	public void configure() throws Exception {
+		config = new ConfigSnapshot();
+	}
+
+	@After
+	public void restoreConfig() throws Exception {
+		config.restore();
+	}
+	/**
+	 * Creates statistics of an episode with a timeout of
+	 * one second that joined the given number of rows.
+	 *
+	 * @param nrRowsJoined	number of joined rows out of 100
+	 * @param success		whether first batches were processed
+	 * @param micros		execution time in microseconds
+	 * @return				episode statistics
+	 */
+	static EpisodeStats episode(long nrRowsJoined,
+			boolean success, long micros) {
+		EpisodeStats episode = new EpisodeStats(1000);
+		episode.nrRowsTotal = 100;
+		episode.nrRowsJoined = nrRowsJoined;
+		episode.success = success;
+		episode.micros = micros;
+		return episode;
+	}
+
+	@Test
+	public void rewardsSuccess() throws Exception {
+		JoinConfig.rewardFunction = RewardFunction.SUCCESS;
+		assertEquals(1.0, Rewards.reward(episode(100, true, 10)), DELTA);
+		assertEquals(0.0, Rewards.reward(episode(50, false, 1000000)), DELTA);
+	}
+
+	@Test
+	public void rewardsPartialProgress() throws Exception {
+		JoinConfig.rewardFunction = RewardFunction.PROGRESS;
+		double timeWeight = JoinConfig.rewardTimeWeight;
+		assertEquals(0.0, Rewards.reward(episode(0, false, 1000000)), DELTA);
+		assertEquals((1 - timeWeight) * 0.5,
+				Rewards.reward(episode(50, false, 1000000)), DELTA);
+		// Fast episodes are preferred among successful ones
+		double fast = Rewards.reward(episode(100, true, 250000));
+		double slow = Rewards.reward(episode(100, true, 750000));
+		assertEquals((1 - timeWeight) + timeWeight * 0.75, fast, DELTA);
+		assertEquals((1 - timeWeight) + timeWeight * 0.25, slow, DELTA);
+		assertTrue(fast > slow);
+	}
+
+	@Test
+	public void scalesProgressRewards() throws Exception {
+		JoinConfig.rewardFunction = RewardFunction.PROGRESS;
+		EpisodeStats episode = episode(50, false, 1000000);
+		episode.scaling = 0.5;
+		assertEquals((1 - JoinConfig.rewardTimeWeight) * 0.25,
+				Rewards.reward(episode), DELTA);
+	}
+
+	@Test
+	public void countsFinalizedBatchesWithoutRowCounts() throws Exception {
+		JoinConfig.rewardFunction = RewardFunction.PROGRESS;
+		EpisodeStats episode = new EpisodeStats(1000);
+		assertEquals(0.0, episode.progress(), DELTA);
+		episode.nrBatchesFinalized = 1;
+		assertEquals(1.0, episode.progress(), DELTA);
+		// Progress never exceeds one
+		assertEquals(1.0, episode(150, true, 0).progress(), DELTA);
+		assertTrue(Rewards.reward(episode(150, true, 0)) <= 1.0);
+	}
+}
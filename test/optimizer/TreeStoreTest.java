@@ -0,0 +1,116 @@
+package optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import config.JoinConfig;
+import config.LearningAlg;
+import connector.DatabaseFixture;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import optimizer.uct.UctNode;
+import query.QueryInfo;
+
+/**
+ * Tests storing search trees on disk and resuming learning
+ * from stored trees for queries with the same shape.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class TreeStoreTest extends DatabaseFixture {
+	/**
+	 * Temporary directory storing search trees.
+	 */
+	File treeDir;
+	/**
+	 * Returns meta-data of the given query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		meta-data of query
+	 * @throws Exception
+	 */
+	static QueryInfo queryInfo(String sql) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		return new QueryInfo((PlainSelect)select.getSelectBody());
+	}
+	/**
+	 * Returns the number of samples of the UCT tree stored
+	 * for the shape of the given query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		number of samples of stored tree
+	 * @throws Exception
+	 */
+	static int storedVisits(String sql) throws Exception {
+		QueryInfo query = queryInfo(sql);
+		UctNode root = TreeStore.loadUct(
+				OrderCache.fingerprint(query), query, null);
+		assertNotNull(root);
+		return root.nrVisits();
+	}
+
+	@Before
+	public void createTreeDir() throws Exception {
+		treeDir = Files.createTempDirectory("skinnertrees").toFile();
+		JoinConfig.searchTreeDir = treeDir.toString();
+	}
+
+	@After
+	public void deleteTreeDir() {
+		for (File file : treeDir.listFiles()) {
+			file.delete();
+		}
+		treeDir.delete();
+	}
+
+	@Test
+	public void storesTreesOnlyIfEnabled() throws Exception {
+		JoinConfig.searchTreeDir = null;
+		assertSameResult(FILTERED_QUERY);
+		assertFalse(TreeStore.enabled());
+		assertEquals(0, treeDir.list().length);
+		JoinConfig.searchTreeDir = treeDir.toString();
+		assertSameResult(FILTERED_QUERY);
+		assertTrue(storedVisits(FILTERED_QUERY) > 0);
+	}
+
+	@Test
+	public void resumesFromStoredUctTrees() throws Exception {
+		assertSameResult(FILTERED_QUERY);
+		int nrVisits = storedVisits(FILTERED_QUERY);
+		assertSameResult(WarmStartTest.REFILTERED_QUERY);
+		// Learning continued from the stored tree
+		assertTrue(storedVisits(WarmStartTest.REFILTERED_QUERY) > nrVisits);
+	}
+
+	@Test
+	public void checkpointsTreesWhileLearning() throws Exception {
+		JoinConfig.checkpointTreeEvery = 1;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(CHAIN_QUERY);
+		assertTrue(storedVisits(CHAIN_QUERY) > 0);
+		// No temporary files remain after checkpoints
+		assertEquals(1, treeDir.list().length);
+	}
+
+	@Test
+	public void resumesFromStoredBrueTrees() throws Exception {
+		JoinConfig.learningAlg = LearningAlg.BRUE;
+		assertSameResult(FILTERED_QUERY);
+		assertTrue(new File(treeDir, OrderCache.fingerprint(
+				queryInfo(FILTERED_QUERY)) + ".brue").exists());
+		assertSameResult(WarmStartTest.REFILTERED_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+}
@@ -0,0 +1,89 @@
+package optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import config.JoinConfig;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import query.QueryInfo;
+import statistics.QueryStats;
+
+/**
+ * Tests warm-starting join order learning from search trees
+ * learned for prior queries with the same shape.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class WarmStartTest extends DatabaseFixture {
+	/**
+	 * Filters test tables with other constants than the filtered
+	 * test query (so that both queries have the same shape).
+	 */
+	static final String REFILTERED_QUERY = "SELECT r.id, s.id, t.id " +
+			"FROM r, s, t WHERE r.a = s.a AND s.c = t.c AND " +
+			"r.id < 250 AND t.c > 20";
+	/**
+	 * Returns fingerprint of the shape of the given query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		fingerprint of query shape
+	 * @throws Exception
+	 */
+	static String fingerprint(String sql) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		return OrderCache.fingerprint(new QueryInfo(
+				(PlainSelect)select.getSelectBody()));
+	}
+
+	@Before
+	public void clearCache() {
+		OrderCache.fingerprintToEntry.clear();
+	}
+
+	@Test
+	public void cachesTreesOnlyIfEnabled() throws Exception {
+		assertSameResult(FILTERED_QUERY);
+		assertNull(OrderCache.lookup(fingerprint(FILTERED_QUERY)));
+		JoinConfig.cacheJoinOrders = true;
+		assertSameResult(FILTERED_QUERY);
+		OrderCache.Entry entry = OrderCache.lookup(
+				fingerprint(REFILTERED_QUERY));
+		assertNotNull(entry);
+		assertTrue(entry.nrVisits > 0);
+		assertEquals(3, entry.dominantOrder.length);
+	}
+
+	@Test
+	public void learnsFromCachedTrees() throws Exception {
+		JoinConfig.cacheJoinOrders = true;
+		assertSameResult(FILTERED_QUERY);
+		int nrVisits = OrderCache.lookup(fingerprint(FILTERED_QUERY)).nrVisits;
+		assertSameResult(REFILTERED_QUERY);
+		// Learning continued from the cached tree
+		assertTrue(OrderCache.lookup(fingerprint(
+				REFILTERED_QUERY)).nrVisits > nrVisits);
+	}
+
+	@Test
+	public void executesTrustedOrdersWithoutLearning() throws Exception {
+		JoinConfig.cacheJoinOrders = true;
+		JoinConfig.cachedOrderMinVisits = 1;
+		JoinConfig.cachedOrderConfidence = 0;
+		assertSameResult(FILTERED_QUERY);
+		QueryStats stats = new QueryStats();
+		assertEquals(TestDatabase.rows(REFILTERED_QUERY),
+				skinnerResult(REFILTERED_QUERY, stats));
+		assertTrue(stats.joinStats.timeoutToNrTries.isEmpty());
+		assertTrue(stats.joinStats.nonBatchedMillis >= 0);
+	}
+}
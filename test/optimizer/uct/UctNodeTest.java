@@ -0,0 +1,150 @@
+package optimizer.uct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import connector.FakeCatalog;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import query.QueryInfo;
+
+/**
+ * Tests persistence of UCT search trees.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class UctNodeTest {
+    /**
+     * Query joining three tables.
+     */
+    static QueryInfo query;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Map<String, String[]> tableToColumns = new HashMap<String, String[]>();
+        tableToColumns.put("r", new String[] {"a"});
+        tableToColumns.put("s", new String[] {"b"});
+        tableToColumns.put("t", new String[] {"c"});
+        FakeCatalog.install(tableToColumns);
+        Select select = (Select)CCJSqlParserUtil.parse(
+                "SELECT r.a FROM r, s, t WHERE r.a = s.b AND s.b = t.c");
+        query = new QueryInfo((PlainSelect)select.getSelectBody());
+    }
+    /**
+     * Creates a tree with expanded nodes on two levels and
+     * non-trivial statistics.
+     *
+     * @return root of tree
+     */
+    static UctNode sampleTree() {
+        UctNode root = new UctNode(0, query, false, null);
+        root.nrVisits = 7;
+        root.nrUntried = 1;
+        root.untriedActions[0] = 1;
+        root.nrTries[0] = 4;
+        root.nrTries[2] = 3;
+        root.accumulatedReward[0] = 1.5;
+        root.accumulatedReward[2] = 0.25;
+        UctNode child = new UctNode(1, root, 2);
+        child.nrVisits = 3;
+        child.nrUntried = 0;
+        child.nrTries[1] = 3;
+        child.accumulatedReward[1] = 0.75;
+        root.childNodes[2] = child;
+        UctNode grandChild = new UctNode(2, child, 1);
+        grandChild.nrVisits = 3;
+        child.childNodes[1] = grandChild;
+        root.childNodes[0] = new UctNode(3, root, 0);
+        return root;
+    }
+    /**
+     * Serializes the given tree.
+     *
+     * @param root root of tree to write
+     * @return serialized tree
+     * @throws Exception
+     */
+    static byte[] serialize(UctNode root) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        root.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+    /**
+     * Deserializes a tree.
+     *
+     * @param bytes serialized tree
+     * @return root of loaded tree
+     * @throws Exception
+     */
+    static UctNode deserialize(byte[] bytes) throws Exception {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes));
+        UctNode root = UctNode.read(in, query, false, null);
+        assertEquals("Trailing bytes after tree", 0, in.available());
+        return root;
+    }
+    /**
+     * Asserts that two (sub-)trees have the same shape and statistics.
+     *
+     * @param expected expected tree
+     * @param actual   actual tree
+     */
+    static void assertSameTree(UctNode expected, UctNode actual) {
+        assertEquals(expected.treeLevel, actual.treeLevel);
+        assertEquals(expected.joinedMask, actual.joinedMask);
+        assertArrayEquals(expected.nextTable, actual.nextTable);
+        assertEquals(expected.nrVisits, actual.nrVisits);
+        assertEquals(expected.nrUntried, actual.nrUntried);
+        for (int untriedCtr = 0; untriedCtr < expected.nrUntried; ++untriedCtr) {
+            assertEquals(expected.untriedActions[untriedCtr],
+                    actual.untriedActions[untriedCtr]);
+        }
+        assertArrayEquals(expected.nrTries, actual.nrTries);
+        assertArrayEquals(expected.accumulatedReward,
+                actual.accumulatedReward, 0);
+        for (int actionCtr = 0; actionCtr < expected.nrActions; ++actionCtr) {
+            UctNode expectedChild = expected.childNodes[actionCtr];
+            UctNode actualChild = actual.childNodes[actionCtr];
+            if (expectedChild == null) {
+                assertNull(actualChild);
+            } else {
+                assertSameTree(expectedChild, actualChild);
+            }
+        }
+    }
+
+    @Test
+    public void readRestoresWrittenTree() throws Exception {
+        UctNode root = sampleTree();
+        assertSameTree(root, deserialize(serialize(root)));
+    }
+
+    @Test
+    public void rewriteIsStable() throws Exception {
+        byte[] bytes = serialize(sampleTree());
+        assertArrayEquals(bytes, serialize(deserialize(bytes)));
+    }
+
+    @Test
+    public void readRestoresUnexpandedRoot() throws Exception {
+        UctNode root = new UctNode(0, query, false, null);
+        UctNode loaded = deserialize(serialize(root));
+        assertSameTree(root, loaded);
+        assertEquals(3, loaded.nrUntried);
+    }
+}
@@ -0,0 +1,128 @@
+package postprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import connector.FakeCatalog;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import query.QueryInfo;
+
+/**
+ * Tests decomposition of aggregates into partial aggregates
+ * calculated by join queries.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PartialAggregationTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		Map<String, String[]> tableToColumns = new HashMap<String, String[]>();
+		tableToColumns.put("r", new String[] {"a", "b"});
+		tableToColumns.put("s", new String[] {"c", "d"});
+		FakeCatalog.install(tableToColumns);
+	}
+	/**
+	 * Analyzes the query given as SQL string.
+	 *
+	 * @param sql	SQL query string
+	 * @return		partial aggregation or null
+	 * @throws Exception
+	 */
+	static PartialAggregation analyze(String sql) throws Exception {
+		return PartialAggregation.analyze(query(sql));
+	}
+	/**
+	 * Parses and analyzes the given query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		query information
+	 * @throws Exception
+	 */
+	static QueryInfo query(String sql) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		return new QueryInfo((PlainSelect)select.getSelectBody());
+	}
+
+	@Test
+	public void decomposesSumAndCount() throws Exception {
+		PartialAggregation aggregation = analyze("SELECT r.a, SUM(s.d), " +
+				"COUNT(r.b) FROM r, s WHERE r.b = s.c GROUP BY r.a");
+		assertNotNull(aggregation);
+		assertEquals("SELECT r.a AS r_a, SUM(s.d) AS SkinnerPartial0, " +
+				"COUNT(r.b) AS SkinnerPartial1 ", aggregation.selectSQL());
+		assertEquals(" GROUP BY r.a", aggregation.groupBySQL());
+		assertEquals(Arrays.asList("r_a", "SkinnerPartial0",
+				"SkinnerPartial1"), aggregation.resultColumns());
+		assertEquals("SUM(SkinnerPartial0)", aggregation.aggregateToMerge.get(
+				"SUM(s.d)").toString());
+		assertEquals("COALESCE(SUM(SkinnerPartial1), 0)",
+				aggregation.aggregateToMerge.get("COUNT(r.b)").toString());
+	}
+
+	@Test
+	public void decomposesAverage() throws Exception {
+		PartialAggregation aggregation = analyze("SELECT AVG(s.d) " +
+				"FROM r, s WHERE r.b = s.c");
+		assertNotNull(aggregation);
+		assertEquals("SELECT SUM(CAST(s.d AS numeric)) AS SkinnerPartial0, " +
+				"COUNT(s.d) AS SkinnerPartial1 ", aggregation.selectSQL());
+		assertEquals("", aggregation.groupBySQL());
+		assertEquals("SUM(SkinnerPartial0) / NULLIF(SUM(SkinnerPartial1), 0)",
+				aggregation.aggregateToMerge.get("AVG(s.d)").toString());
+	}
+
+	@Test
+	public void sharesPartialsOfRepeatedAggregates() throws Exception {
+		PartialAggregation aggregation = analyze("SELECT MIN(r.a), " +
+				"MAX(r.a) FROM r, s WHERE r.b = s.c ORDER BY MIN(r.a)");
+		assertNotNull(aggregation);
+		assertEquals(Arrays.asList("MIN(r.a)", "MAX(r.a)"),
+				aggregation.partialAggregates);
+	}
+
+	@Test
+	public void groupsByColumnsInScalarFunctions() throws Exception {
+		PartialAggregation aggregation = analyze("SELECT ABS(r.a), " +
+				"SUM(s.d) FROM r, s WHERE r.b = s.c GROUP BY ABS(r.a)");
+		assertNotNull(aggregation);
+		assertEquals("SELECT r.a AS r_a, SUM(s.d) AS SkinnerPartial0 ",
+				aggregation.selectSQL());
+		assertEquals(" GROUP BY r.a", aggregation.groupBySQL());
+	}
+
+	@Test
+	public void rejectsNonDecomposableAggregates() throws Exception {
+		assertNull(analyze("SELECT STDDEV(s.d) FROM r, s WHERE r.b = s.c"));
+		assertNull(analyze("SELECT COUNT(DISTINCT s.d) " +
+				"FROM r, s WHERE r.b = s.c"));
+		assertNull(analyze("SELECT SUM(s.d), BIT_XOR(r.a) " +
+				"FROM r, s WHERE r.b = s.c"));
+	}
+
+	@Test
+	public void treatsUnknownFunctionsAsAggregates() throws Exception {
+		assertTrue(PartialAggregation.aggregates(query(
+				"SELECT BIT_XOR(r.a) FROM r, s WHERE r.b = s.c")));
+		assertFalse(PartialAggregation.aggregates(query(
+				"SELECT ABS(r.a) FROM r, s WHERE r.b = s.c")));
+	}
+
+	@Test
+	public void ignoresQueriesWithoutAggregates() throws Exception {
+		assertNull(analyze("SELECT r.a, s.d FROM r, s WHERE r.b = s.c"));
+	}
+}
@@ -0,0 +1,90 @@
+package prepare;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import catalog.PgCatalog;
+import config.JoinConfig;
+import config.NamingConfig;
+import config.PreConfig;
+import config.PreCopyMode;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+
+/**
+ * Tests clustering of test tables by batch ID (optionally
+ * partitioned into batch ranges) and query processing on
+ * the clustered tables.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PreparatorTest extends DatabaseFixture {
+	/**
+	 * Names of clustered test tables.
+	 */
+	static final String[] CLUSTERED = new String[] {
+			NamingConfig.CLUSTER_TBL + "r", NamingConfig.CLUSTER_TBL + "s",
+			NamingConfig.CLUSTER_TBL + "t"};
+	/**
+	 * Clusters all test tables by batch ID (replacing clustered
+	 * tables of prior tests) and configures query processing
+	 * to use the clustered tables.
+	 *
+	 * @throws Exception
+	 */
+	static void clusterTestTables() throws Exception {
+		for (String table : new String[] {"r", "s", "t"}) {
+			Preparator.clusterTable(table, NamingConfig.CLUSTER_TBL + table);
+		}
+		PreConfig.preCopyMode = PreCopyMode.COPY_NONE;
+	}
+
+	@Test
+	public void clustersTablesByBatch() throws Exception {
+		clusterTestTables();
+		String clustered = NamingConfig.CLUSTER_TBL + "r";
+		assertEquals(0, PgCatalog.nrPartitions(clustered));
+		assertEquals(8, PgCatalog.nrBatches(clustered));
+		assertEquals(Arrays.asList("400|8"), TestDatabase.rows(
+				"SELECT COUNT(*), COUNT(DISTINCT SkinnerBatchID) " +
+				"FROM " + clustered + ";"));
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void partitionsTablesByBatchRange() throws Exception {
+		JoinConfig.nrBatchPartitions = 3;
+		clusterTestTables();
+		String clustered = NamingConfig.CLUSTER_TBL + "r";
+		assertEquals(3, Preparator.batchesPerPartition(8, 3));
+		assertEquals(3, PgCatalog.nrPartitions(clustered));
+		// Each partition holds a consecutive range of batches
+		assertEquals(Arrays.asList("0|0|2", "1|3|5", "2|6|7"),
+				TestDatabase.rows("SELECT right(tableoid::regclass::text, 1), " +
+				"MIN(SkinnerBatchID), MAX(SkinnerBatchID) FROM " + clustered +
+				" GROUP BY tableoid;"));
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void truncatesProcessedPartitions() throws Exception {
+		JoinConfig.nrBatchPartitions = 3;
+		JoinConfig.deleteProcessed = true;
+		clusterTestTables();
+		assertSameResult(CHAIN_QUERY);
+		// All tuples of one table were processed and removed
+		int minRemaining = Integer.MAX_VALUE;
+		for (String clustered : CLUSTERED) {
+			int nrRemaining = Integer.parseInt(TestDatabase.rows(
+					"SELECT COUNT(*) FROM " + clustered + ";").get(0));
+			minRemaining = Math.min(minRemaining, nrRemaining);
+		}
+		assertEquals(0, minRemaining);
+	}
+}
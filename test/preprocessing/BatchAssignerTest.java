@@ -0,0 +1,118 @@
+package preprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import catalog.PgCatalog;
+import config.BatchAssignment;
+import config.JoinConfig;
+import config.PreConfig;
+import connector.DatabaseFixture;
+import connector.TestDatabase;
+
+/**
+ * Tests assignment of tuples to batches via the
+ * different assignment strategies.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class BatchAssignerTest extends DatabaseFixture {
+	/**
+	 * Asserts that the current assignment strategy assigns
+	 * tuples of table r to valid batch IDs and that queries
+	 * produce correct results.
+	 *
+	 * @throws Exception
+	 */
+	static void assertValidBatches() throws Exception {
+		int nrBatches = 8;
+		String batchID = BatchAssigner.batchIDexpr("r", "r", nrBatches);
+		List<String> range = TestDatabase.rows("SELECT MIN(b), MAX(b), " +
+				"COUNT(DISTINCT b) FROM (SELECT " + batchID + " AS b " +
+				"FROM r) AS batches;");
+		String[] minMaxCount = range.get(0).split("\\|");
+		assertTrue(Integer.parseInt(minMaxCount[0]) >= 0);
+		assertTrue(Integer.parseInt(minMaxCount[1]) < nrBatches);
+		assertTrue(Integer.parseInt(minMaxCount[2]) > 1);
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void assignsByIdModulo() throws Exception {
+		PreConfig.batchAssignment = BatchAssignment.ID_MODULO;
+		assertValidBatches();
+	}
+
+	@Test
+	public void assignsByPage() throws Exception {
+		PreConfig.batchAssignment = BatchAssignment.CTID_PAGE;
+		assertValidBatches();
+	}
+
+	@Test
+	public void assignsByKeyHash() throws Exception {
+		PreConfig.batchAssignment = BatchAssignment.KEY_HASH;
+		assertValidBatches();
+	}
+
+	@Test
+	public void assignsByRowNumber() throws Exception {
+		PreConfig.batchAssignment = BatchAssignment.ROW_NUMBER;
+		assertValidBatches();
+	}
+
+	@Test
+	public void assignsRandomly() throws Exception {
+		PreConfig.batchAssignment = BatchAssignment.RANDOM;
+		assertValidBatches();
+	}
+
+	@Test
+	public void readsPagesFromCatalog() throws Exception {
+		int maxPage = Integer.parseInt(TestDatabase.rows(
+				"SELECT MAX((ctid::text::point)[0]::int) FROM r;").get(0));
+		assertTrue(PgCatalog.nrPages("r") > maxPage);
+	}
+
+	@Test
+	public void findsKeyOfMixedCaseTable() throws Exception {
+		TestDatabase.update("DROP TABLE IF EXISTS MixedKeys;",
+				"CREATE TABLE MixedKeys (a int, b int, c int, " +
+				"PRIMARY KEY (b, a));");
+		assertEquals(Arrays.asList("b", "a"),
+				PgCatalog.primaryKey("MixedKeys"));
+		assertTrue(PgCatalog.primaryKey("s").isEmpty());
+	}
+
+	@Test
+	public void adaptsBatchesToCardinality() throws Exception {
+		assertEquals(8, BatchAssigner.nrBatches("t"));
+		JoinConfig.adaptiveBatches = true;
+		assertEquals(4, BatchAssigner.nrBatches("r"));
+		assertEquals(3, BatchAssigner.nrBatches("s"));
+		assertEquals(2, BatchAssigner.nrBatches("t"));
+		// Configured number of batches is an upper bound
+		JoinConfig.targetBatchSize = 10;
+		assertEquals(8, BatchAssigner.nrBatches("t"));
+		JoinConfig.targetBatchSize = 1000;
+		assertEquals(1, BatchAssigner.nrBatches("r"));
+	}
+
+	@Test
+	public void joinsWithAdaptiveBatches() throws Exception {
+		JoinConfig.adaptiveBatches = true;
+		JoinConfig.targetBatchSize = 60;
+		for (BatchAssignment assignment : BatchAssignment.values()) {
+			PreConfig.batchAssignment = assignment;
+			assertSameResult(CHAIN_QUERY);
+			assertSameResult(FILTERED_QUERY);
+		}
+	}
+}
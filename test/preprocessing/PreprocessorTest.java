@@ -0,0 +1,30 @@
+package preprocessing;
+
+import org.junit.Test;
+
+import config.PreConfig;
+import connector.DatabaseFixture;
+
+/**
+ * Tests pre-processing executed sequentially or by
+ * multiple threads, each one using its own session.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class PreprocessorTest extends DatabaseFixture {
+
+	@Test
+	public void preprocessesSequentially() throws Exception {
+		PreConfig.nrPreThreads = 1;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+
+	@Test
+	public void preprocessesInParallel() throws Exception {
+		PreConfig.nrPreThreads = 4;
+		assertSameResult(CHAIN_QUERY);
+		assertSameResult(FILTERED_QUERY);
+	}
+}
@@ -0,0 +1,87 @@
+package query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import connector.FakeCatalog;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+
+/**
+ * Tests extraction of query properties from SQL queries.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class QueryInfoTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		Map<String, String[]> tableToColumns = new HashMap<String, String[]>();
+		tableToColumns.put("r", new String[] {"a"});
+		tableToColumns.put("s", new String[] {"b"});
+		FakeCatalog.install(tableToColumns);
+	}
+	/**
+	 * Parses and analyzes the given query.
+	 *
+	 * @param sql	SQL query string
+	 * @return		query information
+	 * @throws Exception
+	 */
+	static QueryInfo query(String sql) throws Exception {
+		Select select = (Select)CCJSqlParserUtil.parse(sql);
+		return new QueryInfo((PlainSelect)select.getSelectBody());
+	}
+	/**
+	 * Returns number of required result rows for a join
+	 * query with the given suffix.
+	 *
+	 * @param suffix	clauses appended to join query
+	 * @return			required rows (-1 if all are required)
+	 * @throws Exception
+	 */
+	static long limit(String suffix) throws Exception {
+		return query("SELECT r.a FROM r, s WHERE r.a = s.b " + suffix).limit;
+	}
+
+	@Test
+	public void treatLimitWithoutLimit() throws Exception {
+		assertEquals(-1, limit(""));
+		assertEquals(-1, limit("LIMIT ALL"));
+	}
+
+	@Test
+	public void treatLimitWithLimit() throws Exception {
+		assertEquals(10, limit("LIMIT 10"));
+		assertEquals(0, limit("LIMIT 0"));
+	}
+
+	@Test
+	public void treatLimitWithOffset() throws Exception {
+		assertEquals(15, limit("LIMIT 10 OFFSET 5"));
+		assertEquals(-1, limit("OFFSET 5"));
+	}
+
+	@Test
+	public void treatLimitWithParameters() throws Exception {
+		assertEquals(-1, limit("LIMIT ?"));
+		assertEquals(-1, limit("LIMIT 10 OFFSET ?"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTooManyTables() throws Exception {
+		StringBuilder sqlBuilder = new StringBuilder("SELECT r0.a FROM r AS r0");
+		for (int aliasCtr=1; aliasCtr<=QueryInfo.MAX_JOINED; ++aliasCtr) {
+			sqlBuilder.append(", r AS r");
+			sqlBuilder.append(aliasCtr);
+		}
+		query(sqlBuilder.toString());
+	}
+}
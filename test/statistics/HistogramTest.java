@@ -0,0 +1,53 @@
+package statistics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests latency histograms with exponentially growing buckets.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class HistogramTest {
+
+	@Test
+	public void assignsPowerOfTwoBuckets() throws Exception {
+		Histogram histogram = new Histogram("test_buckets", "");
+		for (long micros : new long[] {0, 1, 2, 3, 4, 5, 8, 9}) {
+			histogram.record(micros);
+		}
+		assertEquals(2, histogram.bucketCount(0));
+		assertEquals(1, histogram.bucketCount(1));
+		assertEquals(2, histogram.bucketCount(2));
+		assertEquals(2, histogram.bucketCount(3));
+		assertEquals(1, histogram.bucketCount(4));
+		assertEquals(8, histogram.count());
+		assertEquals(32, histogram.sum());
+		assertEquals(9, histogram.max());
+	}
+
+	@Test
+	public void countsLargeAndNegativeMeasurements() throws Exception {
+		Histogram histogram = new Histogram("test_extremes", "");
+		histogram.record(-5);
+		histogram.record(1L << 40);
+		assertEquals(1, histogram.bucketCount(0));
+		assertEquals(1, histogram.bucketCount(Histogram.NR_BOUNDED));
+		assertEquals(1L << 40, histogram.sum());
+		assertEquals(1L << 40, histogram.percentile(100));
+	}
+
+	@Test
+	public void boundsPercentiles() throws Exception {
+		Histogram histogram = new Histogram("test_percentiles", "");
+		assertEquals(0, histogram.percentile(50));
+		for (long micros=1; micros<=100; ++micros) {
+			histogram.record(micros);
+		}
+		assertEquals(64, histogram.percentile(50));
+		assertEquals(100, histogram.percentile(99));
+		assertEquals(1, histogram.percentile(0));
+	}
+}
@@ -0,0 +1,128 @@
+package statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import config.LogConfig;
+import config.MetricsFormat;
+import connector.DatabaseFixture;
+
+/**
+ * Tests collection of metrics during query processing and
+ * their export in JSON and Prometheus format.
+ *
+ * @author immanueltrummer
+ *
+ */
+public class MetricsTest extends DatabaseFixture {
+	/**
+	 * Returns number of measurements recorded so far for
+	 * the given operation (without labels).
+	 *
+	 * @param name	name of operation
+	 * @return		number of measurements
+	 */
+	static long count(String name) {
+		return Metrics.histogram(name, "").count();
+	}
+	/**
+	 * Returns current value of the given counter.
+	 *
+	 * @param name	name of counter
+	 * @return		counter value (zero if not created yet)
+	 */
+	static long counter(String name) {
+		return Metrics.counters.containsKey(name) ?
+				Metrics.counters.get(name).sum() : 0;
+	}
+
+	@Test
+	public void exportsHistogramsWithLabels() throws Exception {
+		Metrics.histogram("test_export_micros", "kind=\"a\"").record(3);
+		Metrics.histogram("test_export_micros", "kind=\"a\"").record(100);
+		String text = Metrics.toPrometheus();
+		assertTrue(text.contains("# TYPE test_export_micros histogram\n"));
+		assertTrue(text.contains("test_export_micros_bucket" +
+				"{kind=\"a\",le=\"4\"} 1\n"));
+		assertTrue(text.contains("test_export_micros_bucket" +
+				"{kind=\"a\",le=\"+Inf\"} 2\n"));
+		assertTrue(text.contains("test_export_micros_sum{kind=\"a\"} 103\n"));
+		assertTrue(text.contains("test_export_micros_count{kind=\"a\"} 2\n"));
+		String json = Metrics.toJson();
+		assertTrue(json.contains("{\"name\": \"test_export_micros\", " +
+				"\"labels\": \"kind=\\\"a\\\"\", \"count\": 2, " +
+				"\"sumMicros\": 103, \"maxMicros\": 100"));
+	}
+
+	@Test
+	public void recordsPhasesOfQueries() throws Exception {
+		long nrPre = count(Metrics.PRE_PROCESSING);
+		long nrJoin = count(Metrics.JOIN_PHASE);
+		long nrPost = count(Metrics.POST_PROCESSING);
+		long nrMaterialized = count(Metrics.MATERIALIZATION);
+		long nrSelected = count(Metrics.UCT_SELECTION);
+		long nrRounds = counter(Metrics.ROUNDS);
+		assertSameResult(CHAIN_QUERY);
+		assertEquals(nrPre + 1, count(Metrics.PRE_PROCESSING));
+		assertEquals(nrJoin + 1, count(Metrics.JOIN_PHASE));
+		assertEquals(nrPost + 1, count(Metrics.POST_PROCESSING));
+		assertTrue(count(Metrics.MATERIALIZATION) > nrMaterialized);
+		assertTrue(count(Metrics.UCT_SELECTION) > nrSelected);
+		assertTrue(counter(Metrics.ROUNDS) > nrRounds);
+	}
+
+	@Test
+	public void exportsMetricsToFile() throws Exception {
+		Path file = Files.createTempFile("skinnermetrics", ".json");
+		try {
+			LogConfig.metricsFile = file.toString();
+			LogConfig.metricsFormat = MetricsFormat.JSON;
+			assertSameResult(CHAIN_QUERY);
+			String json = new String(Files.readAllBytes(file),
+					StandardCharsets.UTF_8);
+			assertTrue(json.startsWith("{\"counters\": {"));
+			assertTrue(json.contains("\"" + Metrics.ROUNDS + "\": "));
+			assertTrue(json.contains("\"name\": \"" + Metrics.EPISODE + "\""));
+			LogConfig.metricsFormat = MetricsFormat.PROMETHEUS;
+			assertSameResult(CHAIN_QUERY);
+			String text = new String(Files.readAllBytes(file),
+					StandardCharsets.UTF_8);
+			assertTrue(text.contains("# TYPE " + Metrics.JOIN_PHASE +
+					" histogram\n"));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void servesMetricsViaHttp() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			LogConfig.metricsPort = socket.getLocalPort();
+		}
+		try {
+			assertSameResult(CHAIN_QUERY);
+			URL url = new URL("http://localhost:" +
+					LogConfig.metricsPort + "/metrics");
+			HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+			assertEquals(200, connection.getResponseCode());
+			String text;
+			try (InputStream body = connection.getInputStream()) {
+				text = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+			}
+			assertTrue(text.contains("# TYPE " + Metrics.ROUNDS + " counter\n"));
+			assertTrue(text.contains("# TYPE " + Metrics.EPISODE + " histogram\n"));
+		} finally {
+			Metrics.stopServer();
+		}
+	}
+}